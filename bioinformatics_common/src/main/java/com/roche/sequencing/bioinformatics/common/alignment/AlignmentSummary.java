@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.alignment;
+
+/**
+ *
+ * The score and counts of an alignment for callers that do not need the aligned sequences. Each count matches the value returned by the AlignmentPair method of the same name.
+ *
+ */
+public class AlignmentSummary {
+	private final double alignmentScore;
+	private final int numberOfMatches;
+	private final int numberOfMismatches;
+	private final int numberOfNonTerminalGaps;
+	private final int firstNonInsertQueryMatchInReference;
+
+	AlignmentSummary(double alignmentScore, int numberOfMatches, int numberOfMismatches, int numberOfNonTerminalGaps, int firstNonInsertQueryMatchInReference) {
+		super();
+		this.alignmentScore = alignmentScore;
+		this.numberOfMatches = numberOfMatches;
+		this.numberOfMismatches = numberOfMismatches;
+		this.numberOfNonTerminalGaps = numberOfNonTerminalGaps;
+		this.firstNonInsertQueryMatchInReference = firstNonInsertQueryMatchInReference;
+	}
+
+	public double getAlignmentScore() {
+		return alignmentScore;
+	}
+
+	public int getNumberOfMatches() {
+		return numberOfMatches;
+	}
+
+	public int getNumberOfMismatches() {
+		return numberOfMismatches;
+	}
+
+	public int getNumberOfNonTerminalGaps() {
+		return numberOfNonTerminalGaps;
+	}
+
+	/**
+	 * @return the number of gaps in the query before the first query code, the same value as AlignmentPair.getFirstNonInsertQueryMatchInReference()
+	 */
+	public int getFirstNonInsertQueryMatchInReference() {
+		return firstNonInsertQueryMatchInReference;
+	}
+
+}
@@ -0,0 +1,660 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.alignment;
+
+import com.roche.sequencing.bioinformatics.common.sequence.ICode;
+import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCode;
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
+
+/**
+ * Compute a global alignment of two sequences using the Needleman Wunsch algorithm.
+ *
+ * Produces the same alignments and scores as {@link NeedlemanWunschGlobalAlignment} (including how gaps are extended and how ties are broken) but keeps the matrix in flat primitive arrays which are
+ * reused by each thread, so filling the matrix does not allocate any objects. Optionally the alignment can be restricted to a band around the diagonal, in which case the result is only guaranteed to
+ * match the unbanded alignment if the optimal path stays within the band.
+ */
+public class FastNeedlemanWunschGlobalAlignment {
+
+	public final static int NO_BAND = -1;
+
+	private final static byte NO_SOURCE = 0;
+	private final static byte SOURCE_ABOVE_LEFT = 1;
+	private final static byte SOURCE_ABOVE = 2;
+	private final static byte SOURCE_LEFT = 3;
+
+	private final static int NO_INDEX_IN_GAP = -1;
+
+	private final static ThreadLocal<AlignmentWorkspace> WORKSPACE = new ThreadLocal<AlignmentWorkspace>() {
+		@Override
+		protected AlignmentWorkspace initialValue() {
+			return new AlignmentWorkspace();
+		}
+	};
+
+	private final IAlignmentScorer alignmentScorer;
+	private final ISequence referenceSequence;
+	private final ISequence querySequence;
+	private final int bandWidth;
+
+	private AlignmentPair alignment;
+	private double alignmentScore;
+	private AlignmentSummary alignmentSummary;
+
+	public FastNeedlemanWunschGlobalAlignment(ISequence referenceSequence, ISequence querySequence, IAlignmentScorer alignmentScorer) {
+		this(referenceSequence, querySequence, alignmentScorer, NO_BAND);
+	}
+
+	/**
+	 *
+	 * @param referenceSequence
+	 * @param querySequence
+	 * @param alignmentScorer
+	 * @param bandWidth
+	 *            the number of cells on either side of the diagonal (widened by the difference in sequence lengths) that are evaluated, NO_BAND to evaluate the complete matrix
+	 */
+	public FastNeedlemanWunschGlobalAlignment(ISequence referenceSequence, ISequence querySequence, IAlignmentScorer alignmentScorer, int bandWidth) {
+		if (bandWidth < 0 && bandWidth != NO_BAND) {
+			throw new IllegalArgumentException("The provided bandWidth[" + bandWidth + "] must be zero or greater.");
+		}
+		this.referenceSequence = referenceSequence;
+		this.querySequence = querySequence;
+		this.alignmentScorer = alignmentScorer;
+		this.bandWidth = bandWidth;
+	}
+
+	/**
+	 * Constructor that uses a default alignment scoring table
+	 *
+	 * @param referenceSequence
+	 * @param querySequence
+	 */
+	public FastNeedlemanWunschGlobalAlignment(ISequence referenceSequence, ISequence querySequence) {
+		this(referenceSequence, querySequence, new SimpleAlignmentScorer());
+	}
+
+	/**
+	 * return an alignment pair associated with the global alignment of the reference and query sequences provided.
+	 *
+	 * @return
+	 */
+	public AlignmentPair getAlignmentPair() {
+		if (alignment == null) {
+			AlignmentWorkspace workspace = WORKSPACE.get();
+			workspace.fillMatrix(referenceSequence, querySequence, alignmentScorer, bandWidth, false);
+			alignmentScore = workspace.finalScore;
+			alignment = workspace.traceback();
+		}
+		return alignment;
+	}
+
+	/**
+	 * Calculates the score and the match, mismatch and gap counts of the alignment without a traceback. Only the current and previous row of the matrix are kept so this needs memory proportional to
+	 * the length of the reference rather than the size of the matrix.
+	 *
+	 * @return a summary of the alignment that getAlignmentPair() would return
+	 */
+	public AlignmentSummary getAlignmentSummary() {
+		if (alignmentSummary == null) {
+			AlignmentWorkspace workspace = WORKSPACE.get();
+			workspace.fillMatrix(referenceSequence, querySequence, alignmentScorer, bandWidth, true);
+			alignmentSummary = workspace.getSummary();
+		}
+		return alignmentSummary;
+	}
+
+	/**
+	 * @return the average score per location. This is guaranteed to be between the largest penalty and largest reward provided by the IAlignmentScorer
+	 */
+	public double getLengthNormalizedAlignmentScore() {
+		ISequence referenceAlignment = getAlignmentPair().getReferenceAlignment();
+		int alignmentLength = referenceAlignment.size();
+
+		double lengthNormalizedAlignmentScore = getAlignmentScore() / ((double) alignmentLength);
+
+		return lengthNormalizedAlignmentScore;
+	}
+
+	/**
+	 * @return the alignment score associated with this alignment
+	 */
+	public double getAlignmentScore() {
+		getAlignmentPair();
+		return alignmentScore;
+	}
+
+	/**
+	 * @return the reference sequence used to calculate this alignment
+	 */
+	public ISequence getReferenceSequence() {
+		return referenceSequence;
+	}
+
+	/**
+	 * @return the query sequence used to calculate this alignment
+	 */
+	public ISequence getQuerySequence() {
+		return querySequence;
+	}
+
+	/**
+	 * @return a string representation of this alignment
+	 */
+	public String getAlignmentAsString() {
+		return getAlignmentPair().getAlignmentAsString();
+	}
+
+	/**
+	 * @return the cigar string associated with this alignment
+	 */
+	public CigarString getCigarString() {
+		return getAlignmentPair().getCigarString();
+	}
+
+	/**
+	 * @return the cigar string associated with an alignment on the reverse of the reference and query sequences
+	 */
+	public CigarString getReverseCigarString() {
+		return getAlignmentPair().getReverseCigarString();
+	}
+
+	/**
+	 * @return mismatch details string
+	 */
+	public String getMismatchDetailsString() {
+		return getAlignmentPair().getMismatchDetailsString();
+	}
+
+	/**
+	 * @return the reverse of the mismatch details string
+	 */
+	public String getReverseMismatchDetailsString() {
+		return getAlignmentPair().getReverseMismatchDetailsString();
+	}
+
+	/**
+	 * @return the edit distance (number of mutations or inserts when converting from the query sequence to the reference sequence).
+	 */
+	public int getEditDistance() {
+		return getCigarString().getEditDistance();
+	}
+
+	/**
+	 * @return the mismatch details associated with this alignment
+	 */
+	public String getMismatchDetails() {
+		return CigarStringUtil.getMismatchDetailsString(getAlignmentPair());
+	}
+
+	public int getNumberOfNucleotidesOutsideOfReference() {
+		int numberOfNucleotidesOutsideOfReference = 0;
+		int i = 0;
+		ISequence referenceAlignment = getAlignmentPair().getReferenceAlignment();
+		while (i < referenceAlignment.size() && referenceAlignment.getCodeAt(i).equals(IupacNucleotideCode.GAP)) {
+			i++;
+		}
+		numberOfNucleotidesOutsideOfReference += i;
+		i = referenceAlignment.size() - 1;
+		while (i >= 0 && referenceAlignment.getCodeAt(i).equals(IupacNucleotideCode.GAP)) {
+			i--;
+		}
+		numberOfNucleotidesOutsideOfReference += (referenceAlignment.size() - i - 1);
+		return numberOfNucleotidesOutsideOfReference;
+	}
+
+	/**
+	 * @return the reference index of the first sequence match in this alignment, -1 if no sequence matches exist
+	 */
+	public int getIndexOfFirstMatchInReference() {
+		ISequence queryAlignment = getAlignmentPair().getQueryAlignment();
+		boolean matchFound = false;
+		int index = 0;
+		while (index < queryAlignment.size() && !matchFound) {
+			ICode currentCode = queryAlignment.getCodeAt(index);
+			if (!currentCode.matches(IupacNucleotideCode.GAP)) {
+				matchFound = true;
+			} else {
+				index++;
+			}
+		}
+		if (!matchFound) {
+			index = -1;
+		}
+		return index;
+	}
+
+	public double getRatioOfQueryMatchesToQueryLength() {
+		String unsummarizedCigarString = getCigarString().getCigarString(false, true);
+		double matches = StringUtil.countMatches(unsummarizedCigarString, "" + CigarStringUtil.CIGAR_SEQUENCE_MATCH);
+		double queryLength = querySequence.size();
+		double queryMatchesToQueryLength = matches / queryLength;
+		return queryMatchesToQueryLength;
+	}
+
+	public int getNumberOfMismatches() {
+		return getAlignmentPair().getNumberOfMismatches();
+	}
+
+	public int getNumberOfMatches() {
+		return getAlignmentPair().getNumberOfMatches();
+	}
+
+	/**
+	 * The matrix and lookup tables for one thread, grown as needed and reused for every alignment calculated by the thread.
+	 *
+	 * Rows are query positions and columns are reference positions. Only the source of each cell is kept for the whole matrix, the scores and the index within a vertical gap are only needed for the
+	 * previous row. When summarizing the sources are not kept at all, instead each cell carries the counts for the path that leads to it.
+	 */
+	private static class AlignmentWorkspace {
+
+		// the counts kept for the path leading to each cell when summarizing, a vertical step is a gap in the reference and a horizontal step is a gap in the query
+		private final static int MATCHES = 0;
+		private final static int MISMATCHES = 1;
+		private final static int NON_TERMINAL_GAPS = 2;
+		// gaps which are not counted yet because they are at the end of the path so far, they could still turn out to be terminal gaps
+		private final static int TRAILING_QUERY_GAPS = 3;
+		private final static int TRAILING_REFERENCE_GAPS = 4;
+		private final static int LEADING_QUERY_GAPS = 5;
+		private final static int PATH_PHASE = 6;
+		private final static int SUMMARY_STRIDE = 8;
+
+		// a path starts with leading reference gaps followed by leading query gaps, neither of which are non-terminal gaps
+		private final static int PHASE_LEADING_REFERENCE_GAPS = 0;
+		private final static int PHASE_LEADING_QUERY_GAPS = 1;
+		private final static int PHASE_BODY = 2;
+
+		private byte[] sources = new byte[0];
+		private int[] previousRowSummaries = new int[0];
+		private int[] currentRowSummaries = new int[0];
+		private boolean[] codeMatches = new boolean[0];
+		private double[] previousRowScores = new double[0];
+		private double[] currentRowScores = new double[0];
+		private int[] indexesInVerticalGap = new int[0];
+		// the score for adding a cell to a gap indexed by the index in the gap of the previous cell plus one, so the first entry is the score for opening a gap
+		private double[] gapStepScores = new double[0];
+
+		// each distinct code is given an id so the match scores can be looked up in a table instead of asking the scorer for every cell
+		private ICode[] distinctCodes = new ICode[0];
+		private int numberOfDistinctCodes;
+		private double[] matchScores = new double[0];
+		private ICode[] referenceCodes = new ICode[0];
+		private ICode[] queryCodes = new ICode[0];
+		private int[] referenceCodeIds = new int[0];
+		private int[] queryCodeIds = new int[0];
+
+		private int numberOfRows;
+		private int numberOfColumns;
+		private double finalScore;
+
+		private final StringBuilder referenceAlignment = new StringBuilder();
+		private final StringBuilder queryAlignment = new StringBuilder();
+
+		/**
+		 * @param summarize
+		 *            keep the counts for the path to each cell instead of the source of each cell, in which case getSummary() can be called afterwards but traceback() cannot
+		 */
+		void fillMatrix(ISequence referenceSequence, ISequence querySequence, IAlignmentScorer alignmentScorer, int bandWidth, boolean summarize) {
+			int referenceLength = referenceSequence.size();
+			int queryLength = querySequence.size();
+			numberOfRows = queryLength + 1;
+			numberOfColumns = referenceLength + 1;
+			ensureCapacity(referenceLength, queryLength, summarize);
+			loadCodes(referenceSequence, querySequence, alignmentScorer, summarize);
+			boolean keepSources = !summarize;
+
+			double gapScoreAtStartOfGap = alignmentScorer.getGapScore(0);
+			gapStepScores[0] = alignmentScorer.getGapStartScore() + gapScoreAtStartOfGap;
+			// gaps are at most as long as the longest sequence
+			int gapStepScoresLength = Math.max(referenceLength, queryLength) + 1;
+			for (int i = 1; i < gapStepScoresLength; i++) {
+				gapStepScores[i] = alignmentScorer.getGapScore(i);
+			}
+			boolean shouldPenalizeStartingTerminalGaps = alignmentScorer.shouldPenalizeStartingTerminalGaps();
+			boolean shouldPenalizeEndingTerminalGaps = alignmentScorer.shouldPenalizeEndingTerminalGaps();
+
+			// cells with column - row outside of [lowestDiagonal, highestDiagonal] are outside of the band
+			int lowestDiagonal = -numberOfRows;
+			int highestDiagonal = numberOfColumns;
+			if (bandWidth != NO_BAND) {
+				lowestDiagonal = Math.min(0, referenceLength - queryLength) - bandWidth;
+				highestDiagonal = Math.max(0, referenceLength - queryLength) + bandWidth;
+			}
+
+			// the first row
+			for (int columnIndex = 0; columnIndex < numberOfColumns; columnIndex++) {
+				if (columnIndex <= highestDiagonal) {
+					double score = 0;
+					if (columnIndex != 0 && shouldPenalizeStartingTerminalGaps) {
+						score = alignmentScorer.getGapStartScore() + ((columnIndex - 1) * (gapScoreAtStartOfGap - 1));
+					}
+					previousRowScores[columnIndex] = score;
+					if (keepSources) {
+						sources[columnIndex] = (columnIndex == 0) ? NO_SOURCE : SOURCE_LEFT;
+					}
+				} else {
+					previousRowScores[columnIndex] = Double.NEGATIVE_INFINITY;
+					if (keepSources) {
+						sources[columnIndex] = NO_SOURCE;
+					}
+				}
+				indexesInVerticalGap[columnIndex] = NO_INDEX_IN_GAP;
+				if (summarize) {
+					startSummary(previousRowSummaries, columnIndex, columnIndex, (columnIndex == 0) ? PHASE_LEADING_REFERENCE_GAPS : PHASE_LEADING_QUERY_GAPS);
+				}
+			}
+
+			// local copies so the arrays do not need to be reloaded from the fields for every cell
+			byte[] sources = this.sources;
+			int[] indexesInVerticalGap = this.indexesInVerticalGap;
+			double[] gapStepScores = this.gapStepScores;
+			double[] matchScores = this.matchScores;
+			int[] referenceCodeIds = this.referenceCodeIds;
+			boolean[] codeMatches = this.codeMatches;
+			double[] scoresAbove = previousRowScores;
+			double[] scores = currentRowScores;
+			int[] summariesAbove = previousRowSummaries;
+			int[] summaries = currentRowSummaries;
+			for (int rowIndex = 1; rowIndex < numberOfRows; rowIndex++) {
+				int rowOffset = rowIndex * numberOfColumns;
+				int firstColumn = Math.max(1, rowIndex + lowestDiagonal);
+				int lastColumn = Math.min(referenceLength, rowIndex + highestDiagonal);
+
+				// the first column
+				if (rowIndex + lowestDiagonal <= 0) {
+					double score = 0;
+					if (shouldPenalizeStartingTerminalGaps) {
+						score = alignmentScorer.getGapStartScore() + ((rowIndex - 1) * (gapScoreAtStartOfGap - 1));
+					}
+					scores[0] = score;
+					if (keepSources) {
+						sources[rowOffset] = SOURCE_ABOVE;
+					}
+				} else {
+					scores[0] = Double.NEGATIVE_INFINITY;
+					if (keepSources) {
+						sources[rowOffset] = NO_SOURCE;
+					}
+				}
+				if (summarize) {
+					startSummary(summaries, 0, 0, PHASE_LEADING_REFERENCE_GAPS);
+				}
+				if (firstColumn > 1) {
+					scores[firstColumn - 1] = Double.NEGATIVE_INFINITY;
+					if (keepSources) {
+						sources[rowOffset + firstColumn - 1] = NO_SOURCE;
+					}
+				}
+
+				boolean isBottomOfColumn = (rowIndex == queryLength);
+				boolean penalizeHorizontalGaps = !isBottomOfColumn || shouldPenalizeEndingTerminalGaps;
+				int queryMatchScoreOffset = queryCodeIds[rowIndex - 1] * numberOfDistinctCodes;
+				// a cell only has an index in a horizontal (vertical) gap if its source is the cell to the left (above), in which case a gap through the cell is extended rather than opened
+				int indexInHorizontalGap = NO_INDEX_IN_GAP;
+
+				for (int columnIndex = firstColumn; columnIndex <= lastColumn; columnIndex++) {
+					boolean isEndOfRow = (columnIndex == referenceLength);
+
+					double verticalScore = scoresAbove[columnIndex];
+					if (!isEndOfRow || shouldPenalizeEndingTerminalGaps) {
+						verticalScore += gapStepScores[indexesInVerticalGap[columnIndex] + 1];
+					}
+
+					double horizontalScore = scores[columnIndex - 1];
+					if (penalizeHorizontalGaps) {
+						horizontalScore += gapStepScores[indexInHorizontalGap + 1];
+					}
+
+					double matchOrMismatchScore = scoresAbove[columnIndex - 1] + matchScores[queryMatchScoreOffset + referenceCodeIds[columnIndex - 1]];
+
+					// ties are broken in favor of the horizontal, then the vertical and then the diagonal source
+					byte source;
+					if (horizontalScore >= verticalScore && horizontalScore >= matchOrMismatchScore) {
+						source = SOURCE_LEFT;
+						scores[columnIndex] = horizontalScore;
+						indexInHorizontalGap++;
+						indexesInVerticalGap[columnIndex] = NO_INDEX_IN_GAP;
+					} else if (verticalScore >= matchOrMismatchScore) {
+						source = SOURCE_ABOVE;
+						scores[columnIndex] = verticalScore;
+						indexesInVerticalGap[columnIndex]++;
+						indexInHorizontalGap = NO_INDEX_IN_GAP;
+					} else {
+						source = SOURCE_ABOVE_LEFT;
+						scores[columnIndex] = matchOrMismatchScore;
+						indexesInVerticalGap[columnIndex] = NO_INDEX_IN_GAP;
+						indexInHorizontalGap = NO_INDEX_IN_GAP;
+					}
+
+					if (keepSources) {
+						sources[rowOffset + columnIndex] = source;
+					} else if (source == SOURCE_LEFT) {
+						addQueryGapToSummary(summaries, columnIndex - 1, summaries, columnIndex);
+					} else if (source == SOURCE_ABOVE) {
+						addReferenceGapToSummary(summariesAbove, columnIndex, summaries, columnIndex);
+					} else {
+						addMatchOrMismatchToSummary(summariesAbove, columnIndex - 1, summaries, columnIndex, codeMatches[queryMatchScoreOffset + referenceCodeIds[columnIndex - 1]]);
+					}
+				}
+
+				if (lastColumn < referenceLength) {
+					scores[lastColumn + 1] = Double.NEGATIVE_INFINITY;
+					if (keepSources) {
+						sources[rowOffset + lastColumn + 1] = NO_SOURCE;
+					}
+					indexesInVerticalGap[lastColumn + 1] = NO_INDEX_IN_GAP;
+				}
+				if (firstColumn > 1) {
+					indexesInVerticalGap[firstColumn - 1] = NO_INDEX_IN_GAP;
+				}
+
+				double[] swap = scoresAbove;
+				scoresAbove = scores;
+				scores = swap;
+				int[] summarySwap = summariesAbove;
+				summariesAbove = summaries;
+				summaries = summarySwap;
+			}
+			previousRowScores = scoresAbove;
+			currentRowScores = scores;
+			previousRowSummaries = summariesAbove;
+			currentRowSummaries = summaries;
+
+			finalScore = scoresAbove[referenceLength];
+		}
+
+		private static void startSummary(int[] summaries, int column, int leadingQueryGaps, int pathPhase) {
+			int offset = column * SUMMARY_STRIDE;
+			summaries[offset + MATCHES] = 0;
+			summaries[offset + MISMATCHES] = 0;
+			summaries[offset + NON_TERMINAL_GAPS] = 0;
+			summaries[offset + TRAILING_QUERY_GAPS] = 0;
+			summaries[offset + TRAILING_REFERENCE_GAPS] = 0;
+			summaries[offset + LEADING_QUERY_GAPS] = leadingQueryGaps;
+			summaries[offset + PATH_PHASE] = pathPhase;
+		}
+
+		private static int copySummary(int[] fromSummaries, int fromColumn, int[] toSummaries, int toColumn) {
+			int toOffset = toColumn * SUMMARY_STRIDE;
+			System.arraycopy(fromSummaries, fromColumn * SUMMARY_STRIDE, toSummaries, toOffset, SUMMARY_STRIDE);
+			return toOffset;
+		}
+
+		private static void addMatchOrMismatchToSummary(int[] fromSummaries, int fromColumn, int[] toSummaries, int toColumn, boolean isMatch) {
+			int offset = copySummary(fromSummaries, fromColumn, toSummaries, toColumn);
+			if (isMatch) {
+				toSummaries[offset + MATCHES]++;
+			} else {
+				toSummaries[offset + MISMATCHES]++;
+			}
+			// any gaps before a match or mismatch are non-terminal unless they are leading gaps
+			toSummaries[offset + NON_TERMINAL_GAPS] += toSummaries[offset + TRAILING_QUERY_GAPS] + toSummaries[offset + TRAILING_REFERENCE_GAPS];
+			toSummaries[offset + TRAILING_QUERY_GAPS] = 0;
+			toSummaries[offset + TRAILING_REFERENCE_GAPS] = 0;
+			toSummaries[offset + PATH_PHASE] = PHASE_BODY;
+		}
+
+		private static void addReferenceGapToSummary(int[] fromSummaries, int fromColumn, int[] toSummaries, int toColumn) {
+			int offset = copySummary(fromSummaries, fromColumn, toSummaries, toColumn);
+			int pathPhase = toSummaries[offset + PATH_PHASE];
+			if (pathPhase == PHASE_LEADING_QUERY_GAPS) {
+				toSummaries[offset + PATH_PHASE] = PHASE_BODY;
+				toSummaries[offset + TRAILING_REFERENCE_GAPS] = 1;
+			} else if (pathPhase == PHASE_BODY) {
+				toSummaries[offset + TRAILING_REFERENCE_GAPS]++;
+			}
+		}
+
+		private static void addQueryGapToSummary(int[] fromSummaries, int fromColumn, int[] toSummaries, int toColumn) {
+			int offset = copySummary(fromSummaries, fromColumn, toSummaries, toColumn);
+			if (toSummaries[offset + PATH_PHASE] != PHASE_BODY) {
+				toSummaries[offset + PATH_PHASE] = PHASE_LEADING_QUERY_GAPS;
+			} else if (toSummaries[offset + TRAILING_REFERENCE_GAPS] > 0) {
+				// terminal gaps can only be query gaps followed by reference gaps, so the trailing gaps are now non-terminal
+				toSummaries[offset + NON_TERMINAL_GAPS] += toSummaries[offset + TRAILING_QUERY_GAPS] + toSummaries[offset + TRAILING_REFERENCE_GAPS];
+				toSummaries[offset + TRAILING_QUERY_GAPS] = 1;
+				toSummaries[offset + TRAILING_REFERENCE_GAPS] = 0;
+			} else {
+				toSummaries[offset + TRAILING_QUERY_GAPS]++;
+			}
+		}
+
+		AlignmentSummary getSummary() {
+			int offset = (numberOfColumns - 1) * SUMMARY_STRIDE;
+			return new AlignmentSummary(finalScore, previousRowSummaries[offset + MATCHES], previousRowSummaries[offset + MISMATCHES], previousRowSummaries[offset + NON_TERMINAL_GAPS],
+					previousRowSummaries[offset + LEADING_QUERY_GAPS]);
+		}
+
+		private void ensureCapacity(int referenceLength, int queryLength, boolean summarize) {
+			if (summarize) {
+				if (previousRowSummaries.length < numberOfColumns * SUMMARY_STRIDE) {
+					previousRowSummaries = new int[numberOfColumns * SUMMARY_STRIDE];
+					currentRowSummaries = new int[numberOfColumns * SUMMARY_STRIDE];
+				}
+			} else {
+				int numberOfCells = numberOfRows * numberOfColumns;
+				if (sources.length < numberOfCells) {
+					sources = new byte[numberOfCells];
+				}
+			}
+			if (previousRowScores.length < numberOfColumns) {
+				previousRowScores = new double[numberOfColumns];
+				currentRowScores = new double[numberOfColumns];
+				indexesInVerticalGap = new int[numberOfColumns];
+				referenceCodes = new ICode[referenceLength];
+				referenceCodeIds = new int[referenceLength];
+			}
+			if (queryCodes.length < queryLength) {
+				queryCodes = new ICode[queryLength];
+				queryCodeIds = new int[queryLength];
+			}
+			int gapStepScoresLength = Math.max(referenceLength, queryLength) + 1;
+			if (gapStepScores.length < gapStepScoresLength) {
+				gapStepScores = new double[gapStepScoresLength];
+			}
+		}
+
+		private void loadCodes(ISequence referenceSequence, ISequence querySequence, IAlignmentScorer alignmentScorer, boolean summarize) {
+			numberOfDistinctCodes = 0;
+			for (int i = 0; i < numberOfColumns - 1; i++) {
+				ICode code = referenceSequence.getCodeAt(i);
+				referenceCodes[i] = code;
+				referenceCodeIds[i] = getCodeId(code);
+			}
+			for (int i = 0; i < numberOfRows - 1; i++) {
+				ICode code = querySequence.getCodeAt(i);
+				queryCodes[i] = code;
+				queryCodeIds[i] = getCodeId(code);
+			}
+
+			int matchScoresLength = numberOfDistinctCodes * numberOfDistinctCodes;
+			if (matchScores.length < matchScoresLength) {
+				matchScores = new double[matchScoresLength];
+			}
+			for (int queryCodeId = 0; queryCodeId < numberOfDistinctCodes; queryCodeId++) {
+				for (int referenceCodeId = 0; referenceCodeId < numberOfDistinctCodes; referenceCodeId++) {
+					matchScores[(queryCodeId * numberOfDistinctCodes) + referenceCodeId] = alignmentScorer.getMatchScore(distinctCodes[queryCodeId], distinctCodes[referenceCodeId]);
+				}
+			}
+
+			if (summarize) {
+				if (codeMatches.length < matchScoresLength) {
+					codeMatches = new boolean[matchScoresLength];
+				}
+				// matches and mismatches are counted the same way as AlignmentPair counts them, which does not depend on the scorer
+				for (int queryCodeId = 0; queryCodeId < numberOfDistinctCodes; queryCodeId++) {
+					IupacNucleotideCode queryCode = IupacNucleotideCode.getCodeFromNucleotide(distinctCodes[queryCodeId]);
+					for (int referenceCodeId = 0; referenceCodeId < numberOfDistinctCodes; referenceCodeId++) {
+						IupacNucleotideCode referenceCode = IupacNucleotideCode.getCodeFromNucleotide(distinctCodes[referenceCodeId]);
+						codeMatches[(queryCodeId * numberOfDistinctCodes) + referenceCodeId] = referenceCode != null && queryCode != null && referenceCode.matches(queryCode);
+					}
+				}
+			}
+		}
+
+		private int getCodeId(ICode code) {
+			int codeId = 0;
+			while (codeId < numberOfDistinctCodes && distinctCodes[codeId] != code) {
+				codeId++;
+			}
+			if (codeId == numberOfDistinctCodes) {
+				if (numberOfDistinctCodes == distinctCodes.length) {
+					ICode[] newDistinctCodes = new ICode[Math.max(8, numberOfDistinctCodes * 2)];
+					System.arraycopy(distinctCodes, 0, newDistinctCodes, 0, numberOfDistinctCodes);
+					distinctCodes = newDistinctCodes;
+				}
+				distinctCodes[numberOfDistinctCodes] = code;
+				numberOfDistinctCodes++;
+			}
+			return codeId;
+		}
+
+		AlignmentPair traceback() {
+			referenceAlignment.setLength(0);
+			queryAlignment.setLength(0);
+
+			int rowIndex = numberOfRows - 1;
+			int columnIndex = numberOfColumns - 1;
+			byte source = sources[(rowIndex * numberOfColumns) + columnIndex];
+			while (source != NO_SOURCE) {
+				if (source == SOURCE_LEFT) {
+					appendCode(queryAlignment, IupacNucleotideCode.GAP);
+				} else {
+					rowIndex--;
+					appendCode(queryAlignment, IupacNucleotideCode.getCodeFromNucleotide(queryCodes[rowIndex]));
+				}
+
+				if (source == SOURCE_ABOVE) {
+					appendCode(referenceAlignment, IupacNucleotideCode.GAP);
+				} else {
+					columnIndex--;
+					appendCode(referenceAlignment, IupacNucleotideCode.getCodeFromNucleotide(referenceCodes[columnIndex]));
+				}
+
+				source = sources[(rowIndex * numberOfColumns) + columnIndex];
+			}
+
+			return new AlignmentPair(new IupacNucleotideCodeSequence(referenceAlignment.reverse().toString()), new IupacNucleotideCodeSequence(queryAlignment.reverse().toString()));
+		}
+
+		private static void appendCode(StringBuilder alignment, IupacNucleotideCode code) {
+			// codes without an IUPAC equivalent are left out the same way IupacNucleotideCodeSequence.append(ICode) leaves them out
+			if (code != null) {
+				alignment.append(code.toString());
+			}
+		}
+	}
+}
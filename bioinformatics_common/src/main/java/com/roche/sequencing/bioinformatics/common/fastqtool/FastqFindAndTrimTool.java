@@ -9,8 +9,10 @@ import java.io.Writer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -18,12 +20,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Hex;
 
 import com.google.common.io.Files;
 import com.roche.sequencing.bioinformatics.common.alignment.AlignmentPair;
-import com.roche.sequencing.bioinformatics.common.alignment.NeedlemanWunschGlobalAlignment;
+import com.roche.sequencing.bioinformatics.common.alignment.FastNeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.fastqtool.settings.FastqToolFindSettings;
 import com.roche.sequencing.bioinformatics.common.fastqtool.settings.FastqToolOutputSettings;
 import com.roche.sequencing.bioinformatics.common.fastqtool.settings.FastqToolSettings;
@@ -31,8 +36,9 @@ import com.roche.sequencing.bioinformatics.common.fastqtool.settings.FastqToolTr
 import com.roche.sequencing.bioinformatics.common.fastqtool.settings.FoundTextActionEnum;
 import com.roche.sequencing.bioinformatics.common.fastqtool.settings.MultipleMatchesActionEnum;
 import com.roche.sequencing.bioinformatics.common.fastqtool.settings.NoMatchesActionEnum;
-import com.roche.sequencing.bioinformatics.common.mapping.SimpleMapper;
+import com.roche.sequencing.bioinformatics.common.mapping.KmerMapper;
 import com.roche.sequencing.bioinformatics.common.mapping.TallyMap;
+import com.roche.sequencing.bioinformatics.common.multithreading.BoundedQueueThreadPoolExecutor;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
 import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
 import com.roche.sequencing.bioinformatics.common.utils.ArraysUtil;
@@ -46,6 +52,7 @@ import com.roche.sequencing.bioinformatics.common.utils.LineParserException;
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqReader;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqWriter;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.ParallelFastqReader;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ProbeFileUtil;
@@ -87,6 +94,8 @@ public class FastqFindAndTrimTool {
 
 	private final static int PHRED_OFFSET = 33;
 
+	private final static int RECORDS_PER_BATCH = 1000;
+
 	public final static String ORIENTATION_DELIMITER = ",";
 
 	private static class SequenceIdentifier {
@@ -228,7 +237,7 @@ public class FastqFindAndTrimTool {
 			}
 		}
 
-		SimpleMapper<SequenceIdentifier> sequenceMapper = new SimpleMapper<>(DEFAULT_COMPARISON_SEQUENCE_SIZE, DEFAULT_REFERENCE_SPACING, DEFAULT_QUERY_SPACING,
+		KmerMapper<SequenceIdentifier> sequenceMapper = new KmerMapper<>(DEFAULT_COMPARISON_SEQUENCE_SIZE, DEFAULT_REFERENCE_SPACING, DEFAULT_QUERY_SPACING,
 				DEFAULT_MAX_REFERENCES_STORED_PER_SEQUENCE);
 		for (Entry<SequenceIdentifier, ISequence> entry : sequencesToFindById.entrySet()) {
 			SequenceIdentifier id = entry.getKey();
@@ -739,7 +748,7 @@ public class FastqFindAndTrimTool {
 
 	}
 
-	private static void findAndTrim(FastqToolSettings settings, File fastqFile, SimpleMapper<SequenceIdentifier> sequenceMapper, Map<SequenceIdentifier, ISequence> sequencesById, File outputDirectory,
+	private static void findAndTrim(FastqToolSettings settings, File fastqFile, KmerMapper<SequenceIdentifier> sequenceMapper, Map<SequenceIdentifier, ISequence> sequencesById, File outputDirectory,
 			int leadingQualityThreshold, int trailingQualityThreshold, Map<File, OutputFiles> inputFileToOutputFilesMap, boolean canFileBePaired, boolean shouldDedup) throws IOException {
 
 		FastqToolOutputSettings outputSettings = settings.getOutputSettings();
@@ -889,126 +898,64 @@ public class FastqFindAndTrimTool {
 
 			String postTextAnnotationKey = trimSettings.getAddPostTextToFastQAnnotationWithFollowingKey();
 
-			FastqToolFindSettings findSettings = settings.getFindSettings();
-
-			TallyMap<SequenceIdentifier> sharedMatchesBySequenceToFindId = new TallyMap<>();
-			TallyMap<SequenceIdentifier> nonSharedMatchesBySequenceToFindId = new TallyMap<>();
-			TallyMap<SequenceIdentifier> matchesBySequenceToFindId = new TallyMap<>();
+			final FindAndTrimParameters parameters = new FindAndTrimParameters(sequenceMapper, sequencesById, settings.getFindSettings(), leadingQualityThreshold, trailingQualityThreshold,
+					keepPreText, keepFoundText, replaceFoundTextWithSearchSequence, keepPostText, preTextAnnotationKey, foundTextAnnotationKey, foundSequenceAnnotationKey,
+					foundSequencePrimaryIdAnnotationKey, foundSequenceSecondaryIdAnnotationKey, foundSequenceOrientationAnnotationKey, postTextAnnotationKey, outputFindLog != null,
+					outputFindAlignment != null, outputMultipleMatchesFastQ != null);
 
+			FindAndTrimCounts totalCounts = new FindAndTrimCounts();
 			int fastqEntryNumber = 0;
-			int assignedToSingleSequenceCount = 0;
-			int assignedToMultipleSequenceCount = 0;
-			int entriesSkippedBecauseContainedN = 0;
 
-			try (FastqReader reader = new FastqReader(fastqFile)) {
-				while (reader.hasNext()) {
-					FastqRecord record = reader.next();
-
-					ISequence recordSequence = new IupacNucleotideCodeSequence(record.getReadString());
-					String recordQuality = record.getBaseQualityString();
-
-					QualityTrimmedRead qualityTrimmedRead = trimReadBasedOnQuality(recordSequence, recordQuality, leadingQualityThreshold, trailingQualityThreshold);
-					recordSequence = qualityTrimmedRead.getTrimmedSequence();
-					recordQuality = qualityTrimmedRead.getTrimmedQuality();
-					boolean trimOccurred = qualityTrimmedRead.trimOccurred();
-					if (trimOccurred && outputFindLog != null) {
-						outputFindLog.write(record.getReadHeader() + StringUtil.NEWLINE);
-						outputFindLog.write("Leading_Bases_Trimmed:" + qualityTrimmedRead.getNumberOfLeadingBasesTrimmed() + " Trailing_Bases_Trimmed:"
-								+ qualityTrimmedRead.getNumberOfTrailingBasesTrimmed() + StringUtil.NEWLINE);
-					}
-
-					if (recordSequence.toString().toLowerCase().contains("n")) {
-						entriesSkippedBecauseContainedN++;
+			int numberOfThreads = Math.max(1, settings.getNumberOfThreads());
+			BoundedQueueThreadPoolExecutor executor = null;
+			if (numberOfThreads > 1) {
+				executor = new BoundedQueueThreadPoolExecutor(numberOfThreads, numberOfThreads, "FIND_AND_TRIM_");
+			}
+			try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile, numberOfThreads)) {
+				// the batches are found and trimmed in parallel but written in order, so only a few batches are found and trimmed ahead of the writing
+				Deque<Future<FindAndTrimBatch>> findingBatches = new ArrayDeque<Future<FindAndTrimBatch>>();
+				List<FastqRecord> records = reader.nextBatch(RECORDS_PER_BATCH);
+				while (!records.isEmpty()) {
+					final FindAndTrimBatch batch = new FindAndTrimBatch(records, fastqEntryNumber);
+					fastqEntryNumber += records.size();
+					if (executor == null) {
+						findAndTrimBatch(batch, parameters);
+						writeBatch(batch, outputSingleMatchFastq, outputMultipleMatchesFastQ, outputNoMatchFastq, outputFindLog, outputFindAlignment);
+						totalCounts.add(batch.counts);
 					} else {
-
-						List<MatchDetails> matches = new ArrayList<>();
-
-						List<SequenceIdentifier> candidateSequenceIds = sequenceMapper.getBestCandidateReferences(recordSequence);
-						for (SequenceIdentifier candidateSequenceId : candidateSequenceIds) {
-							ISequence sequenceToFind = sequencesById.get(candidateSequenceId);
-
-							NeedlemanWunschGlobalAlignment alignment = new NeedlemanWunschGlobalAlignment(recordSequence, sequenceToFind);
-
-							AlignmentPair trimmedAlignment = alignment.getAlignmentPair().getAlignmentWithoutEndingAndBeginningQueryInserts();
-
-							int numberOfMismatches = trimmedAlignment.getNumberOfMismatches();
-							int numberOfInsertionGaps = trimmedAlignment.getNumberOfInsertionGapsRelativeToReference();
-							int numberOfInsertionBases = trimmedAlignment.getNumberOfInsertionsRelativeToReference();
-							int numberOfDeletionGaps = trimmedAlignment.getNumberOfDeletionGapsRelativeToReference();
-							int numberOfDeletionBases = trimmedAlignment.getNumberOfDeletionsRelativeToReference();
-
-							boolean hasAcceptableMismatchCount = numberOfMismatches <= findSettings.getAllowedMismatchBases();
-							boolean hasAcceptableInsertionGapsCount = numberOfInsertionGaps <= findSettings.getAllowedInsertionGaps();
-							boolean hasAcceptableInsertionBasesCount = numberOfInsertionBases <= findSettings.getAllowedInsertionBases();
-							boolean hasAcceptableDeletionGapsCount = numberOfDeletionGaps <= findSettings.getAllowedDeletionGaps();
-							boolean hasAcceptableDeletionBasesCount = numberOfDeletionBases <= findSettings.getAllowedDeletionBases();
-
-							boolean isAcceptable = hasAcceptableMismatchCount && hasAcceptableInsertionGapsCount && hasAcceptableInsertionBasesCount && hasAcceptableDeletionGapsCount
-									&& hasAcceptableDeletionBasesCount;
-							if (isAcceptable) {
-								matches.add(new MatchDetails(candidateSequenceId, sequenceToFind, alignment.getAlignmentPair()));
-							}
-						}
-
-						if (matches.size() > 0) {
-							if (matches.size() == 1) {
-								assignedToSingleSequenceCount++;
-								if (outputSingleMatchFastq != null) {
-									MatchDetails matchDetails = matches.get(0);
-									FastqRecord newRecord = getNewRecord(record, recordQuality, matchDetails, keepPreText, keepFoundText, replaceFoundTextWithSearchSequence, keepPostText,
-											preTextAnnotationKey, foundTextAnnotationKey, foundSequenceAnnotationKey, foundSequencePrimaryIdAnnotationKey, foundSequenceSecondaryIdAnnotationKey,
-											foundSequenceOrientationAnnotationKey, postTextAnnotationKey, sharedMatchesBySequenceToFindId, nonSharedMatchesBySequenceToFindId,
-											matchesBySequenceToFindId);
-									outputSingleMatchFastq.write(newRecord);
-								}
-							} else {
-								for (MatchDetails matchDetails : matches) {
-									if (outputMultipleMatchesFastQ != null) {
-										FastqRecord newRecord = getNewRecord(record, recordQuality, matchDetails, keepPreText, keepFoundText, replaceFoundTextWithSearchSequence, keepPostText,
-												preTextAnnotationKey, foundTextAnnotationKey, foundSequenceAnnotationKey, foundSequencePrimaryIdAnnotationKey, foundSequenceSecondaryIdAnnotationKey,
-												foundSequenceOrientationAnnotationKey, postTextAnnotationKey, sharedMatchesBySequenceToFindId, nonSharedMatchesBySequenceToFindId,
-												matchesBySequenceToFindId);
-										outputSingleMatchFastq.write(newRecord);
-										outputMultipleMatchesFastQ.write(newRecord);
-									}
-								}
-								assignedToMultipleSequenceCount++;
+						findingBatches.add(executor.submit(new Callable<FindAndTrimBatch>() {
+							@Override
+							public FindAndTrimBatch call() {
+								findAndTrimBatch(batch, parameters);
+								return batch;
 							}
-						} else {
-							outputNoMatchFastq.write(record);
-						}
-
-						if (outputFindAlignment != null) {
-							if (matches.size() > 0) {
-								outputFindAlignment
-										.write(">Entry:" + fastqEntryNumber + "(line#" + (fastqEntryNumber * 4) + ") " + record.getReadHeader() + " Matches:" + matches.size() + StringUtil.NEWLINE);
-								for (MatchDetails matchDetails : matches) {
-									AlignmentPair alignment = matchDetails.getAlignment();
-									AlignmentPair trimmedAlignment = alignment.getAlignmentWithoutEndingAndBeginningQueryInserts();
-
-									int numberOfMismatches = trimmedAlignment.getNumberOfMismatches();
-									int numberOfInsertionGaps = trimmedAlignment.getNumberOfInsertionGapsRelativeToReference();
-									int numberOfInsertionBases = trimmedAlignment.getNumberOfInsertionsRelativeToReference();
-									int numberOfDeletionGaps = trimmedAlignment.getNumberOfDeletionGapsRelativeToReference();
-									int numberOfDeletionBases = trimmedAlignment.getNumberOfDeletionsRelativeToReference();
-
-									outputFindAlignment.write("**SEQ_TO_FIND_ID:" + matchDetails.getSequenceToFindId() + " mismatches:" + numberOfMismatches + " insertionGaps:" + numberOfInsertionGaps
-											+ " insertionBases:" + numberOfInsertionBases + " deletionGaps:" + numberOfDeletionGaps + " deletionBases:" + numberOfDeletionBases + StringUtil.NEWLINE);
-									outputFindAlignment.write(alignment.getAlignmentAsString());
-								}
-								outputFindAlignment.write(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>" + StringUtil.NEWLINE);
-							}
-						}
-
-						if (trimOccurred && outputFindLog != null) {
-							outputFindLog.write(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>" + StringUtil.NEWLINE);
+						}));
+						while (findingBatches.size() > numberOfThreads) {
+							FindAndTrimBatch foundBatch = getResult(findingBatches.removeFirst());
+							writeBatch(foundBatch, outputSingleMatchFastq, outputMultipleMatchesFastQ, outputNoMatchFastq, outputFindLog, outputFindAlignment);
+							totalCounts.add(foundBatch.counts);
 						}
 					}
-					fastqEntryNumber++;
-
+					records = reader.nextBatch(RECORDS_PER_BATCH);
+				}
+				while (!findingBatches.isEmpty()) {
+					FindAndTrimBatch foundBatch = getResult(findingBatches.removeFirst());
+					writeBatch(foundBatch, outputSingleMatchFastq, outputMultipleMatchesFastQ, outputNoMatchFastq, outputFindLog, outputFindAlignment);
+					totalCounts.add(foundBatch.counts);
+				}
+			} finally {
+				if (executor != null) {
+					executor.shutdownNow();
 				}
 			}
 
+			TallyMap<SequenceIdentifier> sharedMatchesBySequenceToFindId = totalCounts.sharedMatchesBySequenceToFindId;
+			TallyMap<SequenceIdentifier> nonSharedMatchesBySequenceToFindId = totalCounts.nonSharedMatchesBySequenceToFindId;
+			TallyMap<SequenceIdentifier> matchesBySequenceToFindId = totalCounts.matchesBySequenceToFindId;
+			int assignedToSingleSequenceCount = totalCounts.assignedToSingleSequenceCount;
+			int assignedToMultipleSequenceCount = totalCounts.assignedToMultipleSequenceCount;
+			int entriesSkippedBecauseContainedN = totalCounts.entriesSkippedBecauseContainedN;
+
 			if (outputSequenceSearchFindSummary != null) {
 				outputSequenceSearchFindSummary.write("SEQUENCE_TO_FIND_PRIMARY_ID" + StringUtil.TAB + "SEQUENCE_TO_FIND_SECONDARY_ID" + StringUtil.TAB + "SEQUENCE_TO_FIND_ORIENTATION"
 						+ StringUtil.TAB + "MATCHES" + StringUtil.TAB + "NON_SHARED_MATCHES" + StringUtil.TAB + "SHARED_MATCHES" + StringUtil.NEWLINE);
@@ -1063,10 +1010,265 @@ public class FastqFindAndTrimTool {
 		}
 	}
 
-	private static FastqRecord getNewRecord(FastqRecord record, String quality, MatchDetails matchDetails, boolean keepPreText, boolean keepFoundText, boolean replaceFoundTextWithSearchSequence,
-			boolean keepPostText, String preTextAnnotationKey, String foundTextAnnotationKey, String foundSequenceAnnotationKey, String foundSequencePrimaryIdAnnotationKey,
-			String foundSequenceSecondaryIdAnnotationKey, String foundSequenceOrientationAnnotationKey, String postTextAnnotationKey, TallyMap<SequenceIdentifier> sharedMatchesBySequenceToFindId,
-			TallyMap<SequenceIdentifier> nonSharedMatchesBySequenceToFindId, TallyMap<SequenceIdentifier> matchesBySequenceToFindId) {
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Finding and trimming was stopped.", e);
+		}
+	}
+
+	private static void findAndTrimBatch(FindAndTrimBatch batch, FindAndTrimParameters parameters) {
+		for (int i = 0; i < batch.records.size(); i++) {
+			findAndTrimRecord(batch.records.get(i), batch.firstFastqEntryNumber + i, batch, parameters);
+		}
+	}
+
+	/**
+	 * Finds and trims the record, the records and text which would be written for it are added to the batch so they can be written in the order the records were read.
+	 */
+	private static void findAndTrimRecord(FastqRecord record, int fastqEntryNumber, FindAndTrimBatch batch, FindAndTrimParameters parameters) {
+		FastqToolFindSettings findSettings = parameters.findSettings;
+		FindAndTrimCounts counts = batch.counts;
+
+		ISequence recordSequence = new IupacNucleotideCodeSequence(record.getReadString());
+		String recordQuality = record.getBaseQualityString();
+
+		QualityTrimmedRead qualityTrimmedRead = trimReadBasedOnQuality(recordSequence, recordQuality, parameters.leadingQualityThreshold, parameters.trailingQualityThreshold);
+		recordSequence = qualityTrimmedRead.getTrimmedSequence();
+		recordQuality = qualityTrimmedRead.getTrimmedQuality();
+		boolean trimOccurred = qualityTrimmedRead.trimOccurred();
+		if (trimOccurred && parameters.isFindLogOutput) {
+			batch.findLog.append(record.getReadHeader() + StringUtil.NEWLINE);
+			batch.findLog.append("Leading_Bases_Trimmed:" + qualityTrimmedRead.getNumberOfLeadingBasesTrimmed() + " Trailing_Bases_Trimmed:" + qualityTrimmedRead.getNumberOfTrailingBasesTrimmed()
+					+ StringUtil.NEWLINE);
+		}
+
+		if (recordSequence.toString().toLowerCase().contains("n")) {
+			counts.entriesSkippedBecauseContainedN++;
+		} else {
+
+			List<MatchDetails> matches = new ArrayList<>();
+
+			List<SequenceIdentifier> candidateSequenceIds = parameters.sequenceMapper.getBestCandidateReferences(recordSequence);
+			for (SequenceIdentifier candidateSequenceId : candidateSequenceIds) {
+				ISequence sequenceToFind = parameters.sequencesById.get(candidateSequenceId);
+
+				FastNeedlemanWunschGlobalAlignment alignment = new FastNeedlemanWunschGlobalAlignment(recordSequence, sequenceToFind);
+
+				AlignmentPair trimmedAlignment = alignment.getAlignmentPair().getAlignmentWithoutEndingAndBeginningQueryInserts();
+
+				int numberOfMismatches = trimmedAlignment.getNumberOfMismatches();
+				int numberOfInsertionGaps = trimmedAlignment.getNumberOfInsertionGapsRelativeToReference();
+				int numberOfInsertionBases = trimmedAlignment.getNumberOfInsertionsRelativeToReference();
+				int numberOfDeletionGaps = trimmedAlignment.getNumberOfDeletionGapsRelativeToReference();
+				int numberOfDeletionBases = trimmedAlignment.getNumberOfDeletionsRelativeToReference();
+
+				boolean hasAcceptableMismatchCount = numberOfMismatches <= findSettings.getAllowedMismatchBases();
+				boolean hasAcceptableInsertionGapsCount = numberOfInsertionGaps <= findSettings.getAllowedInsertionGaps();
+				boolean hasAcceptableInsertionBasesCount = numberOfInsertionBases <= findSettings.getAllowedInsertionBases();
+				boolean hasAcceptableDeletionGapsCount = numberOfDeletionGaps <= findSettings.getAllowedDeletionGaps();
+				boolean hasAcceptableDeletionBasesCount = numberOfDeletionBases <= findSettings.getAllowedDeletionBases();
+
+				boolean isAcceptable = hasAcceptableMismatchCount && hasAcceptableInsertionGapsCount && hasAcceptableInsertionBasesCount && hasAcceptableDeletionGapsCount
+						&& hasAcceptableDeletionBasesCount;
+				if (isAcceptable) {
+					matches.add(new MatchDetails(candidateSequenceId, sequenceToFind, alignment.getAlignmentPair()));
+				}
+			}
+
+			if (matches.size() > 0) {
+				if (matches.size() == 1) {
+					counts.assignedToSingleSequenceCount++;
+					MatchDetails matchDetails = matches.get(0);
+					batch.addOutputRecord(FindAndTrimOutputEnum.SINGLE_MATCH, getNewRecord(record, recordQuality, matchDetails, parameters, counts));
+				} else {
+					for (MatchDetails matchDetails : matches) {
+						if (parameters.isMultipleMatchesOutput) {
+							FastqRecord newRecord = getNewRecord(record, recordQuality, matchDetails, parameters, counts);
+							batch.addOutputRecord(FindAndTrimOutputEnum.SINGLE_MATCH, newRecord);
+							batch.addOutputRecord(FindAndTrimOutputEnum.MULTIPLE_MATCHES, newRecord);
+						}
+					}
+					counts.assignedToMultipleSequenceCount++;
+				}
+			} else {
+				batch.addOutputRecord(FindAndTrimOutputEnum.NO_MATCH, record);
+			}
+
+			if (parameters.isFindAlignmentOutput) {
+				if (matches.size() > 0) {
+					batch.findAlignment.append(">Entry:" + fastqEntryNumber + "(line#" + (fastqEntryNumber * 4) + ") " + record.getReadHeader() + " Matches:" + matches.size() + StringUtil.NEWLINE);
+					for (MatchDetails matchDetails : matches) {
+						AlignmentPair alignment = matchDetails.getAlignment();
+						AlignmentPair trimmedAlignment = alignment.getAlignmentWithoutEndingAndBeginningQueryInserts();
+
+						int numberOfMismatches = trimmedAlignment.getNumberOfMismatches();
+						int numberOfInsertionGaps = trimmedAlignment.getNumberOfInsertionGapsRelativeToReference();
+						int numberOfInsertionBases = trimmedAlignment.getNumberOfInsertionsRelativeToReference();
+						int numberOfDeletionGaps = trimmedAlignment.getNumberOfDeletionGapsRelativeToReference();
+						int numberOfDeletionBases = trimmedAlignment.getNumberOfDeletionsRelativeToReference();
+
+						batch.findAlignment.append("**SEQ_TO_FIND_ID:" + matchDetails.getSequenceToFindId() + " mismatches:" + numberOfMismatches + " insertionGaps:" + numberOfInsertionGaps
+								+ " insertionBases:" + numberOfInsertionBases + " deletionGaps:" + numberOfDeletionGaps + " deletionBases:" + numberOfDeletionBases + StringUtil.NEWLINE);
+						batch.findAlignment.append(alignment.getAlignmentAsString());
+					}
+					batch.findAlignment.append(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>" + StringUtil.NEWLINE);
+				}
+			}
+
+			if (trimOccurred && parameters.isFindLogOutput) {
+				batch.findLog.append(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>" + StringUtil.NEWLINE);
+			}
+		}
+	}
+
+	private static void writeBatch(FindAndTrimBatch batch, FastqWriter outputSingleMatchFastq, FastqWriter outputMultipleMatchesFastQ, FastqWriter outputNoMatchFastq, Writer outputFindLog,
+			Writer outputFindAlignment) throws IOException {
+		for (int i = 0; i < batch.outputRecords.size(); i++) {
+			FastqRecord outputRecord = batch.outputRecords.get(i);
+			switch (batch.outputs.get(i)) {
+			case SINGLE_MATCH:
+				outputSingleMatchFastq.write(outputRecord);
+				break;
+			case MULTIPLE_MATCHES:
+				outputMultipleMatchesFastQ.write(outputRecord);
+				break;
+			case NO_MATCH:
+				// entries with no matches are excluded when there is no writer for them
+				if (outputNoMatchFastq != null) {
+					outputNoMatchFastq.write(outputRecord);
+				}
+				break;
+			default:
+				throw new AssertionError();
+			}
+		}
+		if (outputFindLog != null) {
+			outputFindLog.write(batch.findLog.toString());
+		}
+		if (outputFindAlignment != null) {
+			outputFindAlignment.write(batch.findAlignment.toString());
+		}
+	}
+
+	private static enum FindAndTrimOutputEnum {
+		SINGLE_MATCH, MULTIPLE_MATCHES, NO_MATCH
+	}
+
+	/**
+	 * The settings used to find and trim each record, which are only read so they can be shared by all of the threads.
+	 */
+	private static class FindAndTrimParameters {
+		private final KmerMapper<SequenceIdentifier> sequenceMapper;
+		private final Map<SequenceIdentifier, ISequence> sequencesById;
+		private final FastqToolFindSettings findSettings;
+		private final int leadingQualityThreshold;
+		private final int trailingQualityThreshold;
+		private final boolean keepPreText;
+		private final boolean keepFoundText;
+		private final boolean replaceFoundTextWithSearchSequence;
+		private final boolean keepPostText;
+		private final String preTextAnnotationKey;
+		private final String foundTextAnnotationKey;
+		private final String foundSequenceAnnotationKey;
+		private final String foundSequencePrimaryIdAnnotationKey;
+		private final String foundSequenceSecondaryIdAnnotationKey;
+		private final String foundSequenceOrientationAnnotationKey;
+		private final String postTextAnnotationKey;
+		private final boolean isFindLogOutput;
+		private final boolean isFindAlignmentOutput;
+		private final boolean isMultipleMatchesOutput;
+
+		public FindAndTrimParameters(KmerMapper<SequenceIdentifier> sequenceMapper, Map<SequenceIdentifier, ISequence> sequencesById, FastqToolFindSettings findSettings,
+				int leadingQualityThreshold, int trailingQualityThreshold, boolean keepPreText, boolean keepFoundText, boolean replaceFoundTextWithSearchSequence, boolean keepPostText,
+				String preTextAnnotationKey, String foundTextAnnotationKey, String foundSequenceAnnotationKey, String foundSequencePrimaryIdAnnotationKey,
+				String foundSequenceSecondaryIdAnnotationKey, String foundSequenceOrientationAnnotationKey, String postTextAnnotationKey, boolean isFindLogOutput, boolean isFindAlignmentOutput,
+				boolean isMultipleMatchesOutput) {
+			super();
+			this.sequenceMapper = sequenceMapper;
+			this.sequencesById = sequencesById;
+			this.findSettings = findSettings;
+			this.leadingQualityThreshold = leadingQualityThreshold;
+			this.trailingQualityThreshold = trailingQualityThreshold;
+			this.keepPreText = keepPreText;
+			this.keepFoundText = keepFoundText;
+			this.replaceFoundTextWithSearchSequence = replaceFoundTextWithSearchSequence;
+			this.keepPostText = keepPostText;
+			this.preTextAnnotationKey = preTextAnnotationKey;
+			this.foundTextAnnotationKey = foundTextAnnotationKey;
+			this.foundSequenceAnnotationKey = foundSequenceAnnotationKey;
+			this.foundSequencePrimaryIdAnnotationKey = foundSequencePrimaryIdAnnotationKey;
+			this.foundSequenceSecondaryIdAnnotationKey = foundSequenceSecondaryIdAnnotationKey;
+			this.foundSequenceOrientationAnnotationKey = foundSequenceOrientationAnnotationKey;
+			this.postTextAnnotationKey = postTextAnnotationKey;
+			this.isFindLogOutput = isFindLogOutput;
+			this.isFindAlignmentOutput = isFindAlignmentOutput;
+			this.isMultipleMatchesOutput = isMultipleMatchesOutput;
+		}
+	}
+
+	private static class FindAndTrimCounts {
+		private final TallyMap<SequenceIdentifier> sharedMatchesBySequenceToFindId = new TallyMap<>();
+		private final TallyMap<SequenceIdentifier> nonSharedMatchesBySequenceToFindId = new TallyMap<>();
+		private final TallyMap<SequenceIdentifier> matchesBySequenceToFindId = new TallyMap<>();
+		private int assignedToSingleSequenceCount;
+		private int assignedToMultipleSequenceCount;
+		private int entriesSkippedBecauseContainedN;
+
+		private void add(FindAndTrimCounts counts) {
+			sharedMatchesBySequenceToFindId.addAll(counts.sharedMatchesBySequenceToFindId);
+			nonSharedMatchesBySequenceToFindId.addAll(counts.nonSharedMatchesBySequenceToFindId);
+			matchesBySequenceToFindId.addAll(counts.matchesBySequenceToFindId);
+			assignedToSingleSequenceCount += counts.assignedToSingleSequenceCount;
+			assignedToMultipleSequenceCount += counts.assignedToMultipleSequenceCount;
+			entriesSkippedBecauseContainedN += counts.entriesSkippedBecauseContainedN;
+		}
+	}
+
+	private static class FindAndTrimBatch {
+		private final List<FastqRecord> records;
+		private final int firstFastqEntryNumber;
+		// the records to write and the output each is written to in the order they are written
+		private final List<FastqRecord> outputRecords;
+		private final List<FindAndTrimOutputEnum> outputs;
+		private final StringBuilder findLog;
+		private final StringBuilder findAlignment;
+		private final FindAndTrimCounts counts;
+
+		private FindAndTrimBatch(List<FastqRecord> records, int firstFastqEntryNumber) {
+			this.records = records;
+			this.firstFastqEntryNumber = firstFastqEntryNumber;
+			this.outputRecords = new ArrayList<>();
+			this.outputs = new ArrayList<>();
+			this.findLog = new StringBuilder();
+			this.findAlignment = new StringBuilder();
+			this.counts = new FindAndTrimCounts();
+		}
+
+		private void addOutputRecord(FindAndTrimOutputEnum output, FastqRecord record) {
+			outputs.add(output);
+			outputRecords.add(record);
+		}
+	}
+
+	private static FastqRecord getNewRecord(FastqRecord record, String quality, MatchDetails matchDetails, FindAndTrimParameters parameters, FindAndTrimCounts counts) {
+		boolean keepPreText = parameters.keepPreText;
+		boolean keepFoundText = parameters.keepFoundText;
+		boolean replaceFoundTextWithSearchSequence = parameters.replaceFoundTextWithSearchSequence;
+		boolean keepPostText = parameters.keepPostText;
+		String preTextAnnotationKey = parameters.preTextAnnotationKey;
+		String foundTextAnnotationKey = parameters.foundTextAnnotationKey;
+		String foundSequenceAnnotationKey = parameters.foundSequenceAnnotationKey;
+		String foundSequencePrimaryIdAnnotationKey = parameters.foundSequencePrimaryIdAnnotationKey;
+		String foundSequenceSecondaryIdAnnotationKey = parameters.foundSequenceSecondaryIdAnnotationKey;
+		String foundSequenceOrientationAnnotationKey = parameters.foundSequenceOrientationAnnotationKey;
+		String postTextAnnotationKey = parameters.postTextAnnotationKey;
+		TallyMap<SequenceIdentifier> nonSharedMatchesBySequenceToFindId = counts.nonSharedMatchesBySequenceToFindId;
+		TallyMap<SequenceIdentifier> matchesBySequenceToFindId = counts.matchesBySequenceToFindId;
+
 		String sequenceToFind = matchDetails.getSequenceToFind().toString();
 		SequenceIdentifier sequenceToFindId = matchDetails.getSequenceToFindId();
 		nonSharedMatchesBySequenceToFindId.add(sequenceToFindId);
@@ -15,16 +15,29 @@ public class FastqToolSettings {
 	private final static String FIND_SETTINGS_KEY = "FIND";
 	private final static String TRIM_SETTINGS_KEY = "TRIM";
 	private final static String OUTPUT_SETTINGS_KEY = "OUTPUT";
+	private final static String NUMBER_OF_THREADS_KEY = "THREADS";
+
+	private final static int DEFAULT_NUMBER_OF_THREADS = 1;
 
 	private final FastqToolFindSettings findSettings;
 	private final FastqToolTrimSettings trimSettings;
 	private final FastqToolOutputSettings outputSettings;
+	private final int numberOfThreads;
 
 	public FastqToolSettings(FastqToolFindSettings findSettings, FastqToolTrimSettings trimSettings, FastqToolOutputSettings outputSettings) {
+		this(findSettings, trimSettings, outputSettings, DEFAULT_NUMBER_OF_THREADS);
+	}
+
+	/**
+	 * @param numberOfThreads
+	 *            the number of threads used to find and trim the fastq records, one finds and trims the records on the calling thread
+	 */
+	public FastqToolSettings(FastqToolFindSettings findSettings, FastqToolTrimSettings trimSettings, FastqToolOutputSettings outputSettings, int numberOfThreads) {
 		super();
 		this.findSettings = findSettings;
 		this.trimSettings = trimSettings;
 		this.outputSettings = outputSettings;
+		this.numberOfThreads = numberOfThreads;
 	}
 
 	public FastqToolFindSettings getFindSettings() {
@@ -39,6 +52,10 @@ public class FastqToolSettings {
 		return outputSettings;
 	}
 
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static FastqToolSettings parseSettings(InputStreamFactory settings) throws FileNotFoundException, IOException {
 		Yaml yaml = new Yaml();
@@ -234,7 +251,17 @@ public class FastqToolSettings {
 		FastqToolOutputSettings outputSettings = new FastqToolOutputSettings(outputFileAction, outputSequenceSearchFindSummary, outputFastQFindSummary, outputFindAlignment, outputFindLog,
 				outputFileActionValue);
 
-		FastqToolSettings toolSettings = new FastqToolSettings(findSettings, trimSettings, outputSettings);
+		int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
+		Object numberOfThreadsYaml = root.get(NUMBER_OF_THREADS_KEY);
+		if (numberOfThreadsYaml != null) {
+			if (!(numberOfThreadsYaml instanceof Integer) || ((Integer) numberOfThreadsYaml) < 1) {
+				throw new IllegalStateException("Unrecognized value[" + numberOfThreadsYaml + "] for " + NUMBER_OF_THREADS_KEY + " in the settings file[" + settings.getName()
+						+ "], the value must be a whole number greater than zero.");
+			}
+			numberOfThreads = (Integer) numberOfThreadsYaml;
+		}
+
+		FastqToolSettings toolSettings = new FastqToolSettings(findSettings, trimSettings, outputSettings, numberOfThreads);
 		return toolSettings;
 	}
 
@@ -3,43 +3,85 @@ package com.roche.sequencing.bioinformatics.common.genome;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
 import com.roche.sequencing.bioinformatics.common.sequence.SimpleNucleotideCodeSequence;
 import com.roche.sequencing.bioinformatics.common.sequence.Strand;
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
 
+/**
+ * Random access to the sequences of a genome file created with {@link GenomeMaker}. The file is memory mapped so sequences can be read from several threads at once without locking.
+ */
 public class Genome implements IGenome {
 
-	private final Logger logger = LoggerFactory.getLogger(Genome.class);
-
 	private final static int LONG_LENGTH_IN_BYTES = 8;
 	private final static int CONTAINER_NAME_INDEX_IN_CONTAINER_INFORMATION = 0;
 	private final static int CONTAINER_START_INDEX_IN_CONTAINER_INFORMATION = 1;
 	private final static int CONTAINER_STOP_INDEX_IN_CONTAINER_INFORMATION = 2;
 	private final static int BITS_PER_NUCLEOTIDE = SimpleNucleotideCodeSequence.BITS_PER_NUCLEOTIDE;
 	private final static int BITS_PER_BYTE = 8;
+	private final static int BITS_PER_LONG = 64;
+	private final static int SEGMENT_SIZE_IN_BYTES = 1 << 30;
+	// a divisor of the segment size so a window never crosses two segments
+	private final static int WINDOW_SIZE_IN_BYTES = 1 << 16;
 
-	private final RandomAccessFile genomeFileReader;
+	private final MappedByteBuffer[] genomeFileSegments;
 	private final Map<String, StartAndStopLocationsInFile> startAndStopLocationsByContainerName;
 	private final GenomicRangedCoordinate largestContainer;
+	private final Map<Long, byte[]> cachedWindowsByWindowIndex;
 
 	public Genome(File genomeFile) throws IOException {
-		this.genomeFileReader = new RandomAccessFile(genomeFile, "r");
+		this(genomeFile, 0);
+	}
+
+	/**
+	 * @param genomeFile
+	 * @param numberOfCachedWindows
+	 *            the number of most recently used windows of the genome file (64KB each) to keep on the heap, useful when the same regions are read repeatedly, zero to always read from the mapped file
+	 * @throws IOException
+	 */
+	public Genome(File genomeFile, final int numberOfCachedWindows) throws IOException {
 		startAndStopLocationsByContainerName = new LinkedHashMap<String, StartAndStopLocationsInFile>();
-		largestContainer = initAndReturnLargestContainer();
+		try (RandomAccessFile genomeFileReader = new RandomAccessFile(genomeFile, "r")) {
+			largestContainer = initAndReturnLargestContainer(genomeFileReader);
+			genomeFileSegments = map(genomeFileReader.getChannel());
+		}
+		if (numberOfCachedWindows > 0) {
+			cachedWindowsByWindowIndex = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Entry<Long, byte[]> eldest) {
+					return size() > numberOfCachedWindows;
+				}
+			};
+		} else {
+			cachedWindowsByWindowIndex = null;
+		}
 	}
 
-	private GenomicRangedCoordinate initAndReturnLargestContainer() throws IOException {
+	private static MappedByteBuffer[] map(FileChannel channel) throws IOException {
+		long size = channel.size();
+		MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE_IN_BYTES - 1) / SEGMENT_SIZE_IN_BYTES)];
+		for (int i = 0; i < segments.length; i++) {
+			long segmentStart = (long) i * SEGMENT_SIZE_IN_BYTES;
+			segments[i] = channel.map(MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE_IN_BYTES, size - segmentStart));
+		}
+		// the mappings stay valid after the channel is closed
+		return segments;
+	}
+
+	private GenomicRangedCoordinate initAndReturnLargestContainer(RandomAccessFile genomeFileReader) throws IOException {
 
 		// read the last 8 bytes to find the beginning of the container information start
 		long fileEnd = genomeFileReader.length();
@@ -107,7 +149,7 @@ public class Genome implements IGenome {
 		return sequence;
 	}
 
-	public synchronized ISequence getSequence(String containerName, long sequenceStart, long sequenceEnd) {
+	public ISequence getSequence(String containerName, long sequenceStart, long sequenceEnd) {
 		ISequence sequence = null;
 		StartAndStopLocationsInFile startAndStop = startAndStopLocationsByContainerName.get(containerName);
 
@@ -141,30 +183,88 @@ public class Genome implements IGenome {
 				throw new IllegalStateException("sequence end[" + sequenceEnd + "] is greater than the length[" + containerLengthInNucleotides + "] of the container[" + containerName + "].");
 			}
 
-			int numberOfBytes = (int) (lastByteContainingPartOfSequenceInFile - firstByteContainingPartOfSequenceInFile + 1);
-			try {
-				genomeFileReader.seek(firstByteContainingPartOfSequenceInFile);
-			} catch (IOException e) {
-				logger.warn(e.getMessage(), e);
+			// the byte holding the bit just past the sequence is only needed when the sequence does not end on a byte boundary
+			long lastByteNeededInFile = firstByteContainingPartOfSequenceInFile + ((startIndexWithinByteOfSequenceStartInBits + sequenceLengthInBits - 1) / BITS_PER_BYTE);
+			long[] sequenceAsWords = new long[(sequenceLengthInBits + BITS_PER_LONG - 1) / BITS_PER_LONG];
+			long currentByteInFile = firstByteContainingPartOfSequenceInFile;
+			while (currentByteInFile <= lastByteNeededInFile) {
+				long windowIndex = currentByteInFile / WINDOW_SIZE_IN_BYTES;
+				long windowStartInFile = windowIndex * WINDOW_SIZE_IN_BYTES;
+				long lastByteInWindow = Math.min(lastByteNeededInFile, windowStartInFile + WINDOW_SIZE_IN_BYTES - 1);
+				if (cachedWindowsByWindowIndex == null) {
+					MappedByteBuffer segment = genomeFileSegments[(int) (windowStartInFile / SEGMENT_SIZE_IN_BYTES)];
+					int windowStartInSegment = (int) (windowStartInFile % SEGMENT_SIZE_IN_BYTES);
+					for (long byteInFile = currentByteInFile; byteInFile <= lastByteInWindow; byteInFile++) {
+						int bitIndexInSequence = (int) ((byteInFile - firstByteContainingPartOfSequenceInFile) * BITS_PER_BYTE) - startIndexWithinByteOfSequenceStartInBits;
+						// absolute gets do not move the buffer's position so the mapping can be shared between threads
+						addByteToWords(sequenceAsWords, bitIndexInSequence, segment.get(windowStartInSegment + (int) (byteInFile - windowStartInFile)));
+					}
+				} else {
+					byte[] window = getWindow(windowIndex);
+					for (long byteInFile = currentByteInFile; byteInFile <= lastByteInWindow; byteInFile++) {
+						int bitIndexInSequence = (int) ((byteInFile - firstByteContainingPartOfSequenceInFile) * BITS_PER_BYTE) - startIndexWithinByteOfSequenceStartInBits;
+						addByteToWords(sequenceAsWords, bitIndexInSequence, window[(int) (byteInFile - windowStartInFile)]);
+					}
+				}
+				currentByteInFile = lastByteInWindow + 1;
 			}
 
-			byte[] sequenceBytes = new byte[numberOfBytes];
-			try {
-				genomeFileReader.read(sequenceBytes);
-			} catch (IOException e) {
-				logger.warn(e.getMessage(), e);
+			// clear the bits following the sequence which were read from the last byte
+			int numberOfUsedBitsInLastWord = sequenceLengthInBits % BITS_PER_LONG;
+			if (numberOfUsedBitsInLastWord > 0) {
+				sequenceAsWords[sequenceAsWords.length - 1] &= (1L << numberOfUsedBitsInLastWord) - 1;
 			}
-
-			BitSet sequenceWithExtrasAsBits = BitSet.valueOf(sequenceBytes);
-			int startInBitSet = startIndexWithinByteOfSequenceStartInBits;
-			int stopInBitSet = startInBitSet + sequenceLengthInBits;
-			BitSet sequenceAsBits = sequenceWithExtrasAsBits.get(startInBitSet, stopInBitSet);
+			BitSet sequenceAsBits = BitSet.valueOf(sequenceAsWords);
 			sequence = new SimpleNucleotideCodeSequence(sequenceLengthInBits, sequenceAsBits);
 		}
 
 		return sequence;
 	}
 
+	/**
+	 * Adds the bits of a byte from the genome file to the words of a sequence, the bits of both are in little endian order (see {@link BitSet#valueOf(byte[])}).
+	 * 
+	 * @param sequenceAsWords
+	 * @param bitIndexInSequence
+	 *            the index in the sequence of the byte's first bit, negative when the byte also holds the end of the previous sequence
+	 * @param value
+	 */
+	private static void addByteToWords(long[] sequenceAsWords, int bitIndexInSequence, byte value) {
+		long bits = value & 0xFF;
+		if (bitIndexInSequence < 0) {
+			bits >>>= -bitIndexInSequence;
+			bitIndexInSequence = 0;
+		}
+		int wordIndex = bitIndexInSequence / BITS_PER_LONG;
+		int bitIndexInWord = bitIndexInSequence % BITS_PER_LONG;
+		sequenceAsWords[wordIndex] |= bits << bitIndexInWord;
+		// the byte can straddle two words
+		if (bitIndexInWord > BITS_PER_LONG - BITS_PER_BYTE && wordIndex + 1 < sequenceAsWords.length) {
+			sequenceAsWords[wordIndex + 1] |= bits >>> (BITS_PER_LONG - bitIndexInWord);
+		}
+	}
+
+	private byte[] getWindow(long windowIndex) {
+		byte[] window;
+		synchronized (cachedWindowsByWindowIndex) {
+			window = cachedWindowsByWindowIndex.get(windowIndex);
+		}
+		if (window == null) {
+			long windowStartInFile = windowIndex * WINDOW_SIZE_IN_BYTES;
+			MappedByteBuffer segment = genomeFileSegments[(int) (windowStartInFile / SEGMENT_SIZE_IN_BYTES)];
+			int windowStartInSegment = (int) (windowStartInFile % SEGMENT_SIZE_IN_BYTES);
+			window = new byte[Math.min(WINDOW_SIZE_IN_BYTES, segment.capacity() - windowStartInSegment)];
+			for (int i = 0; i < window.length; i++) {
+				window[i] = segment.get(windowStartInSegment + i);
+			}
+			// two threads may copy the same window, the copies are identical so either one can be kept
+			synchronized (cachedWindowsByWindowIndex) {
+				cachedWindowsByWindowIndex.put(windowIndex, window);
+			}
+		}
+		return window;
+	}
+
 	public Set<String> getContainerNames() {
 		return startAndStopLocationsByContainerName.keySet();
 	}
@@ -181,11 +281,10 @@ public class Genome implements IGenome {
 	}
 
 	public void close() {
-		if (genomeFileReader != null) {
-			try {
-				genomeFileReader.close();
-			} catch (IOException e) {
-				logger.warn(e.getMessage(), e);
+		// the mapped segments are released when the genome is garbage collected
+		if (cachedWindowsByWindowIndex != null) {
+			synchronized (cachedWindowsByWindowIndex) {
+				cachedWindowsByWindowIndex.clear();
 			}
 		}
 	}
@@ -18,13 +18,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.io.Files;
+import com.roche.sequencing.bioinformatics.common.mapping.IntTallyMap;
 import com.roche.sequencing.bioinformatics.common.mapping.TallyMap;
+import com.roche.sequencing.bioinformatics.common.multithreading.BoundedQueueThreadPoolExecutor;
 import com.roche.sequencing.bioinformatics.common.multithreading.IExceptionListener;
 import com.roche.sequencing.bioinformatics.common.multithreading.PausableFixedThreadPoolExecutor;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
@@ -58,7 +64,10 @@ public class GenomeSequenceSearcher {
 
 	private final static int LOOKUP_CACHE_SIZE = 50;
 
+	private final static int SEQUENCES_PER_SEARCH_BATCH_TASK = 256;
+
 	private final IBitSet bitset;
+	private final MappedGenomeSequenceSearcherIndex mappedIndex;
 
 	private final int numberOfBitsToStoreBitStart;
 	private final int numberOfBitsToStoreEntrySizeForASequence;
@@ -75,8 +84,24 @@ public class GenomeSequenceSearcher {
 
 	private final LinkedHashMap<Integer, LookupResult> cachedLookupResults;
 
+	private GenomeSequenceSearcher(MappedGenomeSequenceSearcherIndex mappedIndex, IGenome genome) {
+		this.bitset = null;
+		this.mappedIndex = mappedIndex;
+		this.genome = genome;
+		this.containerNames = mappedIndex.getContainerNames();
+		// lookups go straight to the mapped index so neither the cache nor the bit layout are used
+		this.cachedLookupResults = null;
+		this.numberOfBitsToStoreBitStart = 0;
+		this.numberOfBitsToStoreEntrySizeForASequence = 0;
+		this.bitsToStoreContainerNames = 0;
+		this.bitsToStoreLocation = 0;
+		this.startBitForLinksAndNumberOfEntriesBlocks = 0;
+		this.startBitForLocationsChunks = 0;
+	}
+
 	private GenomeSequenceSearcher(IBitSet bitset, IGenome genome) {
 		this.bitset = bitset;
+		this.mappedIndex = null;
 		this.genome = genome;
 		cachedLookupResults = new LinkedHashMap<Integer, LookupResult>();
 
@@ -313,16 +338,16 @@ public class GenomeSequenceSearcher {
 						if (locationsChunk == null) {
 							locationsChunk = new LocationsChunk();
 							chunkArray[numberForSequence] = locationsChunk;
+						}
+						if (locationsChunk.size() > maxHitsPerSequence) {
+							sequenceToExcludeBitSet.set(numberForSequence);
+							chunkArray[numberForSequence] = null;
 						} else {
-							if (locationsChunk.size() > maxHitsPerSequence) {
-								sequenceToExcludeBitSet.set(numberForSequence);
-								chunkArray[numberForSequence] = null;
-							} else {
-								int startInGenome = startInSequence + 1;
-								GenomicCoordinate coordinate = new GenomicCoordinate(containerName, startInGenome);
-								synchronized (locationsChunk) {
-									locationsChunk.add(coordinate, bitsToStoreContainerNames, bitsToStoreLocation, containerNames);
-								}
+							// the first location of a sequence is stored as well, otherwise sequences found once in the genome are never found
+							int startInGenome = startInSequence + 1;
+							GenomicCoordinate coordinate = new GenomicCoordinate(containerName, startInGenome);
+							synchronized (locationsChunk) {
+								locationsChunk.add(coordinate, bitsToStoreContainerNames, bitsToStoreLocation, containerNames);
 							}
 						}
 					}
@@ -354,9 +379,87 @@ public class GenomeSequenceSearcher {
 		return gss;
 	}
 
+	/**
+	 * Opens an index written with saveMappedGenomeSearcherToFile. The index is memory mapped so it takes very little heap and lookups can be made from several threads.
+	 * 
+	 * @param mappedGenomeSequenceSearcherFile
+	 * @param genome
+	 * @return the searcher
+	 * @throws IOException
+	 */
+	public static GenomeSequenceSearcher createMappedGenomeSequenceSearcherFromFile(File mappedGenomeSequenceSearcherFile, IGenome genome) throws IOException {
+		return new GenomeSequenceSearcher(new MappedGenomeSequenceSearcherIndex(mappedGenomeSequenceSearcherFile), genome);
+	}
+
 	public void saveGenomeSearcherToFile(File outputFile) throws IOException {
-		System.out.println("The file being written has a size of " + bitset.size() + " in bits");
-		bitset.writeToFile(outputFile);
+		if (mappedIndex != null) {
+			// the copy can only be opened with createMappedGenomeSequenceSearcherFromFile
+			Files.copy(mappedIndex.getIndexFile(), outputFile);
+		} else {
+			System.out.println("The file being written has a size of " + bitset.size() + " in bits");
+			bitset.writeToFile(outputFile);
+		}
+	}
+
+	/**
+	 * Writes the lookup tables in the byte aligned layout opened by createMappedGenomeSequenceSearcherFromFile.
+	 * 
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveMappedGenomeSearcherToFile(File outputFile) throws IOException {
+		MappedGenomeSequenceSearcherIndex.write(this, containerNames, outputFile);
+	}
+
+	/**
+	 * Searches for each of the provided sequences using all of the available processors.
+	 * 
+	 * @param sequences
+	 * @return the results in the same order as the provided sequences
+	 */
+	public List<StrandedLookupResult> searchBatch(List<ISequence> sequences) {
+		return searchBatch(sequences, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Searches for each of the provided sequences from several threads.
+	 * 
+	 * @param sequences
+	 * @param numberOfThreads
+	 * @return the results in the same order as the provided sequences
+	 */
+	public List<StrandedLookupResult> searchBatch(final List<ISequence> sequences, int numberOfThreads) {
+		List<StrandedLookupResult> results = new ArrayList<StrandedLookupResult>(sequences.size());
+		BoundedQueueThreadPoolExecutor executor = new BoundedQueueThreadPoolExecutor(numberOfThreads, numberOfThreads * 2, "SEQUENCE_SEARCH_");
+		try {
+			List<Future<List<StrandedLookupResult>>> futures = new ArrayList<Future<List<StrandedLookupResult>>>();
+			for (int taskStart = 0; taskStart < sequences.size(); taskStart += SEQUENCES_PER_SEARCH_BATCH_TASK) {
+				final int start = taskStart;
+				final int stop = Math.min(sequences.size(), taskStart + SEQUENCES_PER_SEARCH_BATCH_TASK);
+				futures.add(executor.submit(new Callable<List<StrandedLookupResult>>() {
+					@Override
+					public List<StrandedLookupResult> call() {
+						List<StrandedLookupResult> taskResults = new ArrayList<StrandedLookupResult>(stop - start);
+						for (int i = start; i < stop; i++) {
+							taskResults.add(search(sequences.get(i)));
+						}
+						return taskResults;
+					}
+				}));
+			}
+			for (Future<List<StrandedLookupResult>> future : futures) {
+				try {
+					results.addAll(future.get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e.getMessage(), e);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
 	}
 
 	public StrandedLookupResult search(ISequence sequence) {
@@ -595,7 +698,14 @@ public class GenomeSequenceSearcher {
 	}
 
 	public LookupResult lookupSequence(int numberForSequence) {
-		LookupResult lookupResult = cachedLookupResults.get(numberForSequence);
+		if (mappedIndex != null) {
+			return mappedIndex.lookupSequence(numberForSequence);
+		}
+
+		LookupResult lookupResult;
+		synchronized (cachedLookupResults) {
+			lookupResult = cachedLookupResults.get(numberForSequence);
+		}
 
 		if (lookupResult == null) {
 			int linkAndEntryBlockSize = numberOfBitsToStoreBitStart + numberOfBitsToStoreEntrySizeForASequence;
@@ -627,10 +737,12 @@ public class GenomeSequenceSearcher {
 				}
 			}
 
-			cachedLookupResults.put(numberForSequence, lookupResult);
-			if (cachedLookupResults.size() > LOOKUP_CACHE_SIZE) {
-				int oldestNumberForSequence = cachedLookupResults.entrySet().iterator().next().getKey();
-				cachedLookupResults.remove(oldestNumberForSequence);
+			synchronized (cachedLookupResults) {
+				cachedLookupResults.put(numberForSequence, lookupResult);
+				if (cachedLookupResults.size() > LOOKUP_CACHE_SIZE) {
+					int oldestNumberForSequence = cachedLookupResults.entrySet().iterator().next().getKey();
+					cachedLookupResults.remove(oldestNumberForSequence);
+				}
 			}
 		}
 
@@ -750,7 +862,7 @@ public class GenomeSequenceSearcher {
 		int matchCount = 0;
 
 		RunningStats stats = new RunningStats();
-		TallyMap<Integer> tallies = new TallyMap<Integer>();
+		IntTallyMap tallies = new IntTallyMap();
 		int totalSeqenceNumbers = (int) Math.pow(4, LOOKUP_SEQUENCE_LENGTH);
 		for (int i = 0; i < totalSeqenceNumbers; i++) {
 			LookupResult lookupResult = gss.lookupSequence(i);
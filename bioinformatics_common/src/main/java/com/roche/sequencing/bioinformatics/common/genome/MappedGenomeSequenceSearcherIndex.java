@@ -0,0 +1,230 @@
+package com.roche.sequencing.bioinformatics.common.genome;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.roche.sequencing.bioinformatics.common.genome.GenomeSequenceSearcher.LookupResult;
+import com.roche.sequencing.bioinformatics.common.genome.GenomeSequenceSearcher.LookupResultTypeEnum;
+import com.roche.sequencing.bioinformatics.common.utils.ArraysUtil;
+
+/**
+ * The lookup tables of a {@link GenomeSequenceSearcher} in a byte aligned layout which is memory mapped, so a lookup reads a few longs from the page cache rather than decoding bits, and lookups
+ * from several threads do not need to be synchronized.
+ *
+ * The file holds a header with the container names, a table with the offset of the first coordinate of every lookup sequence, a table with the number of coordinates of every lookup sequence (or
+ * EXCLUDED_SEQUENCE_COUNT when the sequence had too many hits to be stored) and then the coordinates, each packed into a long as the container index followed by the location.
+ */
+class MappedGenomeSequenceSearcherIndex {
+
+	private final static long MAGIC_NUMBER = 0x4753534d41505031L;
+	private final static ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	private final static int BYTES_PER_INT = 4;
+	private final static int BYTES_PER_LONG = 8;
+	private final static int BITS_TO_STORE_LOCATION = 40;
+	private final static long LOCATION_MASK = (1L << BITS_TO_STORE_LOCATION) - 1;
+	private final static int MAX_NUMBER_OF_CONTAINERS = 1 << (Long.SIZE - BITS_TO_STORE_LOCATION - 1);
+	private final static int EXCLUDED_SEQUENCE_COUNT = -1;
+	private final static int LONGS_PER_COORDINATE_SEGMENT = 1 << 27;
+	private final static int WRITE_BUFFER_SIZE_IN_BYTES = 1 << 16;
+	// magic number, lookup sequence length, number of sequences, container names size in bytes
+	private final static int FIXED_HEADER_SIZE_IN_BYTES = BYTES_PER_LONG + (3 * BYTES_PER_INT);
+
+	private final File indexFile;
+	private final String[] containerNames;
+	private final int numberOfSequences;
+	private final LongBuffer coordinateOffsets;
+	private final IntBuffer coordinateCounts;
+	private final LongBuffer[] coordinateSegments;
+
+	MappedGenomeSequenceSearcherIndex(File indexFile) throws IOException {
+		this.indexFile = indexFile;
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r")) {
+			FileChannel channel = randomAccessFile.getChannel();
+			ByteBuffer fixedHeader = channel.map(MapMode.READ_ONLY, 0, FIXED_HEADER_SIZE_IN_BYTES).order(BYTE_ORDER);
+			if (fixedHeader.getLong() != MAGIC_NUMBER) {
+				throw new IllegalStateException("The provided file[" + indexFile.getAbsolutePath() + "] is not a memory mapped genome sequence searcher index.");
+			}
+			int lookupSequenceLength = fixedHeader.getInt();
+			if (lookupSequenceLength != GenomeSequenceSearcher.LOOKUP_SEQUENCE_LENGTH) {
+				throw new IllegalStateException("The lookup sequence length[" + lookupSequenceLength + "] of the provided index[" + indexFile.getAbsolutePath() + "] is not the expected length["
+						+ GenomeSequenceSearcher.LOOKUP_SEQUENCE_LENGTH + "].");
+			}
+			numberOfSequences = fixedHeader.getInt();
+			int containerNamesSizeInBytes = fixedHeader.getInt();
+
+			byte[] containerNamesBytes = new byte[containerNamesSizeInBytes];
+			channel.map(MapMode.READ_ONLY, FIXED_HEADER_SIZE_IN_BYTES, containerNamesSizeInBytes).get(containerNamesBytes);
+			containerNames = new String(containerNamesBytes, StandardCharsets.UTF_8).split("\t");
+
+			long offsetsStart = getOffsetsStart(containerNamesSizeInBytes);
+			long countsStart = offsetsStart + ((long) numberOfSequences * BYTES_PER_LONG);
+			long coordinatesStart = countsStart + ((long) numberOfSequences * BYTES_PER_INT);
+			coordinateOffsets = channel.map(MapMode.READ_ONLY, offsetsStart, countsStart - offsetsStart).order(BYTE_ORDER).asLongBuffer();
+			coordinateCounts = channel.map(MapMode.READ_ONLY, countsStart, coordinatesStart - countsStart).order(BYTE_ORDER).asIntBuffer();
+
+			long numberOfCoordinates = (channel.size() - coordinatesStart) / BYTES_PER_LONG;
+			coordinateSegments = new LongBuffer[(int) ((numberOfCoordinates + LONGS_PER_COORDINATE_SEGMENT - 1) / LONGS_PER_COORDINATE_SEGMENT)];
+			for (int i = 0; i < coordinateSegments.length; i++) {
+				long firstCoordinateInSegment = (long) i * LONGS_PER_COORDINATE_SEGMENT;
+				long coordinatesInSegment = Math.min(LONGS_PER_COORDINATE_SEGMENT, numberOfCoordinates - firstCoordinateInSegment);
+				coordinateSegments[i] = channel.map(MapMode.READ_ONLY, coordinatesStart + (firstCoordinateInSegment * BYTES_PER_LONG), coordinatesInSegment * BYTES_PER_LONG).order(BYTE_ORDER)
+						.asLongBuffer();
+			}
+			// the mappings stay valid after the channel is closed
+		}
+	}
+
+	private static long getOffsetsStart(int containerNamesSizeInBytes) {
+		long headerSize = FIXED_HEADER_SIZE_IN_BYTES + containerNamesSizeInBytes;
+		// pad the header so the tables are aligned
+		return ((headerSize + BYTES_PER_LONG - 1) / BYTES_PER_LONG) * BYTES_PER_LONG;
+	}
+
+	File getIndexFile() {
+		return indexFile;
+	}
+
+	String[] getContainerNames() {
+		return containerNames;
+	}
+
+	/**
+	 * Lookups only use absolute gets on the mapped buffers so this is safe to call from multiple threads.
+	 */
+	LookupResult lookupSequence(int numberForSequence) {
+		if (numberForSequence < 0 || numberForSequence >= numberOfSequences) {
+			throw new IndexOutOfBoundsException("The provided number for sequence[" + numberForSequence + "] is larger than the number of sequences[" + numberOfSequences
+					+ "] or smaller than zero.");
+		}
+
+		LookupResult lookupResult;
+		int numberOfCoordinates = coordinateCounts.get(numberForSequence);
+		if (numberOfCoordinates == EXCLUDED_SEQUENCE_COUNT) {
+			lookupResult = new LookupResult(LookupResultTypeEnum.POTENTIAL_MATCH_LIMIT_REACHED);
+		} else if (numberOfCoordinates == 0) {
+			lookupResult = new LookupResult(LookupResultTypeEnum.NO_RESULTS);
+		} else {
+			long firstCoordinate = coordinateOffsets.get(numberForSequence);
+			List<GenomicCoordinate> coordinates = new ArrayList<GenomicCoordinate>(numberOfCoordinates);
+			for (long coordinateIndex = firstCoordinate; coordinateIndex < firstCoordinate + numberOfCoordinates; coordinateIndex++) {
+				long packedCoordinate = coordinateSegments[(int) (coordinateIndex / LONGS_PER_COORDINATE_SEGMENT)].get((int) (coordinateIndex % LONGS_PER_COORDINATE_SEGMENT));
+				String containerName = containerNames[(int) (packedCoordinate >>> BITS_TO_STORE_LOCATION)];
+				coordinates.add(new GenomicCoordinate(containerName, packedCoordinate & LOCATION_MASK));
+			}
+			lookupResult = new LookupResult(coordinates);
+		}
+		return lookupResult;
+	}
+
+	/**
+	 * Writes the lookup results of the provided searcher to a new index file.
+	 *
+	 * @param searcher
+	 * @param containerNames
+	 *            the container names used by the searcher
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	static void write(GenomeSequenceSearcher searcher, String[] containerNames, File outputFile) throws IOException {
+		if (containerNames.length > MAX_NUMBER_OF_CONTAINERS) {
+			throw new IllegalStateException("The number of containers[" + containerNames.length + "] is larger than the maximum number of containers[" + MAX_NUMBER_OF_CONTAINERS
+					+ "] that can be stored in a memory mapped index.");
+		}
+
+		Map<String, Integer> containerIndexesByName = new HashMap<String, Integer>();
+		for (int i = 0; i < containerNames.length; i++) {
+			containerIndexesByName.put(containerNames[i], i);
+		}
+
+		int numberOfSequences = (int) Math.pow(4, GenomeSequenceSearcher.LOOKUP_SEQUENCE_LENGTH);
+		byte[] containerNamesBytes = ArraysUtil.toString(containerNames, "\t").getBytes(StandardCharsets.UTF_8);
+		long offsetsStart = getOffsetsStart(containerNamesBytes.length);
+		long countsStart = offsetsStart + ((long) numberOfSequences * BYTES_PER_LONG);
+		long coordinatesStart = countsStart + ((long) numberOfSequences * BYTES_PER_INT);
+
+		if (outputFile.exists()) {
+			outputFile.delete();
+		}
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(outputFile, "rw")) {
+			FileChannel channel = randomAccessFile.getChannel();
+
+			ByteBuffer header = ByteBuffer.allocate((int) offsetsStart).order(BYTE_ORDER);
+			header.putLong(MAGIC_NUMBER);
+			header.putInt(GenomeSequenceSearcher.LOOKUP_SEQUENCE_LENGTH);
+			header.putInt(numberOfSequences);
+			header.putInt(containerNamesBytes.length);
+			header.put(containerNamesBytes);
+			header.rewind();
+			writeFully(channel, header, 0);
+
+			// the coordinates are written as the lookups are made, the tables are kept in memory and written once all of the offsets are known
+			long[] offsets = new long[numberOfSequences];
+			int[] counts = new int[numberOfSequences];
+			ByteBuffer coordinatesBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE_IN_BYTES).order(BYTE_ORDER);
+			long coordinatesBufferStart = coordinatesStart;
+			long numberOfCoordinates = 0;
+			for (int numberForSequence = 0; numberForSequence < numberOfSequences; numberForSequence++) {
+				LookupResult lookupResult = searcher.lookupSequence(numberForSequence);
+				offsets[numberForSequence] = numberOfCoordinates;
+				if (lookupResult.getLookupResultType() == LookupResultTypeEnum.POTENTIAL_MATCH_LIMIT_REACHED) {
+					counts[numberForSequence] = EXCLUDED_SEQUENCE_COUNT;
+				} else if (lookupResult.getLookupResultType() == LookupResultTypeEnum.RESULTS) {
+					List<GenomicCoordinate> coordinates = lookupResult.getFoundCoordinates();
+					counts[numberForSequence] = coordinates.size();
+					for (GenomicCoordinate coordinate : coordinates) {
+						if (coordinatesBuffer.remaining() < BYTES_PER_LONG) {
+							coordinatesBuffer.flip();
+							coordinatesBufferStart += writeFully(channel, coordinatesBuffer, coordinatesBufferStart);
+							coordinatesBuffer.clear();
+						}
+						coordinatesBuffer.putLong(packCoordinate(coordinate, containerIndexesByName));
+						numberOfCoordinates++;
+					}
+				}
+			}
+			coordinatesBuffer.flip();
+			writeFully(channel, coordinatesBuffer, coordinatesBufferStart);
+
+			ByteBuffer offsetsBuffer = ByteBuffer.allocate(numberOfSequences * BYTES_PER_LONG).order(BYTE_ORDER);
+			offsetsBuffer.asLongBuffer().put(offsets);
+			writeFully(channel, offsetsBuffer, offsetsStart);
+			ByteBuffer countsBuffer = ByteBuffer.allocate(numberOfSequences * BYTES_PER_INT).order(BYTE_ORDER);
+			countsBuffer.asIntBuffer().put(counts);
+			writeFully(channel, countsBuffer, countsStart);
+		}
+	}
+
+	private static long packCoordinate(GenomicCoordinate coordinate, Map<String, Integer> containerIndexesByName) {
+		Integer containerIndex = containerIndexesByName.get(coordinate.getContainerName());
+		if (containerIndex == null) {
+			throw new IllegalStateException("Could not find the provided container name[" + coordinate.getContainerName() + "].");
+		}
+		long location = coordinate.getLocation();
+		if (location < 0 || location > LOCATION_MASK) {
+			throw new IllegalStateException("The location[" + location + "] in container[" + coordinate.getContainerName() + "] can not be stored in a memory mapped index.");
+		}
+		return ((long) containerIndex << BITS_TO_STORE_LOCATION) | location;
+	}
+
+	private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int bytesWritten = 0;
+		while (buffer.hasRemaining()) {
+			bytesWritten += channel.write(buffer, position + bytesWritten);
+		}
+		return bytesWritten;
+	}
+
+}
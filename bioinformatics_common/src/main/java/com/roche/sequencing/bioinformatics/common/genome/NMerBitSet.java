@@ -0,0 +1,148 @@
+package com.roche.sequencing.bioinformatics.common.genome;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
+
+/**
+ * A fixed size bit set indexed by long so it can hold more than Integer.MAX_VALUE bits. The bits are kept in chunks of long words so two bit sets can be combined a word at a time.
+ *
+ * The file format is the little endian byte order used by {@link java.util.BitSet#toByteArray()}, so files written by either can be read by the other.
+ */
+class NMerBitSet {
+
+	private final static int BITS_PER_WORD = 64;
+	private final static int BYTES_PER_WORD = 8;
+	private final static int WORDS_PER_CHUNK = 1 << 26;
+	private final static int IO_BUFFER_SIZE = 65536;
+	private final static int EOF = -1;
+
+	private final long numberOfBits;
+	private final long[][] chunks;
+
+	/**
+	 * @param numberOfBits
+	 *            rounded up to a whole number of words
+	 */
+	NMerBitSet(long numberOfBits) {
+		long numberOfWords = (numberOfBits + BITS_PER_WORD - 1) / BITS_PER_WORD;
+		this.numberOfBits = numberOfWords * BITS_PER_WORD;
+		chunks = new long[(int) ((numberOfWords + WORDS_PER_CHUNK - 1) / WORDS_PER_CHUNK)][];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = new long[(int) Math.min(WORDS_PER_CHUNK, numberOfWords - ((long) i * WORDS_PER_CHUNK))];
+		}
+	}
+
+	long getNumberOfBits() {
+		return numberOfBits;
+	}
+
+	boolean get(long bitIndex) {
+		long wordIndex = bitIndex / BITS_PER_WORD;
+		return (chunks[(int) (wordIndex / WORDS_PER_CHUNK)][(int) (wordIndex % WORDS_PER_CHUNK)] & (1L << (bitIndex % BITS_PER_WORD))) != 0;
+	}
+
+	void set(long bitIndex) {
+		long wordIndex = bitIndex / BITS_PER_WORD;
+		chunks[(int) (wordIndex / WORDS_PER_CHUNK)][(int) (wordIndex % WORDS_PER_CHUNK)] |= (1L << (bitIndex % BITS_PER_WORD));
+	}
+
+	/**
+	 * Adds one occurrence of the bit to a pair of bit sets which together count each bit as zero, once, or more than once.
+	 */
+	static void addOccurrence(NMerBitSet onceOrMore, NMerBitSet moreThanOnce, long bitIndex) {
+		long wordIndex = bitIndex / BITS_PER_WORD;
+		int chunkIndex = (int) (wordIndex / WORDS_PER_CHUNK);
+		int wordIndexInChunk = (int) (wordIndex % WORDS_PER_CHUNK);
+		long bit = 1L << (bitIndex % BITS_PER_WORD);
+		moreThanOnce.chunks[chunkIndex][wordIndexInChunk] |= onceOrMore.chunks[chunkIndex][wordIndexInChunk] & bit;
+		onceOrMore.chunks[chunkIndex][wordIndexInChunk] |= bit;
+	}
+
+	/**
+	 * Adds the occurrences counted by the second pair of bit sets to the first pair, a bit is seen more than once if it was seen more than once in either pair or once in both.
+	 */
+	static void addOccurrences(NMerBitSet onceOrMore, NMerBitSet moreThanOnce, NMerBitSet otherOnceOrMore, NMerBitSet otherMoreThanOnce) {
+		checkSameSize(onceOrMore, otherOnceOrMore);
+		for (int chunkIndex = 0; chunkIndex < onceOrMore.chunks.length; chunkIndex++) {
+			long[] onceOrMoreWords = onceOrMore.chunks[chunkIndex];
+			long[] moreThanOnceWords = moreThanOnce.chunks[chunkIndex];
+			long[] otherOnceOrMoreWords = otherOnceOrMore.chunks[chunkIndex];
+			long[] otherMoreThanOnceWords = otherMoreThanOnce.chunks[chunkIndex];
+			for (int i = 0; i < onceOrMoreWords.length; i++) {
+				moreThanOnceWords[i] |= otherMoreThanOnceWords[i] | (onceOrMoreWords[i] & otherOnceOrMoreWords[i]);
+				onceOrMoreWords[i] |= otherOnceOrMoreWords[i];
+			}
+		}
+	}
+
+	void or(NMerBitSet other) {
+		checkSameSize(this, other);
+		for (int chunkIndex = 0; chunkIndex < chunks.length; chunkIndex++) {
+			long[] words = chunks[chunkIndex];
+			long[] otherWords = other.chunks[chunkIndex];
+			for (int i = 0; i < words.length; i++) {
+				words[i] |= otherWords[i];
+			}
+		}
+	}
+
+	private static void checkSameSize(NMerBitSet bitSet, NMerBitSet otherBitSet) {
+		if (bitSet.numberOfBits != otherBitSet.numberOfBits) {
+			throw new IllegalStateException("Unable to combine bit sets of different sizes[" + bitSet.numberOfBits + " and " + otherBitSet.numberOfBits + "].");
+		}
+	}
+
+	long cardinality() {
+		long cardinality = 0;
+		for (long[] words : chunks) {
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+		}
+		return cardinality;
+	}
+
+	void writeToFile(File outputFile) throws IOException {
+		if (outputFile.exists()) {
+			outputFile.delete();
+		}
+		FileUtil.createNewFile(outputFile);
+		try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile), IO_BUFFER_SIZE)) {
+			for (long[] words : chunks) {
+				for (long word : words) {
+					for (int i = 0; i < BYTES_PER_WORD; i++) {
+						outputStream.write((int) (word >>> (i * 8)));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the bits from the stream, a stream holding more bits than the bit set can hold is an error while a shorter stream leaves the remaining bits clear.
+	 */
+	void readFromInputStream(InputStream inputStream) throws IOException {
+		long byteIndex = 0;
+		try (InputStream bufferedInputStream = new BufferedInputStream(inputStream, IO_BUFFER_SIZE)) {
+			int value;
+			while ((value = bufferedInputStream.read()) != EOF) {
+				if (value != 0) {
+					long wordIndex = byteIndex / BYTES_PER_WORD;
+					if (wordIndex >= numberOfBits / BITS_PER_WORD) {
+						throw new IllegalStateException("The provided input holds more than the expected number of bits[" + numberOfBits + "].");
+					}
+					chunks[(int) (wordIndex / WORDS_PER_CHUNK)][(int) (wordIndex % WORDS_PER_CHUNK)] |= ((long) value) << ((byteIndex % BYTES_PER_WORD) * 8);
+				}
+				byteIndex++;
+			}
+		}
+	}
+
+}
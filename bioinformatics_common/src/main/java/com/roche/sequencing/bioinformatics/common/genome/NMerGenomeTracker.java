@@ -1,25 +1,53 @@
 package com.roche.sequencing.bioinformatics.common.genome;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.roche.sequencing.bioinformatics.common.multithreading.BoundedQueueThreadPoolExecutor;
+import com.roche.sequencing.bioinformatics.common.sequence.ICode;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
 import com.roche.sequencing.bioinformatics.common.sequence.NucleotideCodeSequence;
 import com.roche.sequencing.bioinformatics.common.sequence.SimpleNucleotideCodeSequence;
-import com.roche.sequencing.bioinformatics.common.utils.BitSetUtil;
 
+/**
+ * Tracks which n-mers occur more than once in a genome.
+ *
+ * By default every possible n-mer has its own bit, which takes 4^n bits. The probabilistic tracker instead stores the n-mers in a counting bloom filter of a chosen number of bits whose counters
+ * saturate at two. It never misses an n-mer which occurs more than once but may report an n-mer which occurs once, or not at all, as occurring more than once (see
+ * {@link #getEstimatedFalsePositiveRate()}).
+ */
 public class NMerGenomeTracker {
 
-	private final BitSet moreThanOneBitset;
+	private final static Logger logger = LoggerFactory.getLogger(NMerGenomeTracker.class);
+
+	private final static int MAX_NMER_LENGTH = 31;
+	private final static int BITS_PER_BASE = 2;
+	// the bases are numbered A=0, C=1, G=2 and T=3 which is also how SimpleNucleotideCodeSequence codes them
+	private final static int MAX_BASE_NUMBER = 3;
+	private final static int NUCLEOTIDE_CODE_MASK = (1 << SimpleNucleotideCodeSequence.BITS_PER_NUCLEOTIDE) - 1;
+	private final static int BITS_PER_BYTE = 8;
+	private final static int DIRECT_INDEXING = 0;
+
+	private final NMerBitSet moreThanOneBitset;
 	private final int nMerLength;
+	private final int numberOfHashFunctions;
 
-	private NMerGenomeTracker(BitSet bitset, int nMerLength) {
+	private NMerGenomeTracker(NMerBitSet bitset, int nMerLength, int numberOfHashFunctions) {
 		super();
 		this.moreThanOneBitset = bitset;
 		this.nMerLength = nMerLength;
+		this.numberOfHashFunctions = numberOfHashFunctions;
 	}
 
 	public boolean isContainedMoreThanOnce(ISequence sequence) {
@@ -27,162 +55,373 @@ public class NMerGenomeTracker {
 			throw new IllegalStateException("The provided length of the sequence must be [" + nMerLength + "] but was found to be [" + sequence.size() + "].");
 		}
 
-		int bitIndex = getNumber(sequence);
-		return isContainedMoreThanOnce(bitIndex);
+		Long nMerNumber = getNumber(sequence);
+		// n-mers containing bases other than A, C, G and T are not tracked
+		return nMerNumber != null && isContainedMoreThanOnce(nMerNumber);
+	}
+
+	boolean isContainedMoreThanOnce(long nMerNumber) {
+		boolean isContainedMoreThanOnce;
+		if (numberOfHashFunctions == DIRECT_INDEXING) {
+			isContainedMoreThanOnce = moreThanOneBitset.get(nMerNumber);
+		} else {
+			isContainedMoreThanOnce = true;
+			long firstHash = hash(nMerNumber);
+			long secondHash = hash(~nMerNumber) | 1;
+			hashLoop: for (int i = 0; i < numberOfHashFunctions; i++) {
+				if (!moreThanOneBitset.get(getBitIndex(firstHash, secondHash, i, moreThanOneBitset.getNumberOfBits()))) {
+					isContainedMoreThanOnce = false;
+					break hashLoop;
+				}
+			}
+		}
+		return isContainedMoreThanOnce;
 	}
 
-	boolean isContainedMoreThanOnce(int bitIndexForSequence) {
-		return moreThanOneBitset.get(bitIndexForSequence);
+	/**
+	 * @return zero for a tracker with a bit for every n-mer, otherwise the estimated chance that an n-mer which is contained once is reported as contained more than once (n-mers which are not
+	 *         contained at all are reported less often), this counts the set bits so it takes time proportional to the size of the tracker
+	 */
+	public double getEstimatedFalsePositiveRate() {
+		double falsePositiveRate = 0;
+		if (numberOfHashFunctions != DIRECT_INDEXING) {
+			falsePositiveRate = getEstimatedFalsePositiveRate(moreThanOneBitset.cardinality() / (double) moreThanOneBitset.getNumberOfBits(), numberOfHashFunctions);
+		}
+		return falsePositiveRate;
 	}
 
-	// TODO this is a work in progress
-	// and of not high importance since technically only only an nmer of approximately 14 bases
-	// can be stored in a nice file size. This is based on assuming that every permutation of 4 bases is given a unique but
-	// calculatable number which represents a bit position to tell if there are more than one sequences of this
-	// size represented. So the calculation for this size is:
+	private static double getEstimatedFalsePositiveRate(double fractionOfBitsSetMoreThanOnce, int numberOfHashFunctions) {
+		// With the bits hit a Poisson distributed number of times with mean m the fraction set more than once is 1 - e^-m(1 + m), which is solved for m by bisection.
+		// Each bit of an n-mer contained once is then set more than once when any other n-mer also hit it, which has a chance of 1 - e^-m.
+		double lowMean = 0;
+		double highMean = 64;
+		for (int i = 0; i < 100; i++) {
+			double mean = (lowMean + highMean) / 2;
+			if (1 - (Math.exp(-mean) * (1 + mean)) < fractionOfBitsSetMoreThanOnce) {
+				lowMean = mean;
+			} else {
+				highMean = mean;
+			}
+		}
+		return Math.pow(1 - Math.exp(-lowMean), numberOfHashFunctions);
+	}
+
+	// Each n-mer is given a unique but calculatable number which is the bit position that tells if the n-mer is
+	// represented more than once. So the size of the tracker is:
 	// 4^14 / 8 bits per byte / 1000 bytes per kb / 1000 kb per mb = 33.5544 mb
 	// 4^15 / 8 bits per byte / 1000 bytes per kb / 1000 kb per mb = 134.2177 mb
 	// 4^16 / 8 bits per byte / 1000 bytes per kb / 1000 kb per mb = 536.8709 mb
-	// can't do 17 currently because of overflow on int datatype and limitations of bitset -- would need to create new datatype that
-	// houses multiple bitsets
+	// and doubles for the build, and again for each additional build thread, since the n-mers seen once are also tracked.
+	// Beyond about 16 bases use the probabilistic tracker.
 
 	public static NMerGenomeTracker createNMerGenomeTrackerFromFastaDirectory(File fastaDirectoryOrFile, File outputNMerGenomeTrackerFile, int nMerLength, boolean includeReverseCompliment)
 			throws FileNotFoundException, IOException {
-		NMerGenomeTracker returnTracker = null;
-		int numberOfPermutations = (int) Math.pow(4, nMerLength);
-		BitSet moreThanOneBitset = new BitSet(numberOfPermutations);
+		return createNMerGenomeTrackerFromFastaDirectory(fastaDirectoryOrFile, outputNMerGenomeTrackerFile, nMerLength, includeReverseCompliment, 1);
+	}
+
+	/**
+	 * Builds a tracker with a bit for every possible n-mer.
+	 * 
+	 * @param fastaDirectoryOrFile
+	 * @param outputNMerGenomeTrackerFile
+	 * @param nMerLength
+	 * @param includeReverseCompliment
+	 *            count each occurrence on both strands, so an n-mer is seen more than once when its occurrences plus those of its reverse compliment number at least two
+	 * @param numberOfThreads
+	 *            the containers are split between the threads, each thread needs its own copy of the bits during the build
+	 * @return the tracker
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static NMerGenomeTracker createNMerGenomeTrackerFromFastaDirectory(File fastaDirectoryOrFile, File outputNMerGenomeTrackerFile, int nMerLength, boolean includeReverseCompliment,
+			int numberOfThreads) throws FileNotFoundException, IOException {
+		checkNMerLength(nMerLength);
+		return createNMerGenomeTracker(fastaDirectoryOrFile, outputNMerGenomeTrackerFile, nMerLength, includeReverseCompliment, getNumberOfPermutations(nMerLength), DIRECT_INDEXING,
+				numberOfThreads);
+	}
+
+	/**
+	 * Builds a tracker which stores the n-mers in a counting bloom filter.
+	 * 
+	 * @param fastaDirectoryOrFile
+	 * @param outputNMerGenomeTrackerFile
+	 * @param nMerLength
+	 * @param includeReverseCompliment
+	 *            count each occurrence on both strands, so an n-mer is seen more than once when its occurrences plus those of its reverse compliment number at least two
+	 * @param numberOfBits
+	 *            the size of the filter, the false positive rate grows as the number of distinct n-mers in the genome approaches this size
+	 * @param numberOfHashFunctions
+	 *            the number of bits set for each n-mer
+	 * @param numberOfThreads
+	 *            the containers are split between the threads, each thread needs its own copy of the bits during the build
+	 * @return the tracker
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static NMerGenomeTracker createProbabilisticNMerGenomeTrackerFromFastaDirectory(File fastaDirectoryOrFile, File outputNMerGenomeTrackerFile, int nMerLength,
+			boolean includeReverseCompliment, long numberOfBits, int numberOfHashFunctions, int numberOfThreads) throws FileNotFoundException, IOException {
+		checkNMerLength(nMerLength);
+		if (numberOfHashFunctions < 1) {
+			throw new IllegalArgumentException("The provided number of hash functions[" + numberOfHashFunctions + "] must be at least one.");
+		}
+		return createNMerGenomeTracker(fastaDirectoryOrFile, outputNMerGenomeTrackerFile, nMerLength, includeReverseCompliment, numberOfBits, numberOfHashFunctions, numberOfThreads);
+	}
 
-		FastaProcessor fastaProcessor = new FastaProcessor(nMerLength, includeReverseCompliment);
+	private static NMerGenomeTracker createNMerGenomeTracker(File fastaDirectoryOrFile, File outputNMerGenomeTrackerFile, int nMerLength, boolean includeReverseCompliment, long numberOfBits,
+			int numberOfHashFunctions, int numberOfThreads) throws FileNotFoundException, IOException {
+		FastaProcessor fastaProcessor = new FastaProcessor(nMerLength, includeReverseCompliment, numberOfBits, numberOfHashFunctions, numberOfThreads);
 
 		FastaDirectoryParser.parseFastaFile(fastaDirectoryOrFile, fastaProcessor);
 
-		BitSetUtil.writeBitSetToFile(fastaProcessor.getMoreThanOneBitSet(), outputNMerGenomeTrackerFile);
-		returnTracker = new NMerGenomeTracker(moreThanOneBitset, nMerLength);
+		NMerGenomeTracker returnTracker = new NMerGenomeTracker(fastaProcessor.getMoreThanOneBitSet(), nMerLength, numberOfHashFunctions);
+		returnTracker.writeToFile(outputNMerGenomeTrackerFile);
 
 		return returnTracker;
 	}
 
+	private static void checkNMerLength(int nMerLength) {
+		if (nMerLength < 1 || nMerLength > MAX_NMER_LENGTH) {
+			throw new IllegalArgumentException("The provided n-mer length[" + nMerLength + "] must be between 1 and " + MAX_NMER_LENGTH + ".");
+		}
+	}
+
+	private static long getNumberOfPermutations(int nMerLength) {
+		return 1L << (BITS_PER_BASE * nMerLength);
+	}
+
 	public void writeToFile(File outputFile) throws IOException {
-		BitSetUtil.writeBitSetToFile(moreThanOneBitset, outputFile);
+		moreThanOneBitset.writeToFile(outputFile);
 	}
 
 	public static NMerGenomeTracker createNMerGenomeTrackerFromInputStream(InputStream nMerGenomeTracker, int nMerLength) throws IOException {
-		BitSet bitset = BitSetUtil.readBitSetFromInputStream(nMerGenomeTracker);
-		return new NMerGenomeTracker(bitset, nMerLength);
+		checkNMerLength(nMerLength);
+		NMerBitSet bitset = new NMerBitSet(getNumberOfPermutations(nMerLength));
+		bitset.readFromInputStream(nMerGenomeTracker);
+		return new NMerGenomeTracker(bitset, nMerLength, DIRECT_INDEXING);
 	}
 
 	public static NMerGenomeTracker createNMerGenomeTrackerFromFile(File nMerGenomeTrackerFile, int nMerLength) throws IOException {
-		BitSet bitset = BitSetUtil.readBitSetFromFile(nMerGenomeTrackerFile);
-		return new NMerGenomeTracker(bitset, nMerLength);
+		return createNMerGenomeTrackerFromInputStream(new FileInputStream(nMerGenomeTrackerFile), nMerLength);
 	}
 
-	private final static String[] BASES = new String[] { "A", "C", "G", "T" };
-
-	private static ISequence getSequence(long value, int sequenceLength) {
-		StringBuilder sequenceAsStringBuilder = new StringBuilder();
-
-		for (int i = sequenceLength - 1; i >= 0; i--) {
-			long base = (long) Math.pow(4, i);
-			int count = 0;
-			while (value >= base) {
-				value -= base;
-				count++;
-			}
-			sequenceAsStringBuilder.append(BASES[count]);
-		}
-		return new NucleotideCodeSequence(sequenceAsStringBuilder.toString());
+	/**
+	 * @param nMerGenomeTrackerFile
+	 *            a file written by a tracker created with createProbabilisticNMerGenomeTrackerFromFastaDirectory
+	 * @param nMerLength
+	 * @param numberOfHashFunctions
+	 *            the number of hash functions the tracker was created with
+	 * @return the tracker
+	 * @throws IOException
+	 */
+	public static NMerGenomeTracker createProbabilisticNMerGenomeTrackerFromFile(File nMerGenomeTrackerFile, int nMerLength, int numberOfHashFunctions) throws IOException {
+		checkNMerLength(nMerLength);
+		NMerBitSet bitset = new NMerBitSet(nMerGenomeTrackerFile.length() * BITS_PER_BYTE);
+		bitset.readFromInputStream(new FileInputStream(nMerGenomeTrackerFile));
+		return new NMerGenomeTracker(bitset, nMerLength, numberOfHashFunctions);
 	}
 
-	private static int getNumber(ISequence sequence) {
-		int value = 0;
-		for (int i = 0; i < sequence.size(); i++) {
-			long base = (long) Math.pow(4, i);
-			String ntBase = sequence.getCodeAt(sequence.size() - i - 1).toString();
+	private final static String[] BASES = new String[] { "A", "C", "G", "T" };
+
+	/**
+	 * @return the number of the n-mer with the first base in the most significant position or null if the sequence contains a base other than A, C, G or T
+	 */
+	private static Long getNumber(ISequence sequence) {
+		long value = 0;
+		for (ICode code : sequence) {
+			String ntBase = code.toString();
+			Integer baseNumber = null;
 			baseLoop: for (int baseIndex = 0; baseIndex < BASES.length; baseIndex++) {
 				if (ntBase.equals(BASES[baseIndex])) {
-					value += baseIndex * base;
+					baseNumber = baseIndex;
 					break baseLoop;
 				}
 			}
+			if (baseNumber == null) {
+				return null;
+			}
+			value = (value << BITS_PER_BASE) | baseNumber;
 		}
 		return value;
 	}
 
-	private static class FastaProcessor implements IParsedFastaProcessor {
-		private final BitSet oneOrMoreBitset;
-		private final BitSet moreThanOneBitset;
+	private static long hash(long value) {
+		// the splitmix64 finalizer
+		long hash = value + 0x9e3779b97f4a7c15L;
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+
+	private static long getBitIndex(long firstHash, long secondHash, int hashFunctionIndex, long numberOfBits) {
+		// double hashing gives the bloom filter as many hash functions as needed from two hashes
+		return ((firstHash + (hashFunctionIndex * secondHash)) >>> 1) % numberOfBits;
+	}
+
+	/**
+	 * Counts the n-mers of the containers given to one thread.
+	 */
+	private static class NMerCounter {
+		private final NMerBitSet oneOrMoreBitset;
+		private final NMerBitSet moreThanOneBitset;
 		private final int nMerLength;
 		private final boolean includeReverseCompliments;
+		private final int numberOfHashFunctions;
 
-		public FastaProcessor(int nMerLength, boolean includeReverseCompliments) {
-			super();
-			int numberOfPermutations = (int) Math.pow(4, nMerLength);
-			oneOrMoreBitset = new BitSet(numberOfPermutations);
-			moreThanOneBitset = new BitSet(numberOfPermutations);
+		private NMerCounter(int nMerLength, boolean includeReverseCompliments, long numberOfBits, int numberOfHashFunctions) {
+			oneOrMoreBitset = new NMerBitSet(numberOfBits);
+			moreThanOneBitset = new NMerBitSet(numberOfBits);
 			this.nMerLength = nMerLength;
 			this.includeReverseCompliments = includeReverseCompliments;
+			this.numberOfHashFunctions = numberOfHashFunctions;
 		}
 
-		@Override
-		public void sequenceProcessed(String containerName, SimpleNucleotideCodeSequence sequence) {
-			ISequence subSequence = sequence.subSequence(0, nMerLength - 1);
-			for (int nextBaseIndex = nMerLength; nextBaseIndex <= sequence.size(); nextBaseIndex++) {
-				int bitIndex = getNumber(subSequence);
-				if (oneOrMoreBitset.get(bitIndex)) {
-					moreThanOneBitset.set(bitIndex);
+		/**
+		 * @param sequenceAsBytes
+		 *            the sequence as packed by {@link SimpleNucleotideCodeSequence#getSequenceAsBytes()}
+		 * @param sequenceLength
+		 */
+		private void addSequence(byte[] sequenceAsBytes, int sequenceLength) {
+			long nMerMask = getNumberOfPermutations(nMerLength) - 1;
+			int reverseComplimentShift = BITS_PER_BASE * (nMerLength - 1);
+			long nMerNumber = 0;
+			long reverseComplimentNMerNumber = 0;
+			int consecutiveBases = 0;
+			for (int i = 0; i < sequenceLength; i++) {
+				long bitIndex = (long) i * SimpleNucleotideCodeSequence.BITS_PER_NUCLEOTIDE;
+				int byteIndex = (int) (bitIndex / BITS_PER_BYTE);
+				int bits = sequenceAsBytes[byteIndex] & 0xFF;
+				if (byteIndex + 1 < sequenceAsBytes.length) {
+					bits |= (sequenceAsBytes[byteIndex + 1] & 0xFF) << BITS_PER_BYTE;
+				}
+				int baseNumber = (bits >>> (bitIndex % BITS_PER_BYTE)) & NUCLEOTIDE_CODE_MASK;
+
+				if (baseNumber > MAX_BASE_NUMBER) {
+					// n-mers containing bases other than A, C, G and T are not tracked
+					consecutiveBases = 0;
+				} else {
+					nMerNumber = ((nMerNumber << BITS_PER_BASE) | baseNumber) & nMerMask;
+					reverseComplimentNMerNumber = (reverseComplimentNMerNumber >>> BITS_PER_BASE) | ((long) (MAX_BASE_NUMBER - baseNumber) << reverseComplimentShift);
+					consecutiveBases++;
+					if (consecutiveBases >= nMerLength) {
+						add(nMerNumber);
+						if (includeReverseCompliments) {
+							add(reverseComplimentNMerNumber);
+						}
+					}
 				}
-				oneOrMoreBitset.set(bitIndex);
+			}
+		}
 
-				if (nextBaseIndex < sequence.size()) {
-					subSequence = subSequence.subSequence(1, subSequence.size() - 1);
-					subSequence.append(sequence.subSequence(nextBaseIndex, nextBaseIndex));
+		private void add(long nMerNumber) {
+			if (numberOfHashFunctions == DIRECT_INDEXING) {
+				NMerBitSet.addOccurrence(oneOrMoreBitset, moreThanOneBitset, nMerNumber);
+			} else {
+				long firstHash = hash(nMerNumber);
+				long secondHash = hash(~nMerNumber) | 1;
+				for (int i = 0; i < numberOfHashFunctions; i++) {
+					NMerBitSet.addOccurrence(oneOrMoreBitset, moreThanOneBitset, getBitIndex(firstHash, secondHash, i, moreThanOneBitset.getNumberOfBits()));
 				}
 			}
 		}
 
-		public BitSet getMoreThanOneBitSet() {
+		private void add(NMerCounter other) {
+			NMerBitSet.addOccurrences(oneOrMoreBitset, moreThanOneBitset, other.oneOrMoreBitset, other.moreThanOneBitset);
+		}
+	}
+
+	/**
+	 * Hands each container to a worker thread which adds its n-mers to the thread's own counter, the counters are combined once all of the containers have been processed.
+	 */
+	private static class FastaProcessor implements IParsedFastaProcessor {
+		private final int nMerLength;
+		private final boolean includeReverseCompliments;
+		private final long numberOfBits;
+		private final int numberOfHashFunctions;
+		private final BoundedQueueThreadPoolExecutor executor;
+		private final List<Future<?>> futures;
+		private final List<NMerCounter> counters;
+		private final ThreadLocal<NMerCounter> counterForThread;
+		private NMerBitSet moreThanOneBitset;
+
+		public FastaProcessor(int nMerLength, boolean includeReverseCompliments, long numberOfBits, int numberOfHashFunctions, int numberOfThreads) {
+			super();
+			this.nMerLength = nMerLength;
+			this.includeReverseCompliments = includeReverseCompliments;
+			this.numberOfBits = numberOfBits;
+			this.numberOfHashFunctions = numberOfHashFunctions;
+			// the queue is kept short since each waiting container is held in memory
+			this.executor = new BoundedQueueThreadPoolExecutor(numberOfThreads, numberOfThreads, "NMER_COUNTING_");
+			this.futures = new ArrayList<Future<?>>();
+			this.counters = Collections.synchronizedList(new ArrayList<NMerCounter>());
+			this.counterForThread = new ThreadLocal<NMerCounter>() {
+				@Override
+				protected NMerCounter initialValue() {
+					NMerCounter counter = createCounter();
+					counters.add(counter);
+					return counter;
+				}
+			};
+		}
+
+		private NMerCounter createCounter() {
+			return new NMerCounter(nMerLength, includeReverseCompliments, numberOfBits, numberOfHashFunctions);
+		}
+
+		@Override
+		public void sequenceProcessed(String containerName, SimpleNucleotideCodeSequence sequence) {
+			final byte[] sequenceAsBytes = sequence.getSequenceAsBytes();
+			final int sequenceLength = sequence.size();
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					counterForThread.get().addSequence(sequenceAsBytes, sequenceLength);
+				}
+			}));
+		}
+
+		public NMerBitSet getMoreThanOneBitSet() {
 			return moreThanOneBitset;
 		}
 
 		@Override
 		public void doneProcessing() {
-			int numberOfPermutations = (int) Math.pow(4, nMerLength);
-
-			// go through the reverse compliment of every single found sequence
-			if (includeReverseCompliments) {
-				BitSet rcOneOrMoreBitSet = new BitSet(numberOfPermutations);
-				for (int i = 0; i < numberOfPermutations; i++) {
-					if (oneOrMoreBitset.get(i)) {
-						ISequence rc = getSequence(i, nMerLength).getReverseCompliment();
-						int newNumber = getNumber(rc);
-						rcOneOrMoreBitSet.set(newNumber);
-						if (oneOrMoreBitset.get(newNumber)) {
-							moreThanOneBitset.set(newNumber);
-						}
-					}
+			executor.shutdown();
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e.getMessage(), e);
 				}
-				oneOrMoreBitset.or(rcOneOrMoreBitSet);
 			}
 
-			double moreThanOneNumbersFound = 0;
-			double oneOrMoreNumbersFound = 0;
-			for (int i = 0; i < numberOfPermutations; i++) {
-				if (oneOrMoreBitset.get(i)) {
-					oneOrMoreNumbersFound++;
-				}
-				if (moreThanOneBitset.get(i)) {
-					moreThanOneNumbersFound++;
+			NMerCounter combinedCounter;
+			if (counters.size() == 0) {
+				combinedCounter = createCounter();
+			} else {
+				combinedCounter = counters.get(0);
+				for (int i = 1; i < counters.size(); i++) {
+					combinedCounter.add(counters.get(i));
 				}
 			}
-			double percentOfAllPossibleNMersFoundMultipleTimes = moreThanOneNumbersFound / (double) numberOfPermutations;
-			double percentOfAllPossibleNMersFoundOneOrMoreTimes = oneOrMoreNumbersFound / (double) numberOfPermutations;
-			double percentOfAllPossibleNMersFoundOnce = percentOfAllPossibleNMersFoundOneOrMoreTimes - percentOfAllPossibleNMersFoundMultipleTimes;
-			double percentOfAllUniqueNMersOutOfAllFoundNmers = percentOfAllPossibleNMersFoundOnce / percentOfAllPossibleNMersFoundOneOrMoreTimes;
-			System.out.println("percentOfAllPossibleNMersFoundMultipleTimes:" + percentOfAllPossibleNMersFoundMultipleTimes);
-			System.out.println("percentOfAllPossibleNMersFoundOneOrMoreTimes:" + percentOfAllPossibleNMersFoundOneOrMoreTimes);
-			System.out.println("percentOfAllPossibleNMersFoundOnce:" + percentOfAllPossibleNMersFoundOnce);
-			System.out.println("percentOfAllUniqueNMersOutOfAllFoundNmers:" + percentOfAllUniqueNMersOutOfAllFoundNmers);
-
+			moreThanOneBitset = combinedCounter.moreThanOneBitset;
+
+			double numberOfBitsAsDouble = (double) combinedCounter.moreThanOneBitset.getNumberOfBits();
+			double percentOfBitsSetMultipleTimes = combinedCounter.moreThanOneBitset.cardinality() / numberOfBitsAsDouble;
+			double percentOfBitsSetOneOrMoreTimes = combinedCounter.oneOrMoreBitset.cardinality() / numberOfBitsAsDouble;
+			if (numberOfHashFunctions == DIRECT_INDEXING) {
+				double percentOfAllPossibleNMersFoundOnce = percentOfBitsSetOneOrMoreTimes - percentOfBitsSetMultipleTimes;
+				double percentOfAllUniqueNMersOutOfAllFoundNmers = percentOfAllPossibleNMersFoundOnce / percentOfBitsSetOneOrMoreTimes;
+				logger.debug("percentOfAllPossibleNMersFoundMultipleTimes:" + percentOfBitsSetMultipleTimes);
+				logger.debug("percentOfAllPossibleNMersFoundOneOrMoreTimes:" + percentOfBitsSetOneOrMoreTimes);
+				logger.debug("percentOfAllPossibleNMersFoundOnce:" + percentOfAllPossibleNMersFoundOnce);
+				logger.debug("percentOfAllUniqueNMersOutOfAllFoundNmers:" + percentOfAllUniqueNMersOutOfAllFoundNmers);
+			} else {
+				logger.debug("percentOfBitsSetOneOrMoreTimes:" + percentOfBitsSetOneOrMoreTimes);
+				logger.debug("percentOfBitsSetMultipleTimes:" + percentOfBitsSetMultipleTimes);
+				logger.debug("estimatedFalsePositiveRate:" + getEstimatedFalsePositiveRate(percentOfBitsSetMultipleTimes, numberOfHashFunctions));
+			}
 		}
 	}
 
@@ -237,20 +476,25 @@ public class NMerGenomeTracker {
 	}
 
 	public static NMerGenomeTracker combineTrackers(NMerGenomeTracker... trackers) {
-		BitSet bitSet = null;
+		NMerBitSet bitSet = null;
 		Integer nMerLength = null;
+		Integer numberOfHashFunctions = null;
 		for (NMerGenomeTracker tracker : trackers) {
 			if (bitSet == null) {
-				bitSet = (BitSet) tracker.moreThanOneBitset.clone();
+				bitSet = new NMerBitSet(tracker.moreThanOneBitset.getNumberOfBits());
 				nMerLength = tracker.nMerLength;
+				numberOfHashFunctions = tracker.numberOfHashFunctions;
 			} else {
 				if (tracker.nMerLength != nMerLength) {
 					throw new IllegalStateException("Attempting to merge NMerGenomeTrackers of different lengths.");
 				}
-				bitSet.or(tracker.moreThanOneBitset);
+				if (tracker.numberOfHashFunctions != numberOfHashFunctions) {
+					throw new IllegalStateException("Attempting to merge NMerGenomeTrackers with different numbers of hash functions.");
+				}
 			}
+			bitSet.or(tracker.moreThanOneBitset);
 		}
-		return new NMerGenomeTracker(bitSet, nMerLength);
+		return new NMerGenomeTracker(bitSet, nMerLength, numberOfHashFunctions);
 	}
 
 	// private static void load(int nMerSize, File inputDir, String fileIdentifier) {
@@ -0,0 +1,169 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
+
+/**
+ * 
+ * Keeps track of counts/tallies of objects which are added from several threads. Each count is a striped LongAdder cell so threads tallying the same object do not contend on a single value, and
+ * the largest count is found when it is read rather than tracked on every addition.
+ * 
+ * @param <O>
+ */
+public class ConcurrentTallyMap<O> {
+
+	private final ConcurrentMap<O, LongAdder> objectCount;
+	private final LongAdder sumOfAllBins;
+
+	public ConcurrentTallyMap() {
+		this.objectCount = new ConcurrentHashMap<O, LongAdder>();
+		this.sumOfAllBins = new LongAdder();
+	}
+
+	public void add(O object) {
+		addMultiple(object, 1);
+	}
+
+	public void addAll(Collection<O> objects) {
+		if (objects != null) {
+			for (O object : objects) {
+				add(object);
+			}
+		}
+	}
+
+	public void addAll(ConcurrentTallyMap<O> tallyMap) {
+		for (Entry<O, LongAdder> entry : tallyMap.objectCount.entrySet()) {
+			addMultiple(entry.getKey(), entry.getValue().sum());
+		}
+	}
+
+	public void addMultiple(O object, long numberOfAdditions) {
+		LongAdder count = objectCount.get(object);
+		if (count == null) {
+			LongAdder newCount = new LongAdder();
+			count = objectCount.putIfAbsent(object, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.add(numberOfAdditions);
+		sumOfAllBins.add(numberOfAdditions);
+	}
+
+	public boolean contains(O object) {
+		return objectCount.containsKey(object);
+	}
+
+	public long getCount(O object) {
+		long currentCount = 0;
+		LongAdder count = objectCount.get(object);
+		if (count != null) {
+			currentCount = count.sum();
+		}
+		return currentCount;
+	}
+
+	public long getSumOfAllBins() {
+		return sumOfAllBins.sum();
+	}
+
+	/**
+	 * @return the largest count at the time of the call, additions made by other threads while it is found may or may not be included
+	 */
+	public long getLargestCount() {
+		long largestCount = 0;
+		boolean found = false;
+		for (LongAdder count : objectCount.values()) {
+			long currentCount = count.sum();
+			if (!found || currentCount > largestCount) {
+				largestCount = currentCount;
+				found = true;
+			}
+		}
+		return largestCount;
+	}
+
+	public Set<O> getObjectsWithLargestCount() {
+		Set<O> objectsWithLargestCount = new HashSet<O>();
+		long largestCount = 0;
+		for (Entry<O, Long> entry : getTalliesAsMap().entrySet()) {
+			long currentCount = entry.getValue();
+			if (objectsWithLargestCount.isEmpty() || currentCount > largestCount) {
+				largestCount = currentCount;
+				objectsWithLargestCount.clear();
+				objectsWithLargestCount.add(entry.getKey());
+			} else if (currentCount == largestCount) {
+				objectsWithLargestCount.add(entry.getKey());
+			}
+		}
+		return objectsWithLargestCount;
+	}
+
+	public Set<O> getObjects() {
+		return Collections.unmodifiableSet(objectCount.keySet());
+	}
+
+	/**
+	 * @return a snapshot of the counts
+	 */
+	public Map<O, Long> getTalliesAsMap() {
+		Map<O, Long> talliesAsMap = new HashMap<O, Long>(objectCount.size() * 2);
+		for (Entry<O, LongAdder> entry : objectCount.entrySet()) {
+			talliesAsMap.put(entry.getKey(), entry.getValue().sum());
+		}
+		return talliesAsMap;
+	}
+
+	public List<Entry<O, Long>> getObjectsSortedFromMostTalliesToLeast() {
+		List<Entry<O, Long>> entries = new ArrayList<Entry<O, Long>>(objectCount.size());
+		for (Entry<O, LongAdder> entry : objectCount.entrySet()) {
+			entries.add(new SimpleImmutableEntry<O, Long>(entry.getKey(), entry.getValue().sum()));
+		}
+		Collections.sort(entries, new Comparator<Entry<O, Long>>() {
+			@Override
+			public int compare(Entry<O, Long> o1, Entry<O, Long> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+		return entries;
+	}
+
+	public String getHistogramAsString() {
+		StringBuilder histogram = new StringBuilder();
+		for (Entry<O, Long> entry : getObjectsSortedFromMostTalliesToLeast()) {
+			histogram.append(entry.getKey() + " : " + entry.getValue() + StringUtil.NEWLINE);
+		}
+		return histogram.toString();
+	}
+}
@@ -1,45 +1,47 @@
 package com.roche.sequencing.bioinformatics.common.mapping;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
 
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Tallies how many times each position is covered by a set of ranges. Adding a range only records its start and stop in primitive arrays, the coverage is resolved the first time it is needed by
+ * sorting the starts and stops and taking a single prefix sum over the +1/-1 deltas at each breakpoint. Running totals of the covered bases at each breakpoint let region of interest stats be
+ * answered with two binary searches.
+ */
 public class CoverageCalculator {
 
-	private final LinkedList<StartWithTally> range;
+	private final static int INITIAL_CAPACITY = 16;
+
+	private int[] startPositionsInclusive;
+	private int[] stopPositionsExclusive;
+	private int numberOfRanges;
+	private boolean startPositionsAreSorted;
 	private int min;
 	private int max;
 
+	// resolved coverage, the tally at breakpoints[i] holds until breakpoints[i + 1]
+	private boolean isResolved;
+	private int[] breakpoints;
+	private int[] talliesAtBreakpoints;
+	private long[] uniqueBasesBeforeBreakpoints;
+	private long[] totalBasesBeforeBreakpoints;
+	private int numberOfBreakpoints;
+	private int maxTally;
+
 	public CoverageCalculator() {
-		range = new LinkedList<StartWithTally>();
+		startPositionsInclusive = new int[INITIAL_CAPACITY];
+		stopPositionsExclusive = new int[INITIAL_CAPACITY];
+		numberOfRanges = 0;
+		startPositionsAreSorted = true;
 		min = Integer.MAX_VALUE;
 		max = Integer.MIN_VALUE;
-		range.add(new StartWithTally(-Integer.MAX_VALUE));
-		range.add(new StartWithTally(Integer.MAX_VALUE));
-	}
-
-	private int findIndexOfFirstEqualOrLargerValue(int position) {
-		return binarySearch(0, range.size() - 1, position);
-	}
-
-	private int binarySearch(int minIndex, int maxIndex, int position) {
-		int foundIndex = 0;
-		int midIndex = minIndex + ((maxIndex - minIndex) / 2);
-		int indexAboveMidIndex = midIndex + 1;
-		// System.out.println(range.get(midIndex).getPosition() + " < " + position + " <= " + range.get(indexAboveMidIndex).getPosition());
-		if (range.get(midIndex).getPosition() < position && range.get(indexAboveMidIndex).getPosition() >= position) {
-			foundIndex = indexAboveMidIndex;
-		} else if (range.get(indexAboveMidIndex).getPosition() > position) {
-			foundIndex = binarySearch(minIndex, midIndex, position);
-		} else if (range.get(midIndex).getPosition() <= position) {
-			foundIndex = binarySearch(midIndex, maxIndex, position);
-		} else {
-			throw new AssertionError();
-		}
-
-		return foundIndex;
+		isResolved = false;
 	}
 
 	public void addRange(int startPositionInclusive, int stopPositionInclusive) {
@@ -51,149 +53,190 @@ public class CoverageCalculator {
 			stopPositionExclusive = startPositionInclusive;
 			startPositionInclusive = temp;
 		}
-		int index = findIndexOfFirstEqualOrLargerValue(startPositionInclusive);
-
-		// insert an index for the start position
-		if (startPositionInclusive != range.get(index).getPosition()) {
-			int oldTally = range.get(index - 1).getTally();
-			range.add(index, new StartWithTally(startPositionInclusive, oldTally));
-		}
 
-		// walk through and increment the tallies until a number that is larger than the stop position is found
-		while ((index < range.size()) && range.get(index).getPosition() < stopPositionExclusive) {
-			range.get(index).incrementTally();
-			index++;
+		if (numberOfRanges == startPositionsInclusive.length) {
+			startPositionsInclusive = Arrays.copyOf(startPositionsInclusive, numberOfRanges * 2);
+			stopPositionsExclusive = Arrays.copyOf(stopPositionsExclusive, numberOfRanges * 2);
 		}
-		if (range.get(index).getPosition() != stopPositionExclusive) {
-			// the preceding tally has already been incremented so subtract one
-			int oldTally = range.get(index - 1).getTally() - 1;
-			range.add(index, new StartWithTally(stopPositionExclusive, oldTally));
+		if (numberOfRanges > 0 && startPositionInclusive < startPositionsInclusive[numberOfRanges - 1]) {
+			startPositionsAreSorted = false;
 		}
+		startPositionsInclusive[numberOfRanges] = startPositionInclusive;
+		stopPositionsExclusive[numberOfRanges] = stopPositionExclusive;
+		numberOfRanges++;
+		isResolved = false;
 	}
 
-	public List<RangeWithTally> getTalliedRanges() {
-		List<RangeWithTally> talliedRanges = new ArrayList<RangeWithTally>();
-		Integer lastStart = null;
-		Integer start = null;
-		Integer lastStop = null;
-		int lastTally = 0;
-		int tally = 0;
-		for (StartWithTally indexTally : range) {
-			lastStart = start;
-			start = indexTally.getPosition();
-			lastStop = start;
-			lastTally = tally;
-			tally = indexTally.getTally();
-			if (lastTally != 0) {
-				talliedRanges.add(new RangeWithTally(lastStart, lastStop, lastTally));
+	/**
+	 * Adds the aligned portion of each mapped record. The records are expected to be on a single reference sequence, such as those returned by querying an indexed bam file, and when they are
+	 * coordinate sorted their start positions do not need to be sorted when the coverage is resolved.
+	 */
+	public void addMappedReads(Iterator<SAMRecord> records) {
+		String referenceName = null;
+		while (records.hasNext()) {
+			SAMRecord record = records.next();
+			if (!record.getReadUnmappedFlag()) {
+				if (referenceName == null) {
+					referenceName = record.getReferenceName();
+				} else if (!referenceName.equals(record.getReferenceName())) {
+					throw new IllegalStateException("Unable to calculate coverage for records mapped to more than one reference sequence[" + referenceName + " and " + record.getReferenceName()
+							+ "].");
+				}
+				addRange(record.getAlignmentStart(), record.getAlignmentEnd());
 			}
 		}
-
-		return talliedRanges;
 	}
 
-	public CoverageStats getCoverageStatsForRegionOfInterest(int regionOfInterestStartInclusive, int regionOfInterestStopInclusive) {
-		int totalUniqueBasedCoveredInRegionOfInterest = 0;
-		int totalRedundantBasesCoveredInRegionOfInterest = 0;
-
-		int totalUniqueBasesOutsideRegionOfInterest = 0;
-		int totalRedundantBasesOutsideRegionOfInterest = 0;
+	private void resolve() {
+		if (!isResolved) {
+			int[] sortedStarts = Arrays.copyOf(startPositionsInclusive, numberOfRanges);
+			if (!startPositionsAreSorted) {
+				Arrays.sort(sortedStarts);
+			}
+			int[] sortedStops = Arrays.copyOf(stopPositionsExclusive, numberOfRanges);
+			Arrays.sort(sortedStops);
+
+			breakpoints = new int[numberOfRanges * 2];
+			talliesAtBreakpoints = new int[numberOfRanges * 2];
+			numberOfBreakpoints = 0;
+			maxTally = 0;
+			int tally = 0;
+			int startIndex = 0;
+			int stopIndex = 0;
+			// merge the sorted starts and stops keeping a running sum of the deltas
+			while (startIndex < numberOfRanges || stopIndex < numberOfRanges) {
+				int position;
+				if (stopIndex == numberOfRanges || (startIndex < numberOfRanges && sortedStarts[startIndex] < sortedStops[stopIndex])) {
+					position = sortedStarts[startIndex];
+				} else {
+					position = sortedStops[stopIndex];
+				}
+				while (startIndex < numberOfRanges && sortedStarts[startIndex] == position) {
+					tally++;
+					startIndex++;
+				}
+				while (stopIndex < numberOfRanges && sortedStops[stopIndex] == position) {
+					tally--;
+					stopIndex++;
+				}
+				breakpoints[numberOfBreakpoints] = position;
+				talliesAtBreakpoints[numberOfBreakpoints] = tally;
+				numberOfBreakpoints++;
+				maxTally = Math.max(maxTally, tally);
+			}
 
-		int totalBasesInTally = 0;
-		int totalUniqueBasesInTally = 0;
+			uniqueBasesBeforeBreakpoints = new long[numberOfBreakpoints];
+			totalBasesBeforeBreakpoints = new long[numberOfBreakpoints];
+			for (int i = 1; i < numberOfBreakpoints; i++) {
+				long length = (long) breakpoints[i] - breakpoints[i - 1];
+				int previousTally = talliesAtBreakpoints[i - 1];
+				uniqueBasesBeforeBreakpoints[i] = uniqueBasesBeforeBreakpoints[i - 1] + (previousTally != 0 ? length : 0);
+				totalBasesBeforeBreakpoints[i] = totalBasesBeforeBreakpoints[i - 1] + (previousTally * length);
+			}
+			isResolved = true;
+		}
+	}
 
-		List<RangeWithTally> talliedRanges = getTalliedRanges();
-		for (RangeWithTally rangeWithTally : talliedRanges) {
-			int rangeStartInclusive = rangeWithTally.getStart();
-			int rangeStopExclusive = rangeWithTally.getStop();
-			int count = rangeWithTally.getCount();
+	/**
+	 * @return the index of the last breakpoint at or before the position or -1 if the position is before all breakpoints
+	 */
+	private int findIndexOfBreakpointAtOrBefore(long position) {
+		int lowIndex = 0;
+		int highIndex = numberOfBreakpoints - 1;
+		int foundIndex = -1;
+		while (lowIndex <= highIndex) {
+			int midIndex = (lowIndex + highIndex) >>> 1;
+			if (breakpoints[midIndex] <= position) {
+				foundIndex = midIndex;
+				lowIndex = midIndex + 1;
+			} else {
+				highIndex = midIndex - 1;
+			}
+		}
+		return foundIndex;
+	}
 
-			int possibleOverlapStartInclusive = Math.max(regionOfInterestStartInclusive, rangeStartInclusive);
-			Integer possibleOverlapStopInclusive = null;
+	/**
+	 * @return the number of bases covered at least once before the position
+	 */
+	private long getUniqueBasesBefore(long positionExclusive) {
+		long uniqueBases = 0;
+		int index = findIndexOfBreakpointAtOrBefore(positionExclusive);
+		if (index >= 0) {
+			uniqueBases = uniqueBasesBeforeBreakpoints[index];
+			if (talliesAtBreakpoints[index] != 0) {
+				uniqueBases += positionExclusive - breakpoints[index];
+			}
+		}
+		return uniqueBases;
+	}
 
-			totalBasesInTally += ((rangeStopExclusive - rangeStartInclusive) * count);
-			totalUniqueBasesInTally += ((rangeStopExclusive - rangeStartInclusive));
-			possibleOverlapStopInclusive = Math.min(regionOfInterestStopInclusive, rangeStopExclusive - 1);
+	/**
+	 * @return the sum of the coverage of every base before the position
+	 */
+	private long getTotalBasesBefore(long positionExclusive) {
+		long totalBases = 0;
+		int index = findIndexOfBreakpointAtOrBefore(positionExclusive);
+		if (index >= 0) {
+			totalBases = totalBasesBeforeBreakpoints[index] + (talliesAtBreakpoints[index] * (positionExclusive - breakpoints[index]));
+		}
+		return totalBases;
+	}
 
-			boolean isOverlap = possibleOverlapStartInclusive <= possibleOverlapStopInclusive;
+	public List<RangeWithTally> getTalliedRanges() {
+		resolve();
+		List<RangeWithTally> talliedRanges = new ArrayList<RangeWithTally>();
+		for (int i = 0; i < numberOfBreakpoints - 1; i++) {
+			if (talliesAtBreakpoints[i] != 0) {
+				talliedRanges.add(new RangeWithTally(breakpoints[i], breakpoints[i + 1], talliesAtBreakpoints[i]));
+			}
+		}
+		return talliedRanges;
+	}
 
-			if (isOverlap) {
-				int coveredBasesInRegion = (possibleOverlapStopInclusive - possibleOverlapStartInclusive + 1);
+	public CoverageStats getCoverageStatsForRegionOfInterest(int regionOfInterestStartInclusive, int regionOfInterestStopInclusive) {
+		resolve();
+		long totalUniqueBasesInTally = 0;
+		long totalBasesInTally = 0;
+		if (numberOfBreakpoints > 0) {
+			totalUniqueBasesInTally = uniqueBasesBeforeBreakpoints[numberOfBreakpoints - 1];
+			totalBasesInTally = totalBasesBeforeBreakpoints[numberOfBreakpoints - 1];
+		}
 
-				totalUniqueBasedCoveredInRegionOfInterest += coveredBasesInRegion;
-				if (count > 1) {
-					totalRedundantBasesCoveredInRegionOfInterest += (count - 1) * coveredBasesInRegion;
-				}
-			}
+		long totalUniqueBasedCoveredInRegionOfInterest = 0;
+		long totalBasesCoveredInRegionOfInterest = 0;
+		if (regionOfInterestStartInclusive <= regionOfInterestStopInclusive) {
+			long regionOfInterestStopExclusive = (long) regionOfInterestStopInclusive + 1;
+			totalUniqueBasedCoveredInRegionOfInterest = getUniqueBasesBefore(regionOfInterestStopExclusive) - getUniqueBasesBefore(regionOfInterestStartInclusive);
+			totalBasesCoveredInRegionOfInterest = getTotalBasesBefore(regionOfInterestStopExclusive) - getTotalBasesBefore(regionOfInterestStartInclusive);
 		}
+		long totalRedundantBasesCoveredInRegionOfInterest = totalBasesCoveredInRegionOfInterest - totalUniqueBasedCoveredInRegionOfInterest;
 
-		totalUniqueBasesOutsideRegionOfInterest = totalUniqueBasesInTally - totalUniqueBasedCoveredInRegionOfInterest;
-		totalRedundantBasesOutsideRegionOfInterest = totalBasesInTally - totalUniqueBasedCoveredInRegionOfInterest - totalUniqueBasesOutsideRegionOfInterest
+		long totalUniqueBasesOutsideRegionOfInterest = totalUniqueBasesInTally - totalUniqueBasedCoveredInRegionOfInterest;
+		long totalRedundantBasesOutsideRegionOfInterest = totalBasesInTally - totalUniqueBasedCoveredInRegionOfInterest - totalUniqueBasesOutsideRegionOfInterest
 				- totalRedundantBasesCoveredInRegionOfInterest;
 
-		return new CoverageStats(totalUniqueBasedCoveredInRegionOfInterest, totalRedundantBasesCoveredInRegionOfInterest, totalUniqueBasesOutsideRegionOfInterest,
-				totalRedundantBasesOutsideRegionOfInterest, totalBasesInTally, regionOfInterestStartInclusive, regionOfInterestStopInclusive);
+		return new CoverageStats((int) totalUniqueBasedCoveredInRegionOfInterest, (int) totalRedundantBasesCoveredInRegionOfInterest, (int) totalUniqueBasesOutsideRegionOfInterest,
+				(int) totalRedundantBasesOutsideRegionOfInterest, (int) totalBasesInTally, regionOfInterestStartInclusive, regionOfInterestStopInclusive);
 	}
 
 	public String toString() {
+		resolve();
 		StringBuilder stringBuilder = new StringBuilder();
-		Integer lastStart = null;
-		Integer start = null;
-		Integer lastStop = null;
-		int lastTally = 0;
-		int tally = 0;
-		int size = range.size();
-		int i = 1;
-		for (StartWithTally indexTally : range) {
-			i++;
-			boolean isStopInclusive = (i == size);
-			lastStart = start;
-			start = indexTally.getPosition();
-			lastStop = start;
-			lastTally = tally;
-			tally = indexTally.getTally();
-			if (lastTally != 0) {
+		for (int i = 0; i < numberOfBreakpoints - 1; i++) {
+			int tally = talliesAtBreakpoints[i];
+			if (tally != 0) {
+				boolean isStopInclusive = (i + 1 == numberOfBreakpoints - 1);
 				if (isStopInclusive) {
-					stringBuilder.append("" + lastStart + "(inclusive) to " + (lastStop - 1) + "(inclusive) : " + lastTally + StringUtil.NEWLINE);
+					stringBuilder.append("" + breakpoints[i] + "(inclusive) to " + (breakpoints[i + 1] - 1) + "(inclusive) : " + tally + StringUtil.NEWLINE);
 				} else {
-					stringBuilder.append("" + lastStart + "(inclusive) to " + lastStop + "(exclusive) : " + lastTally + StringUtil.NEWLINE);
+					stringBuilder.append("" + breakpoints[i] + "(inclusive) to " + breakpoints[i + 1] + "(exclusive) : " + tally + StringUtil.NEWLINE);
 				}
-
 			}
 		}
 		return stringBuilder.toString();
 	}
 
-	private class StartWithTally {
-
-		private final int position;
-		private int tally;
-
-		private StartWithTally(int index) {
-			super();
-			this.position = index;
-			this.tally = 0;
-		}
-
-		private StartWithTally(int position, int tally) {
-			super();
-			this.position = position;
-			this.tally = tally;
-		}
-
-		private void incrementTally() {
-			tally++;
-		}
-
-		public int getPosition() {
-			return position;
-		}
-
-		public int getTally() {
-			return tally;
-		}
-	}
-
 	public static void main(String[] args) {
 		test5();
 	}
@@ -274,10 +317,7 @@ public class CoverageCalculator {
 	}
 
 	public int getMaxTally() {
-		int maxTally = 0;
-		for (StartWithTally startWithTally : range) {
-			maxTally = Math.max(maxTally, startWithTally.tally);
-		}
+		resolve();
 		return maxTally;
 	}
 
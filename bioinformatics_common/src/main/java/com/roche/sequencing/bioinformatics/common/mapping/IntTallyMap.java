@@ -0,0 +1,249 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
+
+/**
+ * 
+ * Keeps track of counts/tallies of primitive ints in an open addressing hash table, so tallying a value does not box it or allocate an entry. This class is not thread safe.
+ * 
+ */
+public class IntTallyMap {
+	private static final int DEFAULT_EXPECTED_SIZE = 16;
+	private static final int EMPTY_SLOT = 0;
+
+	private int[] slotKeys;
+	private int[] slotCounts;
+	private boolean containsEmptySlotKey;
+	private int emptySlotKeyCount;
+	private int size;
+	private long sumOfAllBins;
+
+	public IntTallyMap() {
+		this(DEFAULT_EXPECTED_SIZE);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the number of distinct values which can be tallied before the table is resized
+	 */
+	public IntTallyMap(int expectedSize) {
+		int numberOfSlots = LongHashSet.getNumberOfSlots(expectedSize);
+		slotKeys = new int[numberOfSlots];
+		slotCounts = new int[numberOfSlots];
+		containsEmptySlotKey = false;
+		emptySlotKeyCount = 0;
+		size = 0;
+		sumOfAllBins = 0;
+	}
+
+	public void add(int value) {
+		addMultiple(value, 1);
+	}
+
+	public void addAll(int[] values) {
+		if (values != null) {
+			for (int value : values) {
+				add(value);
+			}
+		}
+	}
+
+	public void addAll(IntTallyMap tallyMap) {
+		if (tallyMap.containsEmptySlotKey) {
+			addMultiple(EMPTY_SLOT, tallyMap.emptySlotKeyCount);
+		}
+		for (int slot = 0; slot < tallyMap.slotKeys.length; slot++) {
+			if (tallyMap.slotKeys[slot] != EMPTY_SLOT) {
+				addMultiple(tallyMap.slotKeys[slot], tallyMap.slotCounts[slot]);
+			}
+		}
+	}
+
+	public void addMultiple(int value, int numberOfAdditions) {
+		sumOfAllBins += numberOfAdditions;
+		if (value == EMPTY_SLOT) {
+			if (!containsEmptySlotKey) {
+				containsEmptySlotKey = true;
+				size++;
+			}
+			emptySlotKeyCount += numberOfAdditions;
+		} else {
+			int slot = getSlot(value);
+			if (slotKeys[slot] == EMPTY_SLOT) {
+				slotKeys[slot] = value;
+				size++;
+				if (size * 2 > slotKeys.length) {
+					resize();
+					slot = getSlot(value);
+				}
+			}
+			slotCounts[slot] += numberOfAdditions;
+		}
+	}
+
+	/**
+	 * @return the slot holding the value or the empty slot where it would be placed
+	 */
+	private int getSlot(int value) {
+		int mask = slotKeys.length - 1;
+		int slot = LongHashSet.hash(value) & mask;
+		while (slotKeys[slot] != EMPTY_SLOT && slotKeys[slot] != value) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void resize() {
+		int[] oldSlotKeys = slotKeys;
+		int[] oldSlotCounts = slotCounts;
+		slotKeys = new int[oldSlotKeys.length * 2];
+		slotCounts = new int[oldSlotKeys.length * 2];
+		for (int oldSlot = 0; oldSlot < oldSlotKeys.length; oldSlot++) {
+			if (oldSlotKeys[oldSlot] != EMPTY_SLOT) {
+				int slot = getSlot(oldSlotKeys[oldSlot]);
+				slotKeys[slot] = oldSlotKeys[oldSlot];
+				slotCounts[slot] = oldSlotCounts[oldSlot];
+			}
+		}
+	}
+
+	public boolean contains(int value) {
+		boolean contains;
+		if (value == EMPTY_SLOT) {
+			contains = containsEmptySlotKey;
+		} else {
+			contains = slotKeys[getSlot(value)] != EMPTY_SLOT;
+		}
+		return contains;
+	}
+
+	public int getCount(int value) {
+		int count;
+		if (value == EMPTY_SLOT) {
+			count = emptySlotKeyCount;
+		} else {
+			count = slotCounts[getSlot(value)];
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of distinct values which have been tallied
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getSumOfAllBins() {
+		return sumOfAllBins;
+	}
+
+	/**
+	 * @return the largest count, found by scanning the table so adding a value does not need to track it
+	 */
+	public int getLargestCount() {
+		int largestCount = 0;
+		boolean found = false;
+		if (containsEmptySlotKey) {
+			largestCount = emptySlotKeyCount;
+			found = true;
+		}
+		for (int slot = 0; slot < slotKeys.length; slot++) {
+			if (slotKeys[slot] != EMPTY_SLOT && (!found || slotCounts[slot] > largestCount)) {
+				largestCount = slotCounts[slot];
+				found = true;
+			}
+		}
+		return largestCount;
+	}
+
+	public Set<Integer> getObjectsWithLargestCount() {
+		Set<Integer> objectsWithLargestCount = new LinkedHashSet<Integer>();
+		if (size > 0) {
+			int largestCount = getLargestCount();
+			if (containsEmptySlotKey && emptySlotKeyCount == largestCount) {
+				objectsWithLargestCount.add(EMPTY_SLOT);
+			}
+			for (int slot = 0; slot < slotKeys.length; slot++) {
+				if (slotKeys[slot] != EMPTY_SLOT && slotCounts[slot] == largestCount) {
+					objectsWithLargestCount.add(slotKeys[slot]);
+				}
+			}
+		}
+		return objectsWithLargestCount;
+	}
+
+	/**
+	 * @return the tallied values in no particular order
+	 */
+	public int[] getObjects() {
+		int[] objects = new int[size];
+		int index = 0;
+		if (containsEmptySlotKey) {
+			objects[index++] = EMPTY_SLOT;
+		}
+		for (int slot = 0; slot < slotKeys.length; slot++) {
+			if (slotKeys[slot] != EMPTY_SLOT) {
+				objects[index++] = slotKeys[slot];
+			}
+		}
+		return objects;
+	}
+
+	public Map<Integer, Integer> getTalliesAsMap() {
+		Map<Integer, Integer> talliesAsMap = new HashMap<Integer, Integer>(size * 2);
+		for (int object : getObjects()) {
+			talliesAsMap.put(object, getCount(object));
+		}
+		return talliesAsMap;
+	}
+
+	public List<Entry<Integer, Integer>> getObjectsSortedFromMostTalliesToLeast() {
+		List<Entry<Integer, Integer>> entries = new ArrayList<Entry<Integer, Integer>>(size);
+		for (int object : getObjects()) {
+			entries.add(new SimpleImmutableEntry<Integer, Integer>(object, getCount(object)));
+		}
+		Collections.sort(entries, new Comparator<Entry<Integer, Integer>>() {
+			@Override
+			public int compare(Entry<Integer, Integer> o1, Entry<Integer, Integer> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+		return entries;
+	}
+
+	public String getHistogramAsString() {
+		StringBuilder histogram = new StringBuilder();
+		for (Entry<Integer, Integer> entry : getObjectsSortedFromMostTalliesToLeast()) {
+			histogram.append(entry.getKey() + " : " + entry.getValue() + StringUtil.NEWLINE);
+		}
+		return histogram.toString();
+	}
+}
@@ -0,0 +1,491 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
+
+/**
+ *
+ * Allows reference objects to be tied to a given sequence, query sequences can then be used to find the most similar references. Finds the same candidates as {@link SimpleMapper} but each
+ * comparison sequence (k-mer) is encoded in an int with two bits per base and the references holding each k-mer are kept as ints in an open addressing table, so a query does not create a sequence
+ * or a boxed count per k-mer.
+ *
+ * A k-mer holding any other nucleotide code, such as N, can not be encoded in two bits per base so it is numbered by its bases in a map instead and only matches a k-mer with exactly the same
+ * codes. Unlike {@link SimpleMapper}, which only accepts A, C, G and T, references and queries may hold any IUPAC code.
+ *
+ * References are added and removed from a single thread, once they are added any number of threads can query the mapper at the same time.
+ *
+ * @param <O>
+ *            reference objects
+ */
+public class KmerMapper<O> {
+
+	public final static int MAX_COMPARISON_SEQUENCE_SIZE = 15;
+
+	private final static int DEFAULT_COMPARISON_SEQUENCE_SIZE = 5;
+	private final static int DEFAULT_REFERENCE_SPACING = 1;
+	private final static int DEFAULT_QUERY_SPACING = 1;
+	private final static int DEFAULT_BEST_CANDIDATE_LIMIT = 10;
+	private final static int DEFAULT_MAX_REFERENCES_STORED_PER_SEQUENCE = 50;
+	private final static double DEFAULT_MIN_RATIO_OF_HITS_TO_AVAILABLE_HITS = 0.5;
+
+	private final static int INITIAL_NUMBER_OF_SLOTS = 1024;
+	private final static int INITIAL_POSTINGS_SIZE = 2;
+	private final static int EMPTY_SLOT = -1;
+	private final static int INVALID_BASE = -1;
+	private final static int BITS_PER_BASE = 2;
+
+	private final int comparisonSequenceSize;
+	private final int referenceSpacing;
+	private final int querySpacing;
+	private final Integer maxReferencesStoredPerSequence;
+
+	// open addressing table from an encoded k-mer to the ordinals of the references which contain it
+	private int[] slotKmers;
+	private int[][] slotPostings;
+	private int[] slotPostingsSizes;
+	// k-mers found in more references than the max references stored per sequence are excluded from mapping
+	private boolean[] slotIsExcluded;
+	private int numberOfUsedSlots;
+
+	// k-mers holding a code other than A, C, G and T are numbered from one past the largest encoded k-mer
+	private final Map<String, Integer> kmersByAmbiguousBases;
+
+	// references are numbered in the order they were added, the ordinal of a removed reference is not reused
+	private final Map<O, Integer> ordinalsByReference;
+	private final List<O> referencesByOrdinal;
+	private int[] referenceSizesByOrdinal;
+	private int[][] kmerSlotsByOrdinal;
+
+	private final ThreadLocal<HitCounts> hitCounts;
+
+	/**
+	 * Default Constructor
+	 */
+	public KmerMapper() {
+		this(DEFAULT_COMPARISON_SEQUENCE_SIZE, DEFAULT_REFERENCE_SPACING, DEFAULT_QUERY_SPACING, DEFAULT_MAX_REFERENCES_STORED_PER_SEQUENCE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param comparisonSequenceSize
+	 *            the size of the chunks that should be used for comparing, at most MAX_COMPARISON_SEQUENCE_SIZE
+	 * @param referenceSpacing
+	 *            the number of spaces to skip when building a library of chunks to compare against
+	 * @param querySpacing
+	 *            the number of spaces to skip when comparing chunks from a query sequence
+	 * @param maxReferencesStoredPerSequence
+	 *            the number of references a chunk can be found in before it is no longer used for comparing, null for no limit
+	 */
+	public KmerMapper(int comparisonSequenceSize, int referenceSpacing, int querySpacing, Integer maxReferencesStoredPerSequence) {
+		if (comparisonSequenceSize < 1 || comparisonSequenceSize > MAX_COMPARISON_SEQUENCE_SIZE) {
+			throw new IllegalArgumentException("The comparison sequence size[" + comparisonSequenceSize + "] must be between 1 and " + MAX_COMPARISON_SEQUENCE_SIZE + ".");
+		}
+		this.comparisonSequenceSize = comparisonSequenceSize;
+		this.referenceSpacing = referenceSpacing;
+		this.querySpacing = querySpacing;
+		this.maxReferencesStoredPerSequence = maxReferencesStoredPerSequence;
+
+		slotKmers = new int[INITIAL_NUMBER_OF_SLOTS];
+		Arrays.fill(slotKmers, EMPTY_SLOT);
+		slotPostings = new int[INITIAL_NUMBER_OF_SLOTS][];
+		slotPostingsSizes = new int[INITIAL_NUMBER_OF_SLOTS];
+		slotIsExcluded = new boolean[INITIAL_NUMBER_OF_SLOTS];
+
+		kmersByAmbiguousBases = new HashMap<String, Integer>();
+		ordinalsByReference = new HashMap<O, Integer>();
+		referencesByOrdinal = new ArrayList<O>();
+		referenceSizesByOrdinal = new int[INITIAL_POSTINGS_SIZE];
+		kmerSlotsByOrdinal = new int[INITIAL_POSTINGS_SIZE][];
+
+		hitCounts = new ThreadLocal<HitCounts>() {
+			@Override
+			protected HitCounts initialValue() {
+				return new HitCounts();
+			}
+		};
+	}
+
+	/**
+	 * Add a reference sequence with its associated unique identifier/key/sequence address, adding the same address again replaces its sequence.
+	 *
+	 * @param referenceSequence
+	 * @param sequenceAddress
+	 */
+	public void addReferenceSequence(ISequence referenceSequence, O sequenceAddress) {
+		if (referenceSequence.size() < comparisonSequenceSize) {
+			throw new IllegalStateException(
+					"comparison sequence size[" + comparisonSequenceSize + "] must be less than the size of all sequences -- the current sequence size is " + referenceSequence.size() + ".");
+		}
+		removeReferenceSequenceByAddress(sequenceAddress);
+
+		int ordinal = referencesByOrdinal.size();
+		referencesByOrdinal.add(sequenceAddress);
+		ordinalsByReference.put(sequenceAddress, ordinal);
+		if (ordinal == referenceSizesByOrdinal.length) {
+			referenceSizesByOrdinal = Arrays.copyOf(referenceSizesByOrdinal, ordinal * 2);
+			kmerSlotsByOrdinal = Arrays.copyOf(kmerSlotsByOrdinal, ordinal * 2);
+		}
+		referenceSizesByOrdinal[ordinal] = referenceSequence.size();
+
+		String bases = referenceSequence.toString();
+		int[] kmerSlots = new int[INITIAL_POSTINGS_SIZE];
+		int numberOfKmerSlots = 0;
+		// the last chunk of the reference is not used, which matches the SimpleMapper
+		int[] kmers = encodeKmers(bases, bases.length() - comparisonSequenceSize, true);
+		for (int start = 0; start < bases.length() - comparisonSequenceSize; start += referenceSpacing) {
+			int kmer = kmers[start];
+			if (kmer != INVALID_BASE) {
+				int slot = getOrAddSlot(kmer);
+				if (!slotIsExcluded[slot] && addPosting(slot, ordinal)) {
+					if (numberOfKmerSlots == kmerSlots.length) {
+						kmerSlots = Arrays.copyOf(kmerSlots, numberOfKmerSlots * 2);
+					}
+					kmerSlots[numberOfKmerSlots++] = slot;
+					if (maxReferencesStoredPerSequence != null && slotPostingsSizes[slot] > maxReferencesStoredPerSequence) {
+						slotIsExcluded[slot] = true;
+						slotPostings[slot] = null;
+						slotPostingsSizes[slot] = 0;
+					}
+				}
+			}
+		}
+		kmerSlotsByOrdinal[ordinal] = Arrays.copyOf(kmerSlots, numberOfKmerSlots);
+	}
+
+	/**
+	 * @return true if the ordinal was added, false if the reference already holds the k-mer
+	 */
+	private boolean addPosting(int slot, int ordinal) {
+		int[] postings = slotPostings[slot];
+		int size = slotPostingsSizes[slot];
+		// the postings of a k-mer are added in ordinal order so a k-mer found twice in this reference ends with its ordinal
+		boolean isAdded = size == 0 || postings[size - 1] != ordinal;
+		if (isAdded) {
+			if (postings == null) {
+				postings = new int[INITIAL_POSTINGS_SIZE];
+			} else if (size == postings.length) {
+				postings = Arrays.copyOf(postings, size * 2);
+			}
+			postings[size] = ordinal;
+			slotPostings[slot] = postings;
+			slotPostingsSizes[slot] = size + 1;
+		}
+		return isAdded;
+	}
+
+	/**
+	 * Removes the reference from the postings of only the k-mers it contains.
+	 *
+	 * @param sequenceAddress
+	 */
+	public void removeReferenceSequenceByAddress(O sequenceAddress) {
+		Integer ordinal = ordinalsByReference.remove(sequenceAddress);
+		if (ordinal != null) {
+			for (int slot : kmerSlotsByOrdinal[ordinal]) {
+				int[] postings = slotPostings[slot];
+				int size = slotPostingsSizes[slot];
+				if (postings != null) {
+					int index = Arrays.binarySearch(postings, 0, size, ordinal);
+					if (index >= 0) {
+						System.arraycopy(postings, index + 1, postings, index, size - index - 1);
+						slotPostingsSizes[slot] = size - 1;
+					}
+				}
+			}
+			referencesByOrdinal.set(ordinal, null);
+			kmerSlotsByOrdinal[ordinal] = null;
+		}
+	}
+
+	public List<O> getBestCandidateReferences(ISequence querySequence, int limit) {
+		return getBestCandidateReferences(querySequence, limit, DEFAULT_MIN_RATIO_OF_HITS_TO_AVAILABLE_HITS);
+	}
+
+	/**
+	 * @param querySequence
+	 * @return the set of unique identifiers/keys/sequence addresses that best map to the provided query sequence
+	 */
+	public List<O> getBestCandidateReferences(ISequence querySequence) {
+		return getBestCandidateReferences(querySequence, DEFAULT_BEST_CANDIDATE_LIMIT, DEFAULT_MIN_RATIO_OF_HITS_TO_AVAILABLE_HITS);
+	}
+
+	/**
+	 * @param querySequence
+	 * @return the set of unique identifiers/keys/sequence addresses that best map to the provided query sequence, references with the same number of hits are in the order they were added
+	 */
+	@SuppressWarnings("unchecked")
+	public List<O> getBestCandidateReferences(ISequence querySequence, int limitOnNumberOfCandidatesToReturn, double minRatioOfHitsToAvailableHits) {
+		double availableHitsBasedOnQuery = (double) (querySequence.size() - comparisonSequenceSize) / (double) querySpacing;
+		double hitLimitBasedOnQueryMinRatio = minRatioOfHitsToAvailableHits * availableHitsBasedOnQuery;
+
+		HitCounts counts = hitCounts.get();
+		counts.ensureCapacity(referencesByOrdinal.size());
+		try {
+			String bases = querySequence.toString();
+			int numberOfStarts = bases.length() - comparisonSequenceSize;
+			int[] kmers = encodeKmers(bases, numberOfStarts, false);
+			for (int start = 0; start < numberOfStarts; start += querySpacing) {
+				int kmer = kmers[start];
+				if (kmer != INVALID_BASE) {
+					int slot = getSlot(kmer);
+					if (slot != EMPTY_SLOT) {
+						int[] postings = slotPostings[slot];
+						int size = slotPostingsSizes[slot];
+						for (int i = 0; i < size; i++) {
+							counts.add(postings[i]);
+						}
+					}
+				}
+			}
+
+			List<O> bestCandidates = new LinkedList<O>();
+			if (counts.numberOfTouchedOrdinals > 0) {
+				int lastAddedHitSize = 0;
+				long[] sortedCountsAndOrdinals = counts.getCountsAndOrdinalsSortedFromMostHitsToLeast();
+				entryLoop: for (long countAndOrdinal : sortedCountsAndOrdinals) {
+					int ordinal = (int) countAndOrdinal;
+					int hits = Integer.MAX_VALUE - (int) (countAndOrdinal >>> 32);
+					int referenceSize = referenceSizesByOrdinal[ordinal];
+
+					double availableHitsBasedOnReference = (double) (referenceSize - comparisonSequenceSize) / (double) referenceSpacing;
+					double hitLimitBasedOnReferenceMinRatio = minRatioOfHitsToAvailableHits * availableHitsBasedOnReference;
+
+					boolean entryRejectedBecauseHitsAreBelowMinRatio = (hits < hitLimitBasedOnQueryMinRatio) && (hits < hitLimitBasedOnReferenceMinRatio);
+					boolean entryRejectedBecauseCandidateLimitIsReachedAndIsNotTiedWithACurrentCandidate = (bestCandidates.size() > limitOnNumberOfCandidatesToReturn) && (hits < lastAddedHitSize);
+					if (entryRejectedBecauseHitsAreBelowMinRatio || entryRejectedBecauseCandidateLimitIsReachedAndIsNotTiedWithACurrentCandidate) {
+						// since we are walking through this from best to worst we can skip the rest of the entries once
+						// we get one failure
+						break entryLoop;
+					} else {
+						bestCandidates.add(referencesByOrdinal.get(ordinal));
+						lastAddedHitSize = hits;
+					}
+				}
+			} else {
+				bestCandidates = (List<O>) Collections.EMPTY_LIST;
+			}
+			return bestCandidates;
+		} finally {
+			counts.reset();
+		}
+	}
+
+	public int getOptimalScore(ISequence querySequence) {
+		return querySequence.size() - comparisonSequenceSize;
+	}
+
+	/**
+	 * @param isReference
+	 *            true to number the k-mers holding a code other than A, C, G and T which have not been seen before
+	 * @return the encoded k-mer starting at each of the starts or INVALID_BASE for a k-mer which holds a code other than A, C, G and T that is not in any reference
+	 */
+	private int[] encodeKmers(String bases, int numberOfStarts, boolean isReference) {
+		int[] kmers = new int[Math.max(0, numberOfStarts)];
+		int mask = (1 << (BITS_PER_BASE * comparisonSequenceSize)) - 1;
+		int kmer = 0;
+		int validBasesInKmer = 0;
+		for (int i = 0; i < numberOfStarts + comparisonSequenceSize - 1; i++) {
+			int base = encodeBase(bases.charAt(i));
+			if (base == INVALID_BASE) {
+				validBasesInKmer = 0;
+			} else {
+				kmer = ((kmer << BITS_PER_BASE) | base) & mask;
+				validBasesInKmer++;
+			}
+			int start = i - comparisonSequenceSize + 1;
+			if (start >= 0) {
+				if (validBasesInKmer >= comparisonSequenceSize) {
+					kmers[start] = kmer;
+				} else {
+					kmers[start] = getAmbiguousKmer(bases.substring(start, start + comparisonSequenceSize), isReference);
+				}
+			}
+		}
+		return kmers;
+	}
+
+	private int getAmbiguousKmer(String kmerBases, boolean isReference) {
+		int kmer = INVALID_BASE;
+		// queries skip the lookup when no reference holds a code other than A, C, G and T
+		if (isReference || !kmersByAmbiguousBases.isEmpty()) {
+			String upperCaseKmerBases = kmerBases.toUpperCase();
+			Integer existingKmer = kmersByAmbiguousBases.get(upperCaseKmerBases);
+			if (existingKmer != null) {
+				kmer = existingKmer;
+			} else if (isReference) {
+				kmer = (1 << (BITS_PER_BASE * comparisonSequenceSize)) + kmersByAmbiguousBases.size();
+				kmersByAmbiguousBases.put(upperCaseKmerBases, kmer);
+			}
+		}
+		return kmer;
+	}
+
+	private static int encodeBase(char base) {
+		int code;
+		switch (base) {
+		case 'A':
+		case 'a':
+			code = 0;
+			break;
+		case 'C':
+		case 'c':
+			code = 1;
+			break;
+		case 'G':
+		case 'g':
+			code = 2;
+			break;
+		case 'T':
+		case 't':
+			code = 3;
+			break;
+		default:
+			code = INVALID_BASE;
+			break;
+		}
+		return code;
+	}
+
+	private static int hash(int kmer) {
+		int hash = kmer * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private int getSlot(int kmer) {
+		int mask = slotKmers.length - 1;
+		int slot = hash(kmer) & mask;
+		while (slotKmers[slot] != EMPTY_SLOT && slotKmers[slot] != kmer) {
+			slot = (slot + 1) & mask;
+		}
+		if (slotKmers[slot] == EMPTY_SLOT) {
+			slot = EMPTY_SLOT;
+		}
+		return slot;
+	}
+
+	private int getOrAddSlot(int kmer) {
+		int slot = getSlot(kmer);
+		if (slot == EMPTY_SLOT) {
+			if ((numberOfUsedSlots + 1) * 2 > slotKmers.length) {
+				resizeSlots();
+			}
+			int mask = slotKmers.length - 1;
+			slot = hash(kmer) & mask;
+			while (slotKmers[slot] != EMPTY_SLOT) {
+				slot = (slot + 1) & mask;
+			}
+			slotKmers[slot] = kmer;
+			numberOfUsedSlots++;
+		}
+		return slot;
+	}
+
+	private void resizeSlots() {
+		int[] oldSlotKmers = slotKmers;
+		int[][] oldSlotPostings = slotPostings;
+		int[] oldSlotPostingsSizes = slotPostingsSizes;
+		boolean[] oldSlotIsExcluded = slotIsExcluded;
+
+		int numberOfSlots = oldSlotKmers.length * 2;
+		slotKmers = new int[numberOfSlots];
+		Arrays.fill(slotKmers, EMPTY_SLOT);
+		slotPostings = new int[numberOfSlots][];
+		slotPostingsSizes = new int[numberOfSlots];
+		slotIsExcluded = new boolean[numberOfSlots];
+
+		int[] newSlotsByOldSlot = new int[oldSlotKmers.length];
+		int mask = numberOfSlots - 1;
+		for (int oldSlot = 0; oldSlot < oldSlotKmers.length; oldSlot++) {
+			int kmer = oldSlotKmers[oldSlot];
+			if (kmer != EMPTY_SLOT) {
+				int slot = hash(kmer) & mask;
+				while (slotKmers[slot] != EMPTY_SLOT) {
+					slot = (slot + 1) & mask;
+				}
+				slotKmers[slot] = kmer;
+				slotPostings[slot] = oldSlotPostings[oldSlot];
+				slotPostingsSizes[slot] = oldSlotPostingsSizes[oldSlot];
+				slotIsExcluded[slot] = oldSlotIsExcluded[oldSlot];
+				newSlotsByOldSlot[oldSlot] = slot;
+			}
+		}
+
+		// the references remember the slots of their k-mers so they can be removed without searching
+		for (int ordinal = 0; ordinal < referencesByOrdinal.size(); ordinal++) {
+			int[] kmerSlots = kmerSlotsByOrdinal[ordinal];
+			if (kmerSlots != null) {
+				for (int i = 0; i < kmerSlots.length; i++) {
+					kmerSlots[i] = newSlotsByOldSlot[kmerSlots[i]];
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of hits for each reference during a query, only the references which were hit are reset after the query so a thread reuses the same counts for all of its queries.
+	 */
+	private static class HitCounts {
+		private int[] countsByOrdinal = new int[0];
+		private int[] touchedOrdinals = new int[0];
+		private int numberOfTouchedOrdinals;
+
+		private void ensureCapacity(int numberOfOrdinals) {
+			if (countsByOrdinal.length < numberOfOrdinals) {
+				countsByOrdinal = new int[numberOfOrdinals];
+				touchedOrdinals = new int[numberOfOrdinals];
+			}
+		}
+
+		private void add(int ordinal) {
+			if (countsByOrdinal[ordinal]++ == 0) {
+				touchedOrdinals[numberOfTouchedOrdinals++] = ordinal;
+			}
+		}
+
+		/**
+		 * @return the count and ordinal of each hit reference packed in a long, the upper half holds Integer.MAX_VALUE minus the count so sorting puts the most hits first and then the lowest
+		 *         ordinal
+		 */
+		private long[] getCountsAndOrdinalsSortedFromMostHitsToLeast() {
+			long[] countsAndOrdinals = new long[numberOfTouchedOrdinals];
+			for (int i = 0; i < numberOfTouchedOrdinals; i++) {
+				int ordinal = touchedOrdinals[i];
+				countsAndOrdinals[i] = ((long) (Integer.MAX_VALUE - countsByOrdinal[ordinal]) << 32) | ordinal;
+			}
+			Arrays.sort(countsAndOrdinals);
+			return countsAndOrdinals;
+		}
+
+		private void reset() {
+			for (int i = 0; i < numberOfTouchedOrdinals; i++) {
+				countsByOrdinal[touchedOrdinals[i]] = 0;
+			}
+			numberOfTouchedOrdinals = 0;
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+/**
+ *
+ * A set of primitive longs stored in an open addressing hash table, so adding a value does not box it or allocate an entry. This class is not thread safe.
+ *
+ */
+public class LongHashSet {
+	private static final int DEFAULT_EXPECTED_SIZE = 16;
+	private static final long EMPTY_SLOT = 0;
+
+	private long[] slots;
+	private boolean containsEmptySlotValue;
+	private int size;
+
+	public LongHashSet() {
+		this(DEFAULT_EXPECTED_SIZE);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the number of values which can be added before the table is resized
+	 */
+	public LongHashSet(int expectedSize) {
+		slots = new long[getNumberOfSlots(expectedSize)];
+		containsEmptySlotValue = false;
+		size = 0;
+	}
+
+	/**
+	 * @return a power of two with at least twice as many slots as values so probe sequences stay short
+	 */
+	static int getNumberOfSlots(int expectedSize) {
+		int numberOfSlots = 2;
+		while (numberOfSlots < ((long) expectedSize * 2)) {
+			numberOfSlots <<= 1;
+		}
+		return numberOfSlots;
+	}
+
+	/**
+	 * @return a well mixed hash of the value so similar values do not land in neighboring slots
+	 */
+	static int hash(long value) {
+		long hash = value;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) hash;
+	}
+
+	/**
+	 * @param value
+	 * @return true if the value was not already in the set
+	 */
+	public boolean add(long value) {
+		boolean added = false;
+		if (value == EMPTY_SLOT) {
+			added = !containsEmptySlotValue;
+			containsEmptySlotValue = true;
+		} else {
+			int mask = slots.length - 1;
+			int slot = hash(value) & mask;
+			while (slots[slot] != EMPTY_SLOT && slots[slot] != value) {
+				slot = (slot + 1) & mask;
+			}
+
+			if (slots[slot] == EMPTY_SLOT) {
+				slots[slot] = value;
+				added = true;
+			}
+		}
+
+		if (added) {
+			size++;
+			if (((long) size * 2) > slots.length) {
+				resize();
+			}
+		}
+		return added;
+	}
+
+	public boolean contains(long value) {
+		boolean contains = false;
+		if (value == EMPTY_SLOT) {
+			contains = containsEmptySlotValue;
+		} else {
+			int mask = slots.length - 1;
+			int slot = hash(value) & mask;
+			while (slots[slot] != EMPTY_SLOT && !contains) {
+				contains = slots[slot] == value;
+				slot = (slot + 1) & mask;
+			}
+		}
+		return contains;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void resize() {
+		long[] oldSlots = slots;
+		slots = new long[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for (long value : oldSlots) {
+			if (value != EMPTY_SLOT) {
+				int slot = hash(value) & mask;
+				while (slots[slot] != EMPTY_SLOT) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = value;
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Groups primitive int values by a primitive long key without boxing either of them. Keys are numbered in the order they were first added and the values of each key are kept in the order they were
+ * added, the values for all keys share a single array linked by index. This class is not thread safe.
+ *
+ */
+public class LongToIntListMap {
+	private static final int DEFAULT_EXPECTED_SIZE = 16;
+	private static final int EMPTY_SLOT = -1;
+	private static final int NO_NEXT_VALUE = -1;
+
+	// hash table from key to key index
+	private int[] slots;
+
+	private long[] keys;
+	private int[] firstValueIndexes;
+	private int[] lastValueIndexes;
+	private int[] numberOfValuesByKey;
+	private int numberOfKeys;
+
+	private int[] values;
+	private int[] nextValueIndexes;
+	private int numberOfValues;
+
+	public LongToIntListMap() {
+		this(DEFAULT_EXPECTED_SIZE);
+	}
+
+	/**
+	 * @param expectedNumberOfValues
+	 *            the number of values (and so at most the number of keys) which can be added before any arrays are resized
+	 */
+	public LongToIntListMap(int expectedNumberOfValues) {
+		int capacity = Math.max(1, expectedNumberOfValues);
+		slots = new int[LongHashSet.getNumberOfSlots(capacity)];
+		Arrays.fill(slots, EMPTY_SLOT);
+		keys = new long[capacity];
+		firstValueIndexes = new int[capacity];
+		lastValueIndexes = new int[capacity];
+		numberOfValuesByKey = new int[capacity];
+		values = new int[capacity];
+		nextValueIndexes = new int[capacity];
+	}
+
+	/**
+	 * Add the value to the end of the values for the given key
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void add(long key, int value) {
+		int keyIndex = getOrAddKeyIndex(key);
+
+		if (numberOfValues == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+			nextValueIndexes = Arrays.copyOf(nextValueIndexes, nextValueIndexes.length * 2);
+		}
+
+		values[numberOfValues] = value;
+		nextValueIndexes[numberOfValues] = NO_NEXT_VALUE;
+		if (numberOfValuesByKey[keyIndex] == 0) {
+			firstValueIndexes[keyIndex] = numberOfValues;
+		} else {
+			nextValueIndexes[lastValueIndexes[keyIndex]] = numberOfValues;
+		}
+		lastValueIndexes[keyIndex] = numberOfValues;
+		numberOfValuesByKey[keyIndex]++;
+		numberOfValues++;
+	}
+
+	private int getOrAddKeyIndex(long key) {
+		int mask = slots.length - 1;
+		int slot = LongHashSet.hash(key) & mask;
+		while (slots[slot] != EMPTY_SLOT && keys[slots[slot]] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		int keyIndex = slots[slot];
+		if (keyIndex == EMPTY_SLOT) {
+			if (numberOfKeys == keys.length) {
+				int newCapacity = keys.length * 2;
+				keys = Arrays.copyOf(keys, newCapacity);
+				firstValueIndexes = Arrays.copyOf(firstValueIndexes, newCapacity);
+				lastValueIndexes = Arrays.copyOf(lastValueIndexes, newCapacity);
+				numberOfValuesByKey = Arrays.copyOf(numberOfValuesByKey, newCapacity);
+			}
+
+			keyIndex = numberOfKeys;
+			keys[keyIndex] = key;
+			numberOfKeys++;
+			slots[slot] = keyIndex;
+			if ((numberOfKeys * 2) > slots.length) {
+				resizeSlots();
+			}
+		}
+		return keyIndex;
+	}
+
+	private int getKeyIndex(long key) {
+		int mask = slots.length - 1;
+		int slot = LongHashSet.hash(key) & mask;
+		while (slots[slot] != EMPTY_SLOT && keys[slots[slot]] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slots[slot];
+	}
+
+	private void resizeSlots() {
+		slots = new int[slots.length * 2];
+		Arrays.fill(slots, EMPTY_SLOT);
+		int mask = slots.length - 1;
+		for (int keyIndex = 0; keyIndex < numberOfKeys; keyIndex++) {
+			int slot = LongHashSet.hash(keys[keyIndex]) & mask;
+			while (slots[slot] != EMPTY_SLOT) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = keyIndex;
+		}
+	}
+
+	/**
+	 * @return the number of distinct keys
+	 */
+	public int size() {
+		return numberOfKeys;
+	}
+
+	/**
+	 * @param keyIndex
+	 *            a number from 0 to size()-1, keys are numbered in the order they were first added
+	 * @return the key
+	 */
+	public long getKey(int keyIndex) {
+		checkKeyIndex(keyIndex);
+		return keys[keyIndex];
+	}
+
+	/**
+	 * @param keyIndex
+	 *            a number from 0 to size()-1, keys are numbered in the order they were first added
+	 * @return the values added for the key in the order they were added
+	 */
+	public int[] getValuesByKeyIndex(int keyIndex) {
+		checkKeyIndex(keyIndex);
+		int[] valuesForKey = new int[numberOfValuesByKey[keyIndex]];
+		int valueIndex = firstValueIndexes[keyIndex];
+		for (int i = 0; i < valuesForKey.length; i++) {
+			valuesForKey[i] = values[valueIndex];
+			valueIndex = nextValueIndexes[valueIndex];
+		}
+		return valuesForKey;
+	}
+
+	/**
+	 * @param key
+	 * @return the values added for the key in the order they were added, or an empty array if the key was never added
+	 */
+	public int[] getValues(long key) {
+		int[] valuesForKey;
+		int keyIndex = getKeyIndex(key);
+		if (keyIndex == EMPTY_SLOT) {
+			valuesForKey = new int[0];
+		} else {
+			valuesForKey = getValuesByKeyIndex(keyIndex);
+		}
+		return valuesForKey;
+	}
+
+	private void checkKeyIndex(int keyIndex) {
+		if ((keyIndex >= numberOfKeys) || (keyIndex < 0)) {
+			throw new IndexOutOfBoundsException("Provided keyIndex[" + keyIndex + "] is larger than the current size[" + numberOfKeys + "] or smaller than zero.");
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.multithreading;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size thread pool with a bounded work queue. When the queue is full execute blocks the calling thread until a worker takes a task off of the queue, so a producer can only get a queue's
+ * worth of tasks ahead of the workers.
+ *
+ * The maximum queue depth and the number of times the producer had to wait are tracked so they can be reported.
+ */
+public class BoundedQueueThreadPoolExecutor extends ThreadPoolExecutor {
+
+	private final int queueCapacity;
+	private final AtomicInteger maxQueueDepth;
+	private final AtomicLong numberOfBlockedSubmissions;
+	private final AtomicLong numberOfSubmissions;
+
+	/**
+	 *
+	 * @param numberOfThreads
+	 * @param queueCapacity
+	 *            the number of tasks that can be waiting for a worker before execute blocks
+	 * @param threadNamePrefix
+	 */
+	public BoundedQueueThreadPoolExecutor(int numberOfThreads, int queueCapacity, String threadNamePrefix) {
+		super(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity));
+		this.queueCapacity = queueCapacity;
+		this.maxQueueDepth = new AtomicInteger();
+		this.numberOfBlockedSubmissions = new AtomicLong();
+		this.numberOfSubmissions = new AtomicLong();
+		setThreadFactory(new NamePrependingThreadFactory(threadNamePrefix));
+		setRejectedExecutionHandler(new BlockWhenQueueIsFullPolicy());
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		numberOfSubmissions.incrementAndGet();
+		super.execute(command);
+		int queueDepth = getQueue().size();
+		int currentMaxQueueDepth = maxQueueDepth.get();
+		while (queueDepth > currentMaxQueueDepth && !maxQueueDepth.compareAndSet(currentMaxQueueDepth, queueDepth)) {
+			currentMaxQueueDepth = maxQueueDepth.get();
+		}
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public long getNumberOfBlockedSubmissions() {
+		return numberOfBlockedSubmissions.get();
+	}
+
+	/**
+	 * @return a one line description of how full the work queue got, suitable for logging
+	 */
+	public String getQueueSummary() {
+		return "submitted tasks[" + numberOfSubmissions.get() + "] max queue depth[" + getMaxQueueDepth() + " of " + queueCapacity + "] submissions that waited for a worker["
+				+ getNumberOfBlockedSubmissions() + "]";
+	}
+
+	private class BlockWhenQueueIsFullPolicy implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("Unable to execute task because the executor has been shut down.");
+			}
+			numberOfBlockedSubmissions.incrementAndGet();
+			try {
+				executor.getQueue().put(runnable);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e.getMessage(), e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,557 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.sequence;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ *
+ * Sequence composed of IUPAC codes packed into a long[]. A sequence made up of only A, C, G and T is stored with 2 bits per code, any other sequence is stored with 4 bits per code where each bit
+ * marks one of the nucleotides the code represents. Codes are looked up in arrays instead of maps and the reverse compliment, hash code and equality are computed a word at a time. U is not supported
+ * because it represents the same nucleotide as T. Appending is not synchronized.
+ *
+ */
+public class PackedNucleotideCodeSequence implements ISequence, Comparable<PackedNucleotideCodeSequence> {
+	private static final int BITS_PER_WORD = 64;
+	private static final int NUCLEOTIDE_BITS_PER_CODE = 2;
+	private static final int IUPAC_BITS_PER_CODE = 4;
+
+	private static final long ALTERNATING_BITS = 0x5555555555555555L;
+	private static final long ALTERNATING_BIT_PAIRS = 0x3333333333333333L;
+
+	private static final int ADENINE_MASK = 1;
+	private static final int CYTOSINE_MASK = 2;
+	private static final int GUANINE_MASK = 4;
+	private static final int THYMINE_MASK = 8;
+	private static final int NUMBER_OF_MASKS = 16;
+
+	// the 2 bit values are A=0, C=1, G=2 and T=3 so the compliment of a value is 3 - value
+	private static final int[] NUCLEOTIDE_VALUE_TO_MASK = new int[] { ADENINE_MASK, CYTOSINE_MASK, GUANINE_MASK, THYMINE_MASK };
+	private static final int[] MASK_TO_NUCLEOTIDE_VALUE = new int[NUMBER_OF_MASKS];
+	private static final IupacNucleotideCode[] MASK_TO_IUPAC_NUCLEOTIDE_CODE = new IupacNucleotideCode[NUMBER_OF_MASKS];
+	private static final char[] MASK_TO_CHARACTER = new char[NUMBER_OF_MASKS];
+	private static final int[] CHARACTER_TO_MASK = new int[128];
+
+	static {
+		Arrays.fill(MASK_TO_NUCLEOTIDE_VALUE, -1);
+		for (int value = 0; value < NUCLEOTIDE_VALUE_TO_MASK.length; value++) {
+			MASK_TO_NUCLEOTIDE_VALUE[NUCLEOTIDE_VALUE_TO_MASK[value]] = value;
+		}
+
+		Arrays.fill(CHARACTER_TO_MASK, -1);
+		for (IupacNucleotideCode code : IupacNucleotideCode.values()) {
+			if (code != IupacNucleotideCode.U) {
+				int mask = getNucleotidesMask(code);
+				MASK_TO_IUPAC_NUCLEOTIDE_CODE[mask] = code;
+				MASK_TO_CHARACTER[mask] = code.toString().charAt(0);
+				for (String abbreviation : code.getAbbreviations()) {
+					CHARACTER_TO_MASK[Character.toUpperCase(abbreviation.charAt(0))] = mask;
+					CHARACTER_TO_MASK[Character.toLowerCase(abbreviation.charAt(0))] = mask;
+				}
+			}
+		}
+	}
+
+	private long[] sequenceAsWords;
+	private int size;
+	private int bitsPerCode;
+
+	/**
+	 * Constructor taking in a string of IUPAC characters
+	 *
+	 * @param iupacNucleotideCodesAsString
+	 */
+	public PackedNucleotideCodeSequence(String iupacNucleotideCodesAsString) {
+		Objects.requireNonNull(iupacNucleotideCodesAsString, "argument[iupacNucleotideCodesAsString] cannot be null");
+
+		boolean containsOnlyNucleotides = true;
+		for (int i = 0; i < iupacNucleotideCodesAsString.length(); i++) {
+			int mask = getMaskFromCharacter(iupacNucleotideCodesAsString, i);
+			containsOnlyNucleotides = containsOnlyNucleotides && (MASK_TO_NUCLEOTIDE_VALUE[mask] >= 0);
+		}
+
+		initialize(iupacNucleotideCodesAsString.length(), containsOnlyNucleotides ? NUCLEOTIDE_BITS_PER_CODE : IUPAC_BITS_PER_CODE);
+		for (int i = 0; i < size; i++) {
+			setValueAt(i, getValueFromMask(getMaskFromCharacter(iupacNucleotideCodesAsString, i)));
+		}
+	}
+
+	/**
+	 * Empty Constructor
+	 */
+	public PackedNucleotideCodeSequence() {
+		this("");
+	}
+
+	/**
+	 * Copy Constructor, also converts any other ISequence to a PackedNucleotideCodeSequence
+	 *
+	 * @param sequence
+	 */
+	public PackedNucleotideCodeSequence(ISequence sequence) {
+		Objects.requireNonNull(sequence, "argument[sequence] cannot be null");
+
+		if (sequence instanceof PackedNucleotideCodeSequence) {
+			PackedNucleotideCodeSequence packedSequence = (PackedNucleotideCodeSequence) sequence;
+			this.size = packedSequence.size;
+			this.bitsPerCode = packedSequence.bitsPerCode;
+			this.sequenceAsWords = Arrays.copyOf(packedSequence.sequenceAsWords, getNumberOfWords(size, bitsPerCode));
+		} else {
+			int[] masks = new int[sequence.size()];
+			boolean containsOnlyNucleotides = true;
+			for (int i = 0; i < masks.length; i++) {
+				masks[i] = getMask(sequence.getCodeAt(i));
+				containsOnlyNucleotides = containsOnlyNucleotides && (MASK_TO_NUCLEOTIDE_VALUE[masks[i]] >= 0);
+			}
+
+			initialize(masks.length, containsOnlyNucleotides ? NUCLEOTIDE_BITS_PER_CODE : IUPAC_BITS_PER_CODE);
+			for (int i = 0; i < size; i++) {
+				setValueAt(i, getValueFromMask(masks[i]));
+			}
+		}
+	}
+
+	private PackedNucleotideCodeSequence(int size, int bitsPerCode, long[] sequenceAsWords) {
+		this.size = size;
+		this.bitsPerCode = bitsPerCode;
+		this.sequenceAsWords = sequenceAsWords;
+	}
+
+	private void initialize(int size, int bitsPerCode) {
+		this.size = size;
+		this.bitsPerCode = bitsPerCode;
+		this.sequenceAsWords = new long[getNumberOfWords(size, bitsPerCode)];
+	}
+
+	private static int getNumberOfWords(int size, int bitsPerCode) {
+		return (int) ((((long) size * bitsPerCode) + BITS_PER_WORD - 1) / BITS_PER_WORD);
+	}
+
+	private static int getNucleotidesMask(ICode code) {
+		int mask = 0;
+		for (NucleotideCode nucleotide : code.getNucleotides()) {
+			if (nucleotide == NucleotideCode.ADENINE) {
+				mask |= ADENINE_MASK;
+			} else if (nucleotide == NucleotideCode.CYTOSINE) {
+				mask |= CYTOSINE_MASK;
+			} else if (nucleotide == NucleotideCode.GUANINE) {
+				mask |= GUANINE_MASK;
+			} else if (nucleotide == NucleotideCode.THYMINE) {
+				mask |= THYMINE_MASK;
+			}
+		}
+		return mask;
+	}
+
+	private static int getMask(ICode code) {
+		if (code == null) {
+			throw new IllegalArgumentException("Unable to store a null code in a PackedNucleotideCodeSequence.");
+		} else if (code == IupacNucleotideCode.U) {
+			throw new IllegalArgumentException("Unable to store code[U] in a PackedNucleotideCodeSequence.");
+		}
+		return getNucleotidesMask(code);
+	}
+
+	private static int getMaskFromCharacter(String codesAsString, int index) {
+		char character = codesAsString.charAt(index);
+		int mask = -1;
+		if (character < CHARACTER_TO_MASK.length) {
+			mask = CHARACTER_TO_MASK[character];
+		}
+
+		if (mask < 0) {
+			throw new IllegalArgumentException("Unable to translate character[" + character + "] from codesAsString[" + codesAsString + "].");
+		}
+		return mask;
+	}
+
+	private int getValueFromMask(int mask) {
+		int value = mask;
+		if (bitsPerCode == NUCLEOTIDE_BITS_PER_CODE) {
+			value = MASK_TO_NUCLEOTIDE_VALUE[mask];
+		}
+		return value;
+	}
+
+	private int getCodesPerWordShift() {
+		int codesPerWordShift = 4;
+		if (bitsPerCode == NUCLEOTIDE_BITS_PER_CODE) {
+			codesPerWordShift = 5;
+		}
+		return codesPerWordShift;
+	}
+
+	private int getValueAt(int index) {
+		int codesPerWordShift = getCodesPerWordShift();
+		int bitShift = (index & ((1 << codesPerWordShift) - 1)) * bitsPerCode;
+		return (int) ((sequenceAsWords[index >>> codesPerWordShift] >>> bitShift) & ((1 << bitsPerCode) - 1));
+	}
+
+	/**
+	 * the bits for the code at the given index must currently be cleared
+	 */
+	private void setValueAt(int index, int value) {
+		int codesPerWordShift = getCodesPerWordShift();
+		int bitShift = (index & ((1 << codesPerWordShift) - 1)) * bitsPerCode;
+		sequenceAsWords[index >>> codesPerWordShift] |= ((long) value) << bitShift;
+	}
+
+	private int getMaskAt(int index) {
+		int value = getValueAt(index);
+		int mask = value;
+		if (bitsPerCode == NUCLEOTIDE_BITS_PER_CODE) {
+			mask = NUCLEOTIDE_VALUE_TO_MASK[value];
+		}
+		return mask;
+	}
+
+	private void ensureCapacity(int newSize) {
+		int numberOfWordsNeeded = getNumberOfWords(newSize, bitsPerCode);
+		if (numberOfWordsNeeded > sequenceAsWords.length) {
+			sequenceAsWords = Arrays.copyOf(sequenceAsWords, Math.max(numberOfWordsNeeded, sequenceAsWords.length * 2));
+		}
+	}
+
+	private void convertToIupacBitsPerCode() {
+		if (bitsPerCode == NUCLEOTIDE_BITS_PER_CODE) {
+			long[] nucleotideWords = sequenceAsWords;
+			int[] masks = new int[size];
+			for (int i = 0; i < size; i++) {
+				masks[i] = getMaskAt(i);
+			}
+
+			bitsPerCode = IUPAC_BITS_PER_CODE;
+			sequenceAsWords = new long[Math.max(getNumberOfWords(size, bitsPerCode), nucleotideWords.length * 2)];
+			for (int i = 0; i < size; i++) {
+				setValueAt(i, masks[i]);
+			}
+		}
+	}
+
+	@Override
+	public ISequence append(ISequence sequenceToAppend) {
+		PackedNucleotideCodeSequence packedSequenceToAppend = null;
+		if (sequenceToAppend instanceof PackedNucleotideCodeSequence) {
+			packedSequenceToAppend = (PackedNucleotideCodeSequence) sequenceToAppend;
+		} else {
+			packedSequenceToAppend = new PackedNucleotideCodeSequence(sequenceToAppend);
+		}
+
+		if (packedSequenceToAppend.bitsPerCode != bitsPerCode) {
+			convertToIupacBitsPerCode();
+		}
+
+		// read the size first in case this sequence is being appended to itself
+		int sizeToAppend = packedSequenceToAppend.size;
+		ensureCapacity(size + sizeToAppend);
+		for (int i = 0; i < sizeToAppend; i++) {
+			setValueAt(size + i, getValueFromMask(packedSequenceToAppend.getMaskAt(i)));
+		}
+		size += sizeToAppend;
+		return this;
+	}
+
+	/**
+	 * Add the provided code to the end of this sequence
+	 *
+	 * @param code
+	 */
+	public void append(ICode code) {
+		int mask = getMask(code);
+		if (MASK_TO_NUCLEOTIDE_VALUE[mask] < 0) {
+			convertToIupacBitsPerCode();
+		}
+
+		ensureCapacity(size + 1);
+		setValueAt(size, getValueFromMask(mask));
+		size++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public IupacNucleotideCode getCodeAt(int index) {
+		if ((index >= size) || (index < 0)) {
+			throw new IndexOutOfBoundsException("Provided index[" + index + "] is larger than the current size[" + size + "] or smaller than zero.");
+		}
+
+		return MASK_TO_IUPAC_NUCLEOTIDE_CODE[getMaskAt(index)];
+	}
+
+	@Override
+	public ISequence subSequence(int start, int end) {
+		if (start < 0) {
+			throw new IndexOutOfBoundsException("Provided start[" + start + "] is smaller than zero.");
+		}
+
+		end = Math.min(end, size - 1);
+		int subSequenceSize = Math.max(0, end - start + 1);
+
+		boolean containsOnlyNucleotides = true;
+		if (bitsPerCode == IUPAC_BITS_PER_CODE) {
+			for (int i = start; i <= end && containsOnlyNucleotides; i++) {
+				containsOnlyNucleotides = MASK_TO_NUCLEOTIDE_VALUE[getMaskAt(i)] >= 0;
+			}
+		}
+
+		int subSequenceBitsPerCode = containsOnlyNucleotides ? NUCLEOTIDE_BITS_PER_CODE : IUPAC_BITS_PER_CODE;
+		PackedNucleotideCodeSequence subSequence = new PackedNucleotideCodeSequence(subSequenceSize, subSequenceBitsPerCode, new long[getNumberOfWords(subSequenceSize, subSequenceBitsPerCode)]);
+		for (int i = 0; i < subSequenceSize; i++) {
+			subSequence.setValueAt(i, subSequence.getValueFromMask(getMaskAt(start + i)));
+		}
+		return subSequence;
+	}
+
+	@Override
+	public ISequence subSequence(int start) {
+		return subSequence(start, size - 1);
+	}
+
+	@Override
+	public ISequence getReverseCompliment() {
+		return reverse(true);
+	}
+
+	@Override
+	public ISequence getReverse() {
+		return reverse(false);
+	}
+
+	@Override
+	public ISequence getCompliment() {
+		int numberOfWords = getNumberOfWords(size, bitsPerCode);
+		long[] complimentWords = new long[numberOfWords];
+		for (int i = 0; i < numberOfWords; i++) {
+			complimentWords[i] = complimentWord(sequenceAsWords[i]);
+		}
+		clearUnusedBits(complimentWords);
+		return new PackedNucleotideCodeSequence(size, bitsPerCode, complimentWords);
+	}
+
+	private PackedNucleotideCodeSequence reverse(boolean compliment) {
+		int numberOfWords = getNumberOfWords(size, bitsPerCode);
+		long[] reversedWords = new long[numberOfWords];
+		for (int i = 0; i < numberOfWords; i++) {
+			long reversedWord = reverseCodesInWord(sequenceAsWords[numberOfWords - 1 - i]);
+			if (compliment) {
+				reversedWord = complimentWord(reversedWord);
+			}
+			reversedWords[i] = reversedWord;
+		}
+
+		// the unused bits from the end of the last word are now at the start of the first word so shift them out
+		int unusedBits = (int) (((long) numberOfWords * BITS_PER_WORD) - ((long) size * bitsPerCode));
+		if (unusedBits > 0) {
+			for (int i = 0; i < numberOfWords; i++) {
+				long shiftedWord = reversedWords[i] >>> unusedBits;
+				if (i + 1 < numberOfWords) {
+					shiftedWord |= reversedWords[i + 1] << (BITS_PER_WORD - unusedBits);
+				}
+				reversedWords[i] = shiftedWord;
+			}
+		}
+		return new PackedNucleotideCodeSequence(size, bitsPerCode, reversedWords);
+	}
+
+	/**
+	 * Long.reverse reverses the order of the codes in the word but also the order of the bits within each code so the bits within each code are reversed again
+	 */
+	private long reverseCodesInWord(long word) {
+		return reverseBitsWithinCodes(Long.reverse(word));
+	}
+
+	private long reverseBitsWithinCodes(long word) {
+		long reversedWord = ((word >>> 1) & ALTERNATING_BITS) | ((word & ALTERNATING_BITS) << 1);
+		if (bitsPerCode == IUPAC_BITS_PER_CODE) {
+			reversedWord = ((reversedWord >>> 2) & ALTERNATING_BIT_PAIRS) | ((reversedWord & ALTERNATING_BIT_PAIRS) << 2);
+		}
+		return reversedWord;
+	}
+
+	private long complimentWord(long word) {
+		long complimentWord;
+		if (bitsPerCode == NUCLEOTIDE_BITS_PER_CODE) {
+			// 3 - value for every 2 bit value
+			complimentWord = ~word;
+		} else {
+			// the masks are ordered A,C,G,T so reversing the bits of a mask gives the mask of its compliment
+			complimentWord = reverseBitsWithinCodes(word);
+		}
+		return complimentWord;
+	}
+
+	private void clearUnusedBits(long[] words) {
+		int usedBitsInLastWord = (int) (((long) size * bitsPerCode) % BITS_PER_WORD);
+		if (usedBitsInLastWord > 0) {
+			words[words.length - 1] &= (1L << usedBitsInLastWord) - 1;
+		}
+	}
+
+	@Override
+	public double getGCPercent() {
+		double totalGCs = 0;
+		for (int i = 0; i < size; i++) {
+			if ((getMaskAt(i) & (CYTOSINE_MASK | GUANINE_MASK)) != 0) {
+				totalGCs++;
+			}
+		}
+		double gcPercent = totalGCs / size * 100;
+		return gcPercent;
+	}
+
+	@Override
+	public boolean contains(ICode nucleotide) {
+		int nucleotideMask = getNucleotidesMask(nucleotide);
+		boolean nucleotideFound = false;
+		int i = 0;
+		while (i < size && !nucleotideFound) {
+			int mask = getMaskAt(i);
+			nucleotideFound = ((mask & nucleotideMask) != 0) || MASK_TO_IUPAC_NUCLEOTIDE_CODE[mask].equals(nucleotide);
+			i++;
+		}
+		return nucleotideFound;
+	}
+
+	/**
+	 * @return an IupacNucleotideCodeSequence with the same codes as this sequence
+	 */
+	public IupacNucleotideCodeSequence toIupacNucleotideCodeSequence() {
+		return new IupacNucleotideCodeSequence(toString());
+	}
+
+	/**
+	 * @return a NucleotideCodeSequence with the same codes as this sequence
+	 * @throws IllegalStateException
+	 *             if this sequence contains codes other than A, C, G and T
+	 */
+	public NucleotideCodeSequence toNucleotideCodeSequence() {
+		if (bitsPerCode != NUCLEOTIDE_BITS_PER_CODE) {
+			throw new IllegalStateException("Unable to convert sequence[" + toString() + "] to a NucleotideCodeSequence because it contains codes other than A, C, G and T.");
+		}
+		return new NucleotideCodeSequence(toString());
+	}
+
+	@Override
+	public String toString() {
+		char[] characters = new char[size];
+		for (int i = 0; i < size; i++) {
+			characters[i] = MASK_TO_CHARACTER[getMaskAt(i)];
+		}
+		return new String(characters);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+
+		result = prime * result + size;
+		result = prime * result + bitsPerCode;
+		int numberOfWords = getNumberOfWords(size, bitsPerCode);
+		for (int i = 0; i < numberOfWords; i++) {
+			result = prime * result + Long.hashCode(sequenceAsWords[i]);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (obj == null) {
+			return false;
+		}
+
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+
+		PackedNucleotideCodeSequence other = (PackedNucleotideCodeSequence) obj;
+
+		if (size != other.size) {
+			return false;
+		}
+
+		// sequences with the same codes always use the same number of bits per code
+		if (bitsPerCode != other.bitsPerCode) {
+			return false;
+		}
+
+		int numberOfWords = getNumberOfWords(size, bitsPerCode);
+		for (int i = 0; i < numberOfWords; i++) {
+			if (sequenceAsWords[i] != other.sequenceAsWords[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public int compareTo(PackedNucleotideCodeSequence o) {
+		int result = 0;
+		int i = 0;
+		while (result == 0 && i < Math.min(o.size, size)) {
+			result = getCodeAt(i).compareTo(o.getCodeAt(i));
+			i++;
+		}
+
+		if (result == 0) {
+			result = Integer.compare(size, o.size);
+		}
+
+		return result;
+	}
+
+	@Override
+	public Iterator<ICode> iterator() {
+		return new PackedNucleotideCodeIterator();
+	}
+
+	private class PackedNucleotideCodeIterator implements Iterator<ICode> {
+		private int currentIndex;
+
+		private PackedNucleotideCodeIterator() {
+			currentIndex = -1;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return currentIndex < (size - 1);
+		}
+
+		@Override
+		public ICode next() {
+			currentIndex++;
+			return getCodeAt(currentIndex);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("This method is unavailable.");
+		}
+
+	}
+
+}
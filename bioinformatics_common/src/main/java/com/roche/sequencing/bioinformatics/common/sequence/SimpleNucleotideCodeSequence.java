@@ -16,6 +16,7 @@
 
 package com.roche.sequencing.bioinformatics.common.sequence;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Iterator;
 import java.util.Map;
@@ -328,20 +329,8 @@ public class SimpleNucleotideCodeSequence implements ISequence, Comparable<Simpl
 			numberOfBytesNeeded++;
 		}
 
-		byte[] bytes = new byte[numberOfBytesNeeded];
-		byte emptyByte = 0;
-		for (int currentByteIndex = 0; currentByteIndex < numberOfBytesNeeded; currentByteIndex++) {
-			int startBitIndex = currentByteIndex * BITS_PER_BYTE;
-			int stopBitIndexExclusive = (currentByteIndex + 1) * BITS_PER_BYTE;
-			BitSet bitsForByte = sequenceAsBits.get(startBitIndex, stopBitIndexExclusive);
-			if (bitsForByte.length() == 0) {
-				bytes[currentByteIndex] = emptyByte;
-			} else {
-				byte[] byteAsArray = bitsForByte.toByteArray();
-				bytes[currentByteIndex] = byteAsArray[0];
-			}
-		}
-		return bytes;
+		// toByteArray drops trailing empty bytes so pad the array back out to the length of the sequence
+		return Arrays.copyOf(sequenceAsBits.toByteArray(), numberOfBytesNeeded);
 	}
 
 	@Override
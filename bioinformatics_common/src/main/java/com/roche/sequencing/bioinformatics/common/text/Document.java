@@ -2,14 +2,27 @@ package com.roche.sequencing.bioinformatics.common.text;
 
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import com.roche.sequencing.bioinformatics.common.multithreading.NamePrependingThreadFactory;
 import com.roche.sequencing.bioinformatics.common.text.GZipIndex.GZipBlockIndex;
-import com.roche.sequencing.bioinformatics.common.utils.ArraysUtil;
 import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipBlock;
@@ -17,7 +30,6 @@ import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipUtil;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.IByteDecoder;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.IBytes;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.IInput;
-import com.roche.sequencing.bioinformatics.common.utils.gzip.InputStreamInput;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.RandomAccessFileBytes;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.RandomAccessFileInput;
 
@@ -28,6 +40,13 @@ public class Document implements IDocument {
 	private final static int COPY_TO_FILE_LINE_INCREMENTS = 1000;
 	private final static int TEXT_SEARCH_LINE_BUFFER = 1000;
 
+	private final static long MAX_CACHED_DECODED_BYTES = 64 * 1024 * 1024;
+	private final static int BLOCKS_TO_PREFETCH = 2;
+	private final static byte NEWLINE_BYTE = (byte) StringUtil.NEWLINE_SYMBOL;
+	// extra bytes read after a deflate block so the decoder never runs out of input while reading its last bits
+	private final static int DEFLATE_BLOCK_READ_PADDING_IN_BYTES = 8;
+	private final static long PREFETCH_SHUTDOWN_WAIT_IN_SECONDS = 5;
+
 	private final TextFileIndex textFileIndex;
 	private final RandomAccessFile randomAccessToFile;
 	private final IBytes dictionaryBytes;
@@ -35,21 +54,21 @@ public class Document implements IDocument {
 	private final IByteDecoder byteConverter;
 	private final TextSearchIndex textSearchIndex;
 
-	private String[] lastRetreivedText;
-	private int lastStartingLineNumber;
-	private int lastEndingLineNumber;
+	// decoded blocks keyed by their uncompressed decoded start, in least recently used order
+	private final LinkedHashMap<Long, DecodedBlock> decodedBlocksByUncompressedStartInBytes;
+	private long cachedDecodedBytes;
+	private final Set<Long> prefetchingBlockStartsInBytes;
+	private final ExecutorService prefetchExecutor;
+
+	private volatile RetrievedText lastRetrievedText;
 
 	public Document(TextFileIndex textFileIndex, File file, IByteDecoder optionalByteConverter, TextSearchIndex textSearchIndex) throws FileNotFoundException {
 		this(textFileIndex, null, null, file, optionalByteConverter, textSearchIndex);
 	}
 
 	public Document(File file, File indexFile, File gZipIndexFile, File gZipDictionaryFile, IByteDecoder optionalByteConverter, TextSearchIndex textSearchIndex) throws IOException {
-		randomAccessToFile = new RandomAccessFile(file, "r");
-		textFileIndex = TextFileIndexer.loadIndexFile(indexFile);
-		gZipIndex = GZipIndexer.loadIndexFile(gZipIndexFile, gZipDictionaryFile);
-		dictionaryBytes = new RandomAccessFileBytes(new RandomAccessFile(gZipDictionaryFile, "r"));
-		this.textSearchIndex = textSearchIndex;
-		this.byteConverter = optionalByteConverter;
+		this(TextFileIndexer.loadIndexFile(indexFile), GZipIndexer.loadIndexFile(gZipIndexFile, gZipDictionaryFile), new RandomAccessFileBytes(new RandomAccessFile(gZipDictionaryFile, "r")), file,
+				optionalByteConverter, textSearchIndex);
 	}
 
 	public Document(TextFileIndex textFileIndex, GZipIndex gZipIndex, IBytes dictionaryBytes, File file, IByteDecoder optionalByteConverter, TextSearchIndex textSearchIndex)
@@ -61,6 +80,22 @@ public class Document implements IDocument {
 		this.randomAccessToFile = new RandomAccessFile(file, "r");
 		this.byteConverter = optionalByteConverter;
 		this.textSearchIndex = textSearchIndex;
+		this.decodedBlocksByUncompressedStartInBytes = new LinkedHashMap<Long, DecodedBlock>(16, 0.75f, true);
+		this.prefetchingBlockStartsInBytes = ConcurrentHashMap.newKeySet();
+		if (gZipIndex != null) {
+			final ThreadFactory namedThreadFactory = new NamePrependingThreadFactory("DOCUMENT_PREFETCH_");
+			this.prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					// daemon threads so a document which is never closed can not keep the application running
+					Thread thread = namedThreadFactory.newThread(runnable);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		} else {
+			this.prefetchExecutor = null;
+		}
 	}
 
 	@Override
@@ -154,144 +189,223 @@ public class Document implements IDocument {
 		}
 	}
 
-	private long cachedBlockStartingLineNumber;
-	private long cachedBlockEndingLineNumber;
-	private byte[] cachedBlockBytes;
-
 	@Override
-	public synchronized String[] getText(int startingLineNumber, int endingLineNumberInclusive) {
+	public String[] getText(int startingLineNumber, int endingLineNumberInclusive) {
 		return getText(startingLineNumber, null, endingLineNumberInclusive, null);
 	}
 
 	@Override
-	public synchronized String[] getText(int startingLineNumber, Integer startingCharacterIndexInLine, int endingLineNumberInclusive, Integer endingCharacterIndexInLine) {
+	public String[] getText(int startingLineNumber, Integer startingCharacterIndexInLine, int endingLineNumberInclusive, Integer endingCharacterIndexInLine) {
 		String[] text;
-		if (lastStartingLineNumber == startingLineNumber && lastEndingLineNumber == endingLineNumberInclusive && lastRetreivedText != null && startingCharacterIndexInLine == null
-				&& endingCharacterIndexInLine == null) {
-			text = lastRetreivedText;
+		RetrievedText lastRetrievedText = this.lastRetrievedText;
+		boolean isWholeLines = startingCharacterIndexInLine == null && endingCharacterIndexInLine == null;
+		if (isWholeLines && lastRetrievedText != null && lastRetrievedText.startingLineNumber == startingLineNumber && lastRetrievedText.endingLineNumberInclusive == endingLineNumberInclusive) {
+			text = lastRetrievedText.text;
 		} else {
-			int lineIncrements = textFileIndex.getRecordedLineIncrements();
-			int startingIndex = (int) Math.floor((double) startingLineNumber / (double) lineIncrements);
-			int retrievedLineNumber = lineIncrements * startingIndex;
-
 			text = new String[endingLineNumberInclusive - startingLineNumber + 1];
-
-			long linesUncompressedDecodedPositionInBytes = textFileIndex.getBytePositionOfLines()[startingIndex];
-			int lineNumbersInFile = textFileIndex.getNumberOfLines();
 			try {
-				IInput input = null;
 				if (gZipIndex == null) {
-					// this is not a compressed file so uncompressed = compressed
-					randomAccessToFile.seek(linesUncompressedDecodedPositionInBytes);
-					input = new RandomAccessFileInput(randomAccessToFile);
+					readUncompressedLines(startingLineNumber, text);
 				} else {
-					byte[] bytes;
-					long blockStartingLineNumber;
-					if (cachedBlockBytes != null && startingLineNumber >= cachedBlockStartingLineNumber && endingLineNumberInclusive <= cachedBlockEndingLineNumber) {
-						bytes = cachedBlockBytes;
-						blockStartingLineNumber = cachedBlockStartingLineNumber;
-					} else {
-						GZipBlockIndex blockIndex = gZipIndex.getBlockIndex(linesUncompressedDecodedPositionInBytes);
-						long uncompressedDecodedPositionInBytes = blockIndex.getUncompressedDecodedStartInBytes();
-
-						long startInBits = blockIndex.getCompressedStartInBits();
-						long compressedStartInBytes = startInBits / BITS_PER_BYTE;
-						int bitStartInFirstByte = (int) (startInBits % BITS_PER_BYTE);
+					boolean isScrollingBackward = lastRetrievedText != null && startingLineNumber < lastRetrievedText.startingLineNumber;
+					readCompressedLines(startingLineNumber, text, isScrollingBackward);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 
-						blockStartingLineNumber = blockIndex.getStartingLineNumber();
-						long blockEndingLineNumber = blockStartingLineNumber + blockIndex.getNumberOfNewLinesInBlock();
+			for (int index = 0; index < text.length; index++) {
+				String textForLine = text[index];
+				if (textForLine != null) {
+					int currentLine = startingLineNumber + index;
+					if ((currentLine == startingLineNumber) && (startingCharacterIndexInLine != null) && (startingCharacterIndexInLine <= textForLine.length())
+							&& (currentLine == endingLineNumberInclusive) && (endingCharacterIndexInLine != null) && (endingCharacterIndexInLine <= textForLine.length())) {
+						textForLine = textForLine.substring(startingCharacterIndexInLine, endingCharacterIndexInLine);
+					} else if ((currentLine == startingLineNumber) && (startingCharacterIndexInLine != null) && (startingCharacterIndexInLine <= textForLine.length())) {
+						textForLine = textForLine.substring(startingCharacterIndexInLine, textForLine.length());
+					} else if ((currentLine == endingLineNumberInclusive) && (endingCharacterIndexInLine != null) && (endingCharacterIndexInLine <= textForLine.length())) {
+						textForLine = textForLine.substring(0, endingCharacterIndexInLine);
+					}
+					text[index] = textForLine;
+				}
+			}
 
-						byte[] startingDictionaryBytes = dictionaryBytes.getBytes(blockIndex.getOffsetIntoDictionariesBytes(), blockIndex.getNumberOfBytesInDictionary());
-						startingDictionaryBytes = GZipUtil.uncompressBytes(startingDictionaryBytes);
+			// only whole lines are remembered so a later request for whole lines never gets a partial line
+			if (isWholeLines) {
+				this.lastRetrievedText = new RetrievedText(startingLineNumber, endingLineNumberInclusive, text);
+			}
+		}
+		return text;
+	}
 
-						randomAccessToFile.seek(compressedStartInBytes);
+	private void readUncompressedLines(int startingLineNumber, String[] text) throws IOException {
+		int lineIncrements = textFileIndex.getRecordedLineIncrements();
+		int startingIndex = startingLineNumber / lineIncrements;
+		int retrievedLineNumber = lineIncrements * startingIndex;
+		int lineNumbersInFile = textFileIndex.getNumberOfLines();
+
+		// this is not a compressed file so uncompressed = compressed, the file position is shared so only one reader can use it at a time
+		synchronized (randomAccessToFile) {
+			randomAccessToFile.seek(textFileIndex.getBytePositionOfLines()[startingIndex]);
+			IInput input = new RandomAccessFileInput(randomAccessToFile);
+			for (int currentLine = retrievedLineNumber; currentLine < startingLineNumber + text.length && currentLine < lineNumbersInFile; currentLine++) {
+				String textForLine = input.readLine();
+				if (textForLine == null) {
+					textForLine = "";
+				}
+				if (currentLine >= startingLineNumber) {
+					text[currentLine - startingLineNumber] = textForLine;
+				}
+			}
+		}
+	}
 
-						GZipBlock block = GZipUtil.decodeNextGZipBlock(randomAccessToFile, bitStartInFirstByte, startingDictionaryBytes);
-						bytes = block.getUncompressedData();
-						if (byteConverter != null) {
-							bytes = byteConverter.decodeBytes(uncompressedDecodedPositionInBytes, bytes);
-						}
-						uncompressedDecodedPositionInBytes += bytes.length;
-
-						// note: in most cases this will not be run
-						while (blockEndingLineNumber < endingLineNumberInclusive) {
-							GZipBlockIndex nextBlockIndex = gZipIndex.getBlockIndex(uncompressedDecodedPositionInBytes);
-
-							if (nextBlockIndex == blockIndex) {
-								// throw new IllegalStateException("Did not get next block.");
-							}
-
-							long nextStartInBits = nextBlockIndex.getCompressedStartInBits();
-							long nextCompressedStartInBytes = (nextStartInBits / BITS_PER_BYTE);
-							int nextBitStartInFirstByte = (int) (nextStartInBits % BITS_PER_BYTE);
-
-							byte[] nextStartingDictionaryBytes = dictionaryBytes.getBytes(nextBlockIndex.getOffsetIntoDictionariesBytes(), nextBlockIndex.getNumberOfBytesInDictionary());
-							nextStartingDictionaryBytes = GZipUtil.uncompressBytes(nextStartingDictionaryBytes);
-
-							randomAccessToFile.seek(nextCompressedStartInBytes);
-
-							block = GZipUtil.decodeNextGZipBlock(randomAccessToFile, nextBitStartInFirstByte, nextStartingDictionaryBytes);
-							byte[] nextBytes = block.getUncompressedData();
-							if (byteConverter != null) {
-								nextBytes = byteConverter.decodeBytes(uncompressedDecodedPositionInBytes, nextBytes);
-							}
-							uncompressedDecodedPositionInBytes += nextBytes.length;
-							bytes = ArraysUtil.concatenate(bytes, nextBytes);
-
-							long nextBlockStartingLineNumber = blockIndex.getStartingLineNumber();
-							int newLinesInBlock = blockIndex.getNumberOfNewLinesInBlock();
-							blockEndingLineNumber = nextBlockStartingLineNumber + newLinesInBlock;
-							startInBits = nextStartInBits;
-							blockIndex = nextBlockIndex;
-						}
+	/**
+	 * Finds each line with the new line offsets of the decoded blocks, a line which does not end in the block where it starts is continued in the following blocks.
+	 */
+	private void readCompressedLines(int startingLineNumber, String[] text, boolean isScrollingBackward) throws IOException {
+		int lineIncrements = textFileIndex.getRecordedLineIncrements();
+		int startingIndex = startingLineNumber / lineIncrements;
+		long recordedLinePositionInBytes = textFileIndex.getBytePositionOfLines()[startingIndex];
+		int lineNumbersInFile = textFileIndex.getNumberOfLines();
+
+		DecodedBlock block = getDecodedBlock(gZipIndex.getBlockIndex(recordedLinePositionInBytes));
+		// the recorded line is at or before the starting line so move forward to the block where the starting line starts
+		while (block != null && startingLineNumber > block.getEndingLineNumber()) {
+			block = getNextDecodedBlock(block);
+		}
 
-						cachedBlockBytes = bytes;
-						cachedBlockStartingLineNumber = blockStartingLineNumber;
-						cachedBlockEndingLineNumber = blockEndingLineNumber;
-					}
+		if (block != null) {
+			DecodedBlock firstBlock = block;
+			DecodedBlock lastBlock = block;
 
-					input = new InputStreamInput(new ByteArrayInputStream(bytes));
+			int offset;
+			if (startingLineNumber == block.getStartingLineNumber()) {
+				// only possible when the starting line is the recorded line
+				offset = (int) (recordedLinePositionInBytes - block.getUncompressedDecodedStartInBytes());
+			} else {
+				offset = block.newLineOffsets[(int) (startingLineNumber - block.getStartingLineNumber() - 1)] + 1;
+			}
 
-					// read until get to the retrievedLineNumber
-					long currentLineNumber = blockStartingLineNumber;
-					while (currentLineNumber < retrievedLineNumber) {
-						input.readLine();
-						currentLineNumber++;
+			for (int index = 0; index < text.length && startingLineNumber + index < lineNumbersInFile; index++) {
+				long lineNumber = startingLineNumber + index;
+				ByteArrayOutputStream spannedLineBytes = null;
+				while (block != null && lineNumber - block.getStartingLineNumber() >= block.newLineOffsets.length) {
+					if (spannedLineBytes == null) {
+						spannedLineBytes = new ByteArrayOutputStream();
 					}
+					spannedLineBytes.write(block.bytes, offset, block.bytes.length - offset);
+					block = getNextDecodedBlock(block);
+					offset = 0;
+				}
 
+				String textForLine;
+				if (block == null) {
+					textForLine = (spannedLineBytes == null) ? "" : toText(spannedLineBytes.toByteArray(), 0, spannedLineBytes.size());
+				} else {
+					lastBlock = block;
+					int lineEnd = block.newLineOffsets[(int) (lineNumber - block.getStartingLineNumber())];
+					if (spannedLineBytes == null) {
+						textForLine = toText(block.bytes, offset, lineEnd - offset);
+					} else {
+						spannedLineBytes.write(block.bytes, offset, lineEnd - offset);
+						textForLine = toText(spannedLineBytes.toByteArray(), 0, spannedLineBytes.size());
+					}
+					offset = lineEnd + 1;
 				}
+				text[index] = textForLine;
+			}
 
-				// at this point the input should be at the retrievedLineNumber
-				for (int currentLine = retrievedLineNumber; currentLine <= endingLineNumberInclusive; currentLine++) {
-					int index = currentLine - startingLineNumber;
-					if (currentLine < lineNumbersInFile) {
-						String textForLine = input.readLine();
-						if (textForLine == null) {
-							textForLine = "";
-						}
-						if ((currentLine == startingLineNumber) && (startingCharacterIndexInLine != null) && (startingCharacterIndexInLine <= textForLine.length())
-								&& (currentLine == endingLineNumberInclusive) && (endingCharacterIndexInLine != null) && (endingCharacterIndexInLine <= textForLine.length())) {
-							textForLine = textForLine.substring(startingCharacterIndexInLine, endingCharacterIndexInLine);
-						} else if ((currentLine == startingLineNumber) && (startingCharacterIndexInLine != null) && (startingCharacterIndexInLine <= textForLine.length())) {
-							textForLine = textForLine.substring(startingCharacterIndexInLine, textForLine.length());
-						} else if ((currentLine == endingLineNumberInclusive) && (endingCharacterIndexInLine != null) && (endingCharacterIndexInLine <= textForLine.length())) {
-							textForLine = textForLine.substring(0, endingCharacterIndexInLine);
-						}
+			if (isScrollingBackward) {
+				prefetchNeighbouringBlocks(firstBlock.blockIndex, false);
+			} else {
+				prefetchNeighbouringBlocks(lastBlock.blockIndex, true);
+			}
+		}
+	}
 
-						if (currentLine >= startingLineNumber) {
-							text[index] = textForLine;
-						}
+	/**
+	 * Each byte is a character, which is how lines have always been read from the decoded blocks.
+	 */
+	private static String toText(byte[] bytes, int offset, int length) {
+		return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+	}
+
+	private DecodedBlock getNextDecodedBlock(DecodedBlock block) throws IOException {
+		DecodedBlock nextBlock = null;
+		GZipBlockIndex nextBlockIndex = gZipIndex.getNextBlockIndex(block.blockIndex);
+		if (nextBlockIndex != null) {
+			nextBlock = getDecodedBlock(nextBlockIndex);
+		}
+		return nextBlock;
+	}
+
+	private DecodedBlock getDecodedBlock(GZipBlockIndex blockIndex) throws IOException {
+		DecodedBlock decodedBlock = null;
+		if (blockIndex != null) {
+			Long key = blockIndex.getUncompressedDecodedStartInBytes();
+			synchronized (decodedBlocksByUncompressedStartInBytes) {
+				decodedBlock = decodedBlocksByUncompressedStartInBytes.get(key);
+			}
+			if (decodedBlock == null) {
+				// two readers may decode the same block at the same time, which is cheaper than making every reader wait on one lock while blocks are decoded
+				decodedBlock = new DecodedBlock(blockIndex, decodeBlock(blockIndex));
+				synchronized (decodedBlocksByUncompressedStartInBytes) {
+					DecodedBlock replacedBlock = decodedBlocksByUncompressedStartInBytes.put(key, decodedBlock);
+					if (replacedBlock != null) {
+						cachedDecodedBytes -= replacedBlock.bytes.length;
+					}
+					cachedDecodedBytes += decodedBlock.bytes.length;
+					Iterator<DecodedBlock> leastRecentlyUsedBlocks = decodedBlocksByUncompressedStartInBytes.values().iterator();
+					while (cachedDecodedBytes > MAX_CACHED_DECODED_BYTES && decodedBlocksByUncompressedStartInBytes.size() > 1) {
+						cachedDecodedBytes -= leastRecentlyUsedBlocks.next().bytes.length;
+						leastRecentlyUsedBlocks.remove();
 					}
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
+		}
+		return decodedBlock;
+	}
 
-			lastRetreivedText = text;
-			lastStartingLineNumber = startingLineNumber;
-			lastEndingLineNumber = endingLineNumberInclusive;
+	private void prefetchNeighbouringBlocks(GZipBlockIndex blockIndex, boolean isForward) {
+		GZipBlockIndex neighbouringBlockIndex = blockIndex;
+		for (int i = 0; i < BLOCKS_TO_PREFETCH && neighbouringBlockIndex != null; i++) {
+			if (isForward) {
+				neighbouringBlockIndex = gZipIndex.getNextBlockIndex(neighbouringBlockIndex);
+			} else {
+				neighbouringBlockIndex = gZipIndex.getPreviousBlockIndex(neighbouringBlockIndex);
+			}
+			if (neighbouringBlockIndex != null) {
+				prefetch(neighbouringBlockIndex);
+			}
+		}
+	}
+
+	private void prefetch(final GZipBlockIndex blockIndex) {
+		final Long key = blockIndex.getUncompressedDecodedStartInBytes();
+		boolean isCached;
+		synchronized (decodedBlocksByUncompressedStartInBytes) {
+			isCached = decodedBlocksByUncompressedStartInBytes.containsKey(key);
+		}
+		if (!isCached && prefetchingBlockStartsInBytes.add(key)) {
+			try {
+				prefetchExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							getDecodedBlock(blockIndex);
+						} catch (IOException | RuntimeException e) {
+							// the block is decoded again when it is requested and the error is reported then
+						} finally {
+							prefetchingBlockStartsInBytes.remove(key);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the document has been closed
+				prefetchingBlockStartsInBytes.remove(key);
+			}
 		}
-		return text;
 	}
 
 	@Override
@@ -314,14 +428,28 @@ public class Document implements IDocument {
 		// searchString = searchString.toLowerCase();
 		// }
 
-		int[] lineNumbers = textSearchIndex.search(searchString);
+		// the index returns the candidate lines in order a page at a time, so only request the next page if none of the lines on this page hold the search string
+		int firstLineNumber = startingLine;
+		boolean isLastPage = false;
+		while (searchStringTextPosition == null && !isLastPage) {
+			int[] lineNumbers = textSearchIndex.search(searchString, firstLineNumber, stopLine, TextSearchIndex.SEARCH_RESULTS_LIMIT);
 
-		lineLoop: for (int lineNumber : lineNumbers) {
-			if (lineNumber >= startingLine && (stopLine == null || lineNumber <= stopLine)) {
+			lineLoop: for (int lineNumber : lineNumbers) {
 				String lineText = getText(lineNumber, lineNumber)[0];
-				int indexOfText = lineText.indexOf(searchString);
-				searchStringTextPosition = new TextPosition(lineNumber, indexOfText);
-				break lineLoop;
+				int startingCharacterIndex = 0;
+				if (lineNumber == startingLine) {
+					startingCharacterIndex = startingCharacterIndexInLine;
+				}
+				int indexOfText = lineText.indexOf(searchString, startingCharacterIndex);
+				if (indexOfText >= 0) {
+					searchStringTextPosition = new TextPosition(lineNumber, indexOfText);
+					break lineLoop;
+				}
+			}
+
+			isLastPage = lineNumbers.length < TextSearchIndex.SEARCH_RESULTS_LIMIT;
+			if (!isLastPage) {
+				firstLineNumber = lineNumbers[lineNumbers.length - 1] + 1;
 			}
 		}
 
@@ -412,8 +540,117 @@ public class Document implements IDocument {
 		return searchStringTextPosition;
 	}
 
+	/**
+	 * A BGZF block is inflated on its own while any other deflate block is decoded starting with the dictionary stored for the block. Only reading the compressed bytes is done while holding
+	 * the file so several blocks can be decoded at the same time.
+	 */
+	private byte[] decodeBlock(GZipBlockIndex blockIndex) throws IOException {
+		long startInBits = blockIndex.getCompressedStartInBits();
+		long compressedStartInBytes = startInBits / BITS_PER_BYTE;
+		byte[] bytes;
+		if (gZipIndex.isBgzf()) {
+			int blockSize = (int) (blockIndex.getCompressedSizeInBits() / BITS_PER_BYTE);
+			byte[] blockBytes = readFully(compressedStartInBytes, blockSize);
+			Inflater inflater = new Inflater(true);
+			try {
+				bytes = GZipUtil.inflateBgzfBlock(blockBytes, 0, blockSize, inflater);
+			} finally {
+				inflater.end();
+			}
+		} else {
+			int bitStartInFirstByte = (int) (startInBits % BITS_PER_BYTE);
+
+			byte[] startingDictionaryBytes;
+			synchronized (dictionaryBytes) {
+				startingDictionaryBytes = dictionaryBytes.getBytes(blockIndex.getOffsetIntoDictionariesBytes(), blockIndex.getNumberOfBytesInDictionary());
+			}
+			startingDictionaryBytes = GZipUtil.uncompressBytes(startingDictionaryBytes);
+
+			long compressedSizeInBytes = (bitStartInFirstByte + blockIndex.getCompressedSizeInBits() + BITS_PER_BYTE - 1) / BITS_PER_BYTE;
+			int bytesToRead = (int) Math.min(compressedSizeInBytes + DEFLATE_BLOCK_READ_PADDING_IN_BYTES, randomAccessToFile.length() - compressedStartInBytes);
+			byte[] compressedBytes = readFully(compressedStartInBytes, bytesToRead);
+
+			GZipBlock block = GZipUtil.decodeNextGZipBlock(new ByteArrayInputStream(compressedBytes), bitStartInFirstByte, startingDictionaryBytes);
+			bytes = block.getUncompressedData();
+		}
+
+		if (byteConverter != null) {
+			synchronized (byteConverter) {
+				bytes = byteConverter.decodeBytes(blockIndex.getUncompressedDecodedStartInBytes(), bytes);
+			}
+		}
+		return bytes;
+	}
+
+	private byte[] readFully(long positionInBytes, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		synchronized (randomAccessToFile) {
+			randomAccessToFile.seek(positionInBytes);
+			randomAccessToFile.readFully(bytes);
+		}
+		return bytes;
+	}
+
+	private static class DecodedBlock {
+		private final GZipBlockIndex blockIndex;
+		private final byte[] bytes;
+		// the offset of each new line character in the bytes
+		private final int[] newLineOffsets;
+
+		private DecodedBlock(GZipBlockIndex blockIndex, byte[] bytes) {
+			this.blockIndex = blockIndex;
+			this.bytes = bytes;
+			int numberOfNewLines = 0;
+			for (byte value : bytes) {
+				if (value == NEWLINE_BYTE) {
+					numberOfNewLines++;
+				}
+			}
+			this.newLineOffsets = new int[numberOfNewLines];
+			int newLineIndex = 0;
+			for (int i = 0; i < bytes.length; i++) {
+				if (bytes[i] == NEWLINE_BYTE) {
+					newLineOffsets[newLineIndex++] = i;
+				}
+			}
+		}
+
+		private long getUncompressedDecodedStartInBytes() {
+			return blockIndex.getUncompressedDecodedStartInBytes();
+		}
+
+		private long getStartingLineNumber() {
+			return blockIndex.getStartingLineNumber();
+		}
+
+		private long getEndingLineNumber() {
+			return blockIndex.getStartingLineNumber() + newLineOffsets.length;
+		}
+	}
+
+	private static class RetrievedText {
+		private final int startingLineNumber;
+		private final int endingLineNumberInclusive;
+		private final String[] text;
+
+		private RetrievedText(int startingLineNumber, int endingLineNumberInclusive, String[] text) {
+			this.startingLineNumber = startingLineNumber;
+			this.endingLineNumberInclusive = endingLineNumberInclusive;
+			this.text = text;
+		}
+	}
+
 	@Override
 	public void close() throws IOException {
+		if (prefetchExecutor != null) {
+			prefetchExecutor.shutdownNow();
+			// let a block which is being prefetched finish before its file is closed
+			try {
+				prefetchExecutor.awaitTermination(PREFETCH_SHUTDOWN_WAIT_IN_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 		randomAccessToFile.close();
 		if (dictionaryBytes != null) {
 			dictionaryBytes.close();
@@ -421,6 +658,10 @@ public class Document implements IDocument {
 		if (textSearchIndex != null) {
 			textSearchIndex.closeIndex();
 		}
+		synchronized (decodedBlocksByUncompressedStartInBytes) {
+			decodedBlocksByUncompressedStartInBytes.clear();
+			cachedDecodedBytes = 0;
+		}
 	}
 
 	@Override
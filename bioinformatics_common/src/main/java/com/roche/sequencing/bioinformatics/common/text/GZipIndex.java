@@ -15,20 +15,45 @@ import com.roche.sequencing.bioinformatics.common.utils.gzip.RandomAccessFileByt
 public class GZipIndex {
 
 	private final TreeMap<Long, GZipBlockIndex> blockIndexesByUncompressedStartInBytes;
+	private final boolean isBgzf;
 
 	public GZipIndex(List<GZipBlockIndex> blockIndexes, File blockDictionariesFile) throws FileNotFoundException {
-		this(blockIndexes, new RandomAccessFileBytes(new RandomAccessFile(blockDictionariesFile, "r")));
+		this(blockIndexes, blockDictionariesFile, false);
+	}
+
+	public GZipIndex(List<GZipBlockIndex> blockIndexes, File blockDictionariesFile, boolean isBgzf) throws FileNotFoundException {
+		this(blockIndexes, new RandomAccessFileBytes(new RandomAccessFile(blockDictionariesFile, "r")), isBgzf);
 	}
 
 	public GZipIndex(List<GZipBlockIndex> blockIndexes, byte[] blockDictionaries) {
-		this(blockIndexes, new Bytes(blockDictionaries));
+		this(blockIndexes, blockDictionaries, false);
+	}
+
+	public GZipIndex(List<GZipBlockIndex> blockIndexes, byte[] blockDictionaries, boolean isBgzf) {
+		this(blockIndexes, new Bytes(blockDictionaries), isBgzf);
 	}
 
 	public GZipIndex(List<GZipBlockIndex> blockIndexes, IBytes blockDictionaries) {
+		this(blockIndexes, blockDictionaries, false);
+	}
+
+	/**
+	 * @param blockIndexes
+	 * @param blockDictionaries
+	 * @param isBgzf
+	 *            true if each block index is a complete BGZF block which starts at its gzip header and needs no dictionary, otherwise each block index is a single deflate block which starts at a bit
+	 *            position in the compressed data
+	 */
+	public GZipIndex(List<GZipBlockIndex> blockIndexes, IBytes blockDictionaries, boolean isBgzf) {
 		this.blockIndexesByUncompressedStartInBytes = new TreeMap<Long, GZipIndex.GZipBlockIndex>();
 		for (GZipBlockIndex blockIndex : blockIndexes) {
 			blockIndexesByUncompressedStartInBytes.put(blockIndex.getUncompressedDecodedStartInBytes(), blockIndex);
 		}
+		this.isBgzf = isBgzf;
+	}
+
+	public boolean isBgzf() {
+		return isBgzf;
 	}
 
 	public GZipBlockIndex getBlockIndex(long positionInUncompressedBytes) {
@@ -40,6 +65,30 @@ public class GZipIndex {
 		return index;
 	}
 
+	/**
+	 * @return the index of the block following the provided block or null if it is the last block
+	 */
+	public GZipBlockIndex getNextBlockIndex(GZipBlockIndex blockIndex) {
+		GZipBlockIndex index = null;
+		Entry<Long, GZipBlockIndex> entry = blockIndexesByUncompressedStartInBytes.higherEntry(blockIndex.getUncompressedDecodedStartInBytes());
+		if (entry != null) {
+			index = entry.getValue();
+		}
+		return index;
+	}
+
+	/**
+	 * @return the index of the block preceding the provided block or null if it is the first block
+	 */
+	public GZipBlockIndex getPreviousBlockIndex(GZipBlockIndex blockIndex) {
+		GZipBlockIndex index = null;
+		Entry<Long, GZipBlockIndex> entry = blockIndexesByUncompressedStartInBytes.lowerEntry(blockIndex.getUncompressedDecodedStartInBytes());
+		if (entry != null) {
+			index = entry.getValue();
+		}
+		return index;
+	}
+
 	public List<GZipBlockIndex> getAllBlockIndexes() {
 		return new ArrayList<GZipIndex.GZipBlockIndex>(blockIndexesByUncompressedStartInBytes.values());
 	}
@@ -49,6 +98,7 @@ public class GZipIndex {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((blockIndexesByUncompressedStartInBytes == null) ? 0 : blockIndexesByUncompressedStartInBytes.hashCode());
+		result = prime * result + (isBgzf ? 1231 : 1237);
 		return result;
 	}
 
@@ -66,6 +116,8 @@ public class GZipIndex {
 				return false;
 		} else if (!blockIndexesByUncompressedStartInBytes.equals(other.blockIndexesByUncompressedStartInBytes))
 			return false;
+		if (isBgzf != other.isBgzf)
+			return false;
 		return true;
 	}
 
@@ -2,19 +2,29 @@ package com.roche.sequencing.bioinformatics.common.text;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Inflater;
 
+import com.roche.sequencing.bioinformatics.common.multithreading.BoundedQueueThreadPoolExecutor;
 import com.roche.sequencing.bioinformatics.common.text.GZipIndex.GZipBlockIndex;
 import com.roche.sequencing.bioinformatics.common.utils.ArraysUtil;
 import com.roche.sequencing.bioinformatics.common.utils.ByteUtil;
@@ -26,6 +36,7 @@ import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipMemberData;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipUtil;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.IByteDecoder;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.IGZipParser;
+import com.roche.sequencing.bioinformatics.common.utils.gzip.InputStreamInput;
 
 public class GZipIndexer {
 
@@ -36,10 +47,13 @@ public class GZipIndexer {
 	private final static boolean IS_SIGNED = false;
 
 	private final static int MAGIC_NUMBER = 604010304;
-	private final static int VERSION = 1;
+	private final static int VERSION = 2;
+	private final static int VERSION_WITHOUT_BGZF_FLAG = 1;
 	private final static int ENTRY_START_INT = 57;
 	private final static byte[] ENTRY_START_CODE = ByteUtil.convertIntToBytes(ENTRY_START_INT, 1, BYTE_ORDER, IS_SIGNED);
 
+	private final static int BGZF_CHUNK_SIZE = 1 << 22;
+
 	private GZipIndexer() {
 		throw new AssertionError();
 	}
@@ -207,6 +221,196 @@ public class GZipIndexer {
 		}
 	}
 
+	public static GZipIndexPair indexGZipBlocks(File file, File optionalBlockDictionariesFile, int recordedLineIncrement, ITextProgressListener optionalProgressListener,
+			IByteDecoder optionalByteConverter) throws IOException {
+		return indexGZipBlocks(file, optionalBlockDictionariesFile, recordedLineIncrement, optionalProgressListener, optionalByteConverter, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Indexes a BGZF file (a bam file or a bgzipped text file) by inflating its blocks in parallel without storing any dictionaries since each BGZF block is independent of the blocks before it.
+	 * Any other gzip file is decoded one deflate block at a time and the dictionary needed to start decoding at each block is stored in the block dictionaries file.
+	 * 
+	 * @param file
+	 * @param optionalBlockDictionariesFile
+	 *            the dictionaries are kept in memory when no file is provided, the file is left empty for a BGZF file
+	 * @param recordedLineIncrement
+	 * @param optionalProgressListener
+	 * @param optionalByteConverter
+	 * @param numberOfThreads
+	 *            the number of threads used to inflate the blocks of a BGZF file
+	 * @return the gzip index and the text file index
+	 * @throws IOException
+	 */
+	public static GZipIndexPair indexGZipBlocks(File file, File optionalBlockDictionariesFile, int recordedLineIncrement, ITextProgressListener optionalProgressListener,
+			IByteDecoder optionalByteConverter, int numberOfThreads) throws IOException {
+		GZipIndexPair indexPair;
+		if (isBgzf(file)) {
+			indexPair = indexBgzfBlocks(file, optionalBlockDictionariesFile, recordedLineIncrement, optionalProgressListener, optionalByteConverter, numberOfThreads);
+		} else {
+			indexPair = indexGZipBlocks(new InputStreamFactory(file), optionalBlockDictionariesFile, recordedLineIncrement, optionalProgressListener, optionalByteConverter);
+		}
+		return indexPair;
+	}
+
+	private static boolean isBgzf(File file) throws IOException {
+		GZipMemberData firstMember;
+		try (InputStream inputStream = new FileInputStream(file)) {
+			firstMember = GZipUtil.uncompressMemberData(file.getAbsolutePath(), new InputStreamInput(inputStream), false);
+		}
+		return firstMember != null && GZipUtil.getBgzfBlockSize(firstMember) != null;
+	}
+
+	private static GZipIndexPair indexBgzfBlocks(File file, File optionalBlockDictionariesFile, int recordedLineIncrement, ITextProgressListener optionalProgressListener,
+			IByteDecoder optionalByteConverter, int numberOfThreads) throws IOException {
+		List<GZipBlockIndex> blockIndexes = new ArrayList<GZipBlockIndex>();
+		LineScanner lineScanner = new LineScanner(recordedLineIncrement, null, 1, 0);
+		lineScanner.addLinePosition(0);
+		ProgressReporter progressReporter = new ProgressReporter(file.length(), optionalProgressListener);
+
+		BoundedQueueThreadPoolExecutor executor = new BoundedQueueThreadPoolExecutor(numberOfThreads, numberOfThreads, "BGZF_INDEXING_");
+		try (InputStream inputStream = new FileInputStream(file)) {
+			// the chunks are inflated in parallel but indexed in order, so only a few chunks are inflated ahead of the indexing
+			Deque<Future<InflatedBgzfBlocks>> inflatingChunks = new ArrayDeque<Future<InflatedBgzfBlocks>>();
+			byte[] leftOverBytes = new byte[0];
+			long chunkStartInBytes = 0;
+			boolean isEndOfFile = false;
+			while (!isEndOfFile) {
+				final byte[] chunkBytes = Arrays.copyOf(leftOverBytes, leftOverBytes.length + BGZF_CHUNK_SIZE);
+				int numberOfBytesInChunk = leftOverBytes.length + readFully(inputStream, chunkBytes, leftOverBytes.length);
+				isEndOfFile = numberOfBytesInChunk < chunkBytes.length;
+
+				// only complete blocks are inflated, the bytes of a block which continues in the next chunk are left over for the next chunk
+				final List<Integer> blockStarts = new ArrayList<Integer>();
+				int blockStart = 0;
+				boolean isBlockComplete = true;
+				while (isBlockComplete) {
+					Integer blockSize = GZipUtil.getBgzfBlockSize(chunkBytes, blockStart, numberOfBytesInChunk - blockStart);
+					isBlockComplete = blockSize != null && blockStart + blockSize <= numberOfBytesInChunk;
+					if (isBlockComplete) {
+						blockStarts.add(blockStart);
+						blockStart += blockSize;
+					}
+				}
+				blockStarts.add(blockStart);
+				if (isEndOfFile && blockStart < numberOfBytesInChunk) {
+					throw new IllegalStateException("The bgzf file[" + file.getAbsolutePath() + "] ends with an incomplete block at byte[" + (chunkStartInBytes + blockStart) + "].");
+				}
+				leftOverBytes = Arrays.copyOfRange(chunkBytes, blockStart, numberOfBytesInChunk);
+
+				final long blocksStartInBytes = chunkStartInBytes;
+				inflatingChunks.add(executor.submit(new Callable<InflatedBgzfBlocks>() {
+					@Override
+					public InflatedBgzfBlocks call() {
+						return inflateBgzfBlocks(chunkBytes, blockStarts, blocksStartInBytes);
+					}
+				}));
+				chunkStartInBytes += blockStart;
+
+				while (inflatingChunks.size() > numberOfThreads) {
+					indexInflatedBgzfBlocks(getResult(inflatingChunks.removeFirst()), lineScanner, blockIndexes, optionalByteConverter, progressReporter);
+				}
+			}
+			while (!inflatingChunks.isEmpty()) {
+				indexInflatedBgzfBlocks(getResult(inflatingChunks.removeFirst()), lineScanner, blockIndexes, optionalByteConverter, progressReporter);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		progressReporter.finished();
+
+		GZipIndex gZipIndex;
+		if (optionalBlockDictionariesFile != null) {
+			// there are no dictionaries but the file is still created so it can be opened like the dictionaries of any other gzip file
+			FileUtil.createNewFile(optionalBlockDictionariesFile);
+			new FileOutputStream(optionalBlockDictionariesFile).close();
+			gZipIndex = new GZipIndex(blockIndexes, optionalBlockDictionariesFile, true);
+		} else {
+			gZipIndex = new GZipIndex(blockIndexes, new byte[0], true);
+		}
+
+		TextFileIndex fileIndex = new TextFileIndex(file.length(), recordedLineIncrement, lineScanner.getLinePositionsInBytes(), lineScanner.getLinesRead() - 1,
+				lineScanner.getMaxCharsByTabCount(), TextFileIndexer.VERSION);
+
+		return new GZipIndexPair(gZipIndex, fileIndex);
+	}
+
+	private static class InflatedBgzfBlocks {
+		private final long[] compressedStartsInBytes;
+		private final int[] compressedSizesInBytes;
+		private final byte[][] uncompressedBytes;
+
+		private InflatedBgzfBlocks(int numberOfBlocks) {
+			this.compressedStartsInBytes = new long[numberOfBlocks];
+			this.compressedSizesInBytes = new int[numberOfBlocks];
+			this.uncompressedBytes = new byte[numberOfBlocks][];
+		}
+	}
+
+	/**
+	 * @param blockStarts
+	 *            the start of each block in the chunk followed by the end of the last block
+	 */
+	private static InflatedBgzfBlocks inflateBgzfBlocks(byte[] chunkBytes, List<Integer> blockStarts, long chunkStartInBytes) {
+		InflatedBgzfBlocks inflatedBlocks = new InflatedBgzfBlocks(blockStarts.size() - 1);
+		Inflater inflater = new Inflater(true);
+		try {
+			for (int i = 0; i < blockStarts.size() - 1; i++) {
+				int blockStart = blockStarts.get(i);
+				int blockSize = blockStarts.get(i + 1) - blockStart;
+				inflatedBlocks.compressedStartsInBytes[i] = chunkStartInBytes + blockStart;
+				inflatedBlocks.compressedSizesInBytes[i] = blockSize;
+				inflatedBlocks.uncompressedBytes[i] = GZipUtil.inflateBgzfBlock(chunkBytes, blockStart, blockSize, inflater);
+			}
+		} finally {
+			inflater.end();
+		}
+		return inflatedBlocks;
+	}
+
+	private static void indexInflatedBgzfBlocks(InflatedBgzfBlocks inflatedBlocks, LineScanner lineScanner, List<GZipBlockIndex> blockIndexes, IByteDecoder optionalByteConverter,
+			ProgressReporter progressReporter) {
+		for (int i = 0; i < inflatedBlocks.uncompressedBytes.length; i++) {
+			long blockUncompressedDecodedStartPositionInBytes = lineScanner.getCurrentPositionInBytes();
+			byte[] bytes = inflatedBlocks.uncompressedBytes[i];
+			// the byte decoder is called for every block in order since it may carry bytes over from one block to the next
+			if (optionalByteConverter != null) {
+				bytes = optionalByteConverter.decodeBytes(blockUncompressedDecodedStartPositionInBytes, bytes);
+			}
+			long startingLineNumber = lineScanner.getLinesRead() - 1;
+			lineScanner.scan(bytes, 0, bytes.length);
+			int numberOfNewLinesInBlock = (int) (lineScanner.getLinesRead() - 1 - startingLineNumber);
+			// a block without any bytes, such as the end of file block, would replace the index of the block which starts at the same position
+			if (bytes.length > 0) {
+				blockIndexes.add(new GZipBlockIndex(inflatedBlocks.compressedStartsInBytes[i] * BITS_PER_BYTE, blockUncompressedDecodedStartPositionInBytes, startingLineNumber,
+						numberOfNewLinesInBlock, (long) inflatedBlocks.compressedSizesInBytes[i] * BITS_PER_BYTE, 0, 0));
+			}
+			progressReporter.bytesScanned(inflatedBlocks.compressedSizesInBytes[i], numberOfNewLinesInBlock);
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			throw new RuntimeException("Indexing was stopped.");
+		}
+	}
+
+	private static int readFully(InputStream inputStream, byte[] bytes, int offset) throws IOException {
+		int totalBytesRead = 0;
+		int numberOfBytesRead = 0;
+		while (offset + totalBytesRead < bytes.length && (numberOfBytesRead = inputStream.read(bytes, offset + totalBytesRead, bytes.length - offset - totalBytesRead)) != -1) {
+			totalBytesRead += numberOfBytesRead;
+		}
+		return totalBytesRead;
+	}
+
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Indexing was stopped.", e);
+		}
+	}
+
 	public static GZipIndexPair indexGZipBlocks(InputStreamFactory inputStreamFactory, File optionalBlockDictionariesFile, int recordedLineIncrement, ITextProgressListener optionalProgressListener,
 			IByteDecoder optionalByteConverter) throws IOException {
 		List<Long> linePositionsInBytes = new ArrayList<Long>();
@@ -254,10 +458,16 @@ public class GZipIndexer {
 		}
 		int version = ByteUtil.convertBytesToInt(ByteUtil.copyOf(bytes, currentIndex, BYTES_PER_INT), BYTE_ORDER, IS_SIGNED);
 		currentIndex += BYTES_PER_INT;
-		if (version != VERSION) {
+		if (version != VERSION && version != VERSION_WITHOUT_BGZF_FLAG) {
 			throw new IllegalStateException("The provided version[" + version + "] in the gzip index file[" + indexFile.getAbsolutePath() + "] does not match the required version[" + VERSION + "].");
 		}
 
+		boolean isBgzf = false;
+		if (version != VERSION_WITHOUT_BGZF_FLAG) {
+			isBgzf = ByteUtil.convertBytesToInt(ByteUtil.copyOf(bytes, currentIndex, BYTES_PER_INT), BYTE_ORDER, IS_SIGNED) != 0;
+			currentIndex += BYTES_PER_INT;
+		}
+
 		int nextInt = ByteUtil.convertBytesToInt(ByteUtil.copyOf(bytes, currentIndex, 1), BYTE_ORDER, IS_SIGNED);
 		currentIndex += 1;
 
@@ -298,7 +508,7 @@ public class GZipIndexer {
 			}
 		}
 
-		return new GZipIndex(blockIndexes, dictionaryBytes);
+		return new GZipIndex(blockIndexes, dictionaryBytes, isBgzf);
 	}
 
 	public static void saveGZipIndexToFile(GZipIndex gzipIndex, File gzipIndexFile) throws IOException {
@@ -306,6 +516,7 @@ public class GZipIndexer {
 
 		bytesToWrite.add(ByteUtil.convertIntToBytes(MAGIC_NUMBER, BYTES_PER_INT, BYTE_ORDER, IS_SIGNED));
 		bytesToWrite.add(ByteUtil.convertIntToBytes(VERSION, BYTES_PER_INT, BYTE_ORDER, IS_SIGNED));
+		bytesToWrite.add(ByteUtil.convertIntToBytes(gzipIndex.isBgzf() ? 1 : 0, BYTES_PER_INT, BYTE_ORDER, IS_SIGNED));
 
 		for (GZipBlockIndex blockIndex : gzipIndex.getAllBlockIndexes()) {
 			bytesToWrite.add(ENTRY_START_CODE);
@@ -0,0 +1,147 @@
+package com.roche.sequencing.bioinformatics.common.text;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
+
+/**
+ * Scans raw bytes for new lines and tabs, the bytes of a line are only collected and decoded when there is a line listener.
+ */
+class LineScanner {
+
+	private final static byte NEWLINE_BYTE = (byte) StringUtil.NEWLINE_SYMBOL;
+	private final static byte TAB_BYTE = (byte) StringUtil.TAB.charAt(0);
+	private final static int UTF8_CONTINUATION_MASK = 0xC0;
+	private final static int UTF8_CONTINUATION_BITS = 0x80;
+	private final static int INITIAL_LINE_POSITIONS_CAPACITY = 1024;
+
+	private final int recordedLineIncrement;
+	private final ITextFileIndexerLineListeners lineListener;
+	private final Map<Integer, Integer> maxCharsByTabCount;
+
+	private long[] linePositionsInBytes;
+	private int numberOfLinePositions;
+	private byte[] currentLineBytes;
+	private int currentLineLengthInBytes;
+
+	private int linesRead;
+	private long currentPositionInBytes;
+	private int currentLineLength;
+	private int tabsInLine;
+
+	LineScanner(int recordedLineIncrement, ITextFileIndexerLineListeners lineListener, int firstLineNumber, long firstPositionInBytes) {
+		this.recordedLineIncrement = recordedLineIncrement;
+		this.lineListener = lineListener;
+		this.maxCharsByTabCount = new HashMap<Integer, Integer>();
+		this.linePositionsInBytes = new long[INITIAL_LINE_POSITIONS_CAPACITY];
+		this.numberOfLinePositions = 0;
+		this.currentLineBytes = new byte[0];
+		this.currentLineLengthInBytes = 0;
+		this.linesRead = firstLineNumber;
+		this.currentPositionInBytes = firstPositionInBytes;
+		this.currentLineLength = 0;
+		this.tabsInLine = 0;
+	}
+
+	void scan(byte[] bytes, int offset, int length) {
+		int end = offset + length;
+		int lineStart = offset;
+		for (int i = offset; i < end; i++) {
+			byte currentByte = bytes[i];
+			if (currentByte == NEWLINE_BYTE) {
+				if (lineListener != null) {
+					String lineText;
+					if (currentLineLengthInBytes == 0) {
+						lineText = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+					} else {
+						appendToCurrentLine(bytes, lineStart, i - lineStart);
+						lineText = new String(currentLineBytes, 0, currentLineLengthInBytes, StandardCharsets.UTF_8);
+						currentLineLengthInBytes = 0;
+					}
+					lineListener.lineRead(linesRead, lineText);
+				}
+				lineStart = i + 1;
+
+				if (linesRead % recordedLineIncrement == 0) {
+					addLinePosition(currentPositionInBytes + (lineStart - offset));
+				}
+				// we need to know which lines might be the longest, but the number of characters per
+				// tab is not known here. So assuming that characters per tab is greater than or equal to 1
+				// we keep a list of all possible longest lines.
+				addLongestLineCandidate(tabsInLine, currentLineLength);
+
+				linesRead++;
+
+				tabsInLine = 0;
+				currentLineLength = 0;
+			} else {
+				if (currentByte == TAB_BYTE) {
+					tabsInLine++;
+				}
+				// the continuation bytes of a multi-byte UTF-8 character are not counted as characters
+				if ((currentByte & UTF8_CONTINUATION_MASK) != UTF8_CONTINUATION_BITS) {
+					currentLineLength++;
+				}
+			}
+		}
+		if (lineListener != null) {
+			appendToCurrentLine(bytes, lineStart, end - lineStart);
+		}
+		currentPositionInBytes += length;
+	}
+
+	private void appendToCurrentLine(byte[] bytes, int offset, int length) {
+		if (currentLineLengthInBytes + length > currentLineBytes.length) {
+			currentLineBytes = Arrays.copyOf(currentLineBytes, Math.max(currentLineLengthInBytes + length, currentLineBytes.length * 2));
+		}
+		System.arraycopy(bytes, offset, currentLineBytes, currentLineLengthInBytes, length);
+		currentLineLengthInBytes += length;
+	}
+
+	private void addLongestLineCandidate(int tabCount, int numberOfCharacters) {
+		Integer maxChars = maxCharsByTabCount.get(tabCount);
+		if (maxChars == null || numberOfCharacters > maxChars) {
+			maxCharsByTabCount.put(tabCount, numberOfCharacters);
+		}
+	}
+
+	void addLinePosition(long linePositionInBytes) {
+		if (numberOfLinePositions == linePositionsInBytes.length) {
+			linePositionsInBytes = Arrays.copyOf(linePositionsInBytes, linePositionsInBytes.length * 2);
+		}
+		linePositionsInBytes[numberOfLinePositions] = linePositionInBytes;
+		numberOfLinePositions++;
+	}
+
+	/**
+	 * Adds the line positions and longest lines of a scanner which scanned the bytes following the bytes scanned by this scanner.
+	 */
+	void append(LineScanner followingLineScanner) {
+		for (int i = 0; i < followingLineScanner.numberOfLinePositions; i++) {
+			addLinePosition(followingLineScanner.linePositionsInBytes[i]);
+		}
+		for (Entry<Integer, Integer> entry : followingLineScanner.maxCharsByTabCount.entrySet()) {
+			addLongestLineCandidate(entry.getKey(), entry.getValue());
+		}
+	}
+
+	int getLinesRead() {
+		return linesRead;
+	}
+
+	long getCurrentPositionInBytes() {
+		return currentPositionInBytes;
+	}
+
+	long[] getLinePositionsInBytes() {
+		return Arrays.copyOf(linePositionsInBytes, numberOfLinePositions);
+	}
+
+	Map<Integer, Integer> getMaxCharsByTabCount() {
+		return maxCharsByTabCount;
+	}
+}
@@ -0,0 +1,47 @@
+package com.roche.sequencing.bioinformatics.common.text;
+
+/**
+ * Notifies the optional progress listener each time another percent of the input has been indexed, it can be shared by several indexing threads.
+ */
+class ProgressReporter {
+
+	private final long fileSizeInBytes;
+	private final ITextProgressListener optionalProgressListener;
+	private final long startTimeInMs;
+
+	private long bytesScanned;
+	private int linesRead;
+	private double lastPercentUpdated;
+
+	ProgressReporter(long fileSizeInBytes, ITextProgressListener optionalProgressListener) {
+		this.fileSizeInBytes = fileSizeInBytes;
+		this.optionalProgressListener = optionalProgressListener;
+		this.startTimeInMs = System.currentTimeMillis();
+		this.bytesScanned = 0;
+		this.linesRead = 0;
+		this.lastPercentUpdated = -1;
+	}
+
+	synchronized void bytesScanned(long numberOfBytes, int numberOfLines) {
+		bytesScanned += numberOfBytes;
+		linesRead += numberOfLines;
+		if (optionalProgressListener != null) {
+			// the size of a compressed file is used for the uncompressed bytes so the percent is capped
+			double percentComplete = Math.min(100, ((double) bytesScanned / (double) fileSizeInBytes) * 100);
+			int truncatedPercentComplete = (int) Math.floor(percentComplete);
+			if (truncatedPercentComplete >= (lastPercentUpdated + 1)) {
+				lastPercentUpdated = truncatedPercentComplete;
+				long currentProcessTimeInMs = System.currentTimeMillis() - startTimeInMs;
+				optionalProgressListener.progressOccurred(new ProgressUpdate(linesRead, percentComplete, currentProcessTimeInMs));
+			}
+		}
+	}
+
+	synchronized void finished() {
+		if (optionalProgressListener != null) {
+			double percentComplete = 100;
+			long currentProcessTimeInMs = System.currentTimeMillis() - startTimeInMs;
+			optionalProgressListener.progressOccurred(new ProgressUpdate(linesRead, percentComplete, currentProcessTimeInMs));
+		}
+	}
+}
@@ -1,23 +1,24 @@
 package com.roche.sequencing.bioinformatics.common.text;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.CharBuffer;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
+import com.roche.sequencing.bioinformatics.common.multithreading.BoundedQueueThreadPoolExecutor;
 import com.roche.sequencing.bioinformatics.common.utils.ArraysUtil;
 import com.roche.sequencing.bioinformatics.common.utils.BitSetUtil;
 import com.roche.sequencing.bioinformatics.common.utils.ByteUtil;
@@ -26,6 +27,12 @@ import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipUtil;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.IBytes;
 
+/**
+ * Indexes the byte position of every recordedLineIncrement line of a text file along with the longest lines by tab count.
+ *
+ * The raw bytes are scanned for new lines and tabs, the bytes of a line are only decoded as UTF-8 when there is a line listener. Uncompressed files are split into line aligned byte ranges which
+ * are indexed in parallel and stitched together.
+ */
 public class TextFileIndexer {
 
 	private final static int BYTES_FOR_MAIN_ENTRIES = 4;
@@ -37,13 +44,62 @@ public class TextFileIndexer {
 	public final static int VERSION = 2;
 	private final static int MAP_TERMINATION_CODE = 909090909;
 
+	private final static byte NEWLINE_BYTE = (byte) StringUtil.NEWLINE_SYMBOL;
+
+	private final static int READ_BUFFER_SIZE = 1 << 20;
+	private final static int RANGES_PER_THREAD = 4;
+	private final static long MIN_BYTES_PER_RANGE = 1 << 24;
+
 	private TextFileIndexer() {
 		throw new AssertionError();
 	}
 
 	public static TextFileIndex indexText(File file, int recordedLineIncrement, ITextProgressListener optionalProgressListener) {
-		TextFileIndex textFileIndex = null;
-		textFileIndex = indexText(new InputStreamFactory(file), recordedLineIncrement, null, optionalProgressListener);
+		return indexText(file, recordedLineIncrement, null, optionalProgressListener);
+	}
+
+	public static TextFileIndex indexText(File file, int recordedLineIncrement, ITextFileIndexerLineListeners lineListener, ITextProgressListener optionalProgressListener) {
+		return indexText(file, recordedLineIncrement, lineListener, optionalProgressListener, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Indexes the file, an uncompressed file is indexed from several threads so the line listener may be called from several threads and the lines may not be read in order.
+	 *
+	 * @param file
+	 * @param recordedLineIncrement
+	 * @param lineListener
+	 *            optional
+	 * @param optionalProgressListener
+	 * @param numberOfThreads
+	 * @return the index
+	 */
+	public static TextFileIndex indexText(File file, int recordedLineIncrement, ITextFileIndexerLineListeners lineListener, ITextProgressListener optionalProgressListener, int numberOfThreads) {
+		return indexText(file, recordedLineIncrement, lineListener, optionalProgressListener, numberOfThreads, MIN_BYTES_PER_RANGE);
+	}
+
+	static TextFileIndex indexText(File file, int recordedLineIncrement, ITextFileIndexerLineListeners lineListener, ITextProgressListener optionalProgressListener, int numberOfThreads,
+			long minBytesPerRange) {
+		InputStreamFactory inputStreamFactory = new InputStreamFactory(file);
+		long fileSizeInBytes = file.length();
+		int numberOfRanges = (int) Math.min(numberOfThreads * RANGES_PER_THREAD, fileSizeInBytes / minBytesPerRange);
+
+		boolean isCompressed = false;
+		try {
+			isCompressed = GZipUtil.isCompressed(inputStreamFactory);
+		} catch (IOException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+
+		TextFileIndex textFileIndex;
+		if (isCompressed || numberOfThreads <= 1 || numberOfRanges <= 1) {
+			textFileIndex = indexText(inputStreamFactory, recordedLineIncrement, lineListener, optionalProgressListener);
+		} else {
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+				textFileIndex = indexTextInParallel(randomAccessFile.getChannel(), fileSizeInBytes, recordedLineIncrement, lineListener, optionalProgressListener, numberOfThreads, numberOfRanges);
+			} catch (IOException e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
 		return textFileIndex;
 	}
 
@@ -53,14 +109,6 @@ public class TextFileIndexer {
 
 	public static TextFileIndex indexText(InputStreamFactory inputStreamFactory, int recordedLineIncrement, ITextFileIndexerLineListeners lineListener,
 			ITextProgressListener optionalProgressListener) {
-		List<Long> linePositionsInBytes = new ArrayList<Long>();
-		Map<Integer, Integer> maxCharsByTabCount = new HashMap<Integer, Integer>();
-
-		long startTimeInMs = System.currentTimeMillis();
-
-		int linesRead = 1;
-		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
-
 		boolean isCompressed = false;
 
 		try {
@@ -78,250 +126,188 @@ public class TextFileIndexer {
 
 		if (isCompressed) {
 			try {
-				inputStream = new GZIPInputStream(inputStream);
+				inputStream = new GZIPInputStream(inputStream, READ_BUFFER_SIZE);
 			} catch (IOException e) {
 				throw new RuntimeException(e.getMessage(), e);
 			}
 		}
 
 		long fileSizeInBytes = inputStreamFactory.getSizeInBytes();
-		double lastPercentUpdated = -1;
-
-		try (InputStream bufferedInputStream = new BufferedInputStream(inputStream)) {
-
-			// this will actually put the current position at the header line but since the first line found
-			// is never read it will work as expected
-			long currentPositionInBytes = 0;
-			linePositionsInBytes.add(currentPositionInBytes);
+		ProgressReporter progressReporter = new ProgressReporter(fileSizeInBytes, optionalProgressListener);
 
-			byte[] bytes = new byte[4096];
+		// this will actually put the current position at the header line but since the first line found
+		// is never read it will work as expected
+		LineScanner lineScanner = new LineScanner(recordedLineIncrement, lineListener, 1, 0);
+		lineScanner.addLinePosition(0);
 
+		try (InputStream closeableInputStream = inputStream) {
+			byte[] bytes = new byte[READ_BUFFER_SIZE];
 			int numberOfBytesRead = 0;
+			while (((numberOfBytesRead = closeableInputStream.read(bytes)) != -1)) {
+				int linesReadBeforeScan = lineScanner.getLinesRead();
+				lineScanner.scan(bytes, 0, numberOfBytesRead);
+				progressReporter.bytesScanned(numberOfBytesRead, lineScanner.getLinesRead() - linesReadBeforeScan);
 
-			while (((numberOfBytesRead = bufferedInputStream.read(bytes)) != -1)) {
-
-				ByteBuffer in = null;
-				if (numberOfBytesRead < bytes.length) {
-					in = ByteBuffer.wrap(Arrays.copyOf(bytes, numberOfBytesRead));
-				} else {
-					in = ByteBuffer.wrap(bytes);
-				}
-
-				CharBuffer out = CharBuffer.allocate(1);
-				out.position(0);
-
-				int lastInPosition = 0;
-				long lastPositionInBytes = -1;
-				int currentLineLength = 0;
-				int tabsInLine = 0;
-				StringBuilder currentLine = new StringBuilder();
-				while (in.hasRemaining() && (lastPositionInBytes != currentPositionInBytes)) {
-
-					if (optionalProgressListener != null) {
-						double percentComplete = ((double) currentPositionInBytes / (double) fileSizeInBytes) * 100;
-						int truncatedPercentCopmplete = (int) Math.floor(percentComplete);
-						if (truncatedPercentCopmplete >= (lastPercentUpdated + 1)) {
-							lastPercentUpdated = truncatedPercentCopmplete;
-							long currentProcessTimeInMs = System.currentTimeMillis() - startTimeInMs;
-							optionalProgressListener.progressOccurred(new ProgressUpdate((linesRead - 1), percentComplete, currentProcessTimeInMs));
-						}
-					}
-
-					decoder.decode(in, out, true);
-					char currentCharacter = out.array()[0];
-					int characterLengthInBytes = (in.position() - lastInPosition);
-					lastPositionInBytes = currentPositionInBytes;
-					currentPositionInBytes += characterLengthInBytes;
-					lastInPosition = in.position();
-					out.position(0);
-					if (currentCharacter == StringUtil.NEWLINE_SYMBOL) {
-						if (lineListener != null) {
-							lineListener.lineRead(linesRead, currentLine.toString());
-						}
-						currentLine = new StringBuilder();
-
-						if (linesRead % recordedLineIncrement == 0) {
-							linePositionsInBytes.add(currentPositionInBytes);
-						}
-						// we need to know which lines might be the longest, but the number of characters per
-						// tab is not known here. So assuming that characters per tab is greater than or equal to 1
-						// we keep a list of all possible longest lines.
-						Integer maxChars = maxCharsByTabCount.get(tabsInLine);
-						if (maxChars == null) {
-							maxChars = currentLineLength;
-							maxCharsByTabCount.put(tabsInLine, maxChars);
-						} else {
-							if (currentLineLength > maxChars) {
-								maxCharsByTabCount.put(tabsInLine, currentLineLength);
-							}
-						}
-
-						linesRead++;
-
-						tabsInLine = 0;
-						currentLineLength = 0;
-					} else if (StringUtil.TAB.equals("" + currentCharacter)) {
-						currentLine.append(currentCharacter);
-						tabsInLine++;
-						currentLineLength++;
-					} else {
-						currentLine.append(currentCharacter);
-						currentLineLength++;
-					}
-
-					if (Thread.currentThread().isInterrupted()) {
-						throw new RuntimeException("Indexing was stopped.");
-					}
-
+				if (Thread.currentThread().isInterrupted()) {
+					throw new RuntimeException("Indexing was stopped.");
 				}
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e.getMessage(), e);
 		}
 
-		if (optionalProgressListener != null) {
-			double percentComplete = 100;
-			long currentProcessTimeInMs = System.currentTimeMillis() - startTimeInMs;
-			optionalProgressListener.progressOccurred(new ProgressUpdate((linesRead - 1), percentComplete, currentProcessTimeInMs));
-		}
+		progressReporter.finished();
 
-		return new TextFileIndex(fileSizeInBytes, recordedLineIncrement, ArraysUtil.convertToLongArray(linePositionsInBytes), linesRead, maxCharsByTabCount, VERSION);
+		return new TextFileIndex(fileSizeInBytes, recordedLineIncrement, lineScanner.getLinePositionsInBytes(), lineScanner.getLinesRead(), lineScanner.getMaxCharsByTabCount(), VERSION);
 	}
 
+	/**
+	 * The gZipIndex and gZipDictionaryBytes are not needed to index the text, the compressed stream is read from the start.
+	 */
 	public static TextFileIndex indexText(InputStreamFactory inputStreamFactory, int recordedLineIncrement, GZipIndex gZipIndex, IBytes gZipDictionaryBytes, ITextFileIndexerLineListeners lineListener,
 			ITextProgressListener optionalProgressListener) {
-		List<Long> linePositionsInBytes = new ArrayList<Long>();
-		Map<Integer, Integer> maxCharsByTabCount = new HashMap<Integer, Integer>();
-
-		long startTimeInMs = System.currentTimeMillis();
-
-		int linesRead = 1;
-		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
-
-		boolean isCompressed = false;
+		return indexText(inputStreamFactory, recordedLineIncrement, lineListener, optionalProgressListener);
+	}
 
-		try {
-			isCompressed = GZipUtil.isCompressed(inputStreamFactory);
-		} catch (IOException e) {
-			throw new RuntimeException(e.getMessage(), e);
-		}
+	/**
+	 * The newlines in each range are counted first so the line numbers at the start of each range are known, then each range is indexed. Both passes run in parallel and the second pass reads the
+	 * bytes back from the page cache.
+	 */
+	private static TextFileIndex indexTextInParallel(final FileChannel fileChannel, long fileSizeInBytes, final int recordedLineIncrement, final ITextFileIndexerLineListeners lineListener,
+			ITextProgressListener optionalProgressListener, int numberOfThreads, int numberOfRanges) throws IOException {
+		final long[] rangeStarts = getLineAlignedRangeStarts(fileChannel, fileSizeInBytes, numberOfRanges);
+		final ProgressReporter progressReporter = new ProgressReporter(fileSizeInBytes, optionalProgressListener);
 
-		InputStream inputStream;
+		BoundedQueueThreadPoolExecutor executor = new BoundedQueueThreadPoolExecutor(numberOfThreads, numberOfRanges * 2, "TEXT_INDEXING_");
 		try {
-			inputStream = inputStreamFactory.createInputStream();
-		} catch (IOException e) {
-			throw new RuntimeException(e.getMessage(), e);
-		}
-
-		if (isCompressed) {
-			try {
-				inputStream = new GZIPInputStream(inputStream);
-			} catch (IOException e) {
-				throw new RuntimeException(e.getMessage(), e);
+			List<Future<Integer>> countFutures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < numberOfRanges; i++) {
+				final int rangeIndex = i;
+				countFutures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						return countNewLines(fileChannel, rangeStarts[rangeIndex], rangeStarts[rangeIndex + 1]);
+					}
+				}));
 			}
-		}
-
-		long fileSizeInBytes = inputStreamFactory.getSizeInBytes();
-		double lastPercentUpdated = -1;
-
-		try (InputStream bufferedInputStream = new BufferedInputStream(inputStream)) {
 
-			// this will actually put the current position at the header line but since the first line found
-			// is never read it will work as expected
-			long currentPositionInBytes = 0;
-			linePositionsInBytes.add(currentPositionInBytes);
-
-			byte[] bytes = new byte[4096];
+			List<Future<LineScanner>> scanFutures = new ArrayList<Future<LineScanner>>();
+			int firstLineNumberOfRange = 1;
+			for (int i = 0; i < numberOfRanges; i++) {
+				final int rangeIndex = i;
+				final int firstLineNumber = firstLineNumberOfRange;
+				scanFutures.add(executor.submit(new Callable<LineScanner>() {
+					@Override
+					public LineScanner call() throws IOException {
+						LineScanner lineScanner = new LineScanner(recordedLineIncrement, lineListener, firstLineNumber, rangeStarts[rangeIndex]);
+						scanRange(fileChannel, rangeStarts[rangeIndex + 1], lineScanner, progressReporter);
+						return lineScanner;
+					}
+				}));
+				firstLineNumberOfRange += getResult(countFutures.get(i));
+			}
 
-			int numberOfBytesRead = 0;
+			// the ranges are line aligned so stitching them together is a matter of appending the line positions and keeping the longest lines
+			LineScanner stitchedLineScanner = new LineScanner(recordedLineIncrement, null, firstLineNumberOfRange, fileSizeInBytes);
+			stitchedLineScanner.addLinePosition(0);
+			for (Future<LineScanner> scanFuture : scanFutures) {
+				stitchedLineScanner.append(getResult(scanFuture));
+			}
 
-			StringBuilder currentLine = new StringBuilder();
-			while (((numberOfBytesRead = bufferedInputStream.read(bytes)) != -1)) {
+			progressReporter.finished();
 
-				ByteBuffer in = null;
-				if (numberOfBytesRead < bytes.length) {
-					in = ByteBuffer.wrap(Arrays.copyOf(bytes, numberOfBytesRead));
-				} else {
-					in = ByteBuffer.wrap(bytes);
-				}
+			return new TextFileIndex(fileSizeInBytes, recordedLineIncrement, stitchedLineScanner.getLinePositionsInBytes(), stitchedLineScanner.getLinesRead(),
+					stitchedLineScanner.getMaxCharsByTabCount(), VERSION);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-				CharBuffer out = CharBuffer.allocate(1);
-				out.position(0);
-
-				int lastInPosition = 0;
-				long lastPositionInBytes = -1;
-				int currentLineLength = 0;
-				int tabsInLine = 0;
-				while (in.hasRemaining() && (lastPositionInBytes != currentPositionInBytes)) {
-
-					if (optionalProgressListener != null) {
-						double percentComplete = ((double) currentPositionInBytes / (double) fileSizeInBytes) * 100;
-						int truncatedPercentCopmplete = (int) Math.floor(percentComplete);
-						if (truncatedPercentCopmplete >= (lastPercentUpdated + 1)) {
-							lastPercentUpdated = truncatedPercentCopmplete;
-							long currentProcessTimeInMs = System.currentTimeMillis() - startTimeInMs;
-							optionalProgressListener.progressOccurred(new ProgressUpdate((linesRead - 1), percentComplete, currentProcessTimeInMs));
-						}
-					}
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Indexing was stopped.", e);
+		}
+	}
 
-					decoder.decode(in, out, true);
-					char currentCharacter = out.array()[0];
-					int characterLengthInBytes = (in.position() - lastInPosition);
-					lastPositionInBytes = currentPositionInBytes;
-					currentPositionInBytes += characterLengthInBytes;
-					lastInPosition = in.position();
-					out.position(0);
-					if (currentCharacter == StringUtil.NEWLINE_SYMBOL) {
-						if (lineListener != null) {
-							lineListener.lineRead(linesRead, currentLine.toString());
-						}
-						currentLine = new StringBuilder();
-
-						if (linesRead % recordedLineIncrement == 0) {
-							linePositionsInBytes.add(currentPositionInBytes);
-						}
-						// we need to know which lines might be the longest, but the number of characters per
-						// tab is not known here. So assuming that characters per tab is greater than or equal to 1
-						// we keep a list of all possible longest lines.
-						Integer maxChars = maxCharsByTabCount.get(tabsInLine);
-						if (maxChars == null) {
-							maxChars = currentLineLength;
-							maxCharsByTabCount.put(tabsInLine, maxChars);
-						} else {
-							if (currentLineLength > maxChars) {
-								maxCharsByTabCount.put(tabsInLine, currentLineLength);
-							}
-						}
-
-						linesRead++;
-
-						tabsInLine = 0;
-						currentLineLength = 0;
-					} else if (StringUtil.TAB.equals("" + currentCharacter)) {
-						currentLine.append(currentCharacter);
-						tabsInLine++;
-						currentLineLength++;
-					} else {
-						currentLine.append(currentCharacter);
-						currentLineLength++;
+	/**
+	 * @return the start of each range followed by the file size, each range other than the first starts just after a new line
+	 */
+	private static long[] getLineAlignedRangeStarts(FileChannel fileChannel, long fileSizeInBytes, int numberOfRanges) throws IOException {
+		long[] rangeStarts = new long[numberOfRanges + 1];
+		rangeStarts[numberOfRanges] = fileSizeInBytes;
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		for (int i = 1; i < numberOfRanges; i++) {
+			long position = Math.max(rangeStarts[i - 1], (fileSizeInBytes / numberOfRanges) * i);
+			long rangeStart = fileSizeInBytes;
+			while (position < fileSizeInBytes && rangeStart == fileSizeInBytes) {
+				int numberOfBytesRead = read(fileChannel, buffer, position, fileSizeInBytes);
+				byte[] bytes = buffer.array();
+				for (int j = 0; j < numberOfBytesRead && rangeStart == fileSizeInBytes; j++) {
+					if (bytes[j] == NEWLINE_BYTE) {
+						rangeStart = position + j + 1;
 					}
+				}
+				position += numberOfBytesRead;
+			}
+			rangeStarts[i] = rangeStart;
+		}
+		return rangeStarts;
+	}
 
-					if (Thread.currentThread().isInterrupted()) {
-						throw new RuntimeException("Indexing was stopped.");
-					}
+	private static int countNewLines(FileChannel fileChannel, long start, long end) throws IOException {
+		int numberOfNewLines = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		byte[] bytes = buffer.array();
+		long position = start;
+		while (position < end) {
+			int numberOfBytesRead = read(fileChannel, buffer, position, end);
+			for (int i = 0; i < numberOfBytesRead; i++) {
+				if (bytes[i] == NEWLINE_BYTE) {
+					numberOfNewLines++;
 				}
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e.getMessage(), e);
+			position += numberOfBytesRead;
+			checkForInterruption();
+		}
+		return numberOfNewLines;
+	}
+
+	private static void scanRange(FileChannel fileChannel, long end, LineScanner lineScanner, ProgressReporter progressReporter) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		while (lineScanner.getCurrentPositionInBytes() < end) {
+			int numberOfBytesRead = read(fileChannel, buffer, lineScanner.getCurrentPositionInBytes(), end);
+			int linesReadBeforeScan = lineScanner.getLinesRead();
+			lineScanner.scan(buffer.array(), 0, numberOfBytesRead);
+			progressReporter.bytesScanned(numberOfBytesRead, lineScanner.getLinesRead() - linesReadBeforeScan);
+			checkForInterruption();
 		}
+	}
 
-		if (optionalProgressListener != null) {
-			double percentComplete = 100;
-			long currentProcessTimeInMs = System.currentTimeMillis() - startTimeInMs;
-			optionalProgressListener.progressOccurred(new ProgressUpdate((linesRead - 1), percentComplete, currentProcessTimeInMs));
+	private static void checkForInterruption() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new RuntimeException("Indexing was stopped.");
 		}
+	}
 
-		return new TextFileIndex(fileSizeInBytes, recordedLineIncrement, ArraysUtil.convertToLongArray(linePositionsInBytes), linesRead, maxCharsByTabCount, VERSION);
+	/**
+	 * Fills the buffer from the position without reading past the end, positional reads do not change the channel's position so several threads can share the channel.
+	 *
+	 * @return the number of bytes read into the start of the buffer's array
+	 */
+	private static int read(FileChannel fileChannel, ByteBuffer buffer, long position, long end) throws IOException {
+		buffer.clear();
+		buffer.limit((int) Math.min(buffer.capacity(), end - position));
+		while (buffer.hasRemaining()) {
+			int numberOfBytesRead = fileChannel.read(buffer, position + buffer.position());
+			if (numberOfBytesRead < 0) {
+				throw new IOException("Unexpected end of file at byte[" + (position + buffer.position()) + "] while indexing.");
+			}
+		}
+		return buffer.position();
 	}
 
 	public static TextFileIndex loadIndexFile(File indexFile) throws IOException {
@@ -2,93 +2,241 @@ package com.roche.sequencing.bioinformatics.common.text;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.NGramTokenizer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Lucene index of the lines in a text file. Each line is indexed both as whitespace separated words and as overlapping n-grams of characters, so a substring search is a phrase query over the
+ * n-grams of the search string rather than a wildcard scan of every term in the index.
+ */
 public class TextSearchIndex {
 	private Logger logger = LoggerFactory.getLogger(TextSearchIndex.class);
 
 	private final Analyzer analyzer;
 	private Directory index;
-	private final IndexWriterConfig config;
 	private final IndexWriter luceneIndexWriter;
+	private volatile SearcherManager searcherManager;
+	private final boolean containsNGrams;
+
+	private final ThreadLocal<List<Document>> linesToAddByThread;
+	private final Queue<List<Document>> linesToAdd;
 
 	private final static String LINE_NUMBER = "line_number";
 	private final static String LINE_TEXT = "line_text";
+	private final static String LINE_TEXT_NGRAMS = "line_text_ngrams";
+
+	private final static int NGRAM_SIZE = 3;
+	private final static int LINES_PER_BATCH = 1000;
+	private final static double RAM_BUFFER_SIZE_IN_MB = 64;
 
-	private final static int SEARCH_RESULTS_LIMIT = 1000;
+	final static int SEARCH_RESULTS_LIMIT = 1000;
 
 	private final boolean loadExistingIndex;
 
 	public TextSearchIndex(File indexFile, boolean loadExistingIndex) throws IOException {
 		this.loadExistingIndex = loadExistingIndex;
-		this.analyzer = new WhitespaceAnalyzer();
+		Analyzer nGramAnalyzer = new Analyzer() {
+			@Override
+			protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+				return new TokenStreamComponents(new NGramTokenizer(reader, NGRAM_SIZE, NGRAM_SIZE));
+			}
+		};
+		this.analyzer = new PerFieldAnalyzerWrapper(new WhitespaceAnalyzer(), Collections.singletonMap(LINE_TEXT_NGRAMS, nGramAnalyzer));
 
-		this.index = FSDirectory.open(indexFile);
+		this.index = new MMapDirectory(indexFile);
 
-		config = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
-		luceneIndexWriter = new IndexWriter(index, config);
-		config.setOpenMode(OpenMode.APPEND);
+		this.linesToAdd = new ConcurrentLinkedQueue<List<Document>>();
+		this.linesToAddByThread = new ThreadLocal<List<Document>>() {
+			@Override
+			protected List<Document> initialValue() {
+				List<Document> linesToAddForThread = new ArrayList<Document>(LINES_PER_BATCH);
+				linesToAdd.add(linesToAddForThread);
+				return linesToAddForThread;
+			}
+		};
+
+		if (loadExistingIndex) {
+			luceneIndexWriter = null;
+			if (!DirectoryReader.indexExists(index)) {
+				// nothing was indexed so leave an empty index to search
+				new IndexWriter(index, new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer)).close();
+			}
+			searcherManager = new SearcherManager(index, null);
+			IndexSearcher searcher = searcherManager.acquire();
+			try {
+				// indexes written before the n-gram field was added are searched with wildcards
+				containsNGrams = MultiFields.getTerms(searcher.getIndexReader(), LINE_TEXT_NGRAMS) != null;
+			} finally {
+				searcherManager.release(searcher);
+			}
+		} else {
+			IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+			config.setOpenMode(OpenMode.CREATE);
+			config.setRAMBufferSizeMB(RAM_BUFFER_SIZE_IN_MB);
+			luceneIndexWriter = new IndexWriter(index, config);
+			// near real time searcher which sees the lines as they are committed to the writer
+			searcherManager = new SearcherManager(luceneIndexWriter, true, null);
+			containsNGrams = true;
+		}
 	}
 
+	/**
+	 * Lines are added to the writer in batches for each thread, so lines can be added from several threads without waiting on each other. Lines in a partially filled batch are added when the index
+	 * writer is closed.
+	 */
 	public void addLine(int lineNumber, String text) {
 		if (loadExistingIndex) {
 			throw new IllegalStateException("Cannot add lines to an already existing index.");
 		}
+		List<Document> linesToAddForThread = linesToAddByThread.get();
+		linesToAddForThread.add(createLuceneDocument(lineNumber, text));
+		if (linesToAddForThread.size() >= LINES_PER_BATCH) {
+			addDocuments(linesToAddForThread);
+		}
+	}
+
+	/**
+	 * Adds consecutive lines starting at the provided line number in a single call to the writer.
+	 */
+	public void addLines(int firstLineNumber, List<String> lines) {
+		if (loadExistingIndex) {
+			throw new IllegalStateException("Cannot add lines to an already existing index.");
+		}
+		List<Document> luceneDocuments = new ArrayList<Document>(lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			luceneDocuments.add(createLuceneDocument(firstLineNumber + i, lines.get(i)));
+		}
+		addDocuments(luceneDocuments);
+	}
+
+	private static Document createLuceneDocument(int lineNumber, String text) {
 		Document luceneDocument = new Document();
 		luceneDocument.add(new IntField(LINE_NUMBER, (int) (lineNumber - 1), Field.Store.YES));
+		luceneDocument.add(new NumericDocValuesField(LINE_NUMBER, lineNumber - 1));
 		luceneDocument.add(new TextField(LINE_TEXT, text, Field.Store.NO));
+		luceneDocument.add(new TextField(LINE_TEXT_NGRAMS, text, Field.Store.NO));
+		return luceneDocument;
+	}
 
+	private void addDocuments(List<Document> luceneDocuments) {
 		try {
-			synchronized (this) {
-				luceneIndexWriter.addDocument(luceneDocument);
-			}
+			luceneIndexWriter.addDocuments(luceneDocuments);
 		} catch (IOException e) {
 			logger.warn(e.getMessage(), e);
 		}
+		luceneDocuments.clear();
 	}
 
 	public void closeIndex() {
-		if (!loadExistingIndex) {
-			try {
-				index.close();
-			} catch (IOException e) {
-				logger.warn(e.getMessage(), e);
-			}
+		try {
+			searcherManager.close();
+			index.close();
+		} catch (IOException e) {
+			logger.warn(e.getMessage(), e);
 		}
 	}
 
 	public void closeIndexWriter() {
 		try {
+			for (List<Document> linesToAddForThread : linesToAdd) {
+				if (linesToAddForThread.size() > 0) {
+					addDocuments(linesToAddForThread);
+				}
+			}
 			luceneIndexWriter.close();
+			// the near real time searcher can no longer refresh from the writer so search the committed index instead
+			SearcherManager nearRealTimeSearcherManager = searcherManager;
+			searcherManager = new SearcherManager(index, null);
+			nearRealTimeSearcherManager.close();
 		} catch (IOException e) {
 			logger.warn(e.getMessage(), e);
 		}
 	}
 
 	public int[] search(String searchString) {
-		int[] lineNumbers = null;
+		return search(searchString, 0, null, SEARCH_RESULTS_LIMIT);
+	}
+
+	/**
+	 * @param firstLineNumber
+	 *            the first line to include in the results, pass one past the last line of a full page of results to get the next page
+	 * @param optionalLastLineNumber
+	 *            the last line to include in the results or null to search to the end of the file
+	 * @return line numbers of the lines which may contain the search string in order, a line containing the search string is always included but a few lines which do not may be included as well
+	 */
+	public int[] search(String searchString, int firstLineNumber, Integer optionalLastLineNumber, int maximumNumberOfResults) {
+		int[] lineNumbers = new int[0];
 		try {
+			BooleanQuery query = new BooleanQuery();
+			query.add(createTextQuery(searchString), Occur.MUST);
+			if (firstLineNumber > 0 || optionalLastLineNumber != null) {
+				query.add(NumericRangeQuery.newIntRange(LINE_NUMBER, firstLineNumber, optionalLastLineNumber, true, true), Occur.MUST);
+			}
+
+			SearcherManager currentSearcherManager = searcherManager;
+			currentSearcherManager.maybeRefresh();
+			IndexSearcher searcher = currentSearcherManager.acquire();
+			try {
+				ScoreDoc[] hits = searcher.search(query, maximumNumberOfResults, new Sort(new SortField(LINE_NUMBER, SortField.Type.INT))).scoreDocs;
+				lineNumbers = new int[hits.length];
+				for (int i = 0; i < hits.length; ++i) {
+					lineNumbers[i] = (Integer) ((FieldDoc) hits[i]).fields[0];
+				}
+			} finally {
+				currentSearcherManager.release(searcher);
+			}
+		} catch (Exception e) {
+			logger.warn(e.getMessage(), e);
+		}
+		return lineNumbers;
+	}
+
+	private Query createTextQuery(String searchString) throws Exception {
+		Query query;
+		if (containsNGrams && searchString.length() >= NGRAM_SIZE && searchString.codePointCount(0, searchString.length()) == searchString.length()) {
+			PhraseQuery phraseQuery = new PhraseQuery();
+			for (int i = 0; i <= searchString.length() - NGRAM_SIZE; i++) {
+				phraseQuery.add(new Term(LINE_TEXT_NGRAMS, searchString.substring(i, i + NGRAM_SIZE)), i);
+			}
+			query = phraseQuery;
+		} else {
 			QueryParser queryParser = new QueryParser(LINE_TEXT, analyzer);
 
 			if (!searchString.endsWith("*")) {
@@ -100,26 +248,9 @@ public class TextSearchIndex {
 			}
 
 			queryParser.setAllowLeadingWildcard(true);
-			Query mainQuery = queryParser.parse(searchString);
-
-			IndexReader reader = DirectoryReader.open(index);
-			IndexSearcher searcher = new IndexSearcher(reader);
-			TopScoreDocCollector collector = TopScoreDocCollector.create(SEARCH_RESULTS_LIMIT, true);
-
-			searcher.search(mainQuery, collector);
-
-			ScoreDoc[] hits = collector.topDocs().scoreDocs;
-			lineNumbers = new int[hits.length];
-			for (int i = 0; i < hits.length; ++i) {
-				int docId = hits[i].doc;
-				Document luceneDocument = searcher.doc(docId);
-				int lineNumber = Integer.parseInt(luceneDocument.get(LINE_NUMBER));
-				lineNumbers[i] = lineNumber;
-			}
-		} catch (Exception e) {
-			logger.warn(e.getMessage(), e);
+			query = queryParser.parse(searchString);
 		}
-		return lineNumbers;
+		return query;
 	}
 
 }
@@ -16,7 +16,6 @@ import com.roche.sequencing.bioinformatics.common.text.TextFileIndex;
 import com.roche.sequencing.bioinformatics.common.text.TextFileIndexer;
 import com.roche.sequencing.bioinformatics.common.text.TextSearchIndex;
 import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
-import com.roche.sequencing.bioinformatics.common.utils.InputStreamFactory;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.BamByteDecoder;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipUtil;
 import com.roche.sequencing.bioinformatics.common.utils.gzip.IByteDecoder;
@@ -79,7 +78,7 @@ public class TextViewerUtil {
 						byteConverter = new BamByteDecoder();
 					}
 
-					GZipIndexPair gZipIndexPair = GZipIndexer.indexGZipBlocks(new InputStreamFactory(file), gZipDictionaryFile, LINES_FOR_EACH_INDEX, progressListener, byteConverter);
+					GZipIndexPair gZipIndexPair = GZipIndexer.indexGZipBlocks(file, gZipDictionaryFile, LINES_FOR_EACH_INDEX, progressListener, byteConverter);
 					if (byteConverter != null) {
 						byteConverter.persistToFile(bamBlockIndexFile);
 					}
@@ -120,7 +119,7 @@ public class TextViewerUtil {
 				textSearchIndex = new TextSearchIndex(textSearchFile, false);
 				TextSearchIndexer textSearchIndexer = new TextSearchIndexer(textSearchIndex);
 
-				textFileIndex = TextFileIndexer.indexText(new InputStreamFactory(file), LINES_FOR_EACH_INDEX, textSearchIndexer, progressListener);
+				textFileIndex = TextFileIndexer.indexText(file, LINES_FOR_EACH_INDEX, textSearchIndexer, progressListener);
 				textSearchIndex.closeIndexWriter();
 				TextFileIndexer.saveIndexedTextToFile(textFileIndex, indexFile);
 			} catch (IOException e) {
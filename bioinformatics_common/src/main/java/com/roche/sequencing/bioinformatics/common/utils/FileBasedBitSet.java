@@ -68,21 +68,11 @@ public class FileBasedBitSet implements IBitSet {
 			fileReader.seek(startingByte);
 			fileReader.read(bytes, 0, numberOfBytesToRetrieve);
 
-			BitSet cachedBitSet = new BitSet();
+			// the bits of each byte are stored least significant first which is the order BitSet.valueOf expects
+			BitSet cachedBitSet = BitSet.valueOf(bytes);
 			long cachedBitStart = startingByte * ByteUtil.BITS_PER_BYTE;
 			long cachedBitStop = ((endingByte + 1) * ByteUtil.BITS_PER_BYTE) - 1;
 
-			for (long i = cachedBitStart; i <= cachedBitStop; i++) {
-				int indexInBitSet = (int) (i - cachedBitStart);
-				int byteIndex = (int) ((i / ByteUtil.BITS_PER_BYTE) - startingByte);
-				int indexInByte = (int) (i % ByteUtil.BITS_PER_BYTE);
-
-				boolean isBitOn = ByteUtil.isBitOn(bytes[byteIndex], indexInByte);
-				if (isBitOn) {
-					cachedBitSet.set(indexInBitSet);
-				}
-			}
-
 			cachedQueue.offer(new BitSetCache(cachedBitSet, cachedBitStart, cachedBitStop));
 			if (cachedQueue.size() > CACHE_STACK_SIZE) {
 				cachedQueue.poll();
@@ -92,8 +82,11 @@ public class FileBasedBitSet implements IBitSet {
 		}
 	}
 
+	/**
+	 * Synchronized since the cache and the file pointer are shared.
+	 */
 	@Override
-	public BitSet getBitSet(long fromIndexInBits, long toIndexExclusiveInBits) {
+	public synchronized BitSet getBitSet(long fromIndexInBits, long toIndexExclusiveInBits) {
 		long startingByte = (long) (fromIndexInBits / ByteUtil.BITS_PER_BYTE);
 		long endingByte = (long) ((toIndexExclusiveInBits - 1) / ByteUtil.BITS_PER_BYTE);
 
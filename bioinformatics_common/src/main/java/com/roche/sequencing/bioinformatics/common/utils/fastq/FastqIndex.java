@@ -0,0 +1,405 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.utils.fastq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.roche.sequencing.bioinformatics.common.utils.IlluminaFastQReadNameUtil;
+
+/**
+ * An index of a fastq file which is built in a single validating pass over the file and saved next to it in a sidecar file, so later runs on the same file only read the index. The index holds the
+ * number of records, the position of every Nth record in the uncompressed file and a 64 bit hash of each record's unique read name (see {@link IlluminaFastQReadNameUtil}) which is used to look up
+ * a record's ordinal by read name.
+ *
+ * The sidecar file holds the read name hashes in record order, then the record positions, then a fixed size trailer with the record counts and the length and modification time of the fastq file
+ * it was built from. A sidecar which does not match the fastq file is rebuilt. The read name hashes are only read once a read name is looked up.
+ */
+public class FastqIndex {
+
+	private final static Logger logger = LoggerFactory.getLogger(FastqIndex.class);
+
+	public final static String SIDECAR_EXTENSION = ".fqi";
+	public final static int DEFAULT_RECORDS_PER_POSITION = 1024;
+
+	private final static int INDEX_MAGIC_NUMBER = 0x46515849;
+	private final static int INDEX_VERSION = 1;
+	private final static int TRAILER_SIZE_IN_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 1;
+	private final static int BYTES_PER_LONG = 8;
+	private final static int IO_BUFFER_SIZE = 65536;
+	private final static long INTEGER_MASK = 0xFFFFFFFFL;
+
+	private final File fastqFile;
+	private final File indexFile;
+	private final int numberOfRecords;
+	private final int recordsPerPosition;
+	private final long[] recordPositions;
+	private final boolean isComplete;
+
+	// loaded on the first read name lookup
+	private long[] readNameHashesByOrdinal;
+	// the upper 32 bits of each read name hash followed by the record ordinal, sorted
+	private long[] sortedHashPrefixesAndOrdinals;
+
+	private FastqIndex(File fastqFile, File indexFile, int numberOfRecords, int recordsPerPosition, long[] recordPositions, boolean isComplete) {
+		this.fastqFile = fastqFile;
+		this.indexFile = indexFile;
+		this.numberOfRecords = numberOfRecords;
+		this.recordsPerPosition = recordsPerPosition;
+		this.recordPositions = recordPositions;
+		this.isComplete = isComplete;
+	}
+
+	/**
+	 * @param fastqFile
+	 * @return the sidecar file which holds the index of the fastq file
+	 */
+	public static File getSidecarFile(File fastqFile) {
+		return new File(fastqFile.getAbsolutePath() + SIDECAR_EXTENSION);
+	}
+
+	/**
+	 * Loads the index from the fastq file's sidecar file or, if there is no sidecar file or it does not match the fastq file, builds the index and saves it in the sidecar file. If the directory
+	 * holding the fastq file can not be written the index is kept in memory.
+	 *
+	 * A fastq file which fails validation is indexed up to the first invalid record and the problem is logged, such an index is never saved in the sidecar file.
+	 *
+	 * @param fastqFile
+	 * @return the index
+	 */
+	public static FastqIndex loadOrCreate(File fastqFile) {
+		return loadOrCreate(fastqFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param fastqFile
+	 * @param numberOfThreads
+	 *            the number of threads used to inflate a BGZF file while the index is built
+	 * @return the index
+	 */
+	public static FastqIndex loadOrCreate(File fastqFile, int numberOfThreads) {
+		return loadOrCreate(fastqFile, true, numberOfThreads);
+	}
+
+	/**
+	 * @param fastqFile
+	 * @param saveSidecarFile
+	 *            false to keep a newly built index in memory rather than saving it next to the fastq file, an existing sidecar file is still loaded
+	 * @param numberOfThreads
+	 *            the number of threads used to inflate a BGZF file while the index is built
+	 * @return the index
+	 */
+	public static FastqIndex loadOrCreate(File fastqFile, boolean saveSidecarFile, int numberOfThreads) {
+		File sidecarFile = getSidecarFile(fastqFile);
+		FastqIndex index = null;
+		if (sidecarFile.exists()) {
+			try {
+				index = load(fastqFile, sidecarFile);
+			} catch (IOException e) {
+				logger.warn("Unable to load the fastq index[" + sidecarFile.getAbsolutePath() + "], the index will be rebuilt: " + e.getMessage());
+			}
+		}
+
+		if (index == null) {
+			File directory = sidecarFile.getAbsoluteFile().getParentFile();
+			if (!saveSidecarFile || directory == null || !Files.isWritable(directory.toPath())) {
+				sidecarFile = null;
+			}
+			index = create(fastqFile, sidecarFile, DEFAULT_RECORDS_PER_POSITION, numberOfThreads);
+		}
+		return index;
+	}
+
+	private static FastqIndex load(File fastqFile, File indexFile) throws IOException {
+		FastqIndex index = null;
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r")) {
+			if (randomAccessFile.length() >= TRAILER_SIZE_IN_BYTES) {
+				randomAccessFile.seek(randomAccessFile.length() - TRAILER_SIZE_IN_BYTES);
+				int magicNumber = randomAccessFile.readInt();
+				int version = randomAccessFile.readInt();
+				long fastqLength = randomAccessFile.readLong();
+				long fastqLastModified = randomAccessFile.readLong();
+				int numberOfRecords = randomAccessFile.readInt();
+				int recordsPerPosition = randomAccessFile.readInt();
+				boolean isComplete = randomAccessFile.readBoolean();
+				boolean matchesFastq = magicNumber == INDEX_MAGIC_NUMBER && version == INDEX_VERSION && fastqLength == fastqFile.length() && fastqLastModified == fastqFile.lastModified();
+				long expectedIndexLength = ((long) numberOfRecords + getNumberOfPositions(numberOfRecords, recordsPerPosition)) * BYTES_PER_LONG + TRAILER_SIZE_IN_BYTES;
+				if (matchesFastq && isComplete && recordsPerPosition > 0 && randomAccessFile.length() == expectedIndexLength) {
+					long[] recordPositions = new long[getNumberOfPositions(numberOfRecords, recordsPerPosition)];
+					randomAccessFile.seek((long) numberOfRecords * BYTES_PER_LONG);
+					for (int i = 0; i < recordPositions.length; i++) {
+						recordPositions[i] = randomAccessFile.readLong();
+					}
+					index = new FastqIndex(fastqFile, indexFile, numberOfRecords, recordsPerPosition, recordPositions, isComplete);
+				}
+			}
+		}
+		return index;
+	}
+
+	private static int getNumberOfPositions(int numberOfRecords, int recordsPerPosition) {
+		return (numberOfRecords + recordsPerPosition - 1) / recordsPerPosition;
+	}
+
+	/**
+	 * Builds the index in one pass over the fastq file.
+	 *
+	 * @param fastqFile
+	 * @param sidecarFile
+	 *            where the index is saved if it is complete, null to keep the index in memory
+	 * @param recordsPerPosition
+	 *            the number of records between the stored record positions
+	 * @param numberOfThreads
+	 *            the number of threads used to inflate a BGZF file
+	 * @return the index
+	 */
+	static FastqIndex create(File fastqFile, File sidecarFile, int recordsPerPosition, int numberOfThreads) {
+		long fastqLength = fastqFile.length();
+		long fastqLastModified = fastqFile.lastModified();
+
+		File indexFile = null;
+		if (sidecarFile != null) {
+			try {
+				indexFile = File.createTempFile(sidecarFile.getName() + "_", ".tmp", sidecarFile.getAbsoluteFile().getParentFile());
+				indexFile.deleteOnExit();
+			} catch (IOException e) {
+				logger.info("Unable to write the fastq index[" + sidecarFile.getAbsolutePath() + "] so it will be kept in memory: " + e.getMessage());
+			}
+		}
+
+		int numberOfRecords = 0;
+		long[] recordPositions = new long[16];
+		// only kept when there is no file to hold the read name hashes
+		long[] readNameHashes = null;
+		if (indexFile == null) {
+			readNameHashes = new long[16];
+		}
+		boolean isComplete = true;
+		try (DataOutputStream outputStream = (indexFile == null) ? null : new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), IO_BUFFER_SIZE))) {
+			try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile, numberOfThreads)) {
+				MutableFastqRecord record = new MutableFastqRecord();
+				boolean hasRecord = true;
+				while (hasRecord) {
+					long recordPosition = reader.getPositionOfNextRecord();
+					try {
+						hasRecord = reader.readNextRecord(record);
+					} catch (PicardException e) {
+						logger.warn(e.getMessage(), e);
+						isComplete = false;
+						hasRecord = false;
+					}
+					if (hasRecord) {
+						if (numberOfRecords % recordsPerPosition == 0) {
+							int positionIndex = numberOfRecords / recordsPerPosition;
+							if (positionIndex == recordPositions.length) {
+								recordPositions = Arrays.copyOf(recordPositions, recordPositions.length * 2);
+							}
+							recordPositions[positionIndex] = recordPosition;
+						}
+						long readNameHash = getReadNameHash(record.getReadHeader());
+						if (outputStream != null) {
+							outputStream.writeLong(readNameHash);
+						} else {
+							if (numberOfRecords == readNameHashes.length) {
+								readNameHashes = Arrays.copyOf(readNameHashes, readNameHashes.length * 2);
+							}
+							readNameHashes[numberOfRecords] = readNameHash;
+						}
+						numberOfRecords++;
+					}
+				}
+			}
+			recordPositions = Arrays.copyOf(recordPositions, getNumberOfPositions(numberOfRecords, recordsPerPosition));
+			if (outputStream != null) {
+				for (long recordPosition : recordPositions) {
+					outputStream.writeLong(recordPosition);
+				}
+				outputStream.writeInt(INDEX_MAGIC_NUMBER);
+				outputStream.writeInt(INDEX_VERSION);
+				outputStream.writeLong(fastqLength);
+				outputStream.writeLong(fastqLastModified);
+				outputStream.writeInt(numberOfRecords);
+				outputStream.writeInt(recordsPerPosition);
+				outputStream.writeBoolean(isComplete);
+			} else {
+				readNameHashes = Arrays.copyOf(readNameHashes, numberOfRecords);
+			}
+		} catch (IOException e) {
+			throw new PicardException("Unable to index [" + fastqFile.getAbsolutePath() + "].", e);
+		}
+
+		boolean isUnchangedWhileIndexing = fastqLength == fastqFile.length() && fastqLastModified == fastqFile.lastModified();
+		if (indexFile != null && isComplete && isUnchangedWhileIndexing) {
+			sidecarFile.delete();
+			if (indexFile.renameTo(sidecarFile)) {
+				indexFile = sidecarFile;
+			} else {
+				logger.info("Unable to move the fastq index to [" + sidecarFile.getAbsolutePath() + "] so it will be kept in the temporary file[" + indexFile.getAbsolutePath() + "].");
+			}
+		}
+		FastqIndex index = new FastqIndex(fastqFile, indexFile, numberOfRecords, recordsPerPosition, recordPositions, isComplete);
+		index.readNameHashesByOrdinal = readNameHashes;
+		return index;
+	}
+
+	/**
+	 * @param readHeader
+	 * @return a 64 bit hash of the unique id within the read header, so read one and read two of a pair have the same hash
+	 */
+	static long getReadNameHash(String readHeader) {
+		String uniqueReadName = IlluminaFastQReadNameUtil.getUniqueIdForReadHeader(readHeader);
+		// FNV-1a followed by a finalizer so nearby names spread over all 64 bits
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < uniqueReadName.length(); i++) {
+			hash ^= uniqueReadName.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	public File getFastqFile() {
+		return fastqFile;
+	}
+
+	/**
+	 * @return the sidecar file, the temporary file which holds the index if it could not be moved to the sidecar file, or null if the index is kept in memory
+	 */
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	public int getNumberOfRecords() {
+		return numberOfRecords;
+	}
+
+	/**
+	 * @return false if the fastq file failed validation, in which case the index only covers the records before the first invalid record
+	 */
+	public boolean isComplete() {
+		return isComplete;
+	}
+
+	/**
+	 * @param readHeader
+	 *            a read header from this fastq file or from the other fastq file of the pair
+	 * @return the ordinal of the record with the same unique read name or -1 if there is no such record. Read names are compared by a 64 bit hash so if two read names in the file share a hash the
+	 *         lower ordinal is returned.
+	 */
+	public synchronized int getOrdinal(String readHeader) {
+		if (sortedHashPrefixesAndOrdinals == null) {
+			loadReadNameHashes();
+		}
+
+		long readNameHash = getReadNameHash(readHeader);
+		long hashPrefix = readNameHash & ~INTEGER_MASK;
+		int ordinal = -1;
+		int index = Arrays.binarySearch(sortedHashPrefixesAndOrdinals, hashPrefix);
+		if (index < 0) {
+			index = -(index + 1);
+		}
+		while (ordinal < 0 && index < sortedHashPrefixesAndOrdinals.length && (sortedHashPrefixesAndOrdinals[index] & ~INTEGER_MASK) == hashPrefix) {
+			int candidateOrdinal = (int) (sortedHashPrefixesAndOrdinals[index] & INTEGER_MASK);
+			if (readNameHashesByOrdinal[candidateOrdinal] == readNameHash) {
+				ordinal = candidateOrdinal;
+			}
+			index++;
+		}
+		return ordinal;
+	}
+
+	private void loadReadNameHashes() {
+		if (readNameHashesByOrdinal == null) {
+			long[] readNameHashes = new long[numberOfRecords];
+			try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), IO_BUFFER_SIZE))) {
+				for (int ordinal = 0; ordinal < numberOfRecords; ordinal++) {
+					readNameHashes[ordinal] = inputStream.readLong();
+				}
+			} catch (IOException e) {
+				throw new PicardException("Unable to read the fastq index[" + indexFile.getAbsolutePath() + "].", e);
+			}
+			readNameHashesByOrdinal = readNameHashes;
+		}
+		long[] hashPrefixesAndOrdinals = new long[numberOfRecords];
+		for (int ordinal = 0; ordinal < numberOfRecords; ordinal++) {
+			hashPrefixesAndOrdinals[ordinal] = (readNameHashesByOrdinal[ordinal] & ~INTEGER_MASK) | ordinal;
+		}
+		Arrays.sort(hashPrefixesAndOrdinals);
+		sortedHashPrefixesAndOrdinals = hashPrefixesAndOrdinals;
+	}
+
+	/**
+	 * Opens a reader on the fastq file which starts at the given record. The reader starts at the nearest stored record position and skips the records before the given record. Uncompressed and
+	 * BGZF files are not read or inflated before the stored position, but any other gzip file is inflated from its start each time a reader is opened, so when {@link #isSeekable()} is false a walk
+	 * which skips ahead through the file should keep reading forward on one reader rather than opening a new one for each jump.
+	 *
+	 * @param firstRecordOrdinal
+	 * @param numberOfThreads
+	 *            the number of threads used to inflate a BGZF file
+	 * @return a reader whose first record is the record with the given ordinal
+	 */
+	public ParallelFastqReader openReader(int firstRecordOrdinal, int numberOfThreads) {
+		if (firstRecordOrdinal < 0 || firstRecordOrdinal > numberOfRecords) {
+			throw new IndexOutOfBoundsException("Provided record ordinal[" + firstRecordOrdinal + "] is larger than the number of records[" + numberOfRecords + "] or smaller than zero.");
+		}
+		// an ordinal equal to the number of records gives a reader at the end of the file
+		int positionIndex = Math.min(firstRecordOrdinal / recordsPerPosition, recordPositions.length - 1);
+		long position = 0;
+		int positionOrdinal = 0;
+		if (positionIndex >= 0) {
+			position = recordPositions[positionIndex];
+			positionOrdinal = positionIndex * recordsPerPosition;
+		}
+		ParallelFastqReader reader = new ParallelFastqReader(fastqFile, numberOfThreads, position, positionOrdinal);
+		MutableFastqRecord skippedRecord = new MutableFastqRecord();
+		for (int i = positionOrdinal; i < firstRecordOrdinal; i++) {
+			reader.readNextRecord(skippedRecord);
+		}
+		return reader;
+	}
+
+	/**
+	 * @return true if {@link #openReader(int, int)} can start at a stored record position without inflating the file up to that position
+	 */
+	public boolean isSeekable() {
+		try {
+			return ParallelFastqReader.isSeekable(fastqFile);
+		} catch (IOException e) {
+			throw new PicardException(String.format("Error opening '%s'", fastqFile.getAbsolutePath()), e);
+		}
+	}
+
+	/**
+	 * @return the number of records between the stored record positions, a reader is opened at a stored position and reads forward from there
+	 */
+	public int getRecordsPerPosition() {
+		return recordsPerPosition;
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.utils.fastq;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+
+import com.roche.sequencing.bioinformatics.common.utils.IlluminaFastQReadNameUtil;
+
+/**
+ * A read only copy of the unique read names (see {@link IlluminaFastQReadNameUtil}) and, optionally, the read strings and base quality strings of a fastq file which can be looked up by record
+ * ordinal. The records are written to a temporary file in one pass over the fastq file and the file is memory mapped, so the store takes very little heap and a lookup is a read from the page cache.
+ *
+ * Each record is stored as the name length, name, read length, read string and base quality string. Records never cross the boundary between two mapped segments. The position of each record is
+ * kept in a second memory mapped file.
+ */
+public class FastqRecordStore implements Closeable {
+
+	private final static int SEGMENT_SIZE_IN_BYTES = 1 << 30;
+	private final static int BYTES_PER_SHORT = 2;
+	private final static int BYTES_PER_INT = 4;
+	private final static int BYTES_PER_LONG = 8;
+	private final static int IO_BUFFER_SIZE = 65536;
+
+	private final File fastqFile;
+	private final File recordsFile;
+	private final File positionsFile;
+	private final int numberOfRecords;
+	private final boolean hasReadStringsAndQualities;
+	private final MappedByteBuffer[] recordSegments;
+	private final MappedByteBuffer[] positionSegments;
+
+	private FastqRecordStore(File fastqFile, File recordsFile, File positionsFile, int numberOfRecords, boolean hasReadStringsAndQualities) throws IOException {
+		this.fastqFile = fastqFile;
+		this.recordsFile = recordsFile;
+		this.positionsFile = positionsFile;
+		this.numberOfRecords = numberOfRecords;
+		this.hasReadStringsAndQualities = hasReadStringsAndQualities;
+		this.recordSegments = map(recordsFile);
+		this.positionSegments = map(positionsFile);
+	}
+
+	/**
+	 * Copies the fastq file into a new store.
+	 *
+	 * @param fastqFile
+	 * @param tempDirectory
+	 *            where the store's files are written, they are deleted when the store is closed
+	 * @param storeReadStringsAndQualities
+	 *            false to only store the read names
+	 * @return the store
+	 */
+	public static FastqRecordStore create(File fastqFile, File tempDirectory, boolean storeReadStringsAndQualities) {
+		return create(fastqFile, tempDirectory, storeReadStringsAndQualities, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param fastqFile
+	 * @param tempDirectory
+	 *            where the store's files are written, they are deleted when the store is closed
+	 * @param storeReadStringsAndQualities
+	 *            false to only store the read names
+	 * @param numberOfThreads
+	 *            the number of threads used to inflate a BGZF file
+	 * @return the store
+	 */
+	public static FastqRecordStore create(File fastqFile, File tempDirectory, boolean storeReadStringsAndQualities, int numberOfThreads) {
+		File recordsFile = null;
+		File positionsFile = null;
+		try {
+			recordsFile = File.createTempFile("fastq_record_store_", ".records", tempDirectory);
+			recordsFile.deleteOnExit();
+			positionsFile = File.createTempFile("fastq_record_store_", ".positions", tempDirectory);
+			positionsFile.deleteOnExit();
+		} catch (IOException e) {
+			throw new PicardException("Unable to create temporary files for storing the records of [" + fastqFile.getAbsolutePath() + "] in [" + tempDirectory + "].", e);
+		}
+
+		int numberOfRecords = 0;
+		try (DataOutputStream recordsOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordsFile), IO_BUFFER_SIZE));
+				DataOutputStream positionsOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(positionsFile), IO_BUFFER_SIZE))) {
+			try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile, numberOfThreads)) {
+				MutableFastqRecord record = new MutableFastqRecord();
+				long position = 0;
+				while (reader.readNextRecord(record)) {
+					byte[] uniqueReadName = IlluminaFastQReadNameUtil.getUniqueIdForReadHeader(record.getReadHeader()).getBytes(StandardCharsets.ISO_8859_1);
+					if (uniqueReadName.length > Short.MAX_VALUE) {
+						throw new PicardException("The read name of record[" + numberOfRecords + "] in [" + fastqFile.getAbsolutePath() + "] is too long to be stored.");
+					}
+					long recordSize = BYTES_PER_SHORT + uniqueReadName.length;
+					if (storeReadStringsAndQualities) {
+						recordSize += BYTES_PER_INT + (2L * record.getReadLength());
+					}
+					if (recordSize > SEGMENT_SIZE_IN_BYTES) {
+						throw new PicardException("Record[" + numberOfRecords + "] in [" + fastqFile.getAbsolutePath() + "] is too long to be stored.");
+					}
+
+					// start a new segment rather than splitting the record between two segments
+					long remainingBytesInSegment = SEGMENT_SIZE_IN_BYTES - (position % SEGMENT_SIZE_IN_BYTES);
+					if (recordSize > remainingBytesInSegment) {
+						for (long i = 0; i < remainingBytesInSegment; i++) {
+							recordsOutputStream.write(0);
+						}
+						position += remainingBytesInSegment;
+					}
+
+					positionsOutputStream.writeLong(position);
+					recordsOutputStream.writeShort(uniqueReadName.length);
+					recordsOutputStream.write(uniqueReadName);
+					if (storeReadStringsAndQualities) {
+						recordsOutputStream.writeInt(record.getReadLength());
+						record.readLine.write(recordsOutputStream);
+						record.baseQualityLine.write(recordsOutputStream);
+					}
+					position += recordSize;
+					numberOfRecords++;
+				}
+			}
+		} catch (IOException e) {
+			recordsFile.delete();
+			positionsFile.delete();
+			throw new PicardException("Unable to store the records of [" + fastqFile.getAbsolutePath() + "] in [" + recordsFile.getAbsolutePath() + "].", e);
+		}
+
+		try {
+			return new FastqRecordStore(fastqFile, recordsFile, positionsFile, numberOfRecords, storeReadStringsAndQualities);
+		} catch (IOException e) {
+			recordsFile.delete();
+			positionsFile.delete();
+			throw new PicardException("Unable to map the stored records of [" + fastqFile.getAbsolutePath() + "] at [" + recordsFile.getAbsolutePath() + "].", e);
+		}
+	}
+
+	private static MappedByteBuffer[] map(File file) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			FileChannel channel = randomAccessFile.getChannel();
+			long size = channel.size();
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE_IN_BYTES - 1) / SEGMENT_SIZE_IN_BYTES)];
+			for (int i = 0; i < segments.length; i++) {
+				long segmentStart = (long) i * SEGMENT_SIZE_IN_BYTES;
+				segments[i] = channel.map(MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE_IN_BYTES, size - segmentStart));
+			}
+			// the mappings stay valid after the channel is closed
+			return segments;
+		}
+	}
+
+	public File getFastqFile() {
+		return fastqFile;
+	}
+
+	public int getNumberOfRecords() {
+		return numberOfRecords;
+	}
+
+	/**
+	 * @param ordinal
+	 * @return the unique read name of the record (see {@link IlluminaFastQReadNameUtil#getUniqueIdForReadHeader(String)})
+	 */
+	public String getUniqueReadName(int ordinal) {
+		long position = getRecordPosition(ordinal);
+		ByteBuffer segment = recordSegments[(int) (position / SEGMENT_SIZE_IN_BYTES)];
+		int start = (int) (position % SEGMENT_SIZE_IN_BYTES);
+		return getString(segment, start + BYTES_PER_SHORT, segment.getShort(start));
+	}
+
+	public String getReadString(int ordinal) {
+		return getReadStringOrQuality(ordinal, false);
+	}
+
+	public String getBaseQualityString(int ordinal) {
+		return getReadStringOrQuality(ordinal, true);
+	}
+
+	private String getReadStringOrQuality(int ordinal, boolean isQuality) {
+		if (!hasReadStringsAndQualities) {
+			throw new IllegalStateException("The read strings and base qualities of [" + fastqFile.getAbsolutePath() + "] were not stored.");
+		}
+		long position = getRecordPosition(ordinal);
+		ByteBuffer segment = recordSegments[(int) (position / SEGMENT_SIZE_IN_BYTES)];
+		int readLengthStart = (int) (position % SEGMENT_SIZE_IN_BYTES) + BYTES_PER_SHORT + segment.getShort((int) (position % SEGMENT_SIZE_IN_BYTES));
+		int readLength = segment.getInt(readLengthStart);
+		int start = readLengthStart + BYTES_PER_INT;
+		if (isQuality) {
+			start += readLength;
+		}
+		return getString(segment, start, readLength);
+	}
+
+	private long getRecordPosition(int ordinal) {
+		if (ordinal < 0 || ordinal >= numberOfRecords) {
+			throw new IndexOutOfBoundsException("Provided record ordinal[" + ordinal + "] is not smaller than the number of records[" + numberOfRecords + "] or is smaller than zero.");
+		}
+		long positionOfPosition = (long) ordinal * BYTES_PER_LONG;
+		return positionSegments[(int) (positionOfPosition / SEGMENT_SIZE_IN_BYTES)].getLong((int) (positionOfPosition % SEGMENT_SIZE_IN_BYTES));
+	}
+
+	private static String getString(ByteBuffer segment, int start, int length) {
+		byte[] bytes = new byte[length];
+		// a duplicate has its own position so lookups from several threads do not interfere
+		ByteBuffer view = segment.duplicate();
+		view.position(start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Deletes the store's files, the store can not be used after it is closed.
+	 */
+	@Override
+	public void close() {
+		recordsFile.delete();
+		positionsFile.delete();
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.utils.fastq;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import htsjdk.samtools.fastq.FastqRecord;
+
+/**
+ * A fastq record whose four lines are kept in byte arrays which grow as needed and are reused each time the record is filled by {@link ParallelFastqReader#readNextRecord(MutableFastqRecord)}, so
+ * reading a file does not allocate per record. The header lines are stored with their leading '@' and '+' but are returned without them to match {@link FastqRecord}. This class is not thread safe.
+ */
+public class MutableFastqRecord {
+
+	private final static int INITIAL_LINE_CAPACITY = 256;
+
+	final Line readHeaderLine;
+	final Line readLine;
+	final Line baseQualityHeaderLine;
+	final Line baseQualityLine;
+
+	public MutableFastqRecord() {
+		readHeaderLine = new Line();
+		readLine = new Line();
+		baseQualityHeaderLine = new Line();
+		baseQualityLine = new Line();
+	}
+
+	/**
+	 * @return the read header without the leading '@'
+	 */
+	public String getReadHeader() {
+		return readHeaderLine.toString(1);
+	}
+
+	public String getReadString() {
+		return readLine.toString(0);
+	}
+
+	/**
+	 * @return the base quality header without the leading '+', an empty string if the header only contains the '+'
+	 */
+	public String getBaseQualityHeader() {
+		return baseQualityHeaderLine.toString(1);
+	}
+
+	public String getBaseQualityString() {
+		return baseQualityLine.toString(0);
+	}
+
+	public int getReadLength() {
+		return readLine.length;
+	}
+
+	/**
+	 * @param index
+	 * @return the base at the given index of the read as an ascii byte
+	 */
+	public byte getBase(int index) {
+		return readLine.getByte(index);
+	}
+
+	/**
+	 * @param index
+	 * @return the phred+33 encoded base quality at the given index of the read as an ascii byte
+	 */
+	public byte getBaseQuality(int index) {
+		return baseQualityLine.getByte(index);
+	}
+
+	/**
+	 * @return an immutable copy of this record which stays valid after this record is reused
+	 */
+	public FastqRecord toFastqRecord() {
+		return new FastqRecord(getReadHeader(), getReadString(), getBaseQualityHeader(), getBaseQualityString());
+	}
+
+	void set(MutableFastqRecord record) {
+		readHeaderLine.set(record.readHeaderLine);
+		readLine.set(record.readLine);
+		baseQualityHeaderLine.set(record.baseQualityHeaderLine);
+		baseQualityLine.set(record.baseQualityLine);
+	}
+
+	@Override
+	public String toString() {
+		return readHeaderLine + "\n" + readLine + "\n" + baseQualityHeaderLine + "\n" + baseQualityLine;
+	}
+
+	/**
+	 * A single line of a fastq record without its line terminator.
+	 */
+	static class Line {
+		private byte[] bytes;
+		private int length;
+
+		private Line() {
+			bytes = new byte[INITIAL_LINE_CAPACITY];
+			length = 0;
+		}
+
+		void clear() {
+			length = 0;
+		}
+
+		int length() {
+			return length;
+		}
+
+		byte getByte(int index) {
+			if (index >= length || index < 0) {
+				throw new IndexOutOfBoundsException("Provided index[" + index + "] is larger than the line length[" + length + "] or smaller than zero.");
+			}
+			return bytes[index];
+		}
+
+		boolean isBlank() {
+			boolean isBlank = true;
+			for (int i = 0; i < length && isBlank; i++) {
+				isBlank = Character.isWhitespace(bytes[i]);
+			}
+			return isBlank;
+		}
+
+		void append(byte[] source, int sourceStart, int numberOfBytes) {
+			if (length + numberOfBytes > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + numberOfBytes));
+			}
+			System.arraycopy(source, sourceStart, bytes, length, numberOfBytes);
+			length += numberOfBytes;
+		}
+
+		void write(OutputStream outputStream) throws IOException {
+			outputStream.write(bytes, 0, length);
+		}
+
+		void removeTrailingCarriageReturn() {
+			if (length > 0 && bytes[length - 1] == '\r') {
+				length--;
+			}
+		}
+
+		private void set(Line line) {
+			clear();
+			append(line.bytes, 0, line.length);
+		}
+
+		@Override
+		public String toString() {
+			return toString(0);
+		}
+
+		private String toString(int start) {
+			String string;
+			if (start >= length) {
+				string = "";
+			} else {
+				string = new String(bytes, start, length - start, StandardCharsets.ISO_8859_1);
+			}
+			return string;
+		}
+	}
+}
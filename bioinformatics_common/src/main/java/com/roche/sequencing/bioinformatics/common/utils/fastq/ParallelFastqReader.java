@@ -0,0 +1,589 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.utils.fastq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.roche.sequencing.bioinformatics.common.multithreading.NamePrependingThreadFactory;
+import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipUtil;
+
+import htsjdk.samtools.fastq.FastqConstants;
+import htsjdk.samtools.fastq.FastqRecord;
+
+/**
+ * Reads an uncompressed, gzipped or BGZF compressed fastq file. A read ahead thread reads and decompresses the file into large chunks of bytes while the calling thread parses records out of them, so
+ * decompression and parsing run on different cores. BGZF files (and other multi-member gzip files whose members record their size in a BC extra subfield) are split into their members by the read
+ * ahead thread and groups of members are inflated in parallel; any other gzip file has to be inflated sequentially by the read ahead thread.
+ *
+ * Records can be read with the Iterator methods, one at a time into a reused {@link MutableFastqRecord} with readNextRecord or in batches with nextBatch. This class is not thread safe, a single
+ * thread should read from it.
+ */
+public class ParallelFastqReader implements Iterator<FastqRecord>, Iterable<FastqRecord>, Closeable {
+
+	private final static int CHUNK_SIZE_IN_BYTES = 1024 * 1024;
+	private final static int SEQUENTIAL_CHUNKS_READ_AHEAD = 4;
+
+	private final static int GZIP_MAGIC_NUMBER_ID_ONE = 31;
+	private final static int GZIP_MAGIC_NUMBER_ID_TWO = 139;
+	private final static int GZIP_EXTRA_FIELD_FLAG = 4;
+	private final static int GZIP_FIXED_HEADER_SIZE = 12;
+	private final static int GZIP_TRAILER_SIZE = 8;
+	private final static int BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_ONE = 66;
+	private final static int BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_TWO = 67;
+	private final static int BGZF_SUBFIELD_BLOCK_SIZE_LENGTH = 2;
+
+	private final static Future<byte[]> END_OF_INPUT = CompletableFuture.completedFuture(new byte[0]);
+
+	private final String fileAbsolutePath;
+	private final BlockingQueue<Future<byte[]>> chunks;
+	private final ExecutorService inflaterExecutor;
+	private final Thread readAheadThread;
+
+	private byte[] currentChunk;
+	private int currentChunkPosition;
+	// the position of the first byte of the current chunk in the uncompressed file
+	private long currentChunkStart;
+	private boolean isEndOfInput;
+	private boolean isClosed;
+
+	private final MutableFastqRecord nextRecord;
+	private boolean isNextRecordLoaded;
+	private long line;
+
+	public ParallelFastqReader(File gzippedOrUncompressedFastqFile) {
+		this(gzippedOrUncompressedFastqFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param gzippedOrUncompressedFastqFile
+	 * @param numberOfInflaterThreads
+	 *            the number of threads used to inflate the members of a BGZF file, ignored for other files
+	 */
+	public ParallelFastqReader(File gzippedOrUncompressedFastqFile, int numberOfInflaterThreads) {
+		this(gzippedOrUncompressedFastqFile, numberOfInflaterThreads, 0, 0);
+	}
+
+	/**
+	 * @param gzippedOrUncompressedFastqFile
+	 * @param numberOfInflaterThreads
+	 *            the number of threads used to inflate the members of a BGZF file, ignored for other files
+	 * @param startingPosition
+	 *            the position in the uncompressed file of the first record to read
+	 * @param startingRecordOrdinal
+	 *            the ordinal of the first record to read, used for line numbers in error messages
+	 */
+	ParallelFastqReader(final File gzippedOrUncompressedFastqFile, int numberOfInflaterThreads, final long startingPosition, int startingRecordOrdinal) {
+		this.fileAbsolutePath = gzippedOrUncompressedFastqFile.getAbsolutePath();
+		this.currentChunk = new byte[0];
+		this.currentChunkPosition = 0;
+		this.isEndOfInput = false;
+		this.isClosed = false;
+		this.nextRecord = new MutableFastqRecord();
+		this.isNextRecordLoaded = false;
+		this.line = ((long) startingRecordOrdinal * 4) + 1;
+
+		final InputStream inputStream;
+		final boolean isBgzf;
+		try {
+			boolean isGzipped = GZipUtil.isCompressed(gzippedOrUncompressedFastqFile);
+			isBgzf = isGzipped && isBgzf(gzippedOrUncompressedFastqFile);
+			if (isGzipped && !isBgzf) {
+				inputStream = new GZIPInputStream(new FileInputStream(gzippedOrUncompressedFastqFile), CHUNK_SIZE_IN_BYTES);
+			} else {
+				inputStream = new FileInputStream(gzippedOrUncompressedFastqFile);
+			}
+		} catch (IOException e) {
+			throw new PicardException(String.format("Error opening '%s'", fileAbsolutePath), e);
+		}
+
+		// the read ahead thread skips to the starting position so the first chunk starts there
+		currentChunkStart = startingPosition;
+
+		if (isBgzf) {
+			int numberOfThreads = Math.max(1, numberOfInflaterThreads);
+			chunks = new ArrayBlockingQueue<Future<byte[]>>(numberOfThreads * 2);
+			final ThreadFactory namedThreadFactory = new NamePrependingThreadFactory("FASTQ_INFLATER_");
+			inflaterExecutor = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					// daemon threads so a reader which is never closed can not keep the application running
+					Thread thread = namedThreadFactory.newThread(runnable);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		} else {
+			chunks = new ArrayBlockingQueue<Future<byte[]>>(SEQUENTIAL_CHUNKS_READ_AHEAD);
+			inflaterExecutor = null;
+		}
+
+		readAheadThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readAhead(inputStream, isBgzf, startingPosition);
+			}
+		}, "FASTQ_READ_AHEAD_" + gzippedOrUncompressedFastqFile.getName());
+		readAheadThread.setDaemon(true);
+		readAheadThread.start();
+	}
+
+	private void readAhead(InputStream inputStream, boolean isBgzf, long startingPosition) {
+		try {
+			try {
+				if (isBgzf) {
+					readBgzfChunks(inputStream, startingPosition);
+				} else {
+					skipFully(inputStream, startingPosition);
+					readSequentialChunks(inputStream);
+				}
+				chunks.put(END_OF_INPUT);
+			} catch (InterruptedException e) {
+				// the reader was closed
+			} catch (Throwable e) {
+				CompletableFuture<byte[]> failure = new CompletableFuture<byte[]>();
+				failure.completeExceptionally(e);
+				chunks.put(failure);
+			}
+		} catch (InterruptedException e) {
+			// the reader was closed while reporting a failure
+		} finally {
+			if (inflaterExecutor != null) {
+				inflaterExecutor.shutdown();
+			}
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+				// nothing more will be read from the stream
+			}
+		}
+	}
+
+	private void readSequentialChunks(InputStream inputStream) throws IOException, InterruptedException {
+		boolean isEndOfStream = false;
+		while (!isEndOfStream) {
+			byte[] chunk = new byte[CHUNK_SIZE_IN_BYTES];
+			int chunkSize = readFully(inputStream, chunk, 0, chunk.length);
+			isEndOfStream = chunkSize < chunk.length;
+			if (chunkSize > 0) {
+				if (isEndOfStream) {
+					chunk = Arrays.copyOf(chunk, chunkSize);
+				}
+				chunks.put(CompletableFuture.completedFuture(chunk));
+			}
+		}
+	}
+
+	private static void skipFully(InputStream inputStream, long numberOfBytes) throws IOException {
+		long remainingBytes = numberOfBytes;
+		while (remainingBytes > 0) {
+			long bytesSkipped = inputStream.skip(remainingBytes);
+			if (bytesSkipped <= 0) {
+				// skip can return zero before the end of the stream so check for the end by reading
+				if (inputStream.read() < 0) {
+					throw new IOException("The file ends before the starting position[" + numberOfBytes + "].");
+				}
+				bytesSkipped = 1;
+			}
+			remainingBytes -= bytesSkipped;
+		}
+	}
+
+	private void readBgzfChunks(InputStream inputStream, long startingPosition) throws IOException, InterruptedException {
+		// members which end before the starting position are skipped without being inflated
+		long bytesToSkip = startingPosition;
+		byte[] member = readGZipMember(inputStream);
+		while (member != null && getUncompressedSize(member) <= bytesToSkip) {
+			bytesToSkip -= getUncompressedSize(member);
+			member = readGZipMember(inputStream);
+		}
+		if (member == null && bytesToSkip > 0) {
+			throw new IOException("The file ends before the starting position[" + startingPosition + "].");
+		}
+
+		int firstByteOfChunk = (int) bytesToSkip;
+		List<byte[]> members = new ArrayList<byte[]>();
+		int uncompressedChunkSize = 0;
+		while (member != null) {
+			members.add(member);
+			uncompressedChunkSize += getUncompressedSize(member);
+			if (uncompressedChunkSize >= CHUNK_SIZE_IN_BYTES) {
+				chunks.put(inflaterExecutor.submit(new InflateMembersTask(members, uncompressedChunkSize, firstByteOfChunk)));
+				members = new ArrayList<byte[]>();
+				uncompressedChunkSize = 0;
+				firstByteOfChunk = 0;
+			}
+			member = readGZipMember(inputStream);
+		}
+		if (members.size() > 0) {
+			chunks.put(inflaterExecutor.submit(new InflateMembersTask(members, uncompressedChunkSize, firstByteOfChunk)));
+		}
+	}
+
+	/**
+	 * @return a complete gzip member using the size recorded in its BC extra subfield or null if there are no more members
+	 */
+	private byte[] readGZipMember(InputStream inputStream) throws IOException {
+		byte[] member = null;
+		byte[] header = new byte[GZIP_FIXED_HEADER_SIZE];
+		int headerSize = readFully(inputStream, header, 0, header.length);
+		if (headerSize > 0) {
+			if (headerSize < header.length) {
+				throw new IOException("The file ends with a partial gzip header.");
+			}
+			byte[] extraField = new byte[getUnsignedShort(header, GZIP_FIXED_HEADER_SIZE - 2)];
+			if (readFully(inputStream, extraField, 0, extraField.length) < extraField.length) {
+				throw new IOException("The file ends with a partial gzip header.");
+			}
+			int memberSize = getBgzfMemberSize(header, extraField);
+			if (memberSize < 0) {
+				throw new IOException("The file contains a gzip member without a BGZF block size subfield after the first member.");
+			}
+			member = new byte[memberSize];
+			System.arraycopy(header, 0, member, 0, header.length);
+			System.arraycopy(extraField, 0, member, header.length, extraField.length);
+			int remainingSize = memberSize - header.length - extraField.length;
+			if (readFully(inputStream, member, header.length + extraField.length, remainingSize) < remainingSize) {
+				throw new IOException("The file ends with a partial gzip member.");
+			}
+		}
+		return member;
+	}
+
+	/**
+	 * @return the total size of the gzip member in bytes or -1 if the header does not contain a BGZF block size subfield
+	 */
+	private static int getBgzfMemberSize(byte[] header, byte[] extraField) {
+		int memberSize = -1;
+		boolean isGZipHeader = (header[0] & 0xFF) == GZIP_MAGIC_NUMBER_ID_ONE && (header[1] & 0xFF) == GZIP_MAGIC_NUMBER_ID_TWO && (header[3] & GZIP_EXTRA_FIELD_FLAG) != 0;
+		int subfieldStart = 0;
+		while (isGZipHeader && memberSize < 0 && subfieldStart + 4 <= extraField.length) {
+			int subfieldLength = getUnsignedShort(extraField, subfieldStart + 2);
+			boolean isBlockSizeSubfield = (extraField[subfieldStart] & 0xFF) == BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_ONE
+					&& (extraField[subfieldStart + 1] & 0xFF) == BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_TWO && subfieldLength == BGZF_SUBFIELD_BLOCK_SIZE_LENGTH;
+			if (isBlockSizeSubfield && subfieldStart + 6 <= extraField.length) {
+				// the subfield holds the total member size minus one
+				memberSize = getUnsignedShort(extraField, subfieldStart + 4) + 1;
+			}
+			subfieldStart += 4 + subfieldLength;
+		}
+		return memberSize;
+	}
+
+	/**
+	 * @return true if a reader can start part way through the file without inflating the bytes before its starting position, which holds for uncompressed and BGZF files but not for other gzip
+	 *         files
+	 */
+	static boolean isSeekable(File gzippedOrUncompressedFastqFile) throws IOException {
+		return !GZipUtil.isCompressed(gzippedOrUncompressedFastqFile) || isBgzf(gzippedOrUncompressedFastqFile);
+	}
+
+	private static boolean isBgzf(File gzippedFile) throws IOException {
+		boolean isBgzf = false;
+		try (InputStream inputStream = new FileInputStream(gzippedFile)) {
+			byte[] header = new byte[GZIP_FIXED_HEADER_SIZE];
+			if (readFully(inputStream, header, 0, header.length) == header.length && (header[3] & GZIP_EXTRA_FIELD_FLAG) != 0) {
+				byte[] extraField = new byte[getUnsignedShort(header, GZIP_FIXED_HEADER_SIZE - 2)];
+				if (readFully(inputStream, extraField, 0, extraField.length) == extraField.length) {
+					isBgzf = getBgzfMemberSize(header, extraField) >= 0;
+				}
+			}
+		}
+		return isBgzf;
+	}
+
+	private static int getUncompressedSize(byte[] member) {
+		return getInt(member, member.length - 4);
+	}
+
+	private static int getUnsignedShort(byte[] bytes, int start) {
+		return (bytes[start] & 0xFF) | ((bytes[start + 1] & 0xFF) << 8);
+	}
+
+	private static int getInt(byte[] bytes, int start) {
+		return getUnsignedShort(bytes, start) | (getUnsignedShort(bytes, start + 2) << 16);
+	}
+
+	private static int readFully(InputStream inputStream, byte[] buffer, int start, int length) throws IOException {
+		int totalBytesRead = 0;
+		int bytesRead = 0;
+		while (totalBytesRead < length && bytesRead >= 0) {
+			bytesRead = inputStream.read(buffer, start + totalBytesRead, length - totalBytesRead);
+			if (bytesRead > 0) {
+				totalBytesRead += bytesRead;
+			}
+		}
+		return totalBytesRead;
+	}
+
+	/**
+	 * Inflates a group of consecutive BGZF members into a single chunk.
+	 */
+	private static class InflateMembersTask implements Callable<byte[]> {
+		private final List<byte[]> members;
+		private final int uncompressedSize;
+		// the bytes before this one belong to records before the starting position of the reader
+		private final int firstByteOfChunk;
+
+		private InflateMembersTask(List<byte[]> members, int uncompressedSize, int firstByteOfChunk) {
+			this.members = members;
+			this.uncompressedSize = uncompressedSize;
+			this.firstByteOfChunk = firstByteOfChunk;
+		}
+
+		@Override
+		public byte[] call() throws IOException, DataFormatException {
+			byte[] chunk = new byte[uncompressedSize];
+			int chunkPosition = 0;
+			Inflater inflater = new Inflater(true);
+			CRC32 crc = new CRC32();
+			try {
+				for (byte[] member : members) {
+					int compressedStart = GZIP_FIXED_HEADER_SIZE + getUnsignedShort(member, GZIP_FIXED_HEADER_SIZE - 2);
+					int compressedSize = member.length - compressedStart - GZIP_TRAILER_SIZE;
+					int memberUncompressedSize = getUncompressedSize(member);
+					inflater.reset();
+					inflater.setInput(member, compressedStart, compressedSize);
+					int inflatedSize = 0;
+					while (inflatedSize < memberUncompressedSize && !inflater.finished()) {
+						int bytesInflated = inflater.inflate(chunk, chunkPosition + inflatedSize, memberUncompressedSize - inflatedSize);
+						if (bytesInflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+							throw new IOException("The gzip member ends before its recorded size of " + memberUncompressedSize + " bytes.");
+						}
+						inflatedSize += bytesInflated;
+					}
+					crc.reset();
+					crc.update(chunk, chunkPosition, memberUncompressedSize);
+					if ((int) crc.getValue() != getInt(member, member.length - GZIP_TRAILER_SIZE)) {
+						throw new IOException("The gzip member failed its CRC check.");
+					}
+					chunkPosition += memberUncompressedSize;
+				}
+			} finally {
+				inflater.end();
+			}
+			if (firstByteOfChunk > 0) {
+				chunk = Arrays.copyOfRange(chunk, firstByteOfChunk, chunk.length);
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * @return false if there are no more chunks
+	 */
+	private boolean nextChunk() {
+		if (isClosed) {
+			throw new PicardException("Unable to read from the closed file[" + fileAbsolutePath + "].");
+		}
+		boolean hasChunk = false;
+		while (!isEndOfInput && !hasChunk) {
+			try {
+				Future<byte[]> chunk = chunks.take();
+				if (chunk == END_OF_INPUT) {
+					isEndOfInput = true;
+				} else {
+					currentChunkStart += currentChunk.length;
+					currentChunk = chunk.get();
+					currentChunkPosition = 0;
+					hasChunk = currentChunk.length > 0;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new PicardException(String.format("Interrupted while reading '%s'", fileAbsolutePath), e);
+			} catch (ExecutionException e) {
+				throw new PicardException(String.format("Error reading '%s'", fileAbsolutePath), e.getCause());
+			}
+		}
+		return hasChunk;
+	}
+
+	/**
+	 * Reads the next line without its line terminator into the provided line.
+	 *
+	 * @return false if there are no more lines
+	 */
+	private boolean readLine(MutableFastqRecord.Line line) {
+		line.clear();
+		boolean isLineRead = false;
+		boolean isLineComplete = false;
+		while (!isLineComplete && (currentChunkPosition < currentChunk.length || nextChunk())) {
+			int lineEnd = currentChunkPosition;
+			while (lineEnd < currentChunk.length && currentChunk[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			line.append(currentChunk, currentChunkPosition, lineEnd - currentChunkPosition);
+			isLineRead = true;
+			isLineComplete = lineEnd < currentChunk.length;
+			currentChunkPosition = isLineComplete ? lineEnd + 1 : lineEnd;
+		}
+		line.removeTrailingCarriageReturn();
+		return isLineRead;
+	}
+
+	/**
+	 * @return false if there are no more records
+	 */
+	private boolean parseNextRecord(MutableFastqRecord record) {
+		boolean isRecordRead = readLine(record.readHeaderLine);
+		if (isRecordRead && record.readHeaderLine.isBlank()) {
+			// blank lines are only allowed at the end of the file
+			while (readLine(record.readHeaderLine)) {
+				if (!record.readHeaderLine.isBlank()) {
+					throw new PicardException(error("Missing sequence header"));
+				}
+			}
+			isRecordRead = false;
+		}
+
+		if (isRecordRead) {
+			if (record.readHeaderLine.getByte(0) != FastqConstants.SEQUENCE_HEADER.charAt(0)) {
+				throw new PicardException(error("Invalid Fastq file--Fastq Sequence header must start with " + FastqConstants.SEQUENCE_HEADER));
+			}
+			checkLine(readLine(record.readLine), record.readLine, "sequence line");
+			checkLine(readLine(record.baseQualityHeaderLine), record.baseQualityHeaderLine, "quality header");
+			if (record.baseQualityHeaderLine.getByte(0) != FastqConstants.QUALITY_HEADER.charAt(0)) {
+				throw new PicardException(error("Quality header must start with " + FastqConstants.QUALITY_HEADER + ": " + record.baseQualityHeaderLine));
+			}
+			checkLine(readLine(record.baseQualityLine), record.baseQualityLine, "quality line");
+			if (record.readLine.length() != record.baseQualityLine.length()) {
+				throw new PicardException(error("Sequence and quality line must be the same length"));
+			}
+			line += 4;
+		}
+		return isRecordRead;
+	}
+
+	private void checkLine(boolean isLineRead, MutableFastqRecord.Line line, String kind) {
+		if (!isLineRead) {
+			throw new PicardException(error("File is too short - missing " + kind + " line"));
+		}
+		if (line.isBlank()) {
+			throw new PicardException(error("Missing " + kind));
+		}
+	}
+
+	private String error(final String msg) {
+		return msg + " at line " + line + " in [" + fileAbsolutePath + "].";
+	}
+
+	/**
+	 * Reads the next record into the provided record, replacing its contents.
+	 *
+	 * @param record
+	 * @return false if there are no more records, in which case the provided record is left in an unspecified state
+	 */
+	public boolean readNextRecord(MutableFastqRecord record) {
+		boolean isRecordRead;
+		if (isNextRecordLoaded) {
+			record.set(nextRecord);
+			isNextRecordLoaded = false;
+			isRecordRead = true;
+		} else {
+			isRecordRead = parseNextRecord(record);
+		}
+		return isRecordRead;
+	}
+
+	/**
+	 * @param maximumNumberOfRecords
+	 * @return the next records in file order, fewer than the maximum only at the end of the file and empty once there are no more records
+	 */
+	public List<FastqRecord> nextBatch(int maximumNumberOfRecords) {
+		List<FastqRecord> batch = new ArrayList<FastqRecord>();
+		while (batch.size() < maximumNumberOfRecords && hasNext()) {
+			batch.add(next());
+		}
+		return batch;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!isNextRecordLoaded) {
+			isNextRecordLoaded = parseNextRecord(nextRecord);
+		}
+		return isNextRecordLoaded;
+	}
+
+	@Override
+	public FastqRecord next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException("next() called when !hasNext()");
+		}
+		isNextRecordLoaded = false;
+		return nextRecord.toFastqRecord();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Unsupported operation");
+	}
+
+	@Override
+	public Iterator<FastqRecord> iterator() {
+		return this;
+	}
+
+	public int getLineNumber() {
+		return (int) line;
+	}
+
+	/**
+	 * @return the position in the uncompressed file of the next record that readNextRecord will read
+	 */
+	long getPositionOfNextRecord() {
+		if (isNextRecordLoaded) {
+			throw new IllegalStateException("The position of the next record is not known once hasNext has read it.");
+		}
+		return currentChunkStart + currentChunkPosition;
+	}
+
+	/**
+	 * Stops the read ahead and inflater threads, which also close the file.
+	 */
+	@Override
+	public void close() {
+		if (!isClosed) {
+			isClosed = true;
+			readAheadThread.interrupt();
+			if (inflaterExecutor != null) {
+				inflaterExecutor.shutdownNow();
+			}
+			chunks.clear();
+		}
+	}
+}
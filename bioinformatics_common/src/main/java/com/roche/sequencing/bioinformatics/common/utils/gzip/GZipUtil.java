@@ -33,8 +33,12 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,6 +76,19 @@ public final class GZipUtil {
 
 	private final static int MIN_GZIP_MEMBER_DATA_SIZE_IN_BYTES = 10;
 
+	// the uncompressed size samtools and htsjdk use so a block is never larger than 64KB even when the data does not compress
+	private final static int BGZF_MAX_UNCOMPRESSED_BLOCK_SIZE = 65280;
+	private final static int BGZF_MAX_BLOCK_SIZE = 65536;
+	private final static int BGZF_HEADER_SIZE = 18;
+	private final static int BGZF_FOOTER_SIZE = 8;
+	private final static int GZIP_UNKNOWN_OPERATING_SYSTEM = 255;
+	private final static int BGZF_EXTRA_FIELD_LENGTH = 6;
+	private final static int BGZF_SUBFIELD_LENGTH = 2;
+	private final static int GZIP_EXTRA_FIELD_FLAG = 4;
+	private final static int GZIP_HEADER_SIZE_WITHOUT_EXTRA_FIELDS = 12;
+	private final static int GZIP_SUBFIELD_HEADER_SIZE = 4;
+	private final static byte[] BGZF_END_OF_FILE_BLOCK = new byte[] { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 66, 67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
 	private GZipUtil() {
 		throw new AssertionError();
 	}
@@ -476,6 +493,204 @@ public final class GZipUtil {
 		}
 	}
 
+	/**
+	 * Compresses the bytes into consecutive BGZF blocks. Each block is a complete gzip member so the results of compressing consecutive ranges of a file on different threads can be concatenated,
+	 * followed by {@link #getBgzfEndOfFileBlock()}, to create a valid BGZF file.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 * @return the BGZF blocks
+	 */
+	public static byte[] compressBgzfBlocks(byte[] bytes, int start, int length) {
+		ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream((length / 2) + BGZF_HEADER_SIZE + BGZF_FOOTER_SIZE);
+		byte[] block = new byte[BGZF_MAX_BLOCK_SIZE];
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		Deflater storingDeflater = null;
+		CRC32 crc = new CRC32();
+		try {
+			int blockStart = start;
+			int end = start + length;
+			while (blockStart < end) {
+				int uncompressedBlockSize = Math.min(BGZF_MAX_UNCOMPRESSED_BLOCK_SIZE, end - blockStart);
+				int compressedDataSize = deflate(deflater, bytes, blockStart, uncompressedBlockSize, block);
+				if (compressedDataSize < 0) {
+					// data which grows when compressed is stored instead
+					if (storingDeflater == null) {
+						storingDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+					}
+					compressedDataSize = deflate(storingDeflater, bytes, blockStart, uncompressedBlockSize, block);
+					if (compressedDataSize < 0) {
+						throw new IllegalStateException("Unable to fit " + uncompressedBlockSize + " stored bytes in a BGZF block.");
+					}
+				}
+				crc.reset();
+				crc.update(bytes, blockStart, uncompressedBlockSize);
+
+				int blockSize = BGZF_HEADER_SIZE + compressedDataSize + BGZF_FOOTER_SIZE;
+				block[0] = (byte) GZIP_MAGIC_NUMBER_ID_ONE;
+				block[1] = (byte) GZIP_MAGIC_NUMBER_ID_TWO;
+				block[2] = (byte) DEFLATE_COMPRESSION_METHOD_INDICATOR;
+				block[3] = (byte) GZIP_EXTRA_FIELD_FLAG;
+				// modification time and extra flags
+				for (int i = 4; i < 9; i++) {
+					block[i] = 0;
+				}
+				block[9] = (byte) GZIP_UNKNOWN_OPERATING_SYSTEM;
+				writeLittleEndianShort(block, 10, BGZF_EXTRA_FIELD_LENGTH);
+				block[12] = (byte) BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_ONE;
+				block[13] = (byte) BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_TWO;
+				writeLittleEndianShort(block, 14, BGZF_SUBFIELD_LENGTH);
+				writeLittleEndianShort(block, 16, blockSize - 1);
+				int footerStart = BGZF_HEADER_SIZE + compressedDataSize;
+				writeLittleEndianInt(block, footerStart, (int) crc.getValue());
+				writeLittleEndianInt(block, footerStart + 4, uncompressedBlockSize);
+				compressedBytes.write(block, 0, blockSize);
+
+				blockStart += uncompressedBlockSize;
+			}
+		} finally {
+			deflater.end();
+			if (storingDeflater != null) {
+				storingDeflater.end();
+			}
+		}
+		return compressedBytes.toByteArray();
+	}
+
+	/**
+	 * @return the empty block which marks the end of a BGZF file
+	 */
+	public static byte[] getBgzfEndOfFileBlock() {
+		return BGZF_END_OF_FILE_BLOCK.clone();
+	}
+
+	/**
+	 * Reads the size of a BGZF block from its header.
+	 * 
+	 * @param bytes
+	 * @param start
+	 *            the start of the block
+	 * @param length
+	 *            the number of bytes available from the start
+	 * @return the total size of the block in bytes or null if more bytes are needed to read the block's header
+	 * @throws IllegalStateException
+	 *             if the bytes at the start are not the header of a BGZF block
+	 */
+	public static Integer getBgzfBlockSize(byte[] bytes, int start, int length) {
+		Integer blockSize = null;
+		if (length >= GZIP_HEADER_SIZE_WITHOUT_EXTRA_FIELDS) {
+			boolean isGZipHeaderWithExtraFields = ((bytes[start] & 0xFF) == GZIP_MAGIC_NUMBER_ID_ONE) && ((bytes[start + 1] & 0xFF) == GZIP_MAGIC_NUMBER_ID_TWO)
+					&& ((bytes[start + 2] & 0xFF) == DEFLATE_COMPRESSION_METHOD_INDICATOR) && ((bytes[start + 3] & GZIP_EXTRA_FIELD_FLAG) != 0);
+			if (!isGZipHeaderWithExtraFields) {
+				throw new IllegalStateException("The bytes at [" + start + "] are not the header of a BGZF block.");
+			}
+			int extraFieldLength = readLittleEndianShort(bytes, start + 10);
+			if (length >= GZIP_HEADER_SIZE_WITHOUT_EXTRA_FIELDS + extraFieldLength) {
+				int subfieldStart = start + GZIP_HEADER_SIZE_WITHOUT_EXTRA_FIELDS;
+				int extraFieldEnd = subfieldStart + extraFieldLength;
+				while (blockSize == null && subfieldStart + GZIP_SUBFIELD_HEADER_SIZE <= extraFieldEnd) {
+					int subfieldLength = readLittleEndianShort(bytes, subfieldStart + 2);
+					if (((bytes[subfieldStart] & 0xFF) == BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_ONE) && ((bytes[subfieldStart + 1] & 0xFF) == BGZF_SUBFIELD_BLOCK_SIZE_IDENTIFIER_TWO)
+							&& (subfieldLength == BGZF_SUBFIELD_LENGTH)) {
+						// the subfield holds the block size minus one
+						blockSize = readLittleEndianShort(bytes, subfieldStart + GZIP_SUBFIELD_HEADER_SIZE) + 1;
+					}
+					subfieldStart += GZIP_SUBFIELD_HEADER_SIZE + subfieldLength;
+				}
+				if (blockSize == null) {
+					throw new IllegalStateException("The gzip header at [" + start + "] does not contain the BGZF block size.");
+				}
+			}
+		}
+		return blockSize;
+	}
+
+	/**
+	 * Inflates a complete BGZF block with the JDK's inflater, a BGZF block does not depend on the blocks before it so no dictionary is needed.
+	 * 
+	 * @param bytes
+	 * @param start
+	 *            the start of the block
+	 * @param blockSize
+	 *            the total size of the block in bytes
+	 * @param inflater
+	 *            an inflater created with nowrap set to true, it is reset before it is used
+	 * @return the uncompressed bytes
+	 */
+	public static byte[] inflateBgzfBlock(byte[] bytes, int start, int blockSize, Inflater inflater) {
+		int headerSize = GZIP_HEADER_SIZE_WITHOUT_EXTRA_FIELDS + readLittleEndianShort(bytes, start + 10);
+		int footerStart = start + blockSize - BGZF_FOOTER_SIZE;
+		int uncompressedSize = readLittleEndianInt(bytes, footerStart + 4);
+		byte[] uncompressedBytes = new byte[uncompressedSize];
+		if (uncompressedSize > 0) {
+			inflater.reset();
+			inflater.setInput(bytes, start + headerSize, footerStart - (start + headerSize));
+			int numberOfBytesInflated = 0;
+			try {
+				int numberOfBytesInflatedInCall = -1;
+				while (numberOfBytesInflated < uncompressedSize && numberOfBytesInflatedInCall != 0) {
+					numberOfBytesInflatedInCall = inflater.inflate(uncompressedBytes, numberOfBytesInflated, uncompressedSize - numberOfBytesInflated);
+					numberOfBytesInflated += numberOfBytesInflatedInCall;
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalStateException("Unable to inflate the BGZF block at [" + start + "].", e);
+			}
+			if (numberOfBytesInflated != uncompressedSize) {
+				throw new IllegalStateException("The BGZF block at [" + start + "] inflated to " + numberOfBytesInflated + " bytes instead of the " + uncompressedSize + " bytes in its footer.");
+			}
+		}
+		return uncompressedBytes;
+	}
+
+	/**
+	 * Reads and inflates the BGZF block at the start.
+	 * 
+	 * @return the block, which holds all of the uncompressed data of the BGZF block but has no block type or ending dictionary
+	 */
+	public static GZipBlock readBgzfBlock(RandomAccessFile randomAccessFile, long startInBytes, int blockSize, Inflater inflater) throws IOException {
+		byte[] blockBytes = new byte[blockSize];
+		randomAccessFile.seek(startInBytes);
+		randomAccessFile.readFully(blockBytes);
+		return new GZipBlock(true, null, inflateBgzfBlock(blockBytes, 0, blockSize, inflater), (long) blockSize * BITS_PER_BYTE, null, 0);
+	}
+
+	private static int readLittleEndianShort(byte[] bytes, int start) {
+		return (bytes[start] & 0xFF) | ((bytes[start + 1] & 0xFF) << 8);
+	}
+
+	private static int readLittleEndianInt(byte[] bytes, int start) {
+		return readLittleEndianShort(bytes, start) | (readLittleEndianShort(bytes, start + 2) << 16);
+	}
+
+	/**
+	 * @return the size of the deflated data written to the block after the header or -1 if it does not fit in the block
+	 */
+	private static int deflate(Deflater deflater, byte[] bytes, int start, int length, byte[] block) {
+		deflater.reset();
+		deflater.setInput(bytes, start, length);
+		deflater.finish();
+		int maxCompressedDataSize = block.length - BGZF_HEADER_SIZE - BGZF_FOOTER_SIZE;
+		int compressedDataSize = 0;
+		while (!deflater.finished() && compressedDataSize < maxCompressedDataSize) {
+			compressedDataSize += deflater.deflate(block, BGZF_HEADER_SIZE + compressedDataSize, maxCompressedDataSize - compressedDataSize);
+		}
+		if (!deflater.finished()) {
+			compressedDataSize = -1;
+		}
+		return compressedDataSize;
+	}
+
+	private static void writeLittleEndianShort(byte[] bytes, int start, int value) {
+		bytes[start] = (byte) value;
+		bytes[start + 1] = (byte) (value >>> 8);
+	}
+
+	private static void writeLittleEndianInt(byte[] bytes, int start, int value) {
+		writeLittleEndianShort(bytes, start, value);
+		writeLittleEndianShort(bytes, start + 2, value >>> 16);
+	}
+
 	public static GZipBlock getFirstBlock(GZipIndex zipIndex, File file) throws FileNotFoundException, IOException {
 		GZipBlock block = null;
 		try (RandomAccessFile randomAccessToFile = new RandomAccessFile(file, "r")) {
@@ -484,11 +699,21 @@ public final class GZipUtil {
 			long startInBytes = startInBits / BITS_PER_BYTE;
 			int bitStartInFirstByte = (int) (startInBits % BITS_PER_BYTE);
 
-			randomAccessToFile.seek(startInBytes);
+			if (zipIndex.isBgzf()) {
+				Inflater inflater = new Inflater(true);
+				try {
+					block = readBgzfBlock(randomAccessToFile, startInBytes, (int) (blockIndex.getCompressedSizeInBits() / BITS_PER_BYTE), inflater);
+				} catch (IllegalStateException e) {
+				} finally {
+					inflater.end();
+				}
+			} else {
+				randomAccessToFile.seek(startInBytes);
 
-			try {
-				block = GZipUtil.decodeNextGZipBlock(randomAccessToFile, bitStartInFirstByte, new byte[0]);
-			} catch (IllegalStateException e) {
+				try {
+					block = GZipUtil.decodeNextGZipBlock(randomAccessToFile, bitStartInFirstByte, new byte[0]);
+				} catch (IllegalStateException e) {
+				}
 			}
 		}
 		return block;
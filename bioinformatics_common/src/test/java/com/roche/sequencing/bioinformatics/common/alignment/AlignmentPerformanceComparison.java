@@ -0,0 +1,97 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.alignment;
+
+import java.util.Random;
+
+import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+
+/**
+ * Compares the alignment times of the NeedlemanWunschGlobalAlignment and the FastNeedlemanWunschGlobalAlignment (with and without a band) on read sized sequences. Each round is preceded by an
+ * untimed warm up so the JIT has compiled both implementations before they are timed.
+ */
+public class AlignmentPerformanceComparison {
+
+	private final static int SEQUENCE_LENGTH = 150;
+	private final static int NUMBER_OF_SEQUENCE_PAIRS = 200;
+	private final static int NUMBER_OF_ALIGNMENTS = 2000;
+	private final static int BAND_WIDTH = 10;
+	private final static int NUMBER_OF_ROUNDS = 5;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		ISequence[] references = new ISequence[NUMBER_OF_SEQUENCE_PAIRS];
+		ISequence[] queries = new ISequence[NUMBER_OF_SEQUENCE_PAIRS];
+		for (int i = 0; i < NUMBER_OF_SEQUENCE_PAIRS; i++) {
+			StringBuilder reference = new StringBuilder();
+			StringBuilder query = new StringBuilder();
+			for (int j = 0; j < SEQUENCE_LENGTH; j++) {
+				char base = "ACGT".charAt(random.nextInt(4));
+				reference.append(base);
+				int mutation = random.nextInt(50);
+				if (mutation == 0) {
+					query.append("ACGT".charAt(random.nextInt(4)));
+				} else if (mutation == 1) {
+					query.append(base).append("ACGT".charAt(random.nextInt(4)));
+				} else if (mutation != 2) {
+					query.append(base);
+				}
+			}
+			references[i] = new IupacNucleotideCodeSequence(reference.toString());
+			queries[i] = new IupacNucleotideCodeSequence(query.toString());
+		}
+
+		IAlignmentScorer scorer = new SimpleAlignmentScorer();
+		for (int round = 0; round < NUMBER_OF_ROUNDS; round++) {
+			timeAlignments(references, queries, scorer, 0, NUMBER_OF_ALIGNMENTS / 10);
+			long nwNanoseconds = timeAlignments(references, queries, scorer, 0, NUMBER_OF_ALIGNMENTS);
+			timeAlignments(references, queries, scorer, 1, NUMBER_OF_ALIGNMENTS);
+			long fastNanoseconds = timeAlignments(references, queries, scorer, 1, NUMBER_OF_ALIGNMENTS);
+			timeAlignments(references, queries, scorer, 2, NUMBER_OF_ALIGNMENTS);
+			long bandedNanoseconds = timeAlignments(references, queries, scorer, 2, NUMBER_OF_ALIGNMENTS);
+			System.out.println("round " + (round + 1) + " NeedlemanWunschGlobalAlignment: " + formatTime(nwNanoseconds) + "  FastNeedlemanWunschGlobalAlignment: " + formatTime(fastNanoseconds)
+					+ "  FastNeedlemanWunschGlobalAlignment(band " + BAND_WIDTH + "): " + formatTime(bandedNanoseconds) + "  speedup: " + (nwNanoseconds / Math.max(1, fastNanoseconds)) + "x/"
+					+ (nwNanoseconds / Math.max(1, bandedNanoseconds)) + "x");
+		}
+	}
+
+	private static long timeAlignments(ISequence[] references, ISequence[] queries, IAlignmentScorer scorer, int implementation, int numberOfAlignments) {
+		long start = System.nanoTime();
+		double totalScore = 0;
+		for (int i = 0; i < numberOfAlignments; i++) {
+			ISequence reference = references[i % references.length];
+			ISequence query = queries[i % queries.length];
+			if (implementation == 0) {
+				totalScore += new NeedlemanWunschGlobalAlignment(reference, query, scorer).getAlignmentScore();
+			} else if (implementation == 1) {
+				totalScore += new FastNeedlemanWunschGlobalAlignment(reference, query, scorer).getAlignmentScore();
+			} else {
+				totalScore += new FastNeedlemanWunschGlobalAlignment(reference, query, scorer, BAND_WIDTH).getAlignmentScore();
+			}
+		}
+		long nanoseconds = System.nanoTime() - start;
+		if (totalScore == Double.MIN_VALUE) {
+			// keep the JIT from removing the alignments
+			System.out.println(totalScore);
+		}
+		return nanoseconds / numberOfAlignments;
+	}
+
+	private static String formatTime(long nanosecondsPerAlignment) {
+		return (nanosecondsPerAlignment / 1000) + " us/alignment";
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.alignment;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+import com.roche.sequencing.bioinformatics.common.sequence.NucleotideCodeSequence;
+
+public class FastNeedlemanWunschGlobalAlignmentTest {
+
+	private final static IAlignmentScorer[] SCORERS = new IAlignmentScorer[] { new SimpleAlignmentScorer(), new SimpleAlignmentScorer(5, -4, -10, -15, false),
+			new SimpleAlignmentScorer(2, -3, -1, -5, true), new SimpleAlignmentScorer(1, -1, -1, -2, true, false), new SimpleAlignmentScorer(1, -1, 0, 0, false) };
+
+	@Test(groups = { "unit" })
+	public void matchesNeedlemanWunschGlobalAlignmentTest() {
+		Random random = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			ISequence reference = createRandomSequence(random, random.nextInt(40), "ACGT");
+			ISequence query = mutate(random, reference);
+			if (i % 5 == 0) {
+				query = createRandomSequence(random, random.nextInt(40), "ACGTN");
+			}
+			IAlignmentScorer scorer = SCORERS[i % SCORERS.length];
+			assertSameAlignment(new FastNeedlemanWunschGlobalAlignment(reference, query, scorer), new NeedlemanWunschGlobalAlignment(reference, query, scorer));
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void nucleotideCodeSequenceTest() {
+		ISequence reference = new NucleotideCodeSequence("ACTGAAATTTGGGCCCAGTCTAAATTTTT");
+		ISequence query = new NucleotideCodeSequence("ATTTGGGCCAGTC");
+		assertSameAlignment(new FastNeedlemanWunschGlobalAlignment(reference, query), new NeedlemanWunschGlobalAlignment(reference, query));
+		assertSameAlignment(new FastNeedlemanWunschGlobalAlignment(query, reference), new NeedlemanWunschGlobalAlignment(query, reference));
+	}
+
+	@Test(groups = { "unit" })
+	public void bandedAlignmentTest() {
+		Random random = new Random(2);
+		for (int i = 0; i < 500; i++) {
+			ISequence reference = createRandomSequence(random, 20 + random.nextInt(60), "ACGT");
+			ISequence query = mutate(random, reference);
+			IAlignmentScorer scorer = SCORERS[i % SCORERS.length];
+			// a band as wide as the longest sequence covers the whole matrix
+			int bandWidth = Math.max(reference.size(), query.size());
+			assertSameAlignment(new FastNeedlemanWunschGlobalAlignment(reference, query, scorer, bandWidth), new NeedlemanWunschGlobalAlignment(reference, query, scorer));
+
+			// a narrow band still has to produce a valid alignment of the complete sequences
+			FastNeedlemanWunschGlobalAlignment bandedAlignment = new FastNeedlemanWunschGlobalAlignment(reference, query, scorer, 2);
+			Assert.assertEquals(removeGaps(bandedAlignment.getAlignmentPair().getReferenceAlignment()), reference.toString());
+			Assert.assertEquals(removeGaps(bandedAlignment.getAlignmentPair().getQueryAlignment()), query.toString());
+			Assert.assertTrue(bandedAlignment.getAlignmentScore() <= new FastNeedlemanWunschGlobalAlignment(reference, query, scorer).getAlignmentScore());
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void alignmentSummaryTest() {
+		Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			ISequence reference = createRandomSequence(random, random.nextInt(40), "ACGT");
+			ISequence query = mutate(random, reference);
+			if (i % 3 == 0) {
+				// reads which only partially overlap the probe have terminal gaps on both sequences
+				query = createRandomSequence(random, random.nextInt(20), "ACGTN").append(query.subSequence(random.nextInt(query.size() + 1)));
+			}
+			IAlignmentScorer scorer = SCORERS[i % SCORERS.length];
+			int bandWidth = (i % 2 == 0) ? FastNeedlemanWunschGlobalAlignment.NO_BAND : 3;
+			AlignmentPair alignmentPair = new FastNeedlemanWunschGlobalAlignment(reference, query, scorer, bandWidth).getAlignmentPair();
+			AlignmentSummary summary = new FastNeedlemanWunschGlobalAlignment(reference, query, scorer, bandWidth).getAlignmentSummary();
+			String description = reference + " " + query;
+			Assert.assertEquals(summary.getAlignmentScore(), new FastNeedlemanWunschGlobalAlignment(reference, query, scorer, bandWidth).getAlignmentScore(), description);
+			Assert.assertEquals(summary.getNumberOfMatches(), alignmentPair.getNumberOfMatches(), description);
+			Assert.assertEquals(summary.getNumberOfMismatches(), alignmentPair.getNumberOfMismatches(), description);
+			Assert.assertEquals(summary.getNumberOfNonTerminalGaps(), alignmentPair.getNumberOfNonTerminalGaps(), description);
+			Assert.assertEquals(summary.getFirstNonInsertQueryMatchInReference(), alignmentPair.getFirstNonInsertQueryMatchInReference(), description);
+		}
+	}
+
+	private static void assertSameAlignment(FastNeedlemanWunschGlobalAlignment fastAlignment, NeedlemanWunschGlobalAlignment alignment) {
+		String description = alignment.getReferenceSequence() + " " + alignment.getQuerySequence();
+		Assert.assertEquals(fastAlignment.getAlignmentPair().getReferenceAlignment(), alignment.getAlignmentPair().getReferenceAlignment(), description);
+		Assert.assertEquals(fastAlignment.getAlignmentPair().getQueryAlignment(), alignment.getAlignmentPair().getQueryAlignment(), description);
+		Assert.assertEquals(fastAlignment.getAlignmentScore(), alignment.getAlignmentScore(), description);
+		Assert.assertEquals(fastAlignment.getCigarString().getCigarString(true, true), alignment.getCigarString().getCigarString(true, true), description);
+		Assert.assertEquals(fastAlignment.getMismatchDetails(), alignment.getMismatchDetails(), description);
+		Assert.assertEquals(fastAlignment.getIndexOfFirstMatchInReference(), alignment.getIndexOfFirstMatchInReference(), description);
+	}
+
+	private static ISequence createRandomSequence(Random random, int length, String alphabet) {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return new IupacNucleotideCodeSequence(sequence.toString());
+	}
+
+	private static ISequence mutate(Random random, ISequence sequence) {
+		String bases = "ACGTRYN";
+		StringBuilder mutatedSequence = new StringBuilder();
+		for (int i = 0; i < sequence.size(); i++) {
+			int mutation = random.nextInt(20);
+			if (mutation == 0) {
+				// deletion
+			} else if (mutation == 1) {
+				mutatedSequence.append(sequence.getCodeAt(i).toString()).append(bases.charAt(random.nextInt(bases.length())));
+			} else if (mutation == 2) {
+				mutatedSequence.append(bases.charAt(random.nextInt(bases.length())));
+			} else {
+				mutatedSequence.append(sequence.getCodeAt(i).toString());
+			}
+		}
+		return new IupacNucleotideCodeSequence(mutatedSequence.toString());
+	}
+
+	private static String removeGaps(ISequence alignment) {
+		return alignment.toString().replace("_", "");
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.roche.sequencing.bioinformatics.common.fastqtool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
+import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
+
+public class FastqFindAndTrimToolTest {
+
+	private final static int NUMBER_OF_RECORDS = 2500;
+	private final static String[] SEQUENCES_TO_FIND = new String[] { "ACGTTGCATGCAAGTCCGTA", "TTGACCGATAGGCTAACGTC", "GGCATTACGGATCCATGACT" };
+	private final static char[] BASES = new char[] { 'A', 'C', 'G', 'T' };
+
+	@Test(groups = { "unit" })
+	public void parallelFindAndTrimMatchesSequentialTest() throws IOException {
+		File directory = FileUtil.getTempDirectory();
+		File inputDirectory = new File(directory, "find_and_trim_input_" + System.nanoTime());
+		try {
+			FileUtil.createDirectory(inputDirectory);
+			File fastqFile = new File(inputDirectory, "reads.fastq");
+			FileUtil.writeStringToFile(fastqFile, createFastq());
+			StringBuilder sequences = new StringBuilder("ID" + StringUtil.TAB + "SEQUENCE" + StringUtil.NEWLINE);
+			for (int i = 0; i < SEQUENCES_TO_FIND.length; i++) {
+				sequences.append("sequence" + i + StringUtil.TAB + SEQUENCES_TO_FIND[i] + StringUtil.NEWLINE);
+			}
+			File sequencesFile = new File(inputDirectory, "sequences.seq");
+			FileUtil.writeStringToFile(sequencesFile, sequences.toString());
+
+			File sequentialDirectory = findAndTrim(inputDirectory, fastqFile, sequencesFile, 1);
+			File parallelDirectory = findAndTrim(inputDirectory, fastqFile, sequencesFile, 3);
+
+			for (String fileName : new String[] { "MATCH_reads.fastq", "NO_MATCH_reads.fastq", "MULTIPLE_MATCHES_reads.fastq", "FIND_ALIGNMENT.TXT", "FIND_LOG.TXT",
+					"SEQUENCE_SEARCH_FIND_SUMMARY.TXT" }) {
+				String sequentialText = FileUtil.readFileAsString(new File(sequentialDirectory, fileName));
+				Assert.assertEquals(FileUtil.readFileAsString(new File(parallelDirectory, fileName)), sequentialText, fileName);
+			}
+			Assert.assertTrue(FileUtil.readFileAsString(new File(sequentialDirectory, "MATCH_reads.fastq")).length() > 0);
+			Assert.assertTrue(FileUtil.readFileAsString(new File(sequentialDirectory, "NO_MATCH_reads.fastq")).length() > 0);
+
+			// the summary starts with the date it was written
+			String sequentialSummary = FileUtil.readFileAsString(new File(sequentialDirectory, "FASTQ_FIND_SUMMARY.TXT"));
+			String parallelSummary = FileUtil.readFileAsString(new File(parallelDirectory, "FASTQ_FIND_SUMMARY.TXT"));
+			Assert.assertEquals(parallelSummary.substring(parallelSummary.indexOf(StringUtil.NEWLINE)), sequentialSummary.substring(sequentialSummary.indexOf(StringUtil.NEWLINE)));
+			Assert.assertTrue(sequentialSummary.contains("TOTAL_READS:" + StringUtil.TAB + NUMBER_OF_RECORDS));
+		} finally {
+			FileUtil.deleteDirectory(inputDirectory);
+		}
+	}
+
+	private static File findAndTrim(File inputDirectory, File fastqFile, File sequencesFile, int numberOfThreads) throws IOException {
+		File outputDirectory = new File(inputDirectory, "output_" + numberOfThreads);
+		StringBuilder settings = new StringBuilder();
+		settings.append("FIND:" + StringUtil.NEWLINE);
+		settings.append("  - Include_Forward_Version_Of_Search_Sequence" + StringUtil.NEWLINE);
+		settings.append("  - Allowed_Mismatch_Bases: 2" + StringUtil.NEWLINE);
+		settings.append("  - Allowed_Insertion_Gaps: 1" + StringUtil.NEWLINE);
+		settings.append("  - Allowed_Deletion_Gaps: 1" + StringUtil.NEWLINE);
+		settings.append("TRIM:" + StringUtil.NEWLINE);
+		settings.append("  - Keep_Found_Text_In_Output" + StringUtil.NEWLINE);
+		settings.append("  - Put_Entries_With_Multiple_Matches_In_Own_File" + StringUtil.NEWLINE);
+		settings.append("  - Put_Entries_With_No_Matches_In_Own_File" + StringUtil.NEWLINE);
+		settings.append("  - Leading_Quality_Trim_Threshold: 20" + StringUtil.NEWLINE);
+		settings.append("OUTPUT:" + StringUtil.NEWLINE);
+		settings.append("  - Output_Files_In_Designated_Directory: " + outputDirectory.getAbsolutePath() + StringUtil.NEWLINE);
+		settings.append("  - Output_Sequence_Search_Find_Summary" + StringUtil.NEWLINE);
+		settings.append("  - Output_Fastq_Find_Summary" + StringUtil.NEWLINE);
+		settings.append("  - Output_Find_Alignment" + StringUtil.NEWLINE);
+		settings.append("  - Output_Find_Log" + StringUtil.NEWLINE);
+		settings.append("THREADS: " + numberOfThreads + StringUtil.NEWLINE);
+		File settingsFile = new File(inputDirectory, "settings_" + numberOfThreads + ".cfg");
+		FileUtil.writeStringToFile(settingsFile, settings.toString());
+
+		FastqFindAndTrimTool.runTool(new String[] { settingsFile.getAbsolutePath(), fastqFile.getAbsolutePath(), sequencesFile.getAbsolutePath() });
+		return new File(outputDirectory, "reads");
+	}
+
+	private static String createFastq() {
+		Random random = new Random(7);
+		StringBuilder fastq = new StringBuilder();
+		for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+			StringBuilder read = new StringBuilder();
+			for (int j = 0; j < 20; j++) {
+				read.append(BASES[random.nextInt(BASES.length)]);
+			}
+			if (i % 3 != 0) {
+				read.append(SEQUENCES_TO_FIND[random.nextInt(SEQUENCES_TO_FIND.length)]);
+			}
+			for (int j = 0; j < 20; j++) {
+				read.append(BASES[random.nextInt(BASES.length)]);
+			}
+			String quality = StringUtil.repeatString("I", read.length());
+			if (i % 5 == 0) {
+				// low quality leading bases which are trimmed
+				quality = "##" + quality.substring(2);
+			}
+			fastq.append("@read" + i + " 1:N:0:1" + StringUtil.NEWLINE + read + StringUtil.NEWLINE + "+" + StringUtil.NEWLINE + quality + StringUtil.NEWLINE);
+		}
+		return fastq.toString();
+	}
+
+}
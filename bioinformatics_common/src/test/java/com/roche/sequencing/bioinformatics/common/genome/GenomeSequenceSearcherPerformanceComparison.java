@@ -0,0 +1,100 @@
+package com.roche.sequencing.bioinformatics.common.genome;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.roche.sequencing.bioinformatics.common.genome.GenomeSequenceSearcher.LookupResultTypeEnum;
+import com.roche.sequencing.bioinformatics.common.genome.GenomeSequenceSearcher.StrandedLookupResult;
+import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+
+/**
+ * Compares the lookups per second of the in memory, file based and memory mapped genome sequence searchers on a randomly generated genome. Each searcher is timed one sequence at a time and, for the
+ * memory mapped searcher, with searchBatch.
+ */
+public class GenomeSequenceSearcherPerformanceComparison {
+
+	private final static int CONTAINER_LENGTH = 1000000;
+	private final static int MAX_HITS_PER_SEQUENCE = 20;
+	private final static int QUERY_LENGTH = 40;
+	private final static int NUMBER_OF_QUERIES = 100000;
+	private final static int NUMBER_OF_THREADS = 8;
+	private final static int NUMBER_OF_ROUNDS = 3;
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(0);
+		StringBuilder containerSequence = new StringBuilder();
+		for (int i = 0; i < CONTAINER_LENGTH; i++) {
+			containerSequence.append("ACGT".charAt(random.nextInt(4)));
+		}
+
+		File fastaFile = File.createTempFile("gss_performance_", ".fa");
+		File genomeFile = File.createTempFile("gss_performance_", ".gnm");
+		File bitSetSearcherFile = File.createTempFile("gss_performance_", ".gss");
+		File mappedSearcherFile = File.createTempFile("gss_performance_", ".mgss");
+		try {
+			try (OutputStream outputStream = new FileOutputStream(fastaFile)) {
+				outputStream.write((">chr1\n" + containerSequence + "\n").getBytes(StandardCharsets.ISO_8859_1));
+			}
+			GenomeMaker.createGenomeFileFromFastaDirectory(fastaFile, genomeFile);
+			Genome genome = new Genome(genomeFile);
+
+			GenomeSequenceSearcher inMemorySearcher = GenomeSequenceSearcher.createGenomeSearcherFromGenome(genome, MAX_HITS_PER_SEQUENCE);
+			inMemorySearcher.saveGenomeSearcherToFile(bitSetSearcherFile);
+			inMemorySearcher.saveMappedGenomeSearcherToFile(mappedSearcherFile);
+			GenomeSequenceSearcher fileBasedSearcher = GenomeSequenceSearcher.createFileBasedGenomeSequenceSearcherFromFile(bitSetSearcherFile, genome);
+			GenomeSequenceSearcher mappedSearcher = GenomeSequenceSearcher.createMappedGenomeSequenceSearcherFromFile(mappedSearcherFile, genome);
+
+			List<ISequence> queries = new ArrayList<ISequence>();
+			for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+				int start = random.nextInt(CONTAINER_LENGTH - QUERY_LENGTH);
+				queries.add(new IupacNucleotideCodeSequence(containerSequence.substring(start, start + QUERY_LENGTH)));
+			}
+
+			for (int round = 0; round < NUMBER_OF_ROUNDS; round++) {
+				System.out.println("round " + (round + 1));
+				System.out.println("  in memory: " + timeSearches(inMemorySearcher, queries));
+				System.out.println("  file based: " + timeSearches(fileBasedSearcher, queries));
+				System.out.println("  memory mapped: " + timeSearches(mappedSearcher, queries));
+				System.out.println("  memory mapped batch of " + NUMBER_OF_THREADS + " threads: " + timeBatchSearch(mappedSearcher, queries));
+			}
+			genome.close();
+		} finally {
+			fastaFile.delete();
+			genomeFile.delete();
+			bitSetSearcherFile.delete();
+			mappedSearcherFile.delete();
+		}
+	}
+
+	private static String timeSearches(GenomeSequenceSearcher searcher, List<ISequence> queries) {
+		long start = System.currentTimeMillis();
+		List<StrandedLookupResult> results = new ArrayList<StrandedLookupResult>();
+		for (ISequence query : queries) {
+			results.add(searcher.search(query));
+		}
+		return getSummary(results, System.currentTimeMillis() - start);
+	}
+
+	private static String timeBatchSearch(GenomeSequenceSearcher searcher, List<ISequence> queries) {
+		long start = System.currentTimeMillis();
+		List<StrandedLookupResult> results = searcher.searchBatch(queries, NUMBER_OF_THREADS);
+		return getSummary(results, System.currentTimeMillis() - start);
+	}
+
+	private static String getSummary(List<StrandedLookupResult> results, long timeInMs) {
+		int matches = 0;
+		for (StrandedLookupResult result : results) {
+			if (result.getLookupResultType() == LookupResultTypeEnum.RESULTS) {
+				matches++;
+			}
+		}
+		return (results.size() * 1000L / Math.max(1, timeInMs)) + " searches per second matches[" + matches + "]";
+	}
+}
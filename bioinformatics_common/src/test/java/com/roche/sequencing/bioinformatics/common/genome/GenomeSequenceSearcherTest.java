@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.genome;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.genome.GenomeSequenceSearcher.LookupResult;
+import com.roche.sequencing.bioinformatics.common.genome.GenomeSequenceSearcher.StrandedLookupResult;
+import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+import com.roche.sequencing.bioinformatics.common.sequence.Strand;
+
+public class GenomeSequenceSearcherTest {
+
+	private final static int CONTAINER_LENGTH = 20000;
+	private final static int MAX_HITS_PER_SEQUENCE = 3;
+
+	@Test(groups = { "unit" })
+	public void mappedSearcherTest() throws IOException {
+		Random random = new Random(0);
+		String firstContainer = createSequence(random, CONTAINER_LENGTH);
+		// repeat part of the first container so some lookups have several hits
+		String secondContainer = firstContainer.substring(5000, 5500) + createSequence(random, CONTAINER_LENGTH);
+		File genomeFile = createGenomeFile(new String[] { firstContainer, secondContainer });
+		File mappedSearcherFile = File.createTempFile("genome_sequence_searcher_test_", ".gss");
+		try {
+			Genome genome = new Genome(genomeFile);
+			GenomeSequenceSearcher inMemorySearcher = GenomeSequenceSearcher.createGenomeSearcherFromGenome(genome, MAX_HITS_PER_SEQUENCE);
+			inMemorySearcher.saveMappedGenomeSearcherToFile(mappedSearcherFile);
+			GenomeSequenceSearcher mappedSearcher = GenomeSequenceSearcher.createMappedGenomeSequenceSearcherFromFile(mappedSearcherFile, genome);
+
+			for (int start = 1; start < 2 * CONTAINER_LENGTH; start += 97) {
+				int numberForSequence = GenomeSequenceSearcher.getNumberForSequence(new IupacNucleotideCodeSequence(firstContainer.substring(start % 10000, (start % 10000) + 11)));
+				assertLookupResultsMatch(mappedSearcher.lookupSequence(numberForSequence), inMemorySearcher.lookupSequence(numberForSequence));
+				assertLookupResultsMatch(mappedSearcher.lookupSequence(start), inMemorySearcher.lookupSequence(start));
+			}
+
+			StrandedLookupResult uniqueResult = mappedSearcher.search(new IupacNucleotideCodeSequence(firstContainer.substring(100, 130)));
+			Assert.assertEquals(uniqueResult.getFoundCoordinates(), Collections.singletonList(new StrandedGenomicRangedCoordinate("chr1", Strand.FORWARD, 101, 130)));
+
+			List<ISequence> sequences = new ArrayList<ISequence>();
+			for (int i = 0; i < 200; i++) {
+				int start = random.nextInt(CONTAINER_LENGTH - 50);
+				String sequence = firstContainer.substring(start, start + 30);
+				if (i % 2 == 0) {
+					sequence = secondContainer.substring(start, start + 30);
+				}
+				sequences.add(new IupacNucleotideCodeSequence(sequence));
+			}
+			List<StrandedLookupResult> batchResults = mappedSearcher.searchBatch(sequences, 3);
+			Assert.assertEquals(batchResults.size(), sequences.size());
+			for (int i = 0; i < sequences.size(); i++) {
+				StrandedLookupResult expectedResult = inMemorySearcher.search(sequences.get(i));
+				StrandedLookupResult batchResult = batchResults.get(i);
+				Assert.assertEquals(batchResult.getLookupResultType(), expectedResult.getLookupResultType());
+				if (expectedResult.getFoundCoordinates() != null) {
+					Assert.assertEquals(new HashSet<StrandedGenomicRangedCoordinate>(batchResult.getFoundCoordinates()),
+							new HashSet<StrandedGenomicRangedCoordinate>(expectedResult.getFoundCoordinates()));
+				}
+			}
+			genome.close();
+		} finally {
+			genomeFile.delete();
+			mappedSearcherFile.delete();
+		}
+	}
+
+	private static void assertLookupResultsMatch(LookupResult actual, LookupResult expected) {
+		Assert.assertEquals(actual.getLookupResultType(), expected.getLookupResultType());
+		Assert.assertEquals(actual.getFoundCoordinates(), expected.getFoundCoordinates());
+	}
+
+	private static String createSequence(Random random, int length) {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append("ACGT".charAt(random.nextInt(4)));
+		}
+		return sequence.toString();
+	}
+
+	private static File createGenomeFile(String[] containerSequences) throws IOException {
+		File fastaFile = File.createTempFile("genome_sequence_searcher_test_", ".fa");
+		File genomeFile = File.createTempFile("genome_sequence_searcher_test_", ".gnm");
+		try {
+			StringBuilder fastaText = new StringBuilder();
+			for (int i = 0; i < containerSequences.length; i++) {
+				fastaText.append(">chr" + (i + 1) + "\n" + containerSequences[i] + "\n");
+			}
+			try (OutputStream outputStream = new FileOutputStream(fastaFile)) {
+				outputStream.write(fastaText.toString().getBytes(StandardCharsets.ISO_8859_1));
+			}
+			GenomeMaker.createGenomeFileFromFastaDirectory(fastaFile, genomeFile);
+		} finally {
+			fastaFile.delete();
+		}
+		return genomeFile;
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.genome;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class GenomeTest {
+
+	// long enough for a container to span several cached windows
+	private final static int FIRST_CONTAINER_LENGTH = 200000;
+	private final static int SECOND_CONTAINER_LENGTH = 1001;
+	private final static String NUCLEOTIDES = "ACGTN";
+
+	@Test(groups = { "unit" })
+	public void getSequenceTest() throws IOException {
+		String[] containerSequences = createContainerSequences();
+		File genomeFile = createGenomeFile(containerSequences);
+		try {
+			for (int numberOfCachedWindows : new int[] { 0, 2 }) {
+				Genome genome = new Genome(genomeFile, numberOfCachedWindows);
+				try {
+					Assert.assertEquals(genome.getContainerSize("chr1"), FIRST_CONTAINER_LENGTH);
+					Random random = new Random(1);
+					for (int i = 0; i < 500; i++) {
+						assertSequenceMatches(genome, containerSequences, random);
+					}
+					// the start and end are swapped when given in reverse
+					Assert.assertEquals(genome.getSequence("chr2", 20, 11).toString(), containerSequences[1].substring(10, 20));
+					Assert.assertNull(genome.getSequence("chr3", 1, 10));
+				} finally {
+					genome.close();
+				}
+			}
+		} finally {
+			genomeFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void concurrentGetSequenceTest() throws IOException, InterruptedException, ExecutionException {
+		final String[] containerSequences = createContainerSequences();
+		File genomeFile = createGenomeFile(containerSequences);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final Genome genome = new Genome(genomeFile, 2);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 4; i++) {
+				final Random random = new Random(i);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int j = 0; j < 500; j++) {
+							assertSequenceMatches(genome, containerSequences, random);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			genome.close();
+		} finally {
+			executor.shutdown();
+			genomeFile.delete();
+		}
+	}
+
+	private static void assertSequenceMatches(Genome genome, String[] containerSequences, Random random) {
+		int containerIndex = random.nextInt(containerSequences.length);
+		String containerSequence = containerSequences[containerIndex];
+		int start = 1 + random.nextInt(containerSequence.length() - 1);
+		int end = Math.min(containerSequence.length(), start + random.nextInt(100000));
+		String sequence = genome.getSequence("chr" + (containerIndex + 1), start, end).toString();
+		Assert.assertEquals(sequence, containerSequence.substring(start - 1, end));
+	}
+
+	private static String[] createContainerSequences() {
+		Random random = new Random(0);
+		String[] containerSequences = new String[] { createSequence(random, FIRST_CONTAINER_LENGTH), createSequence(random, SECOND_CONTAINER_LENGTH) };
+		return containerSequences;
+	}
+
+	private static String createSequence(Random random, int length) {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append(NUCLEOTIDES.charAt(random.nextInt(NUCLEOTIDES.length())));
+		}
+		return sequence.toString();
+	}
+
+	private static File createGenomeFile(String[] containerSequences) throws IOException {
+		File fastaFile = File.createTempFile("genome_test_", ".fa");
+		File genomeFile = File.createTempFile("genome_test_", ".gnm");
+		try {
+			StringBuilder fastaText = new StringBuilder();
+			for (int i = 0; i < containerSequences.length; i++) {
+				fastaText.append(">chr" + (i + 1) + " test container\n");
+				for (int lineStart = 0; lineStart < containerSequences[i].length(); lineStart += 60) {
+					fastaText.append(containerSequences[i].substring(lineStart, Math.min(containerSequences[i].length(), lineStart + 60)) + "\n");
+				}
+			}
+			try (OutputStream outputStream = new FileOutputStream(fastaFile)) {
+				outputStream.write(fastaText.toString().getBytes(StandardCharsets.ISO_8859_1));
+			}
+			GenomeMaker.createGenomeFileFromFastaDirectory(fastaFile, genomeFile);
+		} finally {
+			fastaFile.delete();
+		}
+		return genomeFile;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.genome;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
+import com.roche.sequencing.bioinformatics.common.sequence.NucleotideCodeSequence;
+
+public class NMerGenomeTrackerTest {
+
+	private final static String[] BASES = new String[] { "A", "C", "G", "T" };
+
+	@Test(groups = { "unit" })
+	public void exactTrackerTest() throws IOException {
+		int nMerLength = 6;
+		String[] containers = createContainers();
+		File fastaFile = createFastaFile(containers);
+		File trackerFile = File.createTempFile("nmer_genome_tracker_test_", ".nmer");
+		try {
+			for (boolean includeReverseCompliment : new boolean[] { false, true }) {
+				Map<String, Integer> counts = countNMers(containers, nMerLength, includeReverseCompliment);
+				NMerGenomeTracker singleThreadTracker = NMerGenomeTracker.createNMerGenomeTrackerFromFastaDirectory(fastaFile, trackerFile, nMerLength, includeReverseCompliment, 1);
+				NMerGenomeTracker multipleThreadTracker = NMerGenomeTracker.createNMerGenomeTrackerFromFastaDirectory(fastaFile, trackerFile, nMerLength, includeReverseCompliment, 3);
+				NMerGenomeTracker loadedTracker = NMerGenomeTracker.createNMerGenomeTrackerFromFile(trackerFile, nMerLength);
+				for (int i = 0; i < (1 << (2 * nMerLength)); i++) {
+					String nMer = getNMer(i, nMerLength);
+					Integer count = counts.get(nMer);
+					boolean expected = count != null && count > 1;
+					ISequence sequence = new NucleotideCodeSequence(nMer);
+					Assert.assertEquals(singleThreadTracker.isContainedMoreThanOnce(sequence), expected, nMer);
+					Assert.assertEquals(multipleThreadTracker.isContainedMoreThanOnce(sequence), expected, nMer);
+					Assert.assertEquals(loadedTracker.isContainedMoreThanOnce(sequence), expected, nMer);
+				}
+				Assert.assertEquals(singleThreadTracker.getEstimatedFalsePositiveRate(), 0.0);
+			}
+		} finally {
+			fastaFile.delete();
+			trackerFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void probabilisticTrackerTest() throws IOException {
+		int nMerLength = 14;
+		String[] containers = createContainers();
+		File fastaFile = createFastaFile(containers);
+		File trackerFile = File.createTempFile("nmer_genome_tracker_test_", ".nmer");
+		try {
+			Map<String, Integer> counts = countNMers(containers, nMerLength, true);
+			NMerGenomeTracker tracker = NMerGenomeTracker.createProbabilisticNMerGenomeTrackerFromFastaDirectory(fastaFile, trackerFile, nMerLength, true, 1 << 18, 3, 2);
+			NMerGenomeTracker loadedTracker = NMerGenomeTracker.createProbabilisticNMerGenomeTrackerFromFile(trackerFile, nMerLength, 3);
+
+			int numberOfNMersNotContainedMoreThanOnce = 0;
+			int numberOfFalsePositives = 0;
+			for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+				ISequence sequence = new NucleotideCodeSequence(entry.getKey());
+				boolean isContainedMoreThanOnce = tracker.isContainedMoreThanOnce(sequence);
+				Assert.assertEquals(loadedTracker.isContainedMoreThanOnce(sequence), isContainedMoreThanOnce);
+				if (entry.getValue() > 1) {
+					// there are never false negatives
+					Assert.assertTrue(isContainedMoreThanOnce, entry.getKey());
+				} else {
+					numberOfNMersNotContainedMoreThanOnce++;
+					if (isContainedMoreThanOnce) {
+						numberOfFalsePositives++;
+					}
+				}
+			}
+			Random random = new Random(1);
+			for (int i = 0; i < 10000; i++) {
+				String nMer = getNMer(random.nextInt(1 << (2 * nMerLength)), nMerLength);
+				if (!counts.containsKey(nMer)) {
+					numberOfNMersNotContainedMoreThanOnce++;
+					if (tracker.isContainedMoreThanOnce(new NucleotideCodeSequence(nMer))) {
+						numberOfFalsePositives++;
+					}
+				}
+			}
+			double falsePositiveRate = numberOfFalsePositives / (double) numberOfNMersNotContainedMoreThanOnce;
+			double estimatedFalsePositiveRate = tracker.getEstimatedFalsePositiveRate();
+			Assert.assertTrue(estimatedFalsePositiveRate > 0 && estimatedFalsePositiveRate < 0.05, "estimate:" + estimatedFalsePositiveRate);
+			Assert.assertTrue(falsePositiveRate < estimatedFalsePositiveRate + 0.01, "measured:" + falsePositiveRate + " estimate:" + estimatedFalsePositiveRate);
+		} finally {
+			fastaFile.delete();
+			trackerFile.delete();
+		}
+	}
+
+	private static String[] createContainers() {
+		Random random = new Random(0);
+		String[] containers = new String[] { createSequence(random, 5000), createSequence(random, 3000) };
+		// repeats and a run of N's which are skipped
+		containers[1] = containers[1] + "NNNNNNNNNN" + containers[0].substring(100, 400);
+		return containers;
+	}
+
+	private static Map<String, Integer> countNMers(String[] containers, int nMerLength, boolean includeReverseCompliment) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (String container : containers) {
+			for (int i = 0; i + nMerLength <= container.length(); i++) {
+				String nMer = container.substring(i, i + nMerLength);
+				if (!nMer.contains("N")) {
+					increment(counts, nMer);
+					if (includeReverseCompliment) {
+						increment(counts, new NucleotideCodeSequence(nMer).getReverseCompliment().toString());
+					}
+				}
+			}
+		}
+		return counts;
+	}
+
+	private static void increment(Map<String, Integer> counts, String nMer) {
+		Integer count = counts.get(nMer);
+		counts.put(nMer, count == null ? 1 : count + 1);
+	}
+
+	private static String getNMer(int number, int nMerLength) {
+		StringBuilder nMer = new StringBuilder();
+		for (int i = nMerLength - 1; i >= 0; i--) {
+			nMer.append(BASES[(number >>> (2 * i)) & 3]);
+		}
+		return nMer.toString();
+	}
+
+	private static String createSequence(Random random, int length) {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append(BASES[random.nextInt(BASES.length)]);
+		}
+		return sequence.toString();
+	}
+
+	private static File createFastaFile(String[] containers) throws IOException {
+		File fastaFile = File.createTempFile("nmer_genome_tracker_test_", ".fa");
+		StringBuilder fastaText = new StringBuilder();
+		for (int i = 0; i < containers.length; i++) {
+			fastaText.append(">chr" + (i + 1) + "\n" + containers[i] + "\n");
+		}
+		try (OutputStream outputStream = new FileOutputStream(fastaFile)) {
+			outputStream.write(fastaText.toString().getBytes(StandardCharsets.ISO_8859_1));
+		}
+		return fastaFile;
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class CoverageCalculatorTest {
+
+	private final static int REGION_SIZE = 500;
+
+	@Test(groups = { "unit" })
+	public void coverageMatchesBasesTest() {
+		Random random = new Random(11);
+		CoverageCalculator coverageCalculator = new CoverageCalculator();
+		int[] coverageByPosition = new int[REGION_SIZE];
+		for (int i = 0; i < 300; i++) {
+			int start = random.nextInt(REGION_SIZE - 60);
+			int stop = start + random.nextInt(50);
+			coverageCalculator.addRange(start, stop);
+			for (int position = start; position <= stop; position++) {
+				coverageByPosition[position]++;
+			}
+			if (i % 50 == 0) {
+				assertCoverage(coverageCalculator, coverageByPosition, random);
+			}
+		}
+		assertCoverage(coverageCalculator, coverageByPosition, random);
+
+		int maxTally = 0;
+		for (int coverage : coverageByPosition) {
+			maxTally = Math.max(maxTally, coverage);
+		}
+		Assert.assertEquals(coverageCalculator.getMaxTally(), maxTally);
+		for (RangeWithTally range : coverageCalculator.getTalliedRanges()) {
+			for (int position = range.getStart(); position < range.getStop(); position++) {
+				Assert.assertEquals(coverageByPosition[position], range.getCount());
+			}
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void touchingRangesTest() {
+		CoverageCalculator coverageCalculator = new CoverageCalculator();
+		coverageCalculator.addRange(1, 5);
+		coverageCalculator.addRange(6, 10);
+		List<RangeWithTally> talliedRanges = coverageCalculator.getTalliedRanges();
+		Assert.assertEquals(talliedRanges.size(), 2);
+		Assert.assertEquals(talliedRanges.get(0), new RangeWithTally(1, 6, 1));
+		Assert.assertEquals(talliedRanges.get(1), new RangeWithTally(6, 11, 1));
+		Assert.assertEquals(coverageCalculator.toString(), "1(inclusive) to 6(exclusive) : 1" + StringUtil.NEWLINE + "6(inclusive) to 10(inclusive) : 1" + StringUtil.NEWLINE);
+	}
+
+	@Test(groups = { "unit" })
+	public void mappedReadsTest() {
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 10000));
+		List<SAMRecord> records = new ArrayList<SAMRecord>();
+		records.add(createRecord(header, 100, "50M"));
+		records.add(createRecord(header, 120, "20M5D20M"));
+		SAMRecord unmappedRecord = createRecord(header, 130, "40M");
+		unmappedRecord.setReadUnmappedFlag(true);
+		records.add(unmappedRecord);
+
+		CoverageCalculator coverageCalculator = new CoverageCalculator();
+		coverageCalculator.addMappedReads(records.iterator());
+		CoverageStats coverageStats = coverageCalculator.getCoverageStatsForRegionOfInterest(100, 149);
+		Assert.assertEquals(coverageStats.getTotalUniqueBasesCoveredInRegionOfInterest(), 50);
+		Assert.assertEquals(coverageStats.getTotalRedundantBasesCoveredInRegionOfInterest(), 30);
+		Assert.assertEquals(coverageStats.getTotalUniqueBasesOutsideRegionOfInterest(), 15);
+		Assert.assertEquals(coverageStats.getTotalRedundantBasesOutsideRegionOfInterest(), 0);
+		Assert.assertEquals(coverageStats.getTotalBases(), 95);
+	}
+
+	private static SAMRecord createRecord(SAMFileHeader header, int alignmentStart, String cigar) {
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName("read" + alignmentStart);
+		record.setReferenceName("chr1");
+		record.setAlignmentStart(alignmentStart);
+		record.setCigarString(cigar);
+		return record;
+	}
+
+	private static void assertCoverage(CoverageCalculator coverageCalculator, int[] coverageByPosition, Random random) {
+		for (int i = 0; i < 20; i++) {
+			int regionStart = random.nextInt(REGION_SIZE);
+			int regionStop = regionStart + random.nextInt(REGION_SIZE - regionStart);
+			int uniqueInRegion = 0;
+			int redundantInRegion = 0;
+			int uniqueOutsideRegion = 0;
+			int redundantOutsideRegion = 0;
+			int totalBases = 0;
+			for (int position = 0; position < REGION_SIZE; position++) {
+				int coverage = coverageByPosition[position];
+				totalBases += coverage;
+				if (coverage > 0) {
+					if (position >= regionStart && position <= regionStop) {
+						uniqueInRegion++;
+						redundantInRegion += coverage - 1;
+					} else {
+						uniqueOutsideRegion++;
+						redundantOutsideRegion += coverage - 1;
+					}
+				}
+			}
+			CoverageStats coverageStats = coverageCalculator.getCoverageStatsForRegionOfInterest(regionStart, regionStop);
+			Assert.assertEquals(coverageStats.getTotalUniqueBasesCoveredInRegionOfInterest(), uniqueInRegion);
+			Assert.assertEquals(coverageStats.getTotalRedundantBasesCoveredInRegionOfInterest(), redundantInRegion);
+			Assert.assertEquals(coverageStats.getTotalUniqueBasesOutsideRegionOfInterest(), uniqueOutsideRegion);
+			Assert.assertEquals(coverageStats.getTotalRedundantBasesOutsideRegionOfInterest(), redundantOutsideRegion);
+			Assert.assertEquals(coverageStats.getTotalBases(), totalBases);
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class IntTallyMapTest {
+
+	@Test(groups = { "unit" })
+	public void matchesTallyMapTest() {
+		Random random = new Random(7);
+		IntTallyMap intTallyMap = new IntTallyMap(2);
+		TallyMap<Integer> tallyMap = new TallyMap<Integer>();
+		for (int i = 0; i < 20000; i++) {
+			int value = random.nextInt(1000) - 500;
+			intTallyMap.add(value);
+			tallyMap.add(value);
+		}
+		intTallyMap.addMultiple(0, 100);
+		tallyMap.addMultiple(0, 100);
+
+		Assert.assertEquals(intTallyMap.getTalliesAsMap(), tallyMap.getTalliesAsMap());
+		Assert.assertEquals(intTallyMap.size(), tallyMap.getObjects().size());
+		Assert.assertEquals(intTallyMap.getSumOfAllBins(), tallyMap.getSumOfAllBins());
+		Assert.assertEquals(intTallyMap.getLargestCount(), tallyMap.getLargestCount());
+		Assert.assertEquals(intTallyMap.getObjectsWithLargestCount(), tallyMap.getObjectsWithLargestCount());
+		Assert.assertEquals(intTallyMap.getObjectsWithLargestCount().iterator().next(), new Integer(0));
+		Assert.assertFalse(intTallyMap.contains(500));
+		Assert.assertEquals(intTallyMap.getCount(500), 0);
+
+		int previousCount = Integer.MAX_VALUE;
+		for (Entry<Integer, Integer> entry : intTallyMap.getObjectsSortedFromMostTalliesToLeast()) {
+			Assert.assertTrue(entry.getValue() <= previousCount);
+			previousCount = entry.getValue();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void concurrentTallyMapTest() throws InterruptedException {
+		final ConcurrentTallyMap<Integer> tallyMap = new ConcurrentTallyMap<Integer>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int threadIndex = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						tallyMap.add(j % 10);
+					}
+					tallyMap.add(100 + threadIndex);
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		tallyMap.addMultiple(3, 5);
+
+		Assert.assertEquals(tallyMap.getSumOfAllBins(), 40009);
+		Assert.assertEquals(tallyMap.getCount(0), 4000);
+		Assert.assertEquals(tallyMap.getCount(101), 1);
+		Assert.assertEquals(tallyMap.getLargestCount(), 4005);
+		Assert.assertEquals(tallyMap.getObjectsWithLargestCount().size(), 1);
+		Assert.assertTrue(tallyMap.getObjectsWithLargestCount().contains(3));
+		Assert.assertEquals(tallyMap.getObjectsSortedFromMostTalliesToLeast().get(0).getKey(), new Integer(3));
+		Assert.assertTrue(tallyMap.getHistogramAsString().startsWith("3 : 4005"));
+	}
+
+}
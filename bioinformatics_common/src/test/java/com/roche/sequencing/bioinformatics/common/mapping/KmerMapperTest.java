@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+import com.roche.sequencing.bioinformatics.common.sequence.NucleotideCodeSequence;
+
+public class KmerMapperTest {
+
+	private final static char[] BASES = new char[] { 'A', 'C', 'G', 'T' };
+
+	@Test(groups = { "unit" })
+	public void sameCandidatesAsSimpleMapperTest() {
+		Random random = new Random(11);
+		SimpleMapper<Integer> simpleMapper = new SimpleMapper<Integer>(5, 1, 1, 20);
+		KmerMapper<Integer> kmerMapper = new KmerMapper<Integer>(5, 1, 1, 20);
+		List<String> references = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			String reference = createSequence(random, 20 + random.nextInt(20));
+			references.add(reference);
+			simpleMapper.addReferenceSequence(new NucleotideCodeSequence(reference), i);
+			kmerMapper.addReferenceSequence(new NucleotideCodeSequence(reference), i);
+		}
+
+		for (int i = 0; i < 300; i++) {
+			String reference = references.get(random.nextInt(references.size()));
+			String query = createSequence(random, random.nextInt(15)) + mutate(random, reference) + createSequence(random, random.nextInt(15));
+			NucleotideCodeSequence querySequence = new NucleotideCodeSequence(query);
+			Assert.assertEquals(new HashSet<Integer>(kmerMapper.getBestCandidateReferences(querySequence)), new HashSet<Integer>(simpleMapper.getBestCandidateReferences(querySequence)));
+			Assert.assertEquals(new HashSet<Integer>(kmerMapper.getBestCandidateReferences(querySequence, 2, 0.2)),
+					new HashSet<Integer>(simpleMapper.getBestCandidateReferences(querySequence, 2, 0.2)));
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void ambiguousBasesTest() {
+		KmerMapper<String> kmerMapper = new KmerMapper<String>();
+		kmerMapper.addReferenceSequence(new IupacNucleotideCodeSequence("ACGTNACGTNACGTNACG"), "probe1");
+		kmerMapper.addReferenceSequence(new IupacNucleotideCodeSequence("TTGACCARGTTCAGGACTTA"), "probe2");
+
+		// a k-mer holding an N or R only matches a k-mer with the same code in the same place
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(new IupacNucleotideCodeSequence("ACGTNACGTNACGTNACG")), Arrays.asList("probe1"));
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(new IupacNucleotideCodeSequence("acgtnacgtnacgtnacg")), Arrays.asList("probe1"));
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(new IupacNucleotideCodeSequence("ACGTAACGTAACGTAACG")).size(), 0);
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(new IupacNucleotideCodeSequence("TTGACCARGTTCAGGACTTA")), Arrays.asList("probe2"));
+		// the k-mers without the R still find the reference when the query holds a base in its place
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(new IupacNucleotideCodeSequence("TTGACCAGGTTCAGGACTTA")), Arrays.asList("probe2"));
+	}
+
+	@Test(groups = { "unit" })
+	public void removeReferenceTest() {
+		KmerMapper<String> kmerMapper = new KmerMapper<String>();
+		kmerMapper.addReferenceSequence(new NucleotideCodeSequence("TGAAGGGAGGATGGGC"), "chr1");
+		kmerMapper.addReferenceSequence(new NucleotideCodeSequence("ATATATAAT"), "chr2");
+		kmerMapper.addReferenceSequence(new NucleotideCodeSequence("TGAAGGGAGGATGGGC"), "chr3");
+
+		NucleotideCodeSequence querySequence = new NucleotideCodeSequence("TGAAGGGAGGATGGGC");
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(querySequence), Arrays.asList("chr1", "chr3"));
+		kmerMapper.removeReferenceSequenceByAddress("chr1");
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(querySequence), Arrays.asList("chr3"));
+		kmerMapper.removeReferenceSequenceByAddress("chr3");
+		Assert.assertEquals(kmerMapper.getBestCandidateReferences(querySequence).size(), 0);
+	}
+
+	private static String mutate(Random random, String sequence) {
+		StringBuilder mutatedSequence = new StringBuilder(sequence);
+		for (int i = 0; i < 2; i++) {
+			mutatedSequence.setCharAt(random.nextInt(mutatedSequence.length()), BASES[random.nextInt(BASES.length)]);
+		}
+		return mutatedSequence.toString();
+	}
+
+	private static String createSequence(Random random, int length) {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append(BASES[random.nextInt(BASES.length)]);
+		}
+		return sequence.toString();
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.mapping;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LongToIntListMapTest {
+
+	@Test(groups = { "unit" })
+	public void matchesLinkedHashMapTest() {
+		Random random = new Random(1);
+		LongToIntListMap map = new LongToIntListMap(1);
+		Map<Long, List<Integer>> expectedMap = new LinkedHashMap<Long, List<Integer>>();
+		for (int i = 0; i < 10000; i++) {
+			// include zero, negative and colliding keys
+			long key = (random.nextInt(500) - 250) * (1L << 40);
+			map.add(key, i);
+			List<Integer> expectedValues = expectedMap.get(key);
+			if (expectedValues == null) {
+				expectedValues = new ArrayList<Integer>();
+				expectedMap.put(key, expectedValues);
+			}
+			expectedValues.add(i);
+		}
+
+		Assert.assertEquals(map.size(), expectedMap.size());
+		int keyIndex = 0;
+		for (Entry<Long, List<Integer>> entry : expectedMap.entrySet()) {
+			Assert.assertEquals(map.getKey(keyIndex), (long) entry.getKey());
+			assertValuesEqual(map.getValuesByKeyIndex(keyIndex), entry.getValue());
+			assertValuesEqual(map.getValues(entry.getKey()), entry.getValue());
+			keyIndex++;
+		}
+		Assert.assertEquals(map.getValues(12345L).length, 0);
+	}
+
+	@Test(groups = { "unit" })
+	public void longHashSetTest() {
+		Random random = new Random(2);
+		LongHashSet set = new LongHashSet(1);
+		Set<Long> expectedSet = new HashSet<Long>();
+		for (int i = 0; i < 10000; i++) {
+			long value = random.nextInt(3000) - 1500;
+			Assert.assertEquals(set.add(value), expectedSet.add(value));
+		}
+		Assert.assertEquals(set.size(), expectedSet.size());
+		for (long value = -2000; value < 2000; value++) {
+			Assert.assertEquals(set.contains(value), expectedSet.contains(value));
+		}
+	}
+
+	private static void assertValuesEqual(int[] values, List<Integer> expectedValues) {
+		Assert.assertEquals(values.length, expectedValues.size());
+		for (int i = 0; i < values.length; i++) {
+			Assert.assertEquals(values[i], (int) expectedValues.get(i));
+		}
+	}
+
+}
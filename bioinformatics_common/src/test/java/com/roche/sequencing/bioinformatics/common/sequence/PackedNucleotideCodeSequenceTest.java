@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.sequence;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PackedNucleotideCodeSequenceTest {
+
+	@Test(groups = { "unit" })
+	public void matchesIupacNucleotideCodeSequenceTest() {
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			String alphabet = (i % 2 == 0) ? "ACGT" : "ACGTRYSWKMBDHVN_";
+			String sequenceAsString = createRandomSequence(random, random.nextInt(150), alphabet);
+			PackedNucleotideCodeSequence packedSequence = new PackedNucleotideCodeSequence(sequenceAsString);
+			IupacNucleotideCodeSequence iupacSequence = new IupacNucleotideCodeSequence(sequenceAsString);
+
+			Assert.assertEquals(packedSequence.size(), iupacSequence.size());
+			Assert.assertEquals(packedSequence.toString(), iupacSequence.toString());
+			Assert.assertEquals(packedSequence.getReverseCompliment().toString(), iupacSequence.getReverseCompliment().toString(), sequenceAsString);
+			Assert.assertEquals(packedSequence.getReverse().toString(), iupacSequence.getReverse().toString(), sequenceAsString);
+			Assert.assertEquals(packedSequence.getCompliment().toString(), iupacSequence.getCompliment().toString(), sequenceAsString);
+			Assert.assertEquals(packedSequence.getGCPercent(), iupacSequence.getGCPercent());
+			for (ICode code : new ICode[] { IupacNucleotideCode.A, IupacNucleotideCode.GAP, IupacNucleotideCode.R, NucleotideCode.CYTOSINE }) {
+				Assert.assertEquals(packedSequence.contains(code), iupacSequence.contains(code), sequenceAsString + " " + code);
+			}
+
+			int start = random.nextInt(sequenceAsString.length() + 1);
+			int end = start + random.nextInt(sequenceAsString.length() + 1);
+			Assert.assertEquals(packedSequence.subSequence(start, end).toString(), iupacSequence.subSequence(start, end).toString());
+
+			Assert.assertEquals(new PackedNucleotideCodeSequence(iupacSequence), packedSequence);
+			Assert.assertEquals(packedSequence.toIupacNucleotideCodeSequence(), iupacSequence);
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void equalsAndHashCodeTest() {
+		Random random = new Random(2);
+		for (int i = 0; i < 1000; i++) {
+			String alphabet = (i % 2 == 0) ? "ACGT" : "ACGTN";
+			String sequenceAsString = createRandomSequence(random, random.nextInt(100), alphabet);
+			PackedNucleotideCodeSequence sequence = new PackedNucleotideCodeSequence(sequenceAsString);
+
+			// build the same sequence from pieces which use a different number of bits per code
+			int splitIndex = random.nextInt(sequenceAsString.length() + 1);
+			PackedNucleotideCodeSequence appendedSequence = new PackedNucleotideCodeSequence("N" + sequenceAsString.substring(0, splitIndex));
+			appendedSequence = (PackedNucleotideCodeSequence) appendedSequence.subSequence(1);
+			appendedSequence.append(new IupacNucleotideCodeSequence(sequenceAsString.substring(splitIndex)));
+
+			Assert.assertEquals(appendedSequence, sequence);
+			Assert.assertEquals(appendedSequence.hashCode(), sequence.hashCode());
+			Assert.assertEquals(sequence.getReverseCompliment().getReverseCompliment(), sequence);
+			Assert.assertEquals(appendedSequence.compareTo(sequence), 0);
+		}
+
+		Assert.assertNotEquals(new PackedNucleotideCodeSequence("ACGT"), new PackedNucleotideCodeSequence("ACGA"));
+		Assert.assertNotEquals(new PackedNucleotideCodeSequence("ACGT"), new PackedNucleotideCodeSequence("ACGTA"));
+		Assert.assertTrue(new PackedNucleotideCodeSequence("ACGT").compareTo(new PackedNucleotideCodeSequence("ACGTA")) < 0);
+		Assert.assertTrue(new PackedNucleotideCodeSequence("ACT").compareTo(new PackedNucleotideCodeSequence("ACGTA")) > 0);
+	}
+
+	@Test(groups = { "unit" })
+	public void conversionTest() {
+		NucleotideCodeSequence nucleotideSequence = new NucleotideCodeSequence("ACTGAAATTTGGGCCCAGTCTAAATTTTTACGATCGACTAGCAT");
+		PackedNucleotideCodeSequence packedSequence = new PackedNucleotideCodeSequence(nucleotideSequence);
+		Assert.assertEquals(packedSequence.toString(), nucleotideSequence.toString());
+		Assert.assertEquals(packedSequence.toNucleotideCodeSequence(), nucleotideSequence);
+		Assert.assertEquals(new PackedNucleotideCodeSequence(packedSequence), packedSequence);
+	}
+
+	@Test(groups = { "unit" }, expectedExceptions = IllegalStateException.class)
+	public void ambiguousCodesToNucleotideCodeSequenceTest() {
+		new PackedNucleotideCodeSequence("ACGN").toNucleotideCodeSequence();
+	}
+
+	@Test(groups = { "unit" }, expectedExceptions = IllegalArgumentException.class)
+	public void uracilTest() {
+		new PackedNucleotideCodeSequence("ACGU");
+	}
+
+	private static String createRandomSequence(Random random, int length, String alphabet) {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return sequence.toString();
+	}
+
+}
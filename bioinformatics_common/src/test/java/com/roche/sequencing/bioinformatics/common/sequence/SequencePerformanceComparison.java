@@ -0,0 +1,97 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.sequencing.bioinformatics.common.sequence;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares the IupacNucleotideCodeSequence and the PackedNucleotideCodeSequence on the operations done for every read pair: building a UID key from two halves, adding it to a set, iterating it and
+ * reverse complimenting a read. Each round is preceded by an untimed warm up so the JIT has compiled both implementations before they are timed.
+ */
+public class SequencePerformanceComparison {
+
+	private final static int UID_LENGTH = 7;
+	private final static int READ_LENGTH = 150;
+	private final static int NUMBER_OF_READ_PAIRS = 20000;
+	private final static int NUMBER_OF_ROUNDS = 5;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		String[] extensionUids = new String[NUMBER_OF_READ_PAIRS];
+		String[] ligationUids = new String[NUMBER_OF_READ_PAIRS];
+		String[] reads = new String[NUMBER_OF_READ_PAIRS];
+		for (int i = 0; i < NUMBER_OF_READ_PAIRS; i++) {
+			extensionUids[i] = createRandomSequence(random, UID_LENGTH);
+			ligationUids[i] = createRandomSequence(random, UID_LENGTH);
+			reads[i] = createRandomSequence(random, READ_LENGTH);
+		}
+
+		for (int round = 0; round < NUMBER_OF_ROUNDS; round++) {
+			timeReadPairs(extensionUids, ligationUids, reads, false);
+			long iupacNanoseconds = timeReadPairs(extensionUids, ligationUids, reads, false);
+			timeReadPairs(extensionUids, ligationUids, reads, true);
+			long packedNanoseconds = timeReadPairs(extensionUids, ligationUids, reads, true);
+			System.out.println("round " + (round + 1) + " IupacNucleotideCodeSequence: " + formatTime(iupacNanoseconds) + "  PackedNucleotideCodeSequence: " + formatTime(packedNanoseconds)
+					+ "  speedup: " + (iupacNanoseconds / Math.max(1, packedNanoseconds)) + "x");
+		}
+	}
+
+	private static long timeReadPairs(String[] extensionUids, String[] ligationUids, String[] reads, boolean usePackedSequence) {
+		long start = System.nanoTime();
+		Set<ISequence> distinctUids = new HashSet<ISequence>();
+		int gcCount = 0;
+		for (int i = 0; i < reads.length; i++) {
+			ISequence uid;
+			ISequence read;
+			if (usePackedSequence) {
+				uid = new PackedNucleotideCodeSequence(extensionUids[i]);
+				uid.append(new PackedNucleotideCodeSequence(ligationUids[i]));
+				read = new PackedNucleotideCodeSequence(reads[i]);
+			} else {
+				uid = new IupacNucleotideCodeSequence(extensionUids[i]);
+				uid.append(new IupacNucleotideCodeSequence(ligationUids[i]));
+				read = new IupacNucleotideCodeSequence(reads[i]);
+			}
+			distinctUids.add(uid);
+			for (ICode code : uid) {
+				if (code == IupacNucleotideCode.G || code == IupacNucleotideCode.C) {
+					gcCount++;
+				}
+			}
+			gcCount += read.getReverseCompliment().size();
+		}
+		long nanoseconds = System.nanoTime() - start;
+		if (gcCount + distinctUids.size() == 0) {
+			// keep the JIT from removing the work
+			System.out.println(gcCount);
+		}
+		return nanoseconds / reads.length;
+	}
+
+	private static String createRandomSequence(Random random, int length) {
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append("ACGT".charAt(random.nextInt(4)));
+		}
+		return sequence.toString();
+	}
+
+	private static String formatTime(long nanosecondsPerReadPair) {
+		return nanosecondsPerReadPair + " ns/read pair";
+	}
+}
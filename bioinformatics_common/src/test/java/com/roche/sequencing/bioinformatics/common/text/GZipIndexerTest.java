@@ -0,0 +1,167 @@
+package com.roche.sequencing.bioinformatics.common.text;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.text.GZipIndexer.GZipIndexPair;
+import com.roche.sequencing.bioinformatics.common.utils.InputStreamFactory;
+import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipUtil;
+import com.roche.sequencing.bioinformatics.common.utils.gzip.RandomAccessFileBytes;
+
+public class GZipIndexerTest {
+
+	private final static int NUMBER_OF_LINES = 5000;
+	private final static int RECORDED_LINE_INCREMENT = 100;
+
+	@Test(groups = { "unit" })
+	public void bgzfIndexTest() throws IOException {
+		byte[] textBytes = createText().getBytes(StandardCharsets.UTF_8);
+		File bgzfFile = File.createTempFile("gzip_indexer_test_", ".txt.gz");
+		File dictionariesFile = File.createTempFile("gzip_indexer_test_", ".dictionaries");
+		File gZipIndexFile = File.createTempFile("gzip_indexer_test_", ".gzi");
+		try {
+			try (OutputStream outputStream = new FileOutputStream(bgzfFile)) {
+				outputStream.write(GZipUtil.compressBgzfBlocks(textBytes, 0, textBytes.length));
+				outputStream.write(GZipUtil.getBgzfEndOfFileBlock());
+			}
+
+			GZipIndexPair bgzfIndexPair = GZipIndexer.indexGZipBlocks(bgzfFile, dictionariesFile, RECORDED_LINE_INCREMENT, null, null, 3);
+			Assert.assertTrue(bgzfIndexPair.getGzipIndex().isBgzf());
+			Assert.assertEquals(dictionariesFile.length(), 0);
+			// each block holds at most 65280 uncompressed bytes
+			Assert.assertEquals(bgzfIndexPair.getGzipIndex().getAllBlockIndexes().size(), (textBytes.length + 65279) / 65280);
+
+			// the deflate block by deflate block index of the same file finds the same lines
+			GZipIndexPair deflateBlockIndexPair = GZipIndexer.indexGZipBlocks(new InputStreamFactory(bgzfFile), null, RECORDED_LINE_INCREMENT, null, null);
+			Assert.assertFalse(deflateBlockIndexPair.getGzipIndex().isBgzf());
+			Assert.assertEquals(bgzfIndexPair.getTextFileIndex().getNumberOfLines(), NUMBER_OF_LINES);
+			Assert.assertEquals(bgzfIndexPair.getTextFileIndex().getBytePositionOfLines(), deflateBlockIndexPair.getTextFileIndex().getBytePositionOfLines());
+			Assert.assertEquals(bgzfIndexPair.getTextFileIndex().getNumberOfLines(), deflateBlockIndexPair.getTextFileIndex().getNumberOfLines());
+
+			GZipIndexer.saveGZipIndexToFile(bgzfIndexPair.getGzipIndex(), gZipIndexFile);
+			GZipIndex loadedGZipIndex = GZipIndexer.loadIndexFile(gZipIndexFile, dictionariesFile);
+			Assert.assertEquals(loadedGZipIndex, bgzfIndexPair.getGzipIndex());
+
+			assertDocumentText(new GZipIndexPair(loadedGZipIndex, bgzfIndexPair.getTextFileIndex()), bgzfFile, dictionariesFile);
+		} finally {
+			bgzfFile.delete();
+			dictionariesFile.delete();
+			gZipIndexFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void gzipIndexTest() throws IOException {
+		File gzipFile = File.createTempFile("gzip_indexer_test_", ".txt.gz");
+		File dictionariesFile = File.createTempFile("gzip_indexer_test_", ".dictionaries");
+		try {
+			try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+				outputStream.write(createText().getBytes(StandardCharsets.UTF_8));
+			}
+			GZipIndexPair indexPair = GZipIndexer.indexGZipBlocks(gzipFile, dictionariesFile, RECORDED_LINE_INCREMENT, null, null, 3);
+			Assert.assertFalse(indexPair.getGzipIndex().isBgzf());
+			Assert.assertEquals(indexPair.getTextFileIndex().getNumberOfLines(), NUMBER_OF_LINES);
+			assertDocumentText(indexPair, gzipFile, dictionariesFile);
+		} finally {
+			gzipFile.delete();
+			dictionariesFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void concurrentDocumentReadTest() throws IOException, InterruptedException, ExecutionException {
+		byte[] textBytes = createText().getBytes(StandardCharsets.UTF_8);
+		File bgzfFile = File.createTempFile("gzip_indexer_test_", ".txt.gz");
+		File dictionariesFile = File.createTempFile("gzip_indexer_test_", ".dictionaries");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			try (OutputStream outputStream = new FileOutputStream(bgzfFile)) {
+				outputStream.write(GZipUtil.compressBgzfBlocks(textBytes, 0, textBytes.length));
+				outputStream.write(GZipUtil.getBgzfEndOfFileBlock());
+			}
+			GZipIndexPair indexPair = GZipIndexer.indexGZipBlocks(bgzfFile, dictionariesFile, RECORDED_LINE_INCREMENT, null, null, 1);
+			final Document document = new Document(indexPair.getTextFileIndex(), indexPair.getGzipIndex(), new RandomAccessFileBytes(new RandomAccessFile(dictionariesFile, "r")), bgzfFile, null,
+					null);
+			try {
+				// scrolling backward through the whole file with windows which cross the block boundaries
+				for (int startingLineNumber = NUMBER_OF_LINES - 250; startingLineNumber >= 0; startingLineNumber -= 250) {
+					assertLines(document.getText(startingLineNumber, startingLineNumber + 249), startingLineNumber);
+				}
+
+				List<Future<Void>> futures = new ArrayList<Future<Void>>();
+				for (int i = 0; i < 4; i++) {
+					final int firstStartingLineNumber = i * 13;
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							for (int startingLineNumber = firstStartingLineNumber; startingLineNumber < NUMBER_OF_LINES - 100; startingLineNumber += 61) {
+								assertLines(document.getText(startingLineNumber, startingLineNumber + 99), startingLineNumber);
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> future : futures) {
+					future.get();
+				}
+
+				Assert.assertEquals(document.getText(10, 3, 10, 9)[0], getLine(10).substring(3, 9));
+				assertLines(document.getText(10, 12), 10);
+			} finally {
+				document.close();
+			}
+		} finally {
+			executor.shutdownNow();
+			bgzfFile.delete();
+			dictionariesFile.delete();
+		}
+	}
+
+	private static void assertLines(String[] text, int startingLineNumber) {
+		for (int i = 0; i < text.length; i++) {
+			Assert.assertEquals(text[i], getLine(startingLineNumber + i));
+		}
+	}
+
+	private static void assertDocumentText(GZipIndexPair indexPair, File file, File dictionariesFile) throws IOException {
+		Document document = new Document(indexPair.getTextFileIndex(), indexPair.getGzipIndex(), new RandomAccessFileBytes(new RandomAccessFile(dictionariesFile, "r")), file, null, null);
+		try {
+			for (int startingLineNumber = 0; startingLineNumber < NUMBER_OF_LINES; startingLineNumber += 997) {
+				String[] text = document.getText(startingLineNumber, startingLineNumber + 2);
+				for (int i = 0; i < text.length; i++) {
+					Assert.assertEquals(text[i], getLine(startingLineNumber + i));
+				}
+			}
+		} finally {
+			document.close();
+		}
+	}
+
+	private static String getLine(int lineIndex) {
+		return "line" + lineIndex + "\t" + ((lineIndex * 7919) % 104729) + "\tACGTTGCA";
+	}
+
+	private static String createText() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < NUMBER_OF_LINES; i++) {
+			text.append(getLine(i) + "\n");
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.roche.sequencing.bioinformatics.common.text;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.utils.InputStreamFactory;
+
+public class TextFileIndexerTest {
+
+	private final static int NUMBER_OF_LINES = 500;
+	private final static int RECORDED_LINE_INCREMENT = 7;
+
+	@Test(groups = { "unit" })
+	public void sequentialAndParallelIndexTest() throws IOException {
+		String text = createText();
+		File textFile = File.createTempFile("text_file_indexer_test_", ".txt");
+		File indexFile = File.createTempFile("text_file_indexer_test_", ".idx");
+		try {
+			try (OutputStream outputStream = new FileOutputStream(textFile)) {
+				outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+			}
+
+			LineCollector sequentialLines = new LineCollector();
+			TextFileIndex sequentialIndex = TextFileIndexer.indexText(new InputStreamFactory(textFile), RECORDED_LINE_INCREMENT, sequentialLines, null);
+			assertIndexMatchesText(sequentialIndex, sequentialLines, text);
+
+			// small ranges so the file is split between several threads
+			LineCollector parallelLines = new LineCollector();
+			TextFileIndex parallelIndex = TextFileIndexer.indexText(textFile, RECORDED_LINE_INCREMENT, parallelLines, null, 3, 100);
+			assertIndexMatchesText(parallelIndex, parallelLines, text);
+			Assert.assertEquals(parallelIndex, sequentialIndex);
+
+			TextFileIndexer.saveIndexedTextToFile(parallelIndex, indexFile);
+			Assert.assertEquals(TextFileIndexer.loadIndexFile(indexFile), parallelIndex);
+		} finally {
+			textFile.delete();
+			indexFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void gzippedIndexTest() throws IOException {
+		String text = createText();
+		File textFile = File.createTempFile("text_file_indexer_test_", ".txt.gz");
+		try {
+			try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(textFile))) {
+				outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+			}
+			LineCollector lines = new LineCollector();
+			TextFileIndex index = TextFileIndexer.indexText(textFile, RECORDED_LINE_INCREMENT, lines, null, 3, 100);
+			Assert.assertEquals(index.getNumberOfLines(), NUMBER_OF_LINES + 1);
+			Assert.assertEquals(lines.linesByLineNumber.size(), NUMBER_OF_LINES);
+			Assert.assertEquals(lines.linesByLineNumber.get(NUMBER_OF_LINES), getLine(NUMBER_OF_LINES - 1));
+		} finally {
+			textFile.delete();
+		}
+	}
+
+	private static void assertIndexMatchesText(TextFileIndex index, LineCollector lines, String text) {
+		String[] textLines = text.split("\n", -1);
+		List<Long> expectedLinePositions = new ArrayList<Long>();
+		expectedLinePositions.add(0L);
+		long position = 0;
+		for (int i = 0; i < NUMBER_OF_LINES; i++) {
+			position += textLines[i].getBytes(StandardCharsets.UTF_8).length + 1;
+			if ((i + 1) % RECORDED_LINE_INCREMENT == 0) {
+				expectedLinePositions.add(position);
+			}
+			Assert.assertEquals(lines.linesByLineNumber.get(i + 1), textLines[i]);
+		}
+		Assert.assertEquals(lines.linesByLineNumber.size(), NUMBER_OF_LINES);
+
+		long[] linePositions = index.getBytePositionOfLines();
+		Assert.assertEquals(linePositions.length, expectedLinePositions.size());
+		for (int i = 0; i < linePositions.length; i++) {
+			Assert.assertEquals(linePositions[i], (long) expectedLinePositions.get(i));
+		}
+		Assert.assertEquals(index.getNumberOfLines(), NUMBER_OF_LINES + 1);
+		Assert.assertEquals(index.getMostTabsFoundInALine(), 4);
+		// the longest line has 4 tabs
+		Assert.assertEquals(index.getNumberOfCharactersInLongestLine(1), getLine(NUMBER_OF_LINES - 1).length());
+	}
+
+	private static String getLine(int lineIndex) {
+		StringBuilder line = new StringBuilder("line" + lineIndex);
+		for (int i = 0; i < lineIndex % 5; i++) {
+			line.append("\tcolumn\u00e9\u4e2d" + i);
+		}
+		return line.toString();
+	}
+
+	private static String createText() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < NUMBER_OF_LINES; i++) {
+			text.append(getLine(i) + "\n");
+		}
+		return text.toString();
+	}
+
+	private static class LineCollector implements ITextFileIndexerLineListeners {
+
+		private final Map<Integer, String> linesByLineNumber = new ConcurrentHashMap<Integer, String>();
+
+		@Override
+		public void lineRead(int lineNumber, String lineText) {
+			linesByLineNumber.put(lineNumber, lineText);
+		}
+
+	}
+
+}
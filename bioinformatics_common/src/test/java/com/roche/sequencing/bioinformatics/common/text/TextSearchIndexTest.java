@@ -0,0 +1,81 @@
+package com.roche.sequencing.bioinformatics.common.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
+
+public class TextSearchIndexTest {
+
+	private final static int NUMBER_OF_LINES = 3000;
+
+	@Test(groups = { "unit" })
+	public void searchTest() throws IOException, InterruptedException {
+		File indexDirectory = Files.createTempDirectory("text_search_index_test_").toFile();
+		try {
+			final TextSearchIndex textSearchIndex = new TextSearchIndex(indexDirectory, false);
+			// the lines added in bulk are visible to the near real time searcher before the writer is closed
+			List<String> firstLines = new ArrayList<String>();
+			for (int i = 0; i < 10; i++) {
+				firstLines.add(getLine(i));
+			}
+			textSearchIndex.addLines(1, firstLines);
+			Assert.assertEquals(textSearchIndex.search("ACGT line3 "), new int[] { 3 });
+
+			Thread[] threads = new Thread[3];
+			for (int i = 0; i < threads.length; i++) {
+				final int threadIndex = i;
+				threads[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int lineIndex = 10 + threadIndex; lineIndex < NUMBER_OF_LINES; lineIndex += threads.length) {
+							textSearchIndex.addLine(lineIndex + 1, getLine(lineIndex));
+						}
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			textSearchIndex.closeIndexWriter();
+			assertSearchResults(textSearchIndex);
+			textSearchIndex.closeIndex();
+
+			TextSearchIndex loadedTextSearchIndex = new TextSearchIndex(indexDirectory, true);
+			assertSearchResults(loadedTextSearchIndex);
+			loadedTextSearchIndex.closeIndex();
+		} finally {
+			FileUtil.deleteDirectory(indexDirectory);
+		}
+	}
+
+	private static void assertSearchResults(TextSearchIndex textSearchIndex) {
+		// a substring which crosses the whitespace between words
+		Assert.assertEquals(textSearchIndex.search("GT line1234 GCA"), new int[] { 1234 });
+		// every odd line holds the substring so the results are paged
+		int[] firstPage = textSearchIndex.search("TTT1 ");
+		Assert.assertEquals(firstPage.length, TextSearchIndex.SEARCH_RESULTS_LIMIT);
+		for (int i = 0; i < firstPage.length; i++) {
+			Assert.assertEquals(firstPage[i], (i * 2) + 1);
+		}
+		int[] secondPage = textSearchIndex.search("TTT1 ", firstPage[firstPage.length - 1] + 1, null, TextSearchIndex.SEARCH_RESULTS_LIMIT);
+		Assert.assertEquals(secondPage.length, (NUMBER_OF_LINES / 2) - TextSearchIndex.SEARCH_RESULTS_LIMIT);
+		Assert.assertEquals(secondPage[0], (TextSearchIndex.SEARCH_RESULTS_LIMIT * 2) + 1);
+		Assert.assertEquals(textSearchIndex.search("TTT1 ", 100, 106, 10), new int[] { 101, 103, 105 });
+		// search strings shorter than the n-grams fall back to the word index
+		Assert.assertEquals(textSearchIndex.search("e2", 0, 25, 10), new int[] { 2, 20, 21, 22, 23, 24, 25 });
+		Assert.assertEquals(textSearchIndex.search("no such text").length, 0);
+	}
+
+	private static String getLine(int lineIndex) {
+		return "ACGT line" + lineIndex + " GCA TTT" + (lineIndex % 2) + " end";
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.utils.fastq;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+public class FastqIndexTest {
+
+	private final static int NUMBER_OF_RECORDS = 100;
+
+	@Test(groups = { "unit" })
+	public void uncompressedIndexTest() throws IOException {
+		File fastqFile = File.createTempFile("fastq_index_test_", ".fastq");
+		try {
+			try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+				outputStream.write(createFastqText().getBytes(StandardCharsets.ISO_8859_1));
+			}
+			FastqIndex index = FastqIndex.create(fastqFile, null, 7, 1);
+			Assert.assertTrue(index.isSeekable());
+			assertIndexMatchesFile(index);
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void gzippedIndexTest() throws IOException {
+		File fastqFile = File.createTempFile("fastq_index_test_", ".fastq.gz");
+		try {
+			try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(fastqFile))) {
+				outputStream.write(createFastqText().getBytes(StandardCharsets.ISO_8859_1));
+			}
+			FastqIndex index = FastqIndex.create(fastqFile, null, 7, 1);
+			Assert.assertFalse(index.isSeekable());
+			assertIndexMatchesFile(index);
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void bgzfIndexTest() throws IOException {
+		File fastqFile = File.createTempFile("fastq_index_test_", ".fastq.gz");
+		try {
+			try (BlockCompressedOutputStream outputStream = new BlockCompressedOutputStream(fastqFile)) {
+				String[] lines = createFastqText().split("\n");
+				for (int i = 0; i < lines.length; i++) {
+					outputStream.write((lines[i] + "\n").getBytes(StandardCharsets.ISO_8859_1));
+					// end a block every few lines so readers start both at and part way through blocks
+					if (i % 9 == 0) {
+						outputStream.flush();
+					}
+				}
+			}
+			FastqIndex index = FastqIndex.create(fastqFile, null, 7, 2);
+			Assert.assertTrue(index.isSeekable());
+			assertIndexMatchesFile(index);
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void unsavedSidecarTest() throws IOException {
+		File fastqFile = File.createTempFile("fastq_index_test_", ".fastq");
+		File sidecarFile = FastqIndex.getSidecarFile(fastqFile);
+		try {
+			try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+				outputStream.write(createFastqText().getBytes(StandardCharsets.ISO_8859_1));
+			}
+			FastqIndex index = FastqIndex.loadOrCreate(fastqFile, false, 1);
+			Assert.assertNull(index.getIndexFile());
+			Assert.assertFalse(sidecarFile.exists());
+			assertIndexMatchesFile(index);
+		} finally {
+			fastqFile.delete();
+			sidecarFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void sidecarTest() throws IOException {
+		File fastqFile = File.createTempFile("fastq_index_test_", ".fastq");
+		File sidecarFile = FastqIndex.getSidecarFile(fastqFile);
+		try {
+			try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+				outputStream.write(createFastqText().getBytes(StandardCharsets.ISO_8859_1));
+			}
+			FastqIndex createdIndex = FastqIndex.loadOrCreate(fastqFile);
+			Assert.assertEquals(createdIndex.getIndexFile(), sidecarFile);
+			Assert.assertTrue(sidecarFile.exists());
+
+			long sidecarLastModified = sidecarFile.lastModified();
+			FastqIndex loadedIndex = FastqIndex.loadOrCreate(fastqFile);
+			Assert.assertEquals(sidecarFile.lastModified(), sidecarLastModified);
+			assertIndexMatchesFile(loadedIndex);
+
+			// a changed fastq file is indexed again
+			try (OutputStream outputStream = new FileOutputStream(fastqFile, true)) {
+				outputStream.write("@extra_read 1:N:0:1\nACGT\n+\nIIII\n".getBytes(StandardCharsets.ISO_8859_1));
+			}
+			Assert.assertEquals(FastqIndex.loadOrCreate(fastqFile).getNumberOfRecords(), NUMBER_OF_RECORDS + 1);
+		} finally {
+			fastqFile.delete();
+			sidecarFile.delete();
+		}
+	}
+
+	private static void assertIndexMatchesFile(FastqIndex index) {
+		Assert.assertTrue(index.isComplete());
+		Assert.assertEquals(index.getNumberOfRecords(), NUMBER_OF_RECORDS);
+		for (int ordinal = 0; ordinal <= NUMBER_OF_RECORDS; ordinal++) {
+			try (ParallelFastqReader reader = index.openReader(ordinal, 2)) {
+				if (ordinal < NUMBER_OF_RECORDS) {
+					FastqRecord record = reader.next();
+					Assert.assertEquals(record.getReadHeader(), getReadName(ordinal) + " 1:N:0:1");
+					Assert.assertEquals(index.getOrdinal(record.getReadHeader()), ordinal);
+					// the read two header of the pair finds the same record
+					Assert.assertEquals(index.getOrdinal(getReadName(ordinal) + " 2:N:0:1"), ordinal);
+				} else {
+					Assert.assertFalse(reader.hasNext());
+				}
+			}
+		}
+		Assert.assertEquals(index.getOrdinal("M01077:35:000000000-A3J96:1:1101:1:1 1:N:0:1"), -1);
+	}
+
+	private static String getReadName(int ordinal) {
+		return "M01077:35:000000000-A3J96:1:1102:" + (ordinal * 31 % 1000) + ":" + ordinal;
+	}
+
+	private static String createFastqText() {
+		StringBuilder fastqText = new StringBuilder();
+		for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+			String bases = "ACGTTGCAACGTACGTTGCA".substring(0, 5 + (i % 15));
+			fastqText.append("@" + getReadName(i) + " 1:N:0:1\n" + bases + "\n+\n" + bases.replaceAll(".", "I") + "\n");
+		}
+		return fastqText.toString();
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.utils.fastq;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class FastqRecordStoreTest {
+
+	private final static int NUMBER_OF_RECORDS = 100;
+
+	@Test(groups = { "unit" })
+	public void storeTest() throws IOException {
+		File fastqFile = createFastqFile();
+		try {
+			File tempDirectory = fastqFile.getParentFile();
+			try (FastqRecordStore store = FastqRecordStore.create(fastqFile, tempDirectory, true)) {
+				Assert.assertEquals(store.getNumberOfRecords(), NUMBER_OF_RECORDS);
+				// look the records up out of order
+				for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+					int ordinal = (i * 37) % NUMBER_OF_RECORDS;
+					Assert.assertEquals(store.getUniqueReadName(ordinal), getReadName(ordinal));
+					Assert.assertEquals(store.getReadString(ordinal), getBases(ordinal));
+					Assert.assertEquals(store.getBaseQualityString(ordinal), getQualities(ordinal));
+				}
+			}
+
+			try (FastqRecordStore store = FastqRecordStore.create(fastqFile, tempDirectory, false)) {
+				Assert.assertEquals(store.getUniqueReadName(NUMBER_OF_RECORDS - 1), getReadName(NUMBER_OF_RECORDS - 1));
+				try {
+					store.getReadString(0);
+					Assert.fail("The read strings were not stored.");
+				} catch (IllegalStateException e) {
+				}
+			}
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	private static String getReadName(int ordinal) {
+		return "M01077:35:000000000-A3J96:1:1102:" + (ordinal * 31 % 1000) + ":" + ordinal;
+	}
+
+	private static String getBases(int ordinal) {
+		return "ACGTTGCAACGTNCGTTGCA".substring(0, 1 + (ordinal % 20));
+	}
+
+	private static String getQualities(int ordinal) {
+		return "!#%')+-/13579;=?ACEG".substring(0, 1 + (ordinal % 20));
+	}
+
+	private static File createFastqFile() throws IOException {
+		File fastqFile = File.createTempFile("fastq_record_store_test_", ".fastq");
+		StringBuilder fastqText = new StringBuilder();
+		for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+			fastqText.append("@" + getReadName(i) + " 1:N:0:1\n" + getBases(i) + "\n+\n" + getQualities(i) + "\n");
+		}
+		try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+			outputStream.write(fastqText.toString().getBytes(StandardCharsets.ISO_8859_1));
+		}
+		return fastqFile;
+	}
+
+}
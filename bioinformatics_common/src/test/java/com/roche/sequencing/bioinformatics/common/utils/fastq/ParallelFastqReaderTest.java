@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.sequencing.bioinformatics.common.utils.fastq;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+public class ParallelFastqReaderTest {
+
+	// enough records to span several read ahead chunks
+	private final static int NUMBER_OF_RECORDS = 20000;
+
+	@Test(groups = { "unit" })
+	public void uncompressedTest() throws IOException {
+		String fastqText = createFastqText();
+		File fastqFile = File.createTempFile("parallel_fastq_reader_test_", ".fastq");
+		try {
+			try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+				outputStream.write(fastqText.getBytes(StandardCharsets.ISO_8859_1));
+			}
+			assertMatchesFastqReader(fastqFile);
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void multiMemberGZipTest() throws IOException {
+		String fastqText = createFastqText();
+		File fastqFile = File.createTempFile("parallel_fastq_reader_test_", ".fastq.gz");
+		try {
+			// split mid record so a record spans two gzip members
+			int splitIndex = fastqText.length() / 2 + 7;
+			try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+				for (String part : new String[] { fastqText.substring(0, splitIndex), fastqText.substring(splitIndex) }) {
+					GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+					gzipOutputStream.write(part.getBytes(StandardCharsets.ISO_8859_1));
+					gzipOutputStream.finish();
+				}
+			}
+			assertMatchesFastqReader(fastqFile);
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void bgzfTest() throws IOException {
+		String fastqText = createFastqText();
+		File fastqFile = File.createTempFile("parallel_fastq_reader_test_", ".fastq.gz");
+		try {
+			try (BlockCompressedOutputStream outputStream = new BlockCompressedOutputStream(fastqFile)) {
+				outputStream.write(fastqText.getBytes(StandardCharsets.ISO_8859_1));
+			}
+			assertMatchesFastqReader(fastqFile);
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" }, expectedExceptions = PicardException.class)
+	public void mismatchedQualityLengthTest() throws IOException {
+		File fastqFile = File.createTempFile("parallel_fastq_reader_test_", ".fastq");
+		try {
+			try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+				outputStream.write("@read\nACGT\n+\nIII\n".getBytes(StandardCharsets.ISO_8859_1));
+			}
+			try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile)) {
+				reader.next();
+			}
+		} finally {
+			fastqFile.delete();
+		}
+	}
+
+	private static void assertMatchesFastqReader(File fastqFile) {
+		List<FastqRecord> expectedRecords = new ArrayList<FastqRecord>();
+		try (FastqReader reader = new FastqReader(fastqFile)) {
+			for (FastqRecord record : reader) {
+				expectedRecords.add(record);
+			}
+		}
+		Assert.assertEquals(expectedRecords.size(), NUMBER_OF_RECORDS);
+
+		// mix the three ways of reading records
+		try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile, 3)) {
+			MutableFastqRecord mutableRecord = new MutableFastqRecord();
+			int recordIndex = 0;
+			while (recordIndex < expectedRecords.size()) {
+				if (recordIndex % 3 == 0) {
+					Assert.assertTrue(reader.hasNext());
+					assertRecordsEqual(reader.next(), expectedRecords.get(recordIndex));
+					recordIndex++;
+				} else if (recordIndex % 3 == 1) {
+					Assert.assertTrue(reader.readNextRecord(mutableRecord));
+					assertRecordsEqual(mutableRecord.toFastqRecord(), expectedRecords.get(recordIndex));
+					recordIndex++;
+				} else {
+					for (FastqRecord record : reader.nextBatch(100)) {
+						assertRecordsEqual(record, expectedRecords.get(recordIndex));
+						recordIndex++;
+					}
+				}
+			}
+			Assert.assertFalse(reader.hasNext());
+			Assert.assertFalse(reader.readNextRecord(mutableRecord));
+			Assert.assertEquals(reader.nextBatch(100).size(), 0);
+		}
+	}
+
+	private static void assertRecordsEqual(FastqRecord record, FastqRecord expectedRecord) {
+		Assert.assertEquals(record.getReadHeader(), expectedRecord.getReadHeader());
+		Assert.assertEquals(record.getReadString(), expectedRecord.getReadString());
+		Assert.assertEquals(record.getBaseQualityHeader(), expectedRecord.getBaseQualityHeader());
+		Assert.assertEquals(record.getBaseQualityString(), expectedRecord.getBaseQualityString());
+	}
+
+	private static String createFastqText() {
+		Random random = new Random(0);
+		StringBuilder fastqText = new StringBuilder();
+		for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+			int readLength = 50 + random.nextInt(100);
+			StringBuilder bases = new StringBuilder();
+			StringBuilder qualities = new StringBuilder();
+			for (int j = 0; j < readLength; j++) {
+				bases.append("ACGTN".charAt(random.nextInt(5)));
+				qualities.append((char) ('!' + random.nextInt(41)));
+			}
+			String readName = "M01077:35:000000000-A3J96:1:1102:" + i + ":" + random.nextInt(10000) + " 1:N:0:1";
+			fastqText.append("@" + readName + "\n" + bases + "\n" + ((i % 2 == 0) ? "+" : "+" + readName) + "\n" + qualities + "\n");
+		}
+		return fastqText.toString();
+	}
+
+}
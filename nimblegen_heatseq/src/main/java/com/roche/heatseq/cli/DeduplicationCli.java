@@ -82,7 +82,7 @@ public class DeduplicationCli {
 	final static CommandLineOption OUTPUT_DIR_OPTION = new CommandLineOption("Output Directory", "outputDir", null, "Location to store resultant files.", false, false);
 	final static CommandLineOption OUTPUT_FILE_PREFIX_OPTION = new CommandLineOption("Output File Prefix", "outputPrefix", null, "Text to put at beginning of output file names.", false, false);
 	private final static CommandLineOption TMP_DIR_OPTION = new CommandLineOption("Temporary Directory", "tmpDir", null, "Location to store temporary files.", false, false);
-	private final static CommandLineOption NUM_PROCESSORS_OPTION = new CommandLineOption("Number of Processors", "numProcessors", null,
+	final static CommandLineOption NUM_PROCESSORS_OPTION = new CommandLineOption("Number of Processors", "numProcessors", null,
 			"The number of threads to run in parallel.  If not specified this will default to the number of cores available on the machine.  The designated value and default value will be capped at "
 					+ MAX_NUMBER_OF_PROCESSORS + ".",
 			false, false);
@@ -105,6 +105,8 @@ public class DeduplicationCli {
 			true);
 	public final static CommandLineOption TRIMMING_SKIPPED_OPTION = new CommandLineOption("Reads Were Not Trimmed Prior to Mapping", "readsNotTrimmed", null,
 			"The reads were not trimmed prior to mapping.", false, true, true);
+	private final static CommandLineOption SINGLE_PASS_OPTION = new CommandLineOption("Single Pass Deduplication", "singlePass", null,
+			"Assign reads to probes and deduplicate them in a single sweep over the coordinate sorted reads instead of creating and querying an indexed coordinate sorted bam file.", false, true);
 	private final static CommandLineOption INTERNAL_REPORTS_OPTION = new CommandLineOption("Output interal reports", "internalReports", null, "Output internal reports.", false, true, true);
 	private final static CommandLineOption EXCLUDE_NEW_PROGRAM_IN_BAM_HEADER_OPTION = new CommandLineOption("Exclude Program in Bam Header", "excludeProgramInBamHeader", null,
 			"Don not include a program entry for this application in the bam header.", false, true, true);
@@ -203,7 +205,9 @@ public class DeduplicationCli {
 
 		InputFilesExistValidator.validate(fastQ1File, fastQ2File, probeInfoFile, samOrBamFile);
 
-		int numberOfRecordsInFastq = FastqValidator.validateAndGetNumberOfRecords(fastQ1File, fastQ2File);
+		int numProcessors = getNumberOfProcessors(parsedCommandLine);
+
+		int numberOfRecordsInFastq = FastqValidator.validateAndGetNumberOfRecords(fastQ1File, fastQ2File, numProcessors);
 
 		ParsedProbeFile parsedProbeFile = ProbeFileUtil.parseProbeInfoFileWithValidation(probeInfoFile);
 
@@ -222,21 +226,6 @@ public class DeduplicationCli {
 					+ doubleFormatter.format((double) usableOutputSpaceInBytes / (double) BYTES_PER_MEGABYTE) + "MB]  in the output directory[" + outputDirectory.getAbsolutePath() + "].");
 		}
 
-		int numProcessors = Runtime.getRuntime().availableProcessors();
-		if (parsedCommandLine.isOptionPresent(NUM_PROCESSORS_OPTION)) {
-			try {
-				numProcessors = Integer.parseInt(parsedCommandLine.getOptionsValue(NUM_PROCESSORS_OPTION));
-
-			} catch (NumberFormatException ex) {
-				throw new IllegalStateException("Value specified for number of processors is not an integer[" + parsedCommandLine.getOptionsValue(NUM_PROCESSORS_OPTION) + "].");
-			}
-		}
-		if (numProcessors > MAX_NUMBER_OF_PROCESSORS) {
-			logger.info("The requested number of processors[" + numProcessors + "] is greater than the max number of processors allowed [" + MAX_NUMBER_OF_PROCESSORS
-					+ "] so the max number of processors allowed will be used.");
-			numProcessors = MAX_NUMBER_OF_PROCESSORS;
-		}
-
 		int extensionUidLength = DEFAULT_EXTENSION_UID_LENGTH;
 		int ligationUidLength = DEFAULT_LIGATION_UID_LENGTH;
 		String genomeNameFromProbeInfoFile = null;
@@ -342,6 +331,7 @@ public class DeduplicationCli {
 		}
 
 		boolean mergePairs = parsedCommandLine.isOptionPresent(MERGE_PAIRS_OPTION);
+		boolean singlePassDeduplication = parsedCommandLine.isOptionPresent(SINGLE_PASS_OPTION);
 
 		IAlignmentScorer alignmentScorer = new SimpleAlignmentScorer(matchScore, mismatchPenalty, gapExtendPenalty, gapOpenPenalty, false);
 
@@ -462,7 +452,7 @@ public class DeduplicationCli {
 			sortMergeFilterAndExtendReads(applicationName, applicationVersion, probeInfoFile, parsedProbeFile, samOrBamFile, fastQ1File, fastQ2File, outputDirectory, outputBamFileName,
 					outputFilePrefix, tempOutputDirectory, shouldOutputInternalReports, shouldExcludeProgramInBamHeader, commandLineSignature, numProcessors, extensionUidLength, ligationUidLength,
 					allowVariableLengthUids, alignmentScorer, markDuplicates, keepDuplicates, mergePairs, useStrictReadToProbeMatching, readsNotTrimmed, probeHeaderInformation, sampleName,
-					numberOfRecordsInFastq, probeTrimmingInformation);
+					numberOfRecordsInFastq, probeTrimmingInformation, singlePassDeduplication);
 
 			// TODO do not make the original creation of prelim output bam be sorted
 			// TODO sort the output bam based on readnames and readnumbers
@@ -484,14 +474,14 @@ public class DeduplicationCli {
 			File fastQ2File, File outputDirectory, String outputBamFileName, String outputFilePrefix, File tempOutputDirectory, boolean shouldOutputReports, boolean shouldExcludeProgramInBamHeader,
 			String commandLineSignature, int numProcessors, int extensionUidLength, int ligationUidLength, boolean allowVariableLengthUids, IAlignmentScorer alignmentScorer, boolean markDuplicates,
 			boolean keepDuplicates, boolean mergePairs, boolean useStrictReadToProbeMatching, boolean readsNotTrimmed, ProbeHeaderInformation probeHeaderInformation, String sampleName,
-			int numberOfRecordsInFastq, ProbeTrimmingInformation probeTrimmingInformation) {
+			int numberOfRecordsInFastq, ProbeTrimmingInformation probeTrimmingInformation, boolean singlePassDeduplication) {
 		try {
 
 			long totalTimeStart = System.currentTimeMillis();
 			ApplicationSettings applicationSettings = new ApplicationSettings(probeFile, parsedProbeFile, bamFile, fastQ1File, fastQ2File, outputDirectory, tempOutputDirectory, outputBamFileName,
 					outputFilePrefix, bamFile.getName(), shouldOutputReports, shouldExcludeProgramInBamHeader, commandLineSignature, applicationName, applicationVersion, numProcessors,
 					allowVariableLengthUids, alignmentScorer, extensionUidLength, ligationUidLength, markDuplicates, keepDuplicates, mergePairs, useStrictReadToProbeMatching, probeHeaderInformation,
-					readsNotTrimmed, sampleName, numberOfRecordsInFastq, probeTrimmingInformation);
+					readsNotTrimmed, sampleName, numberOfRecordsInFastq, probeTrimmingInformation, singlePassDeduplication);
 
 			PrimerReadExtensionAndPcrDuplicateIdentification.verifyReadNamesCanBeHandledByDedup(applicationSettings.getFastQ1File(), applicationSettings.getFastQ2File());
 
@@ -505,6 +495,27 @@ public class DeduplicationCli {
 		}
 	}
 
+	/**
+	 * @return the number of processors requested with the number of processors option, or the number available on the machine, capped at the max number of processors allowed
+	 */
+	static int getNumberOfProcessors(ParsedCommandLine parsedCommandLine) {
+		int numProcessors = Runtime.getRuntime().availableProcessors();
+		if (parsedCommandLine.isOptionPresent(NUM_PROCESSORS_OPTION)) {
+			try {
+				numProcessors = Integer.parseInt(parsedCommandLine.getOptionsValue(NUM_PROCESSORS_OPTION));
+
+			} catch (NumberFormatException ex) {
+				throw new IllegalStateException("Value specified for number of processors is not an integer[" + parsedCommandLine.getOptionsValue(NUM_PROCESSORS_OPTION) + "].");
+			}
+		}
+		if (numProcessors > MAX_NUMBER_OF_PROCESSORS) {
+			logger.info("The requested number of processors[" + numProcessors + "] is greater than the max number of processors allowed [" + MAX_NUMBER_OF_PROCESSORS
+					+ "] so the max number of processors allowed will be used.");
+			numProcessors = MAX_NUMBER_OF_PROCESSORS;
+		}
+		return numProcessors;
+	}
+
 	static CommandLineOptionsGroup getCommandLineOptionsGroup() {
 		CommandLineOptionsGroup group = new CommandLineOptionsGroup();
 
@@ -529,6 +540,7 @@ public class DeduplicationCli {
 		// group.addOption(LENIENT_VALIDATION_STRINGENCY_OPTION);
 		group.addOption(MARK_DUPLICATES_OPTION);
 		group.addOption(KEEP_DUPLICATES_OPTION);
+		group.addOption(SINGLE_PASS_OPTION);
 		// group.addOption(MERGE_PAIRS_OPTION);
 		// group.addOption(NOT_TRIMMED_TO_WITHIN_CAPTURE_TARGET_OPTION);
 		group.addOption(INTERNAL_REPORTS_OPTION);
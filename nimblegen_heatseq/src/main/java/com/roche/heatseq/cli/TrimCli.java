@@ -41,9 +41,12 @@ class TrimCli {
 
 	private static final Logger logger = LoggerFactory.getLogger(TrimCli.class);
 	private static final String FASTQ_EXTENSION = ".fastq";
+	private static final String GZIP_EXTENSION = ".gz";
 	private static final int BYTES_PER_GIGABYTE = 1000000000;
 	private final static DecimalFormat doubleFormatter = new DecimalFormat("#,###.##");
 	private final static CommandLineOption DO_NOT_TRIM_PRIMERS_OPTION = new CommandLineOption("Do Not Trim Primers", "doNotTrimPrimers", null, "Do not attempt to trim the primers.", false, true, true);
+	private final static CommandLineOption GZIP_OUTPUT_OPTION = new CommandLineOption("Gzip Output", "gzipOutput", null,
+			"Write the trimmed fastq files as block gzip (BGZF) compressed files with the gz extension.", false, true);
 
 	public static void trim(ParsedCommandLine parsedCommandLine, String commandLineSignature, String applicationName, String applicationVersion) {
 		long applicationStart = System.currentTimeMillis();
@@ -89,10 +92,12 @@ class TrimCli {
 		File probeFile = new File(parsedCommandLine.getOptionsValue(DeduplicationCli.PROBE_OPTION));
 
 		boolean trimPrimers = !parsedCommandLine.isOptionPresent(TrimCli.DO_NOT_TRIM_PRIMERS_OPTION);
+		boolean gzipOutput = parsedCommandLine.isOptionPresent(TrimCli.GZIP_OUTPUT_OPTION);
+		int numProcessors = DeduplicationCli.getNumberOfProcessors(parsedCommandLine);
 
 		InputFilesExistValidator.validate(fastQ1File, fastQ2File, probeFile);
 
-		FastqValidator.validateAndGetNumberOfRecords(fastQ1File, fastQ2File);
+		FastqValidator.validateAndGetNumberOfRecords(fastQ1File, fastQ2File, numProcessors);
 
 		long requiredSpaceInBytes = fastQ1File.length() * 2;
 		long usableSpaceInBytes = outputDirectory.getUsableSpace();
@@ -107,19 +112,25 @@ class TrimCli {
 		if (!outputFastQ1FileName.toLowerCase().endsWith(FASTQ_EXTENSION)) {
 			outputFastQ1FileName += FASTQ_EXTENSION;
 		}
+		if (gzipOutput) {
+			outputFastQ1FileName += GZIP_EXTENSION;
+		}
 		File outputFastQ1File = new File(outputFastQ1FileName);
 
 		String outputFastQ2FileName = new File(outputDirectory, outputFilePrefix + "trimmed_" + FileUtil.getFileNameWithoutExtension(fastQ2File.getName())).getAbsolutePath();
 		if (!outputFastQ2FileName.toLowerCase().endsWith(FASTQ_EXTENSION)) {
 			outputFastQ2FileName += FASTQ_EXTENSION;
 		}
+		if (gzipOutput) {
+			outputFastQ2FileName += GZIP_EXTENSION;
+		}
 		File outputFastQ2File = new File(outputFastQ2FileName);
 
 		logger.info(applicationName + " version:" + applicationVersion);
 		logger.info("command line signature: " + commandLineSignature);
 
 		try {
-			FastqReadTrimmer.trimReads(fastQ1File, fastQ2File, probeInfo, probeFile, outputFastQ1File, outputFastQ2File, trimPrimers);
+			FastqReadTrimmer.trimReads(fastQ1File, fastQ2File, probeInfo, probeFile, outputFastQ1File, outputFastQ2File, trimPrimers, numProcessors, gzipOutput);
 
 			long applicationStop = System.currentTimeMillis();
 			CliStatusConsole.logStatus(StringUtil.NEWLINE + "Trimming has completed successfully.");
@@ -149,6 +160,8 @@ class TrimCli {
 		group.addOption(DeduplicationCli.PROBE_OPTION);
 		group.addOption(DeduplicationCli.OUTPUT_DIR_OPTION);
 		group.addOption(DeduplicationCli.OUTPUT_FILE_PREFIX_OPTION);
+		group.addOption(DeduplicationCli.NUM_PROCESSORS_OPTION);
+		group.addOption(TrimCli.GZIP_OUTPUT_OPTION);
 		group.addOption(TrimCli.DO_NOT_TRIM_PRIMERS_OPTION);
 		return group;
 	}
@@ -59,6 +59,7 @@ public class ApplicationSettings {
 	private final String sampleName;
 	private final int numberOfRecordsInFastq;
 	private final ProbeTrimmingInformation probeTrimmingInformation;
+	private final boolean singlePassDeduplication;
 
 	/**
 	 * Default Constructor
@@ -83,7 +84,7 @@ public class ApplicationSettings {
 			String outputFilePrefix, String originalBamFileName, boolean shouldOutputReports, boolean shouldExcludeProgramInBamHeader, String commandLineSignature, String programName,
 			String programVersion, int numProcessors, boolean allowVariableLengthUids, IAlignmentScorer alignmentScorer, int extensionUidLength, int ligationUidLength, boolean markDuplicates,
 			boolean keepDuplicates, boolean mergePairs, boolean useStrictReadToProbeMatching, ProbeHeaderInformation probeHeaderInformation, boolean readsNotTrimmed, String sampleName,
-			int numberOfRecordsInFastq, ProbeTrimmingInformation probeTrimmingInformation) {
+			int numberOfRecordsInFastq, ProbeTrimmingInformation probeTrimmingInformation, boolean singlePassDeduplication) {
 
 		super();
 		this.probeFile = probeFile;
@@ -115,6 +116,7 @@ public class ApplicationSettings {
 		this.sampleName = sampleName;
 		this.numberOfRecordsInFastq = numberOfRecordsInFastq;
 		this.probeTrimmingInformation = probeTrimmingInformation;
+		this.singlePassDeduplication = singlePassDeduplication;
 	}
 
 	/**
@@ -302,4 +304,11 @@ public class ApplicationSettings {
 		return probeTrimmingInformation;
 	}
 
+	/**
+	 * @return true if reads should be assigned to probes and deduplicated in a single coordinate sorted sweep rather than through an indexed coordinate sorted bam file
+	 */
+	public boolean isSinglePassDeduplication() {
+		return singlePassDeduplication;
+	}
+
 }
@@ -0,0 +1,692 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.heatseq.process;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.roche.heatseq.objects.SAMRecordPair;
+import com.roche.heatseq.process.PrimerReadExtensionAndPcrDuplicateIdentification.ProbeSearchStartAndStop;
+import com.roche.heatseq.utils.SAMRecordUtil;
+import com.roche.heatseq.utils.SAMRecordUtil.AlternativeHit;
+import com.roche.sequencing.bioinformatics.common.sequence.Strand;
+import com.roche.sequencing.bioinformatics.common.utils.ArraysUtil;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ProbeFileUtil.ProbeHeaderInformation;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+
+/**
+ * Assigns reads to probes and collects the reads for each probe in a single pass over coordinate sorted reads (including copies of the reads placed at their alternative hits).
+ *
+ * A probe's window is opened when the sweep reaches the probe's search start and is closed (and handed to the {@link IProbeWindowClosedListener}) once the sweep has passed the probe's search stop
+ * and every read in the window has been assigned to a probe or excluded. A read is assigned once the primary mapping of both reads in the pair has been seen and it is excluded if the sweep passes
+ * the location of a mate that was never seen. Secondary and supplementary alignments are ignored, the other mappings of a read are provided as alternative hit copies.
+ *
+ * A read name with more than one primary mapping for the same read of the pair is not used, as with the indexed coordinate sorted bam file. Such read names are found while the alternative hit
+ * copies are added (before the first coordinate sorted record is provided) so the reads are left out of every probe window, not only those dispatched after the repeat was seen.
+ *
+ * The reads are assigned to probes using the same rules that are used when reads are assigned to probes using an indexed coordinate sorted bam file.
+ */
+class CoordinateSortedProbeSweeper {
+
+	private static Logger logger = LoggerFactory.getLogger(CoordinateSortedProbeSweeper.class);
+
+	private static final int FIRST_OF_PAIR = 0;
+	private static final int SECOND_OF_PAIR = 1;
+
+	interface IProbeWindowClosedListener {
+		/**
+		 * Called once all the reads that will be assigned to the probe have been collected
+		 *
+		 * @param probe
+		 * @param readIndexToRecordsMap
+		 *            read pairs (containing both records and no N's) assigned to the probe
+		 */
+		void probeWindowClosed(Probe probe, Map<Integer, SAMRecordPair> readIndexToRecordsMap);
+	}
+
+	private final IProbeWindowClosedListener listener;
+	private final int extensionUidLength;
+	private final int ligationUidLength;
+
+	private final Map<String, IRangeMap<Probe>> positiveStrandProbesRangesBySequenceName;
+	private final Map<String, IRangeMap<Probe>> negativeStrandProbesRangesBySequenceName;
+
+	// probe windows for each reference sequence sorted by the start of the window
+	private final ProbeWindow[][] probeWindowsByReferenceIndex;
+	private final boolean[] referenceIndexContainsProbes;
+	private final int[] nextProbeWindowToOpenByReferenceIndex;
+	private int nextReferenceIndexToOpen;
+	private final List<ProbeWindow> openProbeWindows;
+
+	private final Map<Integer, UnassignedReadPair> unassignedReadPairs;
+	private final PriorityQueue<Expiration> unassignedReadPairsByExpiration;
+	private final BitSet readIndexesWithCompletedAssignment;
+	private final ReadToProbeAssignmentResults readToProbeAssignmentResults;
+
+	private int currentReferenceIndex;
+	private int currentPosition;
+	private boolean isFinished;
+
+	private long numberOfRecords;
+	private long numberOfAlternativeHitRecords;
+	private long numberOfUniquelyAssignedReadPairs;
+	private long numberOfReadPairsAssignedAfterAlignment;
+	private long numberOfReadPairsNotAssignedToAProbe;
+	private long numberOfReadPairsAssignedToMultipleProbes;
+	private long numberOfReadPairsWithMissingMate;
+	private int maxUnassignedReadPairs;
+	private int maxOpenProbeWindows;
+	private final Set<Integer> repeatedReadIndexes;
+
+	/**
+	 * @param sequenceDictionary
+	 *            the sequence dictionary of the coordinate sorted reads
+	 * @param probeInfo
+	 * @param probeHeaderInformation
+	 * @param extensionUidLength
+	 * @param ligationUidLength
+	 * @param numberOfReads
+	 *            the number of reads in the fastq files
+	 * @param listener
+	 *            called each time the reads for a probe have been collected
+	 */
+	CoordinateSortedProbeSweeper(SAMSequenceDictionary sequenceDictionary, ParsedProbeFile probeInfo, ProbeHeaderInformation probeHeaderInformation, int extensionUidLength, int ligationUidLength,
+			int numberOfReads, IProbeWindowClosedListener listener) {
+		this.listener = listener;
+		this.extensionUidLength = extensionUidLength;
+		this.ligationUidLength = ligationUidLength;
+
+		positiveStrandProbesRangesBySequenceName = new ConcurrentHashMap<String, IRangeMap<Probe>>();
+		negativeStrandProbesRangesBySequenceName = new ConcurrentHashMap<String, IRangeMap<Probe>>();
+		PrimerReadExtensionAndPcrDuplicateIdentification.populateProbeRangeMaps(probeInfo, probeHeaderInformation, positiveStrandProbesRangesBySequenceName,
+				negativeStrandProbesRangesBySequenceName);
+
+		int numberOfReferenceSequences = sequenceDictionary.size();
+		probeWindowsByReferenceIndex = new ProbeWindow[numberOfReferenceSequences][];
+		referenceIndexContainsProbes = new boolean[numberOfReferenceSequences];
+		nextProbeWindowToOpenByReferenceIndex = new int[numberOfReferenceSequences];
+		for (int referenceIndex = 0; referenceIndex < numberOfReferenceSequences; referenceIndex++) {
+			String sequenceName = sequenceDictionary.getSequence(referenceIndex).getSequenceName();
+			List<ProbeWindow> probeWindows = new ArrayList<ProbeWindow>();
+			if (probeInfo.containsSequenceName(sequenceName)) {
+				for (Probe probe : probeInfo.getProbesBySequenceName(sequenceName)) {
+					ProbeSearchStartAndStop probeSearchStartAndStop = PrimerReadExtensionAndPcrDuplicateIdentification.getProbeSearchBoundaries(probeHeaderInformation, probe);
+					probeWindows.add(new ProbeWindow(probe, referenceIndex, probeSearchStartAndStop.getStart(), probeSearchStartAndStop.getStop()));
+				}
+			}
+			Collections.sort(probeWindows, new Comparator<ProbeWindow>() {
+				@Override
+				public int compare(ProbeWindow o1, ProbeWindow o2) {
+					return Integer.compare(o1.windowStart, o2.windowStart);
+				}
+			});
+			probeWindowsByReferenceIndex[referenceIndex] = probeWindows.toArray(new ProbeWindow[probeWindows.size()]);
+			referenceIndexContainsProbes[referenceIndex] = probeWindows.size() > 0;
+		}
+		nextReferenceIndexToOpen = 0;
+		openProbeWindows = new LinkedList<ProbeWindow>();
+
+		unassignedReadPairs = new HashMap<Integer, UnassignedReadPair>();
+		unassignedReadPairsByExpiration = new PriorityQueue<Expiration>(11, new Comparator<Expiration>() {
+			@Override
+			public int compare(Expiration o1, Expiration o2) {
+				return compareLocations(o1.referenceIndex, o1.position, o2.referenceIndex, o2.position);
+			}
+		});
+		readIndexesWithCompletedAssignment = new BitSet(numberOfReads);
+		readToProbeAssignmentResults = new ReadToProbeAssignmentResults(numberOfReads, probeInfo, null);
+		repeatedReadIndexes = new HashSet<Integer>();
+
+		currentReferenceIndex = 0;
+		currentPosition = 0;
+		isFinished = false;
+	}
+
+	/**
+	 * Add the next record. Records must be provided in coordinate order.
+	 *
+	 * @param record
+	 */
+	void addRecord(SAMRecord record) {
+		if (isFinished) {
+			throw new IllegalStateException("Records cannot be added after the sweep has finished.");
+		}
+		numberOfRecords++;
+
+		int referenceIndex = record.getReferenceIndex();
+		if (referenceIndex >= 0) {
+			if (compareLocations(referenceIndex, record.getAlignmentStart(), currentReferenceIndex, currentPosition) < 0) {
+				throw new IllegalStateException("Records must be provided in coordinate order but record[" + record.getReadName() + "] at reference[" + record.getReferenceName() + "] position["
+						+ record.getAlignmentStart() + "] was found after position[" + currentPosition + "].");
+			}
+			advanceTo(referenceIndex, record.getAlignmentStart());
+		}
+
+		if (isPrimaryMappingOnProbeSequences(record)) {
+			addMappedRecord(record);
+		}
+	}
+
+	private boolean isPrimaryMappingOnProbeSequences(SAMRecord record) {
+		// note: that sometimes a mate has incorrect details about whether or not its mate is mapped
+		// so by checking the flag we will exclude these incorrectly labeled reads
+		boolean isUnmapped = record.getMateUnmappedFlag() || record.getReadUnmappedFlag();
+		return !isUnmapped && !record.isSecondaryOrSupplementary() && referenceIndexContainsProbes(record.getReferenceIndex())
+				&& referenceIndexContainsProbes(record.getMateReferenceIndex());
+	}
+
+	/**
+	 * Let the sweeper know that all the records have been added so the remaining probe windows can be closed.
+	 */
+	void finish() {
+		if (!isFinished) {
+			advanceTo(Integer.MAX_VALUE, Integer.MAX_VALUE);
+			isFinished = true;
+
+			if (repeatedReadIndexes.size() > 0) {
+				logger.info("The following reads names are not unique within the bam file for a single read pair and will not be utilized for deduplication:");
+				for (Integer readIndex : repeatedReadIndexes) {
+					logger.info("read name:" + readIndex);
+				}
+			}
+		}
+	}
+
+	private boolean referenceIndexContainsProbes(int referenceIndex) {
+		return referenceIndex >= 0 && referenceIndex < referenceIndexContainsProbes.length && referenceIndexContainsProbes[referenceIndex];
+	}
+
+	private static int compareLocations(int referenceIndexOne, int positionOne, int referenceIndexTwo, int positionTwo) {
+		int result = Integer.compare(referenceIndexOne, referenceIndexTwo);
+		if (result == 0) {
+			result = Integer.compare(positionOne, positionTwo);
+		}
+		return result;
+	}
+
+	private void advanceTo(int referenceIndex, int position) {
+		if (referenceIndex != currentReferenceIndex || position != currentPosition) {
+			currentReferenceIndex = referenceIndex;
+			currentPosition = position;
+
+			// exclude all read pairs with a mate that should have been seen by now
+			while (!unassignedReadPairsByExpiration.isEmpty()
+					&& compareLocations(unassignedReadPairsByExpiration.peek().referenceIndex, unassignedReadPairsByExpiration.peek().position, currentReferenceIndex, currentPosition) < 0) {
+				Expiration expiration = unassignedReadPairsByExpiration.poll();
+				UnassignedReadPair expiredReadPair = expiration.readPair;
+				// the expiration is only valid if it is still the latest expiration for a read pair that has not been assigned
+				if (expiredReadPair.expiration == expiration && unassignedReadPairs.get(expiredReadPair.readIndex) == expiredReadPair) {
+					numberOfReadPairsWithMissingMate++;
+					completeAssignment(expiredReadPair, null);
+				}
+			}
+
+			// open the windows for all probes that start before the current position
+			while (nextReferenceIndexToOpen < probeWindowsByReferenceIndex.length && nextReferenceIndexToOpen <= currentReferenceIndex) {
+				ProbeWindow[] probeWindows = probeWindowsByReferenceIndex[nextReferenceIndexToOpen];
+				int nextProbeWindowToOpen = nextProbeWindowToOpenByReferenceIndex[nextReferenceIndexToOpen];
+				while (nextProbeWindowToOpen < probeWindows.length
+						&& compareLocations(nextReferenceIndexToOpen, probeWindows[nextProbeWindowToOpen].windowStart, currentReferenceIndex, currentPosition) <= 0) {
+					openProbeWindows.add(probeWindows[nextProbeWindowToOpen]);
+					nextProbeWindowToOpen++;
+				}
+				nextProbeWindowToOpenByReferenceIndex[nextReferenceIndexToOpen] = nextProbeWindowToOpen;
+				if (nextProbeWindowToOpen < probeWindows.length) {
+					break;
+				}
+				nextReferenceIndexToOpen++;
+			}
+			maxOpenProbeWindows = Math.max(maxOpenProbeWindows, openProbeWindows.size());
+
+			// no more reads can be contained within windows that stop before the current position
+			Iterator<ProbeWindow> openProbeWindowsIter = openProbeWindows.iterator();
+			while (openProbeWindowsIter.hasNext()) {
+				ProbeWindow probeWindow = openProbeWindowsIter.next();
+				if (compareLocations(probeWindow.referenceIndex, probeWindow.windowStop, currentReferenceIndex, currentPosition) < 0) {
+					openProbeWindowsIter.remove();
+					probeWindow.isPassed = true;
+					closeProbeWindowIfComplete(probeWindow);
+				}
+			}
+		}
+	}
+
+	private static int getReadIndex(SAMRecord record) {
+		String readName = record.getReadName();
+		int readIndex;
+		try {
+			readIndex = Integer.parseInt(readName);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Expecting all read names to be numbers because the trim step also replaces names with the read index.  Read name[" + readName + "] is not a valid number.");
+		}
+		return readIndex;
+	}
+
+	private static int getPairIndex(SAMRecord record) {
+		int pairIndex;
+		if (record.getFirstOfPairFlag()) {
+			pairIndex = FIRST_OF_PAIR;
+		} else if (record.getSecondOfPairFlag()) {
+			pairIndex = SECOND_OF_PAIR;
+		} else {
+			throw new AssertionError();
+		}
+		return pairIndex;
+	}
+
+	private void addMappedRecord(SAMRecord record) {
+		int readIndex = getReadIndex(record);
+		int pairIndex = getPairIndex(record);
+
+		boolean isAlternativeHit = SAMRecordUtil.isAlternativeHitCopy(record);
+		if (isAlternativeHit) {
+			numberOfAlternativeHitRecords++;
+		}
+
+		if (repeatedReadIndexes.contains(readIndex)) {
+			// the read name is not unique so none of its records are used
+		} else if (readIndexesWithCompletedAssignment.get(readIndex)) {
+			Set<Probe> assignedProbes = readToProbeAssignmentResults.getAssignedProbes(readIndex);
+			if (!isAlternativeHit) {
+				// both primary mappings have already been seen for this read name
+				if (repeatedReadIndexes.add(readIndex)) {
+					readToProbeAssignmentResults.remove(readIndex);
+				}
+			} else if (assignedProbes != null) {
+				for (ProbeWindow probeWindow : openProbeWindows) {
+					if (assignedProbes.contains(probeWindow.probe) && probeWindow.contains(record)) {
+						probeWindow.addRecord(readIndex, pairIndex, record);
+					}
+				}
+			}
+		} else {
+			UnassignedReadPair readPair = unassignedReadPairs.get(readIndex);
+			if (readPair == null) {
+				readPair = new UnassignedReadPair(readIndex);
+				unassignedReadPairs.put(readIndex, readPair);
+				maxUnassignedReadPairs = Math.max(maxUnassignedReadPairs, unassignedReadPairs.size());
+			}
+
+			for (ProbeWindow probeWindow : openProbeWindows) {
+				if (probeWindow.contains(record)) {
+					probeWindow.addRecord(readIndex, pairIndex, record);
+					probeWindow.unassignedReadIndexes.add(readIndex);
+					readPair.probeWindows.add(probeWindow);
+				}
+			}
+
+			int mateIndex = 1 - pairIndex;
+			readPair.primaryReferenceIndexes[mateIndex] = record.getMateReferenceIndex();
+			readPair.primaryPositions[mateIndex] = record.getMateAlignmentStart();
+
+			if (!isAlternativeHit) {
+				if (readPair.primaryRecords[pairIndex] != null) {
+					repeatedReadIndexes.add(readIndex);
+					completeAssignment(readPair, null);
+				} else {
+					readPair.primaryRecords[pairIndex] = record;
+					readPair.primaryReferenceIndexes[pairIndex] = record.getReferenceIndex();
+					readPair.primaryPositions[pairIndex] = record.getAlignmentStart();
+					readPair.containedProbes[pairIndex] = getContainedProbes(record);
+
+					if (readPair.primaryRecords[mateIndex] != null) {
+						assign(readPair);
+					}
+				}
+			}
+
+			if (unassignedReadPairs.get(readIndex) == readPair) {
+				updateExpiration(readPair);
+			}
+		}
+	}
+
+	/**
+	 * @return the probes containing the record and any of the record's alternative hits
+	 */
+	private Set<Probe> getContainedProbes(SAMRecord record) {
+		// ASSUMPTIONS:
+		// Fastq1/firstOfPair always has same strandedness as probe
+		// Fastq2/secondOfPair always has opposite strandedness as probe
+		boolean isNegativeStrand = record.getReadNegativeStrandFlag();
+		if (record.getSecondOfPairFlag()) {
+			isNegativeStrand = !isNegativeStrand;
+		}
+
+		IRangeMap<Probe> probeRanges = null;
+		if (isNegativeStrand) {
+			probeRanges = negativeStrandProbesRangesBySequenceName.get(record.getReferenceName());
+		} else {
+			probeRanges = positiveStrandProbesRangesBySequenceName.get(record.getReferenceName());
+		}
+
+		Set<Probe> containedProbes = new HashSet<Probe>();
+		if (probeRanges != null) {
+			containedProbes.addAll(probeRanges.getObjectsThatContainRangeInclusive(record.getAlignmentStart(), record.getAlignmentEnd()));
+		}
+		Map<AlternativeHit, Set<Probe>> alternativeHitsMap = PrimerReadExtensionAndPcrDuplicateIdentification.getPotentialAlternativeHits(record, positiveStrandProbesRangesBySequenceName,
+				negativeStrandProbesRangesBySequenceName);
+		for (Set<Probe> alternativeHitProbes : alternativeHitsMap.values()) {
+			containedProbes.addAll(alternativeHitProbes);
+		}
+		return containedProbes;
+	}
+
+	private void assign(UnassignedReadPair readPair) {
+		int readIndex = readPair.readIndex;
+		Set<Probe> containedProbesInBothReads = new HashSet<Probe>();
+		for (Probe probe : readPair.containedProbes[FIRST_OF_PAIR]) {
+			if (readPair.containedProbes[SECOND_OF_PAIR].contains(probe)) {
+				containedProbesInBothReads.add(probe);
+			}
+		}
+
+		Probe assignedProbe = null;
+		if (containedProbesInBothReads.size() == 1) {
+			assignedProbe = containedProbesInBothReads.iterator().next();
+			numberOfUniquelyAssignedReadPairs++;
+			if (ReadNameTracking.shouldTrackReadName(readIndex)) {
+				String message = "Read Name[" + readIndex + "] was uniquely assigned to probe[" + assignedProbe.getProbeId() + "].";
+				System.out.println(message);
+				logger.info(message);
+			}
+		} else if (containedProbesInBothReads.size() > 1) {
+			// the read strings are the same for every mapping of a read so the same pair can be aligned to each candidate probe
+			SAMRecordPair recordPair = new SAMRecordPair(readPair.primaryRecords[FIRST_OF_PAIR], readPair.primaryRecords[SECOND_OF_PAIR]);
+			Map<Probe, SAMRecordPair> recordPairsByProbe = new HashMap<Probe, SAMRecordPair>();
+			for (Probe probe : containedProbesInBothReads) {
+				recordPairsByProbe.put(probe, recordPair);
+			}
+			Set<Probe> bestProbes = PrimerReadExtensionAndPcrDuplicateIdentification.getBestProbesForReadPair(containedProbesInBothReads, recordPairsByProbe, extensionUidLength,
+					ligationUidLength);
+			if (bestProbes.size() == 1) {
+				assignedProbe = bestProbes.iterator().next();
+				numberOfReadPairsAssignedAfterAlignment++;
+				if (ReadNameTracking.shouldTrackReadName(readIndex)) {
+					System.out.println("Read Name[" + readIndex + "] was uniquely assigned to probe [" + assignedProbe.getProbeId() + "] despite having [" + containedProbesInBothReads.size()
+							+ "] candiate probes.");
+				}
+			} else {
+				numberOfReadPairsAssignedToMultipleProbes++;
+				String[] probeNames = new String[bestProbes.size()];
+				int i = 0;
+				for (Probe bestProbe : bestProbes) {
+					probeNames[i] = bestProbe.getProbeId();
+					i++;
+				}
+				String message = "Read[" + readIndex + "] could not be assigned to exactly one probe, the probe candidates are [" + ArraysUtil.toString(probeNames)
+						+ "], so read will be excluded.";
+				logger.warn(message);
+				if (ReadNameTracking.shouldTrackReadName(readIndex)) {
+					System.out.println(message);
+				}
+			}
+		} else {
+			numberOfReadPairsNotAssignedToAProbe++;
+		}
+
+		completeAssignment(readPair, assignedProbe);
+	}
+
+	/**
+	 * Record the probe the read pair was assigned to (or null if the read pair was excluded) and remove the read pair from the windows of all other probes.
+	 */
+	private void completeAssignment(UnassignedReadPair readPair, Probe assignedProbe) {
+		int readIndex = readPair.readIndex;
+		unassignedReadPairs.remove(readIndex);
+		readIndexesWithCompletedAssignment.set(readIndex);
+		if (assignedProbe != null) {
+			readToProbeAssignmentResults.put(readIndex, Collections.singleton(assignedProbe));
+		}
+
+		for (ProbeWindow probeWindow : readPair.probeWindows) {
+			probeWindow.unassignedReadIndexes.remove(readIndex);
+			if (!probeWindow.probe.equals(assignedProbe)) {
+				probeWindow.readIndexToRecordsMap.remove(readIndex);
+			}
+			closeProbeWindowIfComplete(probeWindow);
+		}
+	}
+
+	/**
+	 * The read pair will be excluded if the sweep passes the primary mapping of a mate that has not been seen yet.
+	 */
+	private void updateExpiration(UnassignedReadPair readPair) {
+		int expirationReferenceIndex = Integer.MAX_VALUE;
+		int expirationPosition = Integer.MAX_VALUE;
+		for (int pairIndex = FIRST_OF_PAIR; pairIndex <= SECOND_OF_PAIR; pairIndex++) {
+			if (readPair.primaryRecords[pairIndex] == null && readPair.primaryReferenceIndexes[pairIndex] != null) {
+				int referenceIndex = readPair.primaryReferenceIndexes[pairIndex];
+				int position = readPair.primaryPositions[pairIndex];
+				if (compareLocations(referenceIndex, position, expirationReferenceIndex, expirationPosition) < 0) {
+					expirationReferenceIndex = referenceIndex;
+					expirationPosition = position;
+				}
+			}
+		}
+
+		if (readPair.expiration == null || expirationReferenceIndex != readPair.expiration.referenceIndex || expirationPosition != readPair.expiration.position) {
+			// the previous expiration is left in the queue and ignored when it is reached
+			readPair.expiration = new Expiration(readPair, expirationReferenceIndex, expirationPosition);
+			unassignedReadPairsByExpiration.add(readPair.expiration);
+		}
+	}
+
+	private void closeProbeWindowIfComplete(ProbeWindow probeWindow) {
+		if (probeWindow.isPassed && !probeWindow.isClosed && probeWindow.unassignedReadIndexes.isEmpty()) {
+			probeWindow.isClosed = true;
+
+			Map<Integer, SAMRecordPair> readIndexToFullyPairedRecordsMap = new HashMap<Integer, SAMRecordPair>();
+			for (Entry<Integer, SAMRecordPair> entry : probeWindow.readIndexToRecordsMap.entrySet()) {
+				Integer readIndex = entry.getKey();
+				SAMRecordPair pair = entry.getValue();
+				Set<Probe> assignedProbes = readToProbeAssignmentResults.getAssignedProbes(readIndex);
+				if (assignedProbes != null && assignedProbes.contains(probeWindow.probe) && !repeatedReadIndexes.contains(readIndex)
+						&& PrimerReadExtensionAndPcrDuplicateIdentification.isReadPairUsableForDeduplication(readIndex, pair)) {
+					SAMRecordUtil.removeAlternativeHitCopyAttribute(pair.getFirstOfPairRecord());
+					SAMRecordUtil.removeAlternativeHitCopyAttribute(pair.getSecondOfPairRecord());
+					readIndexToFullyPairedRecordsMap.put(readIndex, pair);
+					readToProbeAssignmentResults.remove(readIndex);
+				}
+			}
+			probeWindow.readIndexToRecordsMap.clear();
+
+			listener.probeWindowClosed(probeWindow.probe, readIndexToFullyPairedRecordsMap);
+		}
+	}
+
+	/**
+	 * Wraps the provided (name sorted) records and adds a copy of each record at each of its alternative hits. Only records that could be assigned to a probe are copied. The read names with more
+	 * than one primary mapping for the same read of the pair are noted as the records are read so all of the records must be read before the first record is added to the sweeper.
+	 *
+	 * @param records
+	 * @param sequenceDictionary
+	 * @param probeInfo
+	 * @return the provided records followed by the copies of each record placed at its alternative hits
+	 */
+	Iterator<SAMRecord> addAlternativeHitCopies(Iterator<SAMRecord> records, SAMSequenceDictionary sequenceDictionary, ParsedProbeFile probeInfo) {
+		return new AlternativeHitCopyIterator(records, sequenceDictionary, probeInfo);
+	}
+
+	private class AlternativeHitCopyIterator implements Iterator<SAMRecord> {
+
+		private final Iterator<SAMRecord> records;
+		private final SAMSequenceDictionary sequenceDictionary;
+		private final ParsedProbeFile probeInfo;
+		private final LinkedList<SAMRecord> nextRecords;
+		private final BitSet[] readIndexesWithPrimaryMappingByPairIndex;
+
+		private AlternativeHitCopyIterator(Iterator<SAMRecord> records, SAMSequenceDictionary sequenceDictionary, ParsedProbeFile probeInfo) {
+			this.records = records;
+			this.sequenceDictionary = sequenceDictionary;
+			this.probeInfo = probeInfo;
+			this.nextRecords = new LinkedList<SAMRecord>();
+			this.readIndexesWithPrimaryMappingByPairIndex = new BitSet[] { new BitSet(), new BitSet() };
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !nextRecords.isEmpty() || records.hasNext();
+		}
+
+		@Override
+		public SAMRecord next() {
+			if (nextRecords.isEmpty()) {
+				SAMRecord record = records.next();
+				nextRecords.add(record);
+
+				if (isPrimaryMappingOnProbeSequences(record)) {
+					int readIndex = getReadIndex(record);
+					BitSet readIndexesWithPrimaryMapping = readIndexesWithPrimaryMappingByPairIndex[getPairIndex(record)];
+					if (readIndexesWithPrimaryMapping.get(readIndex)) {
+						repeatedReadIndexes.add(readIndex);
+					}
+					readIndexesWithPrimaryMapping.set(readIndex);
+				}
+
+				boolean isUnmapped = record.getMateUnmappedFlag() || record.getReadUnmappedFlag();
+				if (!isUnmapped && !record.isSecondaryOrSupplementary() && probeInfo.containsSequenceName(record.getReferenceName()) && probeInfo.containsSequenceName(record.getMateReferenceName())
+						&& SAMRecordUtil.recordHasAltHits(record)) {
+					Set<String> copiedLocations = new HashSet<String>();
+					copiedLocations.add(record.getReferenceName() + ":" + record.getAlignmentStart() + ":" + record.getReadNegativeStrandFlag());
+					for (AlternativeHit alternativeHit : SAMRecordUtil.getAlternativeHitsFromAttribute(record)) {
+						String container = alternativeHit.getContainer();
+						// only make copies at alternative hits on a probe sequence (records at the same location would be indistinguishable when sorting)
+						if (probeInfo.containsSequenceName(container) && sequenceDictionary.getSequence(container) != null
+								&& copiedLocations.add(container + ":" + alternativeHit.getStart() + ":" + (alternativeHit.getStrand() == Strand.REVERSE))) {
+							SAMRecord alternativeHitRecord = alternativeHit.getAsSAMRecord();
+							SAMRecordUtil.setAlternativeHitCopy(alternativeHitRecord);
+							nextRecords.add(alternativeHitRecord);
+						}
+					}
+				}
+			}
+			return nextRecords.poll();
+		}
+
+		@Override
+		public void remove() {
+			throw new IllegalStateException("This method is not implemented.");
+		}
+	}
+
+	/**
+	 * @return a description of the work done by the sweep
+	 */
+	String getSummary() {
+		return "records[" + numberOfRecords + "] alternative_hit_records[" + numberOfAlternativeHitRecords + "] uniquely_assigned_read_pairs[" + numberOfUniquelyAssignedReadPairs
+				+ "] read_pairs_assigned_after_alignment[" + numberOfReadPairsAssignedAfterAlignment + "] read_pairs_assigned_to_multiple_probes[" + numberOfReadPairsAssignedToMultipleProbes
+				+ "] read_pairs_not_assigned_to_a_probe[" + numberOfReadPairsNotAssignedToAProbe + "] read_pairs_with_missing_mate[" + numberOfReadPairsWithMissingMate
+				+ "] repeated_read_names[" + repeatedReadIndexes.size() + "] max_open_probe_windows[" + maxOpenProbeWindows + "] max_unassigned_read_pairs[" + maxUnassignedReadPairs + "]";
+	}
+
+	private static class ProbeWindow {
+		private final Probe probe;
+		private final int referenceIndex;
+		private final int windowStart;
+		private final int windowStop;
+		private final Map<Integer, SAMRecordPair> readIndexToRecordsMap;
+		private final Set<Integer> unassignedReadIndexes;
+		private boolean isPassed;
+		private boolean isClosed;
+
+		private ProbeWindow(Probe probe, int referenceIndex, int windowStart, int windowStop) {
+			this.probe = probe;
+			this.referenceIndex = referenceIndex;
+			this.windowStart = windowStart;
+			this.windowStop = windowStop;
+			this.readIndexToRecordsMap = new HashMap<Integer, SAMRecordPair>();
+			this.unassignedReadIndexes = new HashSet<Integer>();
+			this.isPassed = false;
+			this.isClosed = false;
+		}
+
+		private boolean contains(SAMRecord record) {
+			return record.getReferenceIndex() == referenceIndex && record.getAlignmentStart() >= windowStart && record.getAlignmentEnd() <= windowStop;
+		}
+
+		private void addRecord(int readIndex, int pairIndex, SAMRecord record) {
+			SAMRecordPair pair = readIndexToRecordsMap.get(readIndex);
+			if (pair == null) {
+				pair = new SAMRecordPair();
+				readIndexToRecordsMap.put(readIndex, pair);
+			}
+
+			// alternative hits take precedence over the primary mapping
+			if (pairIndex == FIRST_OF_PAIR) {
+				if (pair.getFirstOfPairRecord() == null || SAMRecordUtil.isAlternativeHitCopy(record) || !SAMRecordUtil.isAlternativeHitCopy(pair.getFirstOfPairRecord())) {
+					pair.setFirstOfPairRecord(record);
+				}
+			} else {
+				if (pair.getSecondOfPairRecord() == null || SAMRecordUtil.isAlternativeHitCopy(record) || !SAMRecordUtil.isAlternativeHitCopy(pair.getSecondOfPairRecord())) {
+					pair.setSecondOfPairRecord(record);
+				}
+			}
+		}
+	}
+
+	private static class UnassignedReadPair {
+		private final int readIndex;
+		private final SAMRecord[] primaryRecords;
+		private final Integer[] primaryReferenceIndexes;
+		private final int[] primaryPositions;
+		@SuppressWarnings("unchecked")
+		private final Set<Probe>[] containedProbes = (Set<Probe>[]) new Set<?>[2];
+		private final List<ProbeWindow> probeWindows;
+		private Expiration expiration;
+
+		private UnassignedReadPair(int readIndex) {
+			this.readIndex = readIndex;
+			this.primaryRecords = new SAMRecord[2];
+			this.primaryReferenceIndexes = new Integer[2];
+			this.primaryPositions = new int[2];
+			this.probeWindows = new ArrayList<ProbeWindow>();
+			this.expiration = null;
+		}
+	}
+
+	private static class Expiration {
+		private final UnassignedReadPair readPair;
+		private final int referenceIndex;
+		private final int position;
+
+		private Expiration(UnassignedReadPair readPair, int referenceIndex, int position) {
+			this.readPair = readPair;
+			this.referenceIndex = referenceIndex;
+			this.position = position;
+		}
+	}
+
+}
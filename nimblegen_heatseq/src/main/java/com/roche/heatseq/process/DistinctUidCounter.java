@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.heatseq.process;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.roche.sequencing.bioinformatics.common.mapping.LongHashSet;
+
+/**
+ * Counts the distinct full UIDs (the extension UID followed by the ligation UID) found by all of the probe processing threads. UIDs of only A, C, G and T which fit in a long are kept as primitive
+ * longs in one of several sets chosen by the UID so threads rarely wait on each other, any other UIDs are kept as strings.
+ */
+class DistinctUidCounter {
+
+	final static long UNPACKABLE_UID = -1;
+
+	private final static int BITS_PER_BASE = 2;
+	private final static int MAX_PACKED_UID_LENGTH = 31;
+	private final static int NUMBER_OF_SEGMENTS = 64;
+
+	private final LongHashSet[] packedUidSegments;
+	private final Set<String> unpackableUids;
+
+	DistinctUidCounter() {
+		packedUidSegments = new LongHashSet[NUMBER_OF_SEGMENTS];
+		for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
+			packedUidSegments[i] = new LongHashSet();
+		}
+		unpackableUids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
+
+	/**
+	 * Packs the full UID into a long with 2 bits per base followed by a single set bit which marks the length, so full UIDs of different lengths never share a value.
+	 *
+	 * @param extensionUid
+	 * @param ligationUid
+	 * @return the packed full UID or UNPACKABLE_UID if the full UID is longer than 31 bases or contains a base other than A, C, G or T
+	 */
+	static long packUid(String extensionUid, String ligationUid) {
+		long packedUid = UNPACKABLE_UID;
+		int length = extensionUid.length() + ligationUid.length();
+		if (length <= MAX_PACKED_UID_LENGTH) {
+			packedUid = 1;
+			for (int i = 0; i < length && packedUid != UNPACKABLE_UID; i++) {
+				char base = (i < extensionUid.length()) ? extensionUid.charAt(i) : ligationUid.charAt(i - extensionUid.length());
+				int baseValue = getBaseValue(base);
+				if (baseValue < 0) {
+					packedUid = UNPACKABLE_UID;
+				} else {
+					packedUid = (packedUid << BITS_PER_BASE) | baseValue;
+				}
+			}
+		}
+		return packedUid;
+	}
+
+	private static int getBaseValue(char base) {
+		int baseValue;
+		switch (base) {
+		case 'A':
+			baseValue = 0;
+			break;
+		case 'C':
+			baseValue = 1;
+			break;
+		case 'G':
+			baseValue = 2;
+			break;
+		case 'T':
+			baseValue = 3;
+			break;
+		default:
+			baseValue = -1;
+			break;
+		}
+		return baseValue;
+	}
+
+	/**
+	 * @param packedUid
+	 *            a value returned by packUid other than UNPACKABLE_UID
+	 */
+	void addPackedUid(long packedUid) {
+		LongHashSet segment = packedUidSegments[(int) ((packedUid ^ (packedUid >>> 32)) * 0x9E3779B1L) >>> 26];
+		synchronized (segment) {
+			segment.add(packedUid);
+		}
+	}
+
+	/**
+	 * @param fullUid
+	 *            a full UID which could not be packed
+	 */
+	void addUnpackableUid(String fullUid) {
+		unpackableUids.add(fullUid);
+	}
+
+	int getNumberOfDistinctUids() {
+		int numberOfDistinctUids = unpackableUids.size();
+		for (LongHashSet segment : packedUidSegments) {
+			synchronized (segment) {
+				numberOfDistinctUids += segment.size();
+			}
+		}
+		return numberOfDistinctUids;
+	}
+
+}
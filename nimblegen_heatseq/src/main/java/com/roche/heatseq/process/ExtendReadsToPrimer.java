@@ -29,8 +29,8 @@ import com.roche.heatseq.utils.SAMRecordUtil;
 import com.roche.heatseq.utils.SAMRecordUtil.AlternativeHit;
 import com.roche.sequencing.bioinformatics.common.alignment.AlignmentPair;
 import com.roche.sequencing.bioinformatics.common.alignment.CigarString;
+import com.roche.sequencing.bioinformatics.common.alignment.FastNeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.alignment.IAlignmentScorer;
-import com.roche.sequencing.bioinformatics.common.alignment.NeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.alignment.SimpleAlignmentScorer;
 import com.roche.sequencing.bioinformatics.common.sequence.ICode;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
@@ -208,7 +208,7 @@ final class ExtendReadsToPrimer {
 		if (primerAlignedsuccessfully) {
 			int captureTargetStartIndexInRead = primerEndIndexInRead + 1;
 			ISequence readWithoutPrimer = readSequence.subSequence(captureTargetStartIndexInRead, readSequence.size());
-			NeedlemanWunschGlobalAlignment readAlignmentWithReference = new NeedlemanWunschGlobalAlignment(captureSequence, readWithoutPrimer, alignmentScorer);
+			FastNeedlemanWunschGlobalAlignment readAlignmentWithReference = new FastNeedlemanWunschGlobalAlignment(captureSequence, readWithoutPrimer, alignmentScorer);
 			boolean readAlignedsuccessfully = (readAlignmentWithReference.getLengthNormalizedAlignmentScore() > LENGTH_NORMALIZED_ALIGNMENT_SCORE_THRESHOLD);
 
 			if (readAlignedsuccessfully) {
@@ -290,7 +290,7 @@ final class ExtendReadsToPrimer {
 		IAlignmentScorer scorer = new SimpleAlignmentScorer(SimpleAlignmentScorer.DEFAULT_MATCH_SCORE, SimpleAlignmentScorer.DEFAULT_MISMATCH_PENALTY, SimpleAlignmentScorer.DEFAULT_GAP_EXTEND_PENALTY,
 				SimpleAlignmentScorer.DEFAULT_GAP_OPEN_PENALTY, true, false);
 
-		NeedlemanWunschGlobalAlignment alignment = new NeedlemanWunschGlobalAlignment(readSequence, primerSequence, scorer);
+		FastNeedlemanWunschGlobalAlignment alignment = new FastNeedlemanWunschGlobalAlignment(readSequence, primerSequence, scorer);
 		ISequence readAlignment = alignment.getAlignmentPair().getReferenceAlignment();
 		ISequence primerAlignment = alignment.getAlignmentPair().getQueryAlignment();
 
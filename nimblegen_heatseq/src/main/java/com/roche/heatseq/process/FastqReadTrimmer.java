@@ -15,64 +15,154 @@
  */
 package com.roche.heatseq.process;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.roche.heatseq.cli.CliStatusConsole;
 import com.roche.heatseq.cli.DeduplicationCli;
+import com.roche.sequencing.bioinformatics.common.multithreading.BoundedQueueThreadPoolExecutor;
+import com.roche.sequencing.bioinformatics.common.utils.DateUtil;
 import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
+import com.roche.sequencing.bioinformatics.common.utils.IlluminaFastQReadNameUtil;
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
-import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqReader;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.ParallelFastqReader;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.PicardException;
+import com.roche.sequencing.bioinformatics.common.utils.gzip.GZipUtil;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ProbeFileUtil;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ProbeFileUtil.ProbeHeaderInformation;
 
 import htsjdk.samtools.fastq.FastqRecord;
-import htsjdk.samtools.fastq.FastqWriter;
-import htsjdk.samtools.fastq.FastqWriterFactory;
 
 public class FastqReadTrimmer {
 
 	private static Logger logger = LoggerFactory.getLogger(FastqReadTrimmer.class);
 
+	// large enough to keep the per batch overhead low and small enough that a few batches per thread fit comfortably in memory
+	private final static int RECORDS_PER_BATCH = 10000;
+	private final static DecimalFormat recordsPerSecondFormatter = new DecimalFormat("#,###");
+
 	public static void trimReads(File inputFastqOneFile, File inputFastqTwoFile, ParsedProbeFile probeInfo, File probeInfoFile, File outputFastqOneFile, File outputFastqTwoFile, boolean trimPrimers)
 			throws IOException {
+		trimReads(inputFastqOneFile, inputFastqTwoFile, probeInfo, probeInfoFile, outputFastqOneFile, outputFastqTwoFile, trimPrimers, Runtime.getRuntime().availableProcessors(), false);
+	}
+
+	/**
+	 * Trims read one and read two in a single pass. Batches of read pairs are trimmed on numberOfThreads worker threads and each output file is written in input order by its own writer thread, so
+	 * neither read has to wait for the other.
+	 * 
+	 * @param compressOutput
+	 *            write the output as BGZF, the blocks are compressed by the worker threads
+	 */
+	public static void trimReads(File inputFastqOneFile, File inputFastqTwoFile, ParsedProbeFile probeInfo, File probeInfoFile, File outputFastqOneFile, File outputFastqTwoFile, boolean trimPrimers,
+			int numberOfThreads, boolean compressOutput) throws IOException {
 		ProbeTrimmingInformation probeTrimmingInformation = getProbeTrimmingInformation(probeInfo, probeInfoFile, trimPrimers);
-		boolean performThreePrimeTrimming = probeTrimmingInformation.isPerformThreePrimeTrimming();
 
-		int readOneTrimFromStart = probeTrimmingInformation.getReadOneTrimFromStart();
-		int readOneTrimStop = probeTrimmingInformation.getReadOneTrimStop();
-		int readTwoTrimFromStart = probeTrimmingInformation.getReadTwoTrimFromStart();
-		int readTwoTrimStop = probeTrimmingInformation.getReadTwoTrimStop();
+		logger.info("read one--first base to keep:" + probeTrimmingInformation.getReadOneTrimFromStart() + "  lastBaseToKeep:" + probeTrimmingInformation.getReadOneTrimStop());
+		logger.info("read two--first base to keep:" + probeTrimmingInformation.getReadTwoTrimFromStart() + "  lastBaseToKeep:" + probeTrimmingInformation.getReadTwoTrimStop());
 
-		logger.info("read one--first base to keep:" + readOneTrimFromStart + "  lastBaseToKeep:" + readOneTrimStop);
-		logger.info("read two--first base to keep:" + readTwoTrimFromStart + "  lastBaseToKeep:" + readTwoTrimStop);
+		if (!trimPrimers) {
+			probeTrimmingInformation = new ProbeTrimmingInformation(false, probeTrimmingInformation.getReadOneTrimFromStart(), probeTrimmingInformation.getReadOneTrimStop(),
+					probeTrimmingInformation.getReadTwoTrimFromStart(), probeTrimmingInformation.getReadTwoTrimStop());
+		}
 
-		PrimerReadExtensionAndPcrDuplicateIdentification.verifyReadNamesCanBeHandledByDedup(inputFastqOneFile, inputFastqTwoFile);
+		long start = System.currentTimeMillis();
+		long numberOfReadPairs = trimReads(inputFastqOneFile, inputFastqTwoFile, outputFastqOneFile, outputFastqTwoFile, probeTrimmingInformation, numberOfThreads, compressOutput);
+		long stop = System.currentTimeMillis();
 
-		if (!trimPrimers) {
-			performThreePrimeTrimming = false;
+		double recordsPerSecond = (2.0 * numberOfReadPairs * 1000) / Math.max(1, stop - start);
+		CliStatusConsole.logStatus("Finished trimming " + numberOfReadPairs + " read pairs from " + inputFastqOneFile.getAbsolutePath() + " and " + inputFastqTwoFile.getAbsolutePath() + " in "
+				+ DateUtil.convertMillisecondsToHHMMSS(stop - start) + "(HH:MM:SS) using " + numberOfThreads + " threads (" + recordsPerSecondFormatter.format(recordsPerSecond)
+				+ " records per second).  The trimmed output has been placed at " + outputFastqOneFile.getAbsolutePath() + " and " + outputFastqTwoFile.getAbsolutePath() + "."
+				+ StringUtil.NEWLINE);
+	}
+
+	/**
+	 * The read names are checked with the same rules as {@link PrimerReadExtensionAndPcrDuplicateIdentification#verifyReadNamesCanBeHandledByDedup(File, File)} while the pairs are trimmed.
+	 * 
+	 * @return the number of read pairs trimmed
+	 */
+	static long trimReads(File inputFastqOneFile, File inputFastqTwoFile, File outputFastqOneFile, File outputFastqTwoFile, ProbeTrimmingInformation probeTrimmingInformation, int numberOfThreads,
+			boolean compressOutput) {
+		validateBasesToKeep(probeTrimmingInformation.getReadOneTrimFromStart(), probeTrimmingInformation.getReadOneTrimStop());
+		validateBasesToKeep(probeTrimmingInformation.getReadTwoTrimFromStart(), probeTrimmingInformation.getReadTwoTrimStop());
+		recreateFile(outputFastqOneFile);
+		recreateFile(outputFastqTwoFile);
+
+		long numberOfReadPairs = 0;
+		BoundedQueueThreadPoolExecutor executor = new BoundedQueueThreadPoolExecutor(numberOfThreads, numberOfThreads * 2, "TRIM_");
+		try {
+			try (ParallelFastqReader fastqOneReader = new ParallelFastqReader(inputFastqOneFile, numberOfThreads);
+					ParallelFastqReader fastqTwoReader = new ParallelFastqReader(inputFastqTwoFile, numberOfThreads);
+					OrderedBatchWriter fastqOneWriter = new OrderedBatchWriter(outputFastqOneFile, numberOfThreads * 2, compressOutput);
+					OrderedBatchWriter fastqTwoWriter = new OrderedBatchWriter(outputFastqTwoFile, numberOfThreads * 2, compressOutput)) {
+				List<FastqRecord> fastqOneBatch = readBatch(fastqOneReader, inputFastqOneFile, "Fastq File One");
+				List<FastqRecord> fastqTwoBatch = readBatch(fastqTwoReader, inputFastqTwoFile, "Fastq File Two");
+				while (fastqOneBatch.size() > 0 || fastqTwoBatch.size() > 0) {
+					if (fastqOneBatch.size() != fastqTwoBatch.size()) {
+						throw new IllegalStateException("The number of records in fastqOne[" + inputFastqOneFile.getAbsolutePath() + "] and fastqTwo[" + inputFastqTwoFile.getAbsolutePath()
+								+ "] do not match.");
+					}
+					fastqOneWriter.add(executor.submit(new TrimBatchTask(fastqOneBatch, probeTrimmingInformation.getReadOneTrimFromStart(), probeTrimmingInformation.getReadOneTrimStop(),
+							probeTrimmingInformation.isPerformThreePrimeTrimming(), compressOutput, fastqTwoBatch, numberOfReadPairs, inputFastqOneFile, inputFastqTwoFile)));
+					fastqTwoWriter.add(executor.submit(new TrimBatchTask(fastqTwoBatch, probeTrimmingInformation.getReadTwoTrimFromStart(), probeTrimmingInformation.getReadTwoTrimStop(),
+							probeTrimmingInformation.isPerformThreePrimeTrimming(), compressOutput, null, numberOfReadPairs, inputFastqOneFile, inputFastqTwoFile)));
+					numberOfReadPairs += fastqOneBatch.size();
+
+					fastqOneBatch = readBatch(fastqOneReader, inputFastqOneFile, "Fastq File One");
+					fastqTwoBatch = readBatch(fastqTwoReader, inputFastqTwoFile, "Fastq File Two");
+				}
+			}
+			logger.info("trim " + executor.getQueueSummary());
+		} finally {
+			executor.shutdownNow();
 		}
+		return numberOfReadPairs;
+	}
 
+	private static List<FastqRecord> readBatch(ParallelFastqReader reader, File inputFastqFile, String fileDescription) {
 		try {
-			trimReads(inputFastqOneFile, outputFastqOneFile, readOneTrimFromStart, readOneTrimStop, performThreePrimeTrimming);
+			return reader.nextBatch(RECORDS_PER_BATCH);
 		} catch (PicardException e) {
-			throw new IllegalStateException("Unable to parse Fastq File One[" + inputFastqOneFile.getAbsolutePath() + "].  " + e.getMessage());
+			throw new IllegalStateException("Unable to parse " + fileDescription + "[" + inputFastqFile.getAbsolutePath() + "].  " + e.getMessage());
+		}
+	}
+
+	private static void validateBasesToKeep(int firstBaseToKeep, int lastBaseToKeep) {
+		if (firstBaseToKeep < 0) {
+			throw new IllegalArgumentException("First base to keep[" + firstBaseToKeep + "] must be greater than zero.");
+		}
+
+		if (lastBaseToKeep <= firstBaseToKeep) {
+			throw new IllegalArgumentException("Last base to keep[" + lastBaseToKeep + "] must be greater than the first base to keep[" + firstBaseToKeep + "].");
+		}
+	}
+
+	private static void recreateFile(File outputFastqFile) {
+		if (outputFastqFile.exists()) {
+			outputFastqFile.delete();
 		}
-		CliStatusConsole.logStatus(
-				"Finished trimming (1 of 2): " + inputFastqOneFile.getAbsolutePath() + ".  The trimmed output has been placed at " + outputFastqOneFile.getAbsolutePath() + "." + StringUtil.NEWLINE);
 		try {
-			trimReads(inputFastqTwoFile, outputFastqTwoFile, readTwoTrimFromStart, readTwoTrimStop, performThreePrimeTrimming);
-		} catch (PicardException e) {
-			throw new IllegalStateException("Unable to parse input Fastq File Two[" + inputFastqTwoFile.getAbsolutePath() + "].  " + e.getMessage());
+			FileUtil.createNewFile(outputFastqFile);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to create an output file at [" + outputFastqFile.getAbsolutePath() + "].", e);
 		}
-		CliStatusConsole.logStatus(
-				"Finished trimming (2 of 2):" + inputFastqTwoFile.getAbsolutePath() + ".  The trimmed output has been placed at " + outputFastqTwoFile.getAbsolutePath() + "." + StringUtil.NEWLINE);
 	}
 
 	public static ProbeTrimmingInformation getProbeTrimmingInformation(ParsedProbeFile probeInfo, File probeInfoFile, boolean trimPrimers) throws IOException {
@@ -157,7 +247,7 @@ public class FastqReadTrimmer {
 		private final int readTwoTrimFromStart;
 		private final int readTwoTrimStop;
 
-		private ProbeTrimmingInformation(boolean performThreePrimeTrimming, int readOneTrimFromStart, int readOneTrimStop, int readTwoTrimFromStart, int readTwoTrimStop) {
+		ProbeTrimmingInformation(boolean performThreePrimeTrimming, int readOneTrimFromStart, int readOneTrimStop, int readTwoTrimFromStart, int readTwoTrimStop) {
 			super();
 			this.performThreePrimeTrimming = performThreePrimeTrimming;
 			this.readOneTrimFromStart = readOneTrimFromStart;
@@ -259,41 +349,6 @@ public class FastqReadTrimmer {
 		}
 	}
 
-	private static void trimReads(File inputFastqFile, File outputFastqFile, int firstBaseToKeep, int lastBaseToKeep, boolean performThreePrimeTrimming) {
-		if (firstBaseToKeep < 0) {
-			throw new IllegalArgumentException("First base to keep[" + firstBaseToKeep + "] must be greater than zero.");
-		}
-
-		if (lastBaseToKeep <= firstBaseToKeep) {
-			throw new IllegalArgumentException("Last base to keep[" + lastBaseToKeep + "] must be greater than the first base to keep[" + firstBaseToKeep + "].");
-		}
-
-		if (outputFastqFile.exists()) {
-			outputFastqFile.delete();
-		}
-		try {
-			FileUtil.createNewFile(outputFastqFile);
-		} catch (IOException e) {
-			throw new IllegalStateException("Unable to create an output file at [" + outputFastqFile.getAbsolutePath() + "].", e);
-		}
-
-		int recordIndex = 0;
-		FastqWriterFactory factory = new FastqWriterFactory();
-		FastqWriter fastQWriter = factory.newWriter(outputFastqFile);
-		try {
-			try (FastqReader fastQReader = new FastqReader(inputFastqFile)) {
-				while (fastQReader.hasNext()) {
-					FastqRecord record = fastQReader.next();
-					FastqRecord newRecord = trim(record, firstBaseToKeep, lastBaseToKeep, performThreePrimeTrimming, recordIndex);
-					fastQWriter.write(newRecord);
-					recordIndex++;
-				}
-			}
-		} finally {
-			fastQWriter.close();
-		}
-	}
-
 	static FastqRecord trim(FastqRecord record, int firstBaseToKeep, int lastBaseToKeep, boolean performThreePrimeTrimming, int recordIndex) {
 		String readName = record.getReadHeader();
 		String readString = record.getReadString();
@@ -307,6 +362,15 @@ public class FastqReadTrimmer {
 	}
 
 	static TrimmedRead trim(String readString, String readQuality, int firstBaseToKeep, int lastBaseToKeep, boolean performThreePrimeTrimming) {
+		int lastBase = getLastBaseToKeep(readString, readQuality, firstBaseToKeep, lastBaseToKeep, performThreePrimeTrimming);
+
+		String newReadString = readString.substring(firstBaseToKeep, lastBase + 1);
+		String newReadQuality = readQuality.substring(firstBaseToKeep, lastBase + 1);
+
+		return new TrimmedRead(newReadString, newReadQuality);
+	}
+
+	private static int getLastBaseToKeep(String readString, String readQuality, int firstBaseToKeep, int lastBaseToKeep, boolean performThreePrimeTrimming) {
 		if (firstBaseToKeep >= readString.length()) {
 			throw new IllegalArgumentException("Unable to trim " + firstBaseToKeep + " bases from the beginning of a sequence with length[" + readString.length() + "]");
 		}
@@ -320,10 +384,206 @@ public class FastqReadTrimmer {
 		if (performThreePrimeTrimming) {
 			lastBase = Math.min(lastBaseToKeep, readString.length() - 1);
 		}
+		return lastBase;
+	}
 
-		String newReadString = readString.substring(firstBaseToKeep, lastBase + 1);
-		String newReadQuality = readQuality.substring(firstBaseToKeep, lastBase + 1);
+	/**
+	 * Trims a batch of records straight into the bytes of the output file, without creating a trimmed copy of each record, and verifies that each read name matches the read name of its mate.
+	 */
+	private static class TrimBatchTask implements Callable<byte[]> {
+		private final List<FastqRecord> records;
+		private final int firstBaseToKeep;
+		private final int lastBaseToKeep;
+		private final boolean performThreePrimeTrimming;
+		private final boolean compressOutput;
+		private final List<FastqRecord> mateRecordsToVerify;
+		private final long firstRecordIndex;
+		private final File inputFastqOneFile;
+		private final File inputFastqTwoFile;
+
+		/**
+		 * @param mateRecordsToVerify
+		 *            the read two records of the pairs if the read names should be verified, null otherwise
+		 */
+		private TrimBatchTask(List<FastqRecord> records, int firstBaseToKeep, int lastBaseToKeep, boolean performThreePrimeTrimming, boolean compressOutput, List<FastqRecord> mateRecordsToVerify,
+				long firstRecordIndex, File inputFastqOneFile, File inputFastqTwoFile) {
+			this.records = records;
+			this.firstBaseToKeep = firstBaseToKeep;
+			this.lastBaseToKeep = lastBaseToKeep;
+			this.performThreePrimeTrimming = performThreePrimeTrimming;
+			this.compressOutput = compressOutput;
+			this.mateRecordsToVerify = mateRecordsToVerify;
+			this.firstRecordIndex = firstRecordIndex;
+			this.inputFastqOneFile = inputFastqOneFile;
+			this.inputFastqTwoFile = inputFastqTwoFile;
+		}
 
-		return new TrimmedRead(newReadString, newReadQuality);
+		@Override
+		public byte[] call() {
+			if (mateRecordsToVerify != null) {
+				verifyReadNames();
+			}
+
+			int[] lastBases = new int[records.size()];
+			int length = 0;
+			for (int i = 0; i < records.size(); i++) {
+				FastqRecord record = records.get(i);
+				lastBases[i] = getLastBaseToKeep(record.getReadString(), record.getBaseQualityString(), firstBaseToKeep, lastBaseToKeep, performThreePrimeTrimming);
+				int trimmedLength = lastBases[i] - firstBaseToKeep + 1;
+				// the four lines with their '@', '+' and new line characters
+				length += record.getReadHeader().length() + getBaseQualityHeader(record).length() + (2 * trimmedLength) + 6;
+			}
+
+			byte[] bytes = new byte[length];
+			int position = 0;
+			for (int i = 0; i < records.size(); i++) {
+				FastqRecord record = records.get(i);
+				bytes[position++] = '@';
+				position = appendLine(record.getReadHeader(), 0, record.getReadHeader().length(), bytes, position);
+				position = appendLine(record.getReadString(), firstBaseToKeep, lastBases[i] + 1, bytes, position);
+				bytes[position++] = '+';
+				position = appendLine(getBaseQualityHeader(record), 0, getBaseQualityHeader(record).length(), bytes, position);
+				position = appendLine(record.getBaseQualityString(), firstBaseToKeep, lastBases[i] + 1, bytes, position);
+			}
+
+			if (compressOutput) {
+				bytes = GZipUtil.compressBgzfBlocks(bytes, 0, bytes.length);
+			}
+			return bytes;
+		}
+
+		private void verifyReadNames() {
+			for (int i = 0; i < records.size(); i++) {
+				String readNameOne = records.get(i).getReadHeader();
+				String readNameTwo = mateRecordsToVerify.get(i).getReadHeader();
+				if (!IlluminaFastQReadNameUtil.getUniqueIdForReadHeader(readNameOne).equals(IlluminaFastQReadNameUtil.getUniqueIdForReadHeader(readNameTwo))) {
+					long lineNumber = ((firstRecordIndex + i) * 4) + 1;
+					throw new IllegalStateException("The read names[" + readNameOne + "][" + readNameTwo + "] found at line[" + lineNumber + "] in fastqOne[" + inputFastqOneFile.getAbsolutePath()
+							+ "] and fastqTwo[" + inputFastqTwoFile.getAbsolutePath() + "] respectively are not valid Illumina read names.");
+				}
+			}
+		}
+
+		private static String getBaseQualityHeader(FastqRecord record) {
+			String baseQualityHeader = record.getBaseQualityHeader();
+			if (baseQualityHeader == null) {
+				baseQualityHeader = "";
+			}
+			return baseQualityHeader;
+		}
+
+		private static int appendLine(String line, int start, int end, byte[] bytes, int position) {
+			for (int i = start; i < end; i++) {
+				bytes[position++] = (byte) line.charAt(i);
+			}
+			bytes[position++] = '\n';
+			return position;
+		}
+	}
+
+	/**
+	 * Writes the results of batch tasks to a file in the order the tasks were added, regardless of the order in which they finish. Adding a batch blocks while the queue is full.
+	 */
+	private static class OrderedBatchWriter implements Closeable {
+		private final static Future<byte[]> END_OF_BATCHES = CompletableFuture.completedFuture(new byte[0]);
+
+		private final File outputFile;
+		private final OutputStream outputStream;
+		private final boolean isBgzf;
+		private final BlockingQueue<Future<byte[]>> batches;
+		private final Thread writerThread;
+		private volatile Throwable writerException;
+		private boolean isClosed;
+
+		private OrderedBatchWriter(File outputFile, int queueCapacity, boolean isBgzf) {
+			this.outputFile = outputFile;
+			this.isBgzf = isBgzf;
+			try {
+				this.outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to write to output file[" + outputFile.getAbsolutePath() + "].", e);
+			}
+			this.batches = new ArrayBlockingQueue<Future<byte[]>>(queueCapacity);
+			this.writerException = null;
+			this.isClosed = false;
+			writerThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeBatches();
+				}
+			}, "TRIM_WRITER_" + outputFile.getName());
+			writerThread.setDaemon(true);
+			writerThread.start();
+		}
+
+		private void writeBatches() {
+			try {
+				Future<byte[]> batch = batches.take();
+				while (batch != END_OF_BATCHES) {
+					if (writerException == null) {
+						try {
+							outputStream.write(batch.get());
+						} catch (ExecutionException e) {
+							// keep draining the queue so the thread adding batches does not block forever, the exception is thrown when adding more batches or closing
+							writerException = e.getCause();
+						} catch (Throwable e) {
+							writerException = e;
+						}
+					}
+					batch = batches.take();
+				}
+				if (writerException == null && isBgzf) {
+					outputStream.write(GZipUtil.getBgzfEndOfFileBlock());
+				}
+			} catch (InterruptedException | IOException e) {
+				writerException = e;
+			}
+		}
+
+		private void add(Future<byte[]> batch) {
+			throwIfWriterFailed();
+			try {
+				batches.put(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		private void throwIfWriterFailed() {
+			Throwable exception = writerException;
+			if (exception instanceof IllegalStateException || exception instanceof IllegalArgumentException) {
+				// a record which could not be trimmed
+				throw new IllegalStateException(exception.getMessage(), exception);
+			} else if (exception != null) {
+				throw new IllegalStateException("Unable to write to output file[" + outputFile.getAbsolutePath() + "]: " + exception.getMessage(), exception);
+			}
+		}
+
+		/**
+		 * Waits for all added batches to be written and then closes the file.
+		 */
+		@Override
+		public void close() {
+			if (!isClosed) {
+				isClosed = true;
+				try {
+					batches.put(END_OF_BATCHES);
+					writerThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e.getMessage(), e);
+				} finally {
+					try {
+						outputStream.close();
+					} catch (IOException e) {
+						if (writerException == null) {
+							writerException = e;
+						}
+					}
+				}
+				throwIfWriterFailed();
+			}
+		}
 	}
 }
@@ -20,16 +20,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Iterator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqReader;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqIndex;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.PicardException;
 
-import htsjdk.samtools.fastq.FastqRecord;
-
 public class FastqValidator {
 
 	private static Logger logger = LoggerFactory.getLogger(FastqValidator.class);
@@ -38,13 +35,13 @@ public class FastqValidator {
 		throw new AssertionError();
 	}
 
-	public static int validateAndGetNumberOfRecords(File fastqOne, File fastqTwo) {
+	public static int validateAndGetNumberOfRecords(File fastqOne, File fastqTwo, int numberOfThreads) {
 		boolean fastqOneIsPresent = fastqOne != null;
 		int fastqOneSize = 0;
 		if (fastqOneIsPresent) {
-			fastqOneSize = validateAndGetNumberOfRecords(fastqOne, "FASTQ1");
+			fastqOneSize = validateAndGetNumberOfRecords(fastqOne, "FASTQ1", numberOfThreads);
 		}
-		int fastqTwoSize = validateAndGetNumberOfRecords(fastqTwo, "FASTQ2");
+		int fastqTwoSize = validateAndGetNumberOfRecords(fastqTwo, "FASTQ2", numberOfThreads);
 
 		if (fastqOneIsPresent && fastqOne.getAbsolutePath().equals(fastqTwo.getAbsolutePath())) {
 			throw new IllegalStateException("The same file[" + fastqTwo.getAbsolutePath() + "] was provided for FASTQ1 and FASTQ2.");
@@ -64,7 +61,7 @@ public class FastqValidator {
 
 	}
 
-	private static int validateAndGetNumberOfRecords(File fastq, String fileName) {
+	private static int validateAndGetNumberOfRecords(File fastq, String fileName, int numberOfThreads) {
 
 		if (!fastq.exists()) {
 			throw new IllegalStateException("Unable to find provided " + fileName + " file[" + fastq.getAbsolutePath() + "].");
@@ -83,12 +80,9 @@ public class FastqValidator {
 		}
 
 		int size = 0;
-		try (FastqReader reader = new FastqReader(fastq)) {
-			Iterator<FastqRecord> iter = reader.iterator();
-			while (iter.hasNext()) {
-				iter.next();
-				size++;
-			}
+		try {
+			// validates and counts the records in one pass the first time the file is seen, later runs read the count from the index
+			size = FastqIndex.loadOrCreate(fastq, numberOfThreads).getNumberOfRecords();
 		} catch (PicardException e) {
 			logger.warn(e.getMessage(), e);
 		}
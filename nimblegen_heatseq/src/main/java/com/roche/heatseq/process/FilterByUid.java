@@ -19,8 +19,8 @@ package com.roche.heatseq.process;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,8 +38,9 @@ import com.roche.heatseq.qualityreport.ReportManager;
 import com.roche.heatseq.utils.NucleotideCompositionUtil;
 import com.roche.heatseq.utils.SAMRecordUtil;
 import com.roche.sequencing.bioinformatics.common.alignment.IAlignmentScorer;
+import com.roche.sequencing.bioinformatics.common.mapping.LongToIntListMap;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
-import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+import com.roche.sequencing.bioinformatics.common.sequence.PackedNucleotideCodeSequence;
 import com.roche.sequencing.bioinformatics.common.utils.TabDelimitedFileWriter;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
 
@@ -69,7 +70,7 @@ class FilterByUid {
 	 * @return A UidReductionResultsForAProbe containing the processing statistics and the reduced probe set
 	 */
 	static UidReductionResultsForAProbe reduceReadsByProbeAndUid(Probe probe, Map<Integer, SAMRecordPair> readIndexToRecordsMap, ReportManager reportManager, boolean allowVariableLengthUids,
-			int expectedExtensionUidLength, int expectedLigationUidLength, IAlignmentScorer alignmentScorer, Set<ISequence> distinctUids, List<ISequence> uids, boolean markDuplicates,
+			int expectedExtensionUidLength, int expectedLigationUidLength, IAlignmentScorer alignmentScorer, DistinctUidCounter distinctUids, boolean markDuplicates,
 			boolean useStrictReadToProbeMatching) {
 
 		List<IReadPair> uniqueReadPairs = new ArrayList<IReadPair>();
@@ -77,6 +78,8 @@ class FilterByUid {
 
 		// Process the data into a list
 		List<IReadPair> datas = new ArrayList<IReadPair>();
+		LongToIntListMap packedUidToDataIndexes = new LongToIntListMap(readIndexToRecordsMap.size());
+		Map<String, List<IReadPair>> unpackableUidToDataMap = new LinkedHashMap<String, List<IReadPair>>();
 		for (SAMRecordPair recordPair : readIndexToRecordsMap.values()) {
 			SAMRecord record = recordPair.getFirstOfPairRecord();
 			SAMRecord mate = recordPair.getSecondOfPairRecord();
@@ -102,16 +105,6 @@ class FilterByUid {
 				}
 				if (readPairAlignsWithProbeCoordinates && extensionUid != null && ligationUid != null) {
 
-					ISequence extensionUidSequence = new IupacNucleotideCodeSequence(extensionUid);
-					ISequence ligationUidSequence = new IupacNucleotideCodeSequence(ligationUid);
-					ISequence fullUidSequence = new IupacNucleotideCodeSequence();
-					fullUidSequence.append(extensionUidSequence);
-					fullUidSequence.append(ligationUidSequence);
-					distinctUids.add(fullUidSequence);
-					synchronized (uids) {
-						uids.add(fullUidSequence);
-					}
-
 					// leave the uid on, this way if its short we won't cut off primer sequence and only uid diversity will be affected
 					String readOneString = record.getReadString();// SAMRecordUtil.removeUidFromReadOne(record.getReadString(), extensionUid.length());
 					String readOneBaseQualityString = record.getBaseQualityString();// SAMRecordUtil.removeUidFromReadOne(record.getBaseQualityString(), extensionUid.length());
@@ -126,38 +119,53 @@ class FilterByUid {
 					mate.setReadString(readTwoString);
 					mate.setBaseQualityString(readTwoBaseQualityString);
 
-					datas.add(new ReadPair(record, mate, extensionUid, ligationUid, probe.getCaptureTargetSequence(), probe.getProbeId(), false, false));
-				}
-			}
-		}
+					IReadPair readPair = new ReadPair(record, mate, extensionUid, ligationUid, probe.getCaptureTargetSequence(), probe.getProbeId(), false, false);
 
-		Map<String, List<IReadPair>> uidToDataMap = new HashMap<String, List<IReadPair>>();
-		for (IReadPair readPair : datas) {
-			String extensionUid = readPair.getExtensionUid();
-			String ligationUid = readPair.getLigationUid();
-			String fullUid = extensionUid + ligationUid;
-			List<IReadPair> uidData = uidToDataMap.get(fullUid);
+					// full uids which fit in a long are grouped by their packed value so no string or sequence is built per read pair
+					long packedUid = DistinctUidCounter.packUid(extensionUid, ligationUid);
+					if (packedUid == DistinctUidCounter.UNPACKABLE_UID) {
+						String fullUid = extensionUid + ligationUid;
+						List<IReadPair> uidData = unpackableUidToDataMap.get(fullUid);
+						if (uidData == null) {
+							uidData = new ArrayList<IReadPair>();
+							unpackableUidToDataMap.put(fullUid, uidData);
+						}
+						uidData.add(readPair);
+					} else {
+						packedUidToDataIndexes.add(packedUid, datas.size());
+					}
 
-			if (uidData == null) {
-				uidData = new ArrayList<IReadPair>();
+					datas.add(readPair);
+				}
 			}
+		}
 
-			uidData.add(readPair);
-			uidToDataMap.put(fullUid, uidData);
+		int numberOfUids = packedUidToDataIndexes.size() + unpackableUidToDataMap.size();
+		List<String> uidsByGroup = new ArrayList<String>(numberOfUids);
+		List<List<IReadPair>> readPairsByGroup = new ArrayList<List<IReadPair>>(numberOfUids);
+		for (int keyIndex = 0; keyIndex < packedUidToDataIndexes.size(); keyIndex++) {
+			distinctUids.addPackedUid(packedUidToDataIndexes.getKey(keyIndex));
+			List<IReadPair> uidData = getReadPairs(datas, packedUidToDataIndexes.getValuesByKeyIndex(keyIndex));
+			uidsByGroup.add(uidData.get(0).getExtensionUid() + uidData.get(0).getLigationUid());
+			readPairsByGroup.add(uidData);
+		}
+		for (Entry<String, List<IReadPair>> entry : unpackableUidToDataMap.entrySet()) {
+			distinctUids.addUnpackableUid(entry.getKey());
+			uidsByGroup.add(entry.getKey());
+			readPairsByGroup.add(entry.getValue());
 		}
 
 		int minNumberOfReadPairsPerUid = Integer.MAX_VALUE;
 		int maxNumberOfReadPairsPerUid = 0;
-		int[] sizeByUid = new int[uidToDataMap.size()];
-		int i = 0;
 
 		Set<ISequence> uniqueUidsByProbe = new HashSet<ISequence>();
 		List<ISequence> weightedUidsByProbe = new ArrayList<ISequence>();
-		for (String uid : uidToDataMap.keySet()) {
-			ISequence uidSequence = new IupacNucleotideCodeSequence(uid);
+		for (int groupIndex = 0; groupIndex < uidsByGroup.size(); groupIndex++) {
+			String uid = uidsByGroup.get(groupIndex);
+			ISequence uidSequence = new PackedNucleotideCodeSequence(uid);
 			uniqueUidsByProbe.add(uidSequence);
 
-			List<IReadPair> pairsDataByUid = uidToDataMap.get(uid);
+			List<IReadPair> pairsDataByUid = readPairsByGroup.get(groupIndex);
 
 			int readPairsByUid = pairsDataByUid.size();
 
@@ -165,7 +173,6 @@ class FilterByUid {
 				weightedUidsByProbe.add(uidSequence);
 			}
 
-			sizeByUid[i] = readPairsByUid;
 			minNumberOfReadPairsPerUid = Math.min(minNumberOfReadPairsPerUid, readPairsByUid);
 			maxNumberOfReadPairsPerUid = Math.max(maxNumberOfReadPairsPerUid, readPairsByUid);
 
@@ -198,8 +205,6 @@ class FilterByUid {
 					}
 				}
 			}
-
-			i++;
 		}
 
 		if (minNumberOfReadPairsPerUid == Integer.MAX_VALUE) {
@@ -210,21 +215,25 @@ class FilterByUid {
 		TabDelimitedFileWriter probeCoverageWriter = reportManager.getProbeCoverageWriter();
 
 		if (uniqueProbeTalliesWriter != null || probeCoverageWriter != null) {
-			String[] line = new String[uidToDataMap.size() + 1];
+			String[] line = new String[uidsByGroup.size() + 1];
 			line[0] = probe.getProbeId();
 			int columnIndex = 1;
 
 			List<UidNameToCountPair> uidCounts = new ArrayList<UidNameToCountPair>();
 
-			for (Entry<String, List<IReadPair>> readsByUid : uidToDataMap.entrySet()) {
-				uidCounts.add(new UidNameToCountPair(readsByUid.getKey(), readsByUid.getValue().size()));
+			for (int groupIndex = 0; groupIndex < uidsByGroup.size(); groupIndex++) {
+				uidCounts.add(new UidNameToCountPair(uidsByGroup.get(groupIndex), readPairsByGroup.get(groupIndex).size()));
 			}
 
 			Collections.sort(uidCounts, new Comparator<UidNameToCountPair>() {
 
 				@Override
 				public int compare(UidNameToCountPair o1, UidNameToCountPair o2) {
-					return Integer.compare(o2.getCount(), o1.getCount());
+					int result = Integer.compare(o2.getCount(), o1.getCount());
+					if (result == 0) {
+						result = o1.getUidName().compareTo(o2.getUidName());
+					}
+					return result;
 				}
 			});
 
@@ -274,6 +283,14 @@ class FilterByUid {
 
 	};
 
+	private static List<IReadPair> getReadPairs(List<IReadPair> datas, int[] readPairIndexes) {
+		List<IReadPair> readPairs = new ArrayList<IReadPair>(readPairIndexes.length);
+		for (int readPairIndex : readPairIndexes) {
+			readPairs.add(datas.get(readPairIndex));
+		}
+		return readPairs;
+	}
+
 	/**
 	 * @param data
 	 * @return the read pair with the best quality in the list
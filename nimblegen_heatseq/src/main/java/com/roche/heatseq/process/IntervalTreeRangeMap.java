@@ -0,0 +1,196 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.heatseq.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.roche.heatseq.process.RangeMap.LocationToValue;
+
+/**
+ * A range map backed by an augmented interval tree. The tree is built from the ranges the first time the map is queried after a put, and the tree is immutable so queries from multiple threads do not
+ * need to lock. The ranges can overlap and can be nested within each other.
+ *
+ * The tree is stored implicitly in arrays sorted by range start, the root of each subtree is the middle index of the subtree's index range and each node stores the maximum stop location within its
+ * subtree so subtrees that can not contain a match are skipped.
+ */
+class IntervalTreeRangeMap<O> implements IRangeMap<O> {
+
+	private final List<LocationToValue<O>> locationToValue;
+	private int minStart = Integer.MAX_VALUE;
+	private int maxStop = -Integer.MAX_VALUE;
+	private volatile IntervalTree<O> intervalTree;
+
+	public IntervalTreeRangeMap() {
+		locationToValue = new ArrayList<LocationToValue<O>>();
+		intervalTree = null;
+	}
+
+	@Override
+	public synchronized void put(int startInclusive, int stopInclusive, O object) {
+		minStart = Math.min(minStart, startInclusive);
+		maxStop = Math.max(maxStop, stopInclusive);
+		locationToValue.add(new LocationToValue<O>(object, Math.min(startInclusive, stopInclusive), Math.max(startInclusive, stopInclusive)));
+		intervalTree = null;
+	}
+
+	private IntervalTree<O> getIntervalTree() {
+		IntervalTree<O> tree = intervalTree;
+		if (tree == null) {
+			synchronized (this) {
+				tree = intervalTree;
+				if (tree == null) {
+					tree = new IntervalTree<O>(locationToValue);
+					intervalTree = tree;
+				}
+			}
+		}
+		return tree;
+	}
+
+	@Override
+	public List<O> getObjectsThatContainRangeInclusive(int startInclusive, int stopInclusive) {
+		int startLocationToFind = Math.min(startInclusive, stopInclusive);
+		int stopLocationToFind = Math.max(startInclusive, stopInclusive);
+
+		IntervalTree<O> tree = getIntervalTree();
+		List<O> objectsContainingRange = new ArrayList<O>();
+		tree.addObjectsThatContainRange(0, tree.size(), startLocationToFind, stopLocationToFind, objectsContainingRange);
+		return objectsContainingRange;
+	}
+
+	@Override
+	public List<O> getObjectsThatOverlapRangeInclusive(int startInclusive, int stopInclusive) {
+		int startLocationToFind = Math.min(startInclusive, stopInclusive);
+		int stopLocationToFind = Math.max(startInclusive, stopInclusive);
+
+		IntervalTree<O> tree = getIntervalTree();
+		List<O> objectsOverlappingRange = new ArrayList<O>();
+		tree.addObjectsThatOverlapRange(0, tree.size(), startLocationToFind, stopLocationToFind, objectsOverlappingRange);
+		return objectsOverlappingRange;
+	}
+
+	@Override
+	public int size() {
+		return getIntervalTree().size();
+	}
+
+	@Override
+	public synchronized int getMinStart() {
+		return minStart;
+	}
+
+	@Override
+	public synchronized int getMaxStop() {
+		return maxStop;
+	}
+
+	@Override
+	public List<LocationToValue<O>> getLocationToValueList() {
+		return getIntervalTree().getLocationToValueList();
+	}
+
+	private static class IntervalTree<O> {
+		private final int[] starts;
+		private final int[] stops;
+		private final int[] maxStopsInSubtree;
+		private final List<LocationToValue<O>> sortedLocationToValue;
+
+		private IntervalTree(List<LocationToValue<O>> locationToValue) {
+			List<LocationToValue<O>> sortedLocationToValue = new ArrayList<LocationToValue<O>>(locationToValue);
+			Collections.sort(sortedLocationToValue, new Comparator<LocationToValue<O>>() {
+				@Override
+				public int compare(LocationToValue<O> o1, LocationToValue<O> o2) {
+					int result = Integer.compare(o1.getStartLocation(), o2.getStartLocation());
+					if (result == 0) {
+						result = Integer.compare(o1.getEndLocation(), o2.getEndLocation());
+					}
+					return result;
+				}
+			});
+			this.sortedLocationToValue = Collections.unmodifiableList(sortedLocationToValue);
+
+			int size = sortedLocationToValue.size();
+			starts = new int[size];
+			stops = new int[size];
+			maxStopsInSubtree = new int[size];
+			for (int i = 0; i < size; i++) {
+				LocationToValue<O> rangeAndValue = sortedLocationToValue.get(i);
+				starts[i] = rangeAndValue.getStartLocation();
+				stops[i] = rangeAndValue.getEndLocation();
+			}
+			populateMaxStops(0, size);
+		}
+
+		/**
+		 * @return the max stop of all ranges in the subtree made up of indexes loIndex (inclusive) to hiIndex (exclusive)
+		 */
+		private int populateMaxStops(int loIndex, int hiIndex) {
+			int maxStop = Integer.MIN_VALUE;
+			if (loIndex < hiIndex) {
+				int middleIndex = (loIndex + hiIndex) >>> 1;
+				maxStop = Math.max(stops[middleIndex], Math.max(populateMaxStops(loIndex, middleIndex), populateMaxStops(middleIndex + 1, hiIndex)));
+				maxStopsInSubtree[middleIndex] = maxStop;
+			}
+			return maxStop;
+		}
+
+		private void addObjectsThatContainRange(int loIndex, int hiIndex, int startLocation, int stopLocation, List<O> objects) {
+			if (loIndex < hiIndex) {
+				int middleIndex = (loIndex + hiIndex) >>> 1;
+				// nothing in this subtree stops late enough to contain the range
+				if (maxStopsInSubtree[middleIndex] >= stopLocation) {
+					addObjectsThatContainRange(loIndex, middleIndex, startLocation, stopLocation, objects);
+					// everything to the right starts at or after the middle range
+					if (starts[middleIndex] <= startLocation) {
+						if (stops[middleIndex] >= stopLocation) {
+							objects.add(sortedLocationToValue.get(middleIndex).getValue());
+						}
+						addObjectsThatContainRange(middleIndex + 1, hiIndex, startLocation, stopLocation, objects);
+					}
+				}
+			}
+		}
+
+		private void addObjectsThatOverlapRange(int loIndex, int hiIndex, int startLocation, int stopLocation, List<O> objects) {
+			if (loIndex < hiIndex) {
+				int middleIndex = (loIndex + hiIndex) >>> 1;
+				// nothing in this subtree stops late enough to overlap the range
+				if (maxStopsInSubtree[middleIndex] >= startLocation) {
+					addObjectsThatOverlapRange(loIndex, middleIndex, startLocation, stopLocation, objects);
+					// everything to the right starts at or after the middle range
+					if (starts[middleIndex] <= stopLocation) {
+						if (stops[middleIndex] >= startLocation) {
+							objects.add(sortedLocationToValue.get(middleIndex).getValue());
+						}
+						addObjectsThatOverlapRange(middleIndex + 1, hiIndex, startLocation, stopLocation, objects);
+					}
+				}
+			}
+		}
+
+		private int size() {
+			return starts.length;
+		}
+
+		private List<LocationToValue<O>> getLocationToValueList() {
+			return sortedLocationToValue;
+		}
+	}
+
+}
@@ -19,6 +19,7 @@ package com.roche.heatseq.process;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -29,10 +30,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -54,12 +57,15 @@ import com.roche.heatseq.qualityreport.ProbeProcessingStats;
 import com.roche.heatseq.qualityreport.ReportManager;
 import com.roche.heatseq.utils.BamFileUtil;
 import com.roche.heatseq.utils.BamSorter;
-import com.roche.heatseq.utils.FastqSorter;
+import com.roche.heatseq.utils.BamSorter.CloseableAndIterableIterator;
 import com.roche.heatseq.utils.SAMRecordUtil;
 import com.roche.heatseq.utils.SAMRecordUtil.AlternativeHit;
+import com.roche.sequencing.bioinformatics.common.alignment.AlignmentSummary;
+import com.roche.sequencing.bioinformatics.common.alignment.FastNeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.alignment.IAlignmentScorer;
-import com.roche.sequencing.bioinformatics.common.alignment.NeedlemanWunschGlobalAlignment;
+import com.roche.sequencing.bioinformatics.common.mapping.ConcurrentTallyMap;
 import com.roche.sequencing.bioinformatics.common.mapping.TallyMap;
+import com.roche.sequencing.bioinformatics.common.multithreading.BoundedQueueThreadPoolExecutor;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
 import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
 import com.roche.sequencing.bioinformatics.common.sequence.Strand;
@@ -69,7 +75,7 @@ import com.roche.sequencing.bioinformatics.common.utils.DateUtil;
 import com.roche.sequencing.bioinformatics.common.utils.IlluminaFastQReadNameUtil;
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
 import com.roche.sequencing.bioinformatics.common.utils.TabDelimitedFileWriter;
-import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqReader;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.ParallelFastqReader;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.PicardException;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
@@ -82,6 +88,7 @@ import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordCoordinateComparator;
 import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
@@ -103,8 +110,13 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 
 	private static Logger logger = LoggerFactory.getLogger(PrimerReadExtensionAndPcrDuplicateIdentification.class);
 
-	private static volatile Semaphore primerReadExtensionAndFilteringOfUniquePcrProbesSemaphore = null;
 	private final static int READ_TO_PROBE_ALIGNMENT_BUFFER = 0;
+	// the number of probes whose reads can be read ahead of the probe processing workers
+	private final static int PROBES_QUEUED_FOR_PROCESSING_PER_PROCESSOR = 2;
+	// the number of processed probes whose reads can be waiting for the bam writer
+	private final static int PROBES_QUEUED_FOR_WRITING_PER_PROCESSOR = 4;
+	// the number of reads assigned to multiple probes handled by each task when choosing the best probe for each read
+	private final static int MULTI_PROBE_READS_PER_TASK = 256;
 	// TODO
 	final static int DEFAULT_MAX_RECORDS_IN_RAM = 750000;
 
@@ -137,27 +149,23 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		// Parse the input probe file
 		ParsedProbeFile probeInfo = applicationSettings.getParsedProbeFile();
 
-		File mergedBamFileSortedByReadNames;
+		File mergedBamFile;
 		try {
-			mergedBamFileSortedByReadNames = File.createTempFile("raw_seqs_quals_and_indexes_as_read_names_sorted_by_fastq_read_names_", ".bam", applicationSettings.getTempDirectory());
+			mergedBamFile = File.createTempFile("raw_seqs_quals_and_indexes_as_read_names_", ".bam", applicationSettings.getTempDirectory());
 		} catch (IOException e1) {
 			throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
 		}
 
 		long mergeStart = System.currentTimeMillis();
-		logger.info("Creating Bam file with the raw sequence and base qualities and index as read name at [" + mergedBamFileSortedByReadNames.getAbsolutePath() + "].");
+		logger.info("Creating Bam file with the raw sequence and base qualities and index as read name at [" + mergedBamFile.getAbsolutePath() + "].");
 		try {
 			boolean useSequenceAndQualitiesFromFastq = true;
 			boolean shouldCheckIfBamTrimmed = true;
-			Comparator<FastqRecord> fastqComparator = new FastqSorter.FastqRecordNameComparator();
-			Comparator<SAMRecord> bamComparator = new BamSorter.SamRecordNameComparator();
 			boolean useFastqIndexesAsFastqReadNamesWhenMerging = false;
 			MergedSamNamingConvention mergedNamingConvention = MergedSamNamingConvention.INDEX_AFTER_UNDERSCORE_DELIMITER_IN_FASTQ_READ_NAME;
-			boolean addIndexFromInputFastqToNameWithUnderscoreDelimiter = true;
-			FastqAndBamFileMerger.createBamFileWithDataFromRawFastqFiles(applicationSettings.getBamFile(), applicationSettings.getFastQ1File(), applicationSettings.getFastQ2File(),
-					mergedBamFileSortedByReadNames, applicationSettings.isReadsNotTrimmed(), applicationSettings.getProbeTrimmingInformation(), applicationSettings.getTempDirectory(),
-					mergedNamingConvention, useSequenceAndQualitiesFromFastq, shouldCheckIfBamTrimmed, fastqComparator, bamComparator, useFastqIndexesAsFastqReadNamesWhenMerging,
-					addIndexFromInputFastqToNameWithUnderscoreDelimiter);
+			FastqAndBamFileMerger.createBamFileWithDataFromRawFastqFiles(applicationSettings.getBamFile(), applicationSettings.getFastQ1File(), applicationSettings.getFastQ2File(), mergedBamFile,
+					applicationSettings.isReadsNotTrimmed(), applicationSettings.getProbeTrimmingInformation(), applicationSettings.getTempDirectory(), mergedNamingConvention,
+					useSequenceAndQualitiesFromFastq, shouldCheckIfBamTrimmed, useFastqIndexesAsFastqReadNamesWhenMerging, applicationSettings.getNumProcessors());
 		} catch (UnableToMergeFastqAndBamFilesException e) {
 			throw new IllegalStateException("The provided BAM file contains reads that were not trimmed using the " + HsqUtilsCli.APPLICATION_NAME + " " + HsqUtilsCli.TRIM_COMMAND_NAME
 					+ " command or the supplied fastq files are not the files provided to the " + HsqUtilsCli.APPLICATION_NAME + " " + HsqUtilsCli.TRIM_COMMAND_NAME
@@ -166,54 +174,61 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 					+ applicationSettings.getFastQ1File().getAbsolutePath() + "] fastq2[" + applicationSettings.getFastQ2File().getAbsolutePath() + "].");
 		}
 		long mergeStop = System.currentTimeMillis();
-		logger.info("Done creating bam file with the raw sequence and base qualities at [" + mergedBamFileSortedByReadNames.getAbsolutePath() + "] in "
+		logger.info("Done creating bam file with the raw sequence and base qualities at [" + mergedBamFile.getAbsolutePath() + "] in "
 				+ DateUtil.convertMillisecondsToHHMMSSMMM(mergeStop - mergeStart) + "(HH:MM:SS:MMM).");
 
-		File mergedBamFileSortedByCoords;
-		try {
-			mergedBamFileSortedByCoords = File.createTempFile("bam_with_raw_seqs_and_quals_sorted_by_coords_", ".bam", applicationSettings.getTempDirectory());
-		} catch (IOException e1) {
-			throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
-		}
+		long start;
+		if (applicationSettings.isSinglePassDeduplication()) {
+			start = System.currentTimeMillis();
 
-		logger.info("Sorting bam file with raw seqs and qualities by coordinates at[" + mergedBamFileSortedByCoords.getAbsolutePath() + "].");
+			// Set up the reports files
+			ReportManager reportManager = new ReportManager(applicationSettings.getProgramName(), applicationSettings.getProgramVersion(), applicationSettings.getSampleName(),
+					applicationSettings.getOutputDirectory(), applicationSettings.getOutputFilePrefix(), applicationSettings.isShouldOutputReports());
 
-		long startOfCoordSort = System.currentTimeMillis();
-		// TODO investigate wether this is faster than using picards sortOnCoordinates which is commented out below
-		BamSorter.sortBamFile(mergedBamFileSortedByReadNames, mergedBamFileSortedByCoords, applicationSettings.getTempDirectory(), new SAMRecordCoordinateComparator());
-		// BamFileUtil.sortOnCoordinates(mergedBamFileSortedByReadNameIndexes, mergedBamFileSortedByCoords);
-		long stopOfCoordSort = System.currentTimeMillis();
+			// Actually do the dedup work
+			filterBamEntriesByUidAndExtendReadsToPrimersInSinglePass(applicationSettings, mergedBamFile, probeInfo, reportManager);
+		} else {
+			File mergedBamFileSortedByCoords;
+			try {
+				mergedBamFileSortedByCoords = File.createTempFile("bam_with_raw_seqs_and_quals_sorted_by_coords_", ".bam", applicationSettings.getTempDirectory());
+			} catch (IOException e1) {
+				throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
+			}
 
-		logger.info("Done sorting bam file with raw seqs and qualities by coordinates at[" + mergedBamFileSortedByCoords.getAbsolutePath() + "] in "
-				+ DateUtil.convertMillisecondsToHHMMSSMMM(stopOfCoordSort - startOfCoordSort) + "(HH:MM:SS:MMM)");
+			logger.info("Sorting bam file with raw seqs and qualities by coordinates at[" + mergedBamFileSortedByCoords.getAbsolutePath() + "].");
 
-		// Build bam index
-		File indexFileForMergedBamFileSortedByCoords = new File(mergedBamFileSortedByCoords.getParent(), mergedBamFileSortedByCoords.getName() + ".bai");
+			long startOfCoordSort = System.currentTimeMillis();
+			// TODO investigate wether this is faster than using picards sortOnCoordinates which is commented out below
+			BamSorter.sortBamFile(mergedBamFile, mergedBamFileSortedByCoords, applicationSettings.getTempDirectory(), new SAMRecordCoordinateComparator());
+			// BamFileUtil.sortOnCoordinates(mergedBamFileSortedByReadNameIndexes, mergedBamFileSortedByCoords);
+			long stopOfCoordSort = System.currentTimeMillis();
 
-		logger.info("Creating index for merged and sorted bam file ... result[" + indexFileForMergedBamFileSortedByCoords.getAbsolutePath() + "].");
+			logger.info("Done sorting bam file with raw seqs and qualities by coordinates at[" + mergedBamFileSortedByCoords.getAbsolutePath() + "] in "
+					+ DateUtil.convertMillisecondsToHHMMSSMMM(stopOfCoordSort - startOfCoordSort) + "(HH:MM:SS:MMM)");
 
-		BamFileUtil.createIndex(mergedBamFileSortedByCoords, indexFileForMergedBamFileSortedByCoords);
-		long timeAfterBuildBamIndex = System.currentTimeMillis();
-		logger.info("Done creating index for merged and sorted bam file ... result[" + indexFileForMergedBamFileSortedByCoords.getAbsolutePath() + "] in "
-				+ DateUtil.convertMillisecondsToHHMMSSMMM(timeAfterBuildBamIndex - mergeStop) + "(HH:MM:SS:MMM)");
+			// Build bam index
+			File indexFileForMergedBamFileSortedByCoords = new File(mergedBamFileSortedByCoords.getParent(), mergedBamFileSortedByCoords.getName() + ".bai");
 
-		ReadToProbeAssignmentResults readsToProbeAssignmentResults = PrimerReadExtensionAndPcrDuplicateIdentification.getReadToProbeAssignments(probeInfo, applicationSettings,
-				mergedBamFileSortedByCoords, indexFileForMergedBamFileSortedByCoords);
+			logger.info("Creating index for merged and sorted bam file ... result[" + indexFileForMergedBamFileSortedByCoords.getAbsolutePath() + "].");
 
-		// Initialize the thread semaphore if it hasn't already been initialized
-		if (primerReadExtensionAndFilteringOfUniquePcrProbesSemaphore == null) {
-			primerReadExtensionAndFilteringOfUniquePcrProbesSemaphore = new Semaphore(applicationSettings.getNumProcessors());
-		}
+			BamFileUtil.createIndex(mergedBamFileSortedByCoords, indexFileForMergedBamFileSortedByCoords);
+			long timeAfterBuildBamIndex = System.currentTimeMillis();
+			logger.info("Done creating index for merged and sorted bam file ... result[" + indexFileForMergedBamFileSortedByCoords.getAbsolutePath() + "] in "
+					+ DateUtil.convertMillisecondsToHHMMSSMMM(timeAfterBuildBamIndex - mergeStop) + "(HH:MM:SS:MMM)");
 
-		long start = System.currentTimeMillis();
+			ReadToProbeAssignmentResults readsToProbeAssignmentResults = PrimerReadExtensionAndPcrDuplicateIdentification.getReadToProbeAssignments(probeInfo, applicationSettings,
+					mergedBamFileSortedByCoords, indexFileForMergedBamFileSortedByCoords);
+
+			start = System.currentTimeMillis();
 
-		// Set up the reports files
-		ReportManager reportManager = new ReportManager(applicationSettings.getProgramName(), applicationSettings.getProgramVersion(), applicationSettings.getSampleName(),
-				applicationSettings.getOutputDirectory(), applicationSettings.getOutputFilePrefix(), applicationSettings.isShouldOutputReports());
+			// Set up the reports files
+			ReportManager reportManager = new ReportManager(applicationSettings.getProgramName(), applicationSettings.getProgramVersion(), applicationSettings.getSampleName(),
+					applicationSettings.getOutputDirectory(), applicationSettings.getOutputFilePrefix(), applicationSettings.isShouldOutputReports());
 
-		// Actually do the dedup work
-		filterBamEntriesByUidAndExtendReadsToPrimers(applicationSettings, mergedBamFileSortedByCoords, indexFileForMergedBamFileSortedByCoords, readsToProbeAssignmentResults, probeInfo,
-				reportManager);
+			// Actually do the dedup work
+			filterBamEntriesByUidAndExtendReadsToPrimers(applicationSettings, mergedBamFileSortedByCoords, indexFileForMergedBamFileSortedByCoords, readsToProbeAssignmentResults, probeInfo,
+					reportManager);
+		}
 
 		long stop = System.currentTimeMillis();
 
@@ -299,6 +314,31 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		return new ProbeSearchStartAndStop(queryStart, queryStop);
 	}
 
+	/**
+	 * Fill the provided maps with a range map (keyed by the probe search boundaries) for each sequence in the probe file, one map for each probe strand.
+	 */
+	static void populateProbeRangeMaps(ParsedProbeFile probeInfo, ProbeHeaderInformation probeHeaderInformation, Map<String, IRangeMap<Probe>> positiveStrandProbesRangesBySequenceName,
+			Map<String, IRangeMap<Probe>> negativeStrandProbesRangesBySequenceName) {
+		for (String sequenceName : probeInfo.getSequenceNames()) {
+			List<Probe> probes = probeInfo.getProbesBySequenceName(sequenceName);
+			IRangeMap<Probe> positiveStrandRangeMap = new IntervalTreeRangeMap<Probe>();
+			IRangeMap<Probe> negativeStrandRangeMap = new IntervalTreeRangeMap<Probe>();
+			for (Probe probe : probes) {
+				ProbeSearchStartAndStop probeSearchStartAndStop = getProbeSearchBoundaries(probeHeaderInformation, probe);
+				int queryStart = probeSearchStartAndStop.getStart();
+				int queryStop = probeSearchStartAndStop.getStop();
+
+				if (probe.getProbeStrand() == Strand.FORWARD) {
+					positiveStrandRangeMap.put(queryStart, queryStop, probe);
+				} else {
+					negativeStrandRangeMap.put(queryStart, queryStop, probe);
+				}
+			}
+			positiveStrandProbesRangesBySequenceName.put(sequenceName, positiveStrandRangeMap);
+			negativeStrandProbesRangesBySequenceName.put(sequenceName, negativeStrandRangeMap);
+		}
+	}
+
 	private static ReadToProbeAssignmentResults getReadToProbeAssignments(ParsedProbeFile probeInfo, ApplicationSettings applicationSettings, File bamFileSortedOnCoords,
 			File bamFileIndexSortedOnCoords) {
 		long start = System.currentTimeMillis();
@@ -308,35 +348,18 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		} catch (IOException e) {
 			throw new IllegalStateException(e.getMessage(), e);
 		}
-		ReadToProbeAssignmentResults readToProbeAssignmentResults = new ReadToProbeAssignmentResults(applicationSettings.getNumberOfRecordsInFastq(), alternativeHitsBamFile);
+		ReadToProbeAssignmentResults readToProbeAssignmentResults = new ReadToProbeAssignmentResults(applicationSettings.getNumberOfRecordsInFastq(), probeInfo, alternativeHitsBamFile);
 		Set<String> sequenceNames = probeInfo.getSequenceNames();
 
 		// create a range map for all probes, which allows us to grab all probes in a specific genomic location
 		Map<String, IRangeMap<Probe>> positveStrandProbesRangesBySequenceName = new ConcurrentHashMap<String, IRangeMap<Probe>>();
 		Map<String, IRangeMap<Probe>> negativeStrandProbesRangesBySequenceName = new ConcurrentHashMap<String, IRangeMap<Probe>>();
-		for (String sequenceName : sequenceNames) {
-			List<Probe> probes = probeInfo.getProbesBySequenceName(sequenceName);
-			IRangeMap<Probe> positiveStrandRangeMap = new RangeMap<Probe>();
-			IRangeMap<Probe> negativeStrandRangeMap = new RangeMap<Probe>();
-			for (Probe probe : probes) {
-				ProbeSearchStartAndStop probeSearchStartAndStop = getProbeSearchBoundaries(applicationSettings.getProbeHeaderInformation(), probe);
-				int queryStart = probeSearchStartAndStop.getStart();
-				int queryStop = probeSearchStartAndStop.getStop();
-
-				if (probe.getProbeStrand() == Strand.FORWARD) {
-					positiveStrandRangeMap.put(queryStart, queryStop, probe);
-				} else {
-					negativeStrandRangeMap.put(queryStart, queryStop, probe);
-				}
-			}
-			positveStrandProbesRangesBySequenceName.put(sequenceName, positiveStrandRangeMap);
-			negativeStrandProbesRangesBySequenceName.put(sequenceName, negativeStrandRangeMap);
-		}
+		populateProbeRangeMaps(probeInfo, applicationSettings.getProbeHeaderInformation(), positveStrandProbesRangesBySequenceName, negativeStrandProbesRangesBySequenceName);
 
 		AtomicInteger assignedToMultProbesCount = new AtomicInteger(0);
 		TallyMap<Probe> probesAssignedToMult = new TallyMap<Probe>();
 
-		TallyMap<Integer> readNamesThatAreTheSameForMultiplePairs = new TallyMap<Integer>();
+		ConcurrentTallyMap<Integer> readNamesThatAreTheSameForMultiplePairs = new ConcurrentTallyMap<Integer>();
 
 		ExecutorService executor = Executors.newFixedThreadPool(applicationSettings.getNumProcessors());
 
@@ -380,7 +403,7 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 
 		if (readNamesThatAreTheSameForMultiplePairs.getSumOfAllBins() > 0) {
 			logger.info("The following reads names are not unique within the bam file for a single read pair and will not be utilized for deduplication:");
-			for (Entry<Integer, Integer> repeatedReadNameEntry : readNamesThatAreTheSameForMultiplePairs.getTalliesAsMap().entrySet()) {
+			for (Entry<Integer, Long> repeatedReadNameEntry : readNamesThatAreTheSameForMultiplePairs.getTalliesAsMap().entrySet()) {
 				// remove them here so that if it is repeated an odd number of times it doesn't end up using it
 				readToProbeAssignmentResults.remove(repeatedReadNameEntry.getKey());
 				logger.info("read name:" + repeatedReadNameEntry.getKey() + "[found " + (repeatedReadNameEntry.getValue() + 1) + " time(s)].");
@@ -408,14 +431,14 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		private final File samIndexFile;
 		private Map<String, IRangeMap<Probe>> positiveStrandProbesRangesBySequenceName;
 		private Map<String, IRangeMap<Probe>> negativeStrandProbesRangesBySequenceName;
-		private final TallyMap<Integer> readNamesThatAreTheSameForMultiplePairs;
+		private final ConcurrentTallyMap<Integer> readNamesThatAreTheSameForMultiplePairs;
 		private final ReadToProbeAssignmentResults readToProbeAssignmentResults;
 		private final Map<Integer, Set<Probe>> unpairedReadNamesToAssignedProbes;
 		private final Map<Integer, SAMRecord> unpairedReadNamesToSamRecord;
 		private final SAMFileWriter alternativeHitsSamWriter;
 
 		public ReadToProbeAssigner(String sequenceName, File samFile, File samIndexFile, Map<String, IRangeMap<Probe>> positveStrandProbesRangesBySequenceName,
-				Map<String, IRangeMap<Probe>> negativeStrandProbesRangesBySequenceName, TallyMap<Integer> readNamesThatAreTheSameForMultiplePairs,
+				Map<String, IRangeMap<Probe>> negativeStrandProbesRangesBySequenceName, ConcurrentTallyMap<Integer> readNamesThatAreTheSameForMultiplePairs,
 				ReadToProbeAssignmentResults readToProbeAssignmentResults, Map<Integer, Set<Probe>> unpairedReadNamesToAssignedProbes, SAMFileWriter alternativeHitsSamWriter,
 				Map<Integer, SAMRecord> unpairedReadNamesToSamRecord) {
 			super();
@@ -550,7 +573,7 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 
 	}
 
-	private static Map<AlternativeHit, Set<Probe>> getPotentialAlternativeHits(SAMRecord record, Map<String, IRangeMap<Probe>> positiveStrandProbesRangesBySequenceName,
+	static Map<AlternativeHit, Set<Probe>> getPotentialAlternativeHits(SAMRecord record, Map<String, IRangeMap<Probe>> positiveStrandProbesRangesBySequenceName,
 			Map<String, IRangeMap<Probe>> negativeStrandProbesRangesBySequenceName) {
 		Map<AlternativeHit, Set<Probe>> alternativeHitsToProbeMap = new HashMap<>();
 
@@ -582,6 +605,196 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		return alternativeHitsToProbeMap;
 	}
 
+	/**
+	 * Determine which of the candidate probes a read pair aligns to best. The read pair is aligned to each candidate probe and the probes with the most matches (and then the lowest edit distance)
+	 * are returned, so a returned set with more than one probe means the read pair could not be assigned to exactly one probe.
+	 * 
+	 * @param candidateProbes
+	 *            the probes the read pair was assigned to
+	 * @param recordPairsByProbe
+	 *            the read pair records found for each candidate probe
+	 * @param extensionUidLength
+	 * @param ligationUidLength
+	 * @return the best probes for the read pair
+	 */
+	static Set<Probe> getBestProbesForReadPair(Set<Probe> candidateProbes, Map<Probe, SAMRecordPair> recordPairsByProbe, int extensionUidLength, int ligationUidLength) {
+		int lowestEditDistance = Integer.MAX_VALUE;
+		int mostMatches = 0;
+		Set<Probe> bestProbes = new HashSet<>();
+		for (Probe assignedProbe : candidateProbes) {
+			SAMRecordPair recordPair = recordPairsByProbe.get(assignedProbe);
+
+			// TODO why are there null record pairs? why are there record pairs with only one record?
+			if (recordPair != null && recordPair.getFirstOfPairRecord() != null && recordPair.getSecondOfPairRecord() != null) {
+
+				ISequence probeSequence = assignedProbe.getProbeSequence();
+
+				ISequence firstRecordSequence = new IupacNucleotideCodeSequence(recordPair.getFirstOfPairRecord().getReadString());
+
+				// remove the presumed extensionUid
+				ISequence firstRecordSequenceWithoutUid = firstRecordSequence.subSequence(extensionUidLength);
+
+				// only the counts are needed so the alignments are summarized rather than traced back
+				AlignmentSummary recordOneAlignment = new FastNeedlemanWunschGlobalAlignment(firstRecordSequenceWithoutUid, probeSequence).getAlignmentSummary();
+				int editDistance = recordOneAlignment.getFirstNonInsertQueryMatchInReference() + recordOneAlignment.getNumberOfMismatches() + recordOneAlignment.getNumberOfNonTerminalGaps();
+
+				ISequence secondRecordSequence = new IupacNucleotideCodeSequence(recordPair.getSecondOfPairRecord().getReadString());
+
+				// remove the presumed ligationUid
+				ISequence secondRecordSequenceWithoutUid = secondRecordSequence.subSequence(ligationUidLength);
+
+				AlignmentSummary recordTwoAlignment = new FastNeedlemanWunschGlobalAlignment(secondRecordSequenceWithoutUid, probeSequence.getReverseCompliment()).getAlignmentSummary();
+				editDistance += recordTwoAlignment.getFirstNonInsertQueryMatchInReference() + recordTwoAlignment.getNumberOfMismatches() + recordTwoAlignment.getNumberOfNonTerminalGaps();
+
+				int matches = recordOneAlignment.getNumberOfMatches() + recordTwoAlignment.getNumberOfMatches();
+
+				if (matches > mostMatches) {
+					bestProbes.clear();
+					bestProbes.add(assignedProbe);
+					lowestEditDistance = editDistance;
+					mostMatches = matches;
+				} else if (matches == mostMatches) {
+					if (editDistance == lowestEditDistance) {
+						bestProbes.add(assignedProbe);
+					} else if (editDistance < lowestEditDistance) {
+						bestProbes.clear();
+						bestProbes.add(assignedProbe);
+						lowestEditDistance = editDistance;
+						mostMatches = matches;
+					}
+				}
+
+			}
+
+		}
+		return bestProbes;
+	}
+
+	/**
+	 * @return true if both reads of the pair are present and neither read sequence contains an N, the requirements for a read pair to be used for deduplication
+	 */
+	static boolean isReadPairUsableForDeduplication(int readIndex, SAMRecordPair pair) {
+		boolean isUsable = false;
+		// do not add any records that don't have both pairs
+		if (pair.getFirstOfPairRecord() != null && pair.getSecondOfPairRecord() != null) {
+
+			boolean firstOfPairContainsN = pair.getFirstOfPairRecord().getReadString().toLowerCase().contains("n");
+			boolean secondOfPairContainsN = pair.getSecondOfPairRecord().getReadString().toLowerCase().contains("n");
+			// do not include any records that have sequence containing N
+			if (!firstOfPairContainsN && !secondOfPairContainsN) {
+				isUsable = true;
+			} else {
+				if (ReadNameTracking.shouldTrackReadName(readIndex)) {
+					String firstOfPairSequence = pair.getFirstOfPairRecord().getReadString();
+					String secondOfPairSequence = pair.getSecondOfPairRecord().getReadString();
+					String message = "Read Name[" + readIndex + "] contains an 'N' in its sequence {First_Of_Pair_Sequence[" + firstOfPairSequence + "] Second_Of_Pair_Sequence["
+							+ secondOfPairSequence + "]} so it will not be assigned to a probe.";
+					System.out.println(message);
+					logger.info(message);
+				}
+			}
+		}
+		return isUsable;
+	}
+
+	/**
+	 * Assign the reads in a merged BAM file to probes and determine which read to use for each UID in a single sweep over the coordinate sorted reads, extend the reads to the target primers, and
+	 * output the reduced and extended reads to a new BAM file. Unlike
+	 * {@link #filterBamEntriesByUidAndExtendReadsToPrimers(ApplicationSettings, File, File, ReadToProbeAssignmentResults, ParsedProbeFile, ReportManager)} no coordinate sorted bam file or index is
+	 * written and the reads for each probe are handed off for deduplication as soon as the sweep has moved past the probe.
+	 * 
+	 * @param applicationSettings
+	 *            The context the application is running under
+	 * @param mergedBamFile
+	 *            the merged BAM file (in any order)
+	 * @param probeInfo
+	 *            All the probes in the input probe file, by sequence
+	 * @param reportManager
+	 */
+	private void filterBamEntriesByUidAndExtendReadsToPrimersInSinglePass(final ApplicationSettings applicationSettings, File mergedBamFile, ParsedProbeFile probeInfo,
+			final ReportManager reportManager) {
+		long start = System.currentTimeMillis();
+
+		final DistinctUidCounter distinctUids = new DistinctUidCounter();
+
+		int totalProbes = 0;
+		File dedupedBamFileUnsorted;
+		try {
+			dedupedBamFileUnsorted = File.createTempFile("deduped_bam_unsorted", ".bam", applicationSettings.getTempDirectory());
+		} catch (IOException e1) {
+			throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
+		}
+
+		try (SamReader mergedSamReader = SamReaderFactory.makeDefault().open(mergedBamFile)) {
+			SAMFileHeader mergedHeader = mergedSamReader.getFileHeader();
+			SAMSequenceDictionary sequenceDictionary = mergedHeader.getSequenceDictionary();
+			for (String sequenceName : probeInfo.getSequenceNames()) {
+				SAMSequenceRecord referenceSequence = sequenceDictionary.getSequence(sequenceName);
+				if (referenceSequence == null) {
+					throw new IllegalStateException("Sequence [" + sequenceName
+							+ "] from the probe file is not present as a reference sequence in the bam file.  Please make sure your probe sequence names match bam file reference sequence names.");
+				}
+
+				List<Probe> probes = probeInfo.getProbesBySequenceName(sequenceName);
+				totalProbes += probes.size();
+				int referenceSequenceLength = referenceSequence.getSequenceLength();
+				for (Probe probe : probes) {
+					if (referenceSequenceLength < probe.getStop()) {
+						throw new IllegalStateException("Probe Sequence[" + sequenceName + "] start[" + probe.getStart() + "] stop[" + probe.getStop() + "] found in the probe file["
+								+ applicationSettings.getProbeFile().getAbsolutePath() + "] is outside of the length[" + referenceSequenceLength + "] of reference sequence[" + sequenceName
+								+ "] found in the bam file.");
+					}
+				}
+			}
+
+			SAMFileHeader header = BamFileUtil.getHeader(false, applicationSettings.isShouldExcludeProgramInBamHeader(), mergedHeader, probeInfo, applicationSettings.getCommandLineSignature(),
+					applicationSettings.getProgramName(), applicationSettings.getProgramVersion());
+			try (final QueuedSamFileWriter samWriter = createDedupedBamWriter(applicationSettings, header, dedupedBamFileUnsorted)) {
+
+				// Make an executor to handle processing the data for each probe in parallel
+				final BoundedQueueThreadPoolExecutor executor = createProbeProcessingExecutor(applicationSettings);
+				CoordinateSortedProbeSweeper sweeper = new CoordinateSortedProbeSweeper(sequenceDictionary, probeInfo, applicationSettings.getProbeHeaderInformation(),
+						applicationSettings.getExtensionUidLength(), applicationSettings.getLigationUidLength(), applicationSettings.getNumberOfRecordsInFastq(),
+						new CoordinateSortedProbeSweeper.IProbeWindowClosedListener() {
+							@Override
+							public void probeWindowClosed(Probe probe, Map<Integer, SAMRecordPair> readIndexToRecordsMap) {
+								Runnable worker = new PrimerReadExtensionAndFilteringOfUniquePcrProbesTask(probe, applicationSettings, samWriter, reportManager, readIndexToRecordsMap,
+										applicationSettings.getAlignmentScorer(), distinctUids);
+
+								// blocks while the work queue is full
+								executor.execute(worker);
+							}
+						});
+
+				long sweepStart = System.currentTimeMillis();
+				logger.info("Starting the coordinate sorted sweep of [" + mergedBamFile.getAbsolutePath() + "].");
+				Iterator<SAMRecord> recordsWithAlternativeHits = sweeper.addAlternativeHitCopies(mergedSamReader.iterator(), sequenceDictionary, probeInfo);
+				try (CloseableAndIterableIterator<SAMRecord> sortedRecords = BamSorter.getSortedBamIterator(recordsWithAlternativeHits, mergedHeader, applicationSettings.getTempDirectory(),
+						new SAMRecordCoordinateComparator())) {
+					while (sortedRecords.hasNext()) {
+						sweeper.addRecord(sortedRecords.next());
+					}
+				}
+				sweeper.finish();
+				logger.info("Done with the coordinate sorted sweep in " + DateUtil.convertMillisecondsToHHMMSSMMM(System.currentTimeMillis() - sweepStart) + "(HH:MM:SS:MMM) "
+						+ sweeper.getSummary() + ".");
+
+				// Wait until all our threads are done processing.
+				executor.shutdown();
+				try {
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e.getMessage(), e);
+				}
+				logQueueSummaries(executor, samWriter);
+			}
+		} catch (IOException e) {
+			throw new PicardException(e.getMessage(), e);
+		}
+
+		completeDeduplication(applicationSettings, dedupedBamFileUnsorted, reportManager, distinctUids, totalProbes, start);
+	}
+
 	/**
 	 * Get reads for each probe from a merged BAM file, determine which read to use for each UID, extend the reads to the target primers, and output the reduced and extended reads to a new BAM file.
 	 * 
@@ -602,25 +815,23 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 
 		Set<String> probeSequenceNames = probeInfo.getSequenceNames();
 
-		Set<ISequence> distinctUids = Collections.newSetFromMap(new ConcurrentHashMap<ISequence, Boolean>());
-		List<ISequence> uids = new ArrayList<ISequence>();
+		DistinctUidCounter distinctUids = new DistinctUidCounter();
 
 		int totalProbes = 0;
-		try (SamReader mergedSamReader = SamReaderFactory.makeDefault().open(SamInputResource.of(mergedBamFile).index(mergedBamFileIndex))) {
+		File dedupedBamFileUnsorted;
+		try {
+			dedupedBamFileUnsorted = File.createTempFile("deduped_bam_unsorted", ".bam", applicationSettings.getTempDirectory());
+		} catch (IOException e1) {
+			throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
+		}
 
-			File dedupedBamFileUnsorted;
-			try {
-				dedupedBamFileUnsorted = File.createTempFile("deduped_bam_unsorted", ".bam", applicationSettings.getTempDirectory());
-			} catch (IOException e1) {
-				throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
-			}
+		try (SamReader mergedSamReader = SamReaderFactory.makeDefault().open(SamInputResource.of(mergedBamFile).index(mergedBamFileIndex))) {
 
 			File alternativeHitsBamFile = readsToProbesAssignmentResults.getAlternativeHitsBamFile();
 
 			SAMFileHeader header = BamFileUtil.getHeader(false, applicationSettings.isShouldExcludeProgramInBamHeader(), mergedSamReader.getFileHeader(), probeInfo,
 					applicationSettings.getCommandLineSignature(), applicationSettings.getProgramName(), applicationSettings.getProgramVersion());
-			try (SAMFileWriter samWriter = new SAMFileWriterFactory().setMaxRecordsInRam(DEFAULT_MAX_RECORDS_IN_RAM).setTempDirectory(applicationSettings.getTempDirectory()).makeBAMWriter(header,
-					true, dedupedBamFileUnsorted, 0)) {
+			try (QueuedSamFileWriter samWriter = createDedupedBamWriter(applicationSettings, header, dedupedBamFileUnsorted)) {
 
 				List<SAMSequenceRecord> referenceSequencesInBam = mergedSamReader.getFileHeader().getSequenceDictionary().getSequences();
 				List<String> referenceSequenceNamesInBam = new ArrayList<String>(referenceSequencesInBam.size());
@@ -633,7 +844,7 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 				Map<Probe, Map<Integer, SAMRecordPair>> multiAssignedProbeToReadNameToRecordMap = new HashMap<>();
 
 				// Make an executor to handle processing the data for each probe in parallel
-				ExecutorService executor = Executors.newFixedThreadPool(applicationSettings.getNumProcessors());
+				BoundedQueueThreadPoolExecutor executor = createProbeProcessingExecutor(applicationSettings);
 				for (String sequenceName : probeSequenceNames) {
 					// create a sam reader for the alternative hit probes sam file that was created when reads were assigned to probes
 					try (SamReader alternativeHitsReader = SamReaderFactory.makeDefault().open(alternativeHitsBamFile)) {
@@ -670,11 +881,16 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 					}
 				}
 
-				// assign reads that have been assigned to multiple probes to one and only one probe
-				Iterator<Integer> readIndexIter = readsToProbesAssignmentResults.getReadNames();
+				// assign reads that have been assigned to multiple probes to one and only one probe, the best probes are found by the workers in batches of reads and then
+				// applied to the records on this thread in read order
+				List<Future<List<Set<Probe>>>> bestProbesForBatches = new ArrayList<Future<List<Set<Probe>>>>();
+				List<int[]> readIndexBatches = new ArrayList<int[]>();
+				int[] readIndexBatch = new int[MULTI_PROBE_READS_PER_TASK];
+				int readsInBatch = 0;
+				ReadToProbeAssignmentResults.ReadIndexIterator readIndexIter = readsToProbesAssignmentResults.getReadNames();
 
 				while (readIndexIter.hasNext()) {
-					Integer readIndex = readIndexIter.next();
+					int readIndex = readIndexIter.nextInt();
 					Set<Probe> assignedProbes = readsToProbesAssignmentResults.getAssignedProbes(readIndex);
 					if (assignedProbes.size() == 1) {
 						// this is just logging
@@ -684,6 +900,35 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 							logger.info(message);
 						}
 					} else if (assignedProbes.size() > 1) {
+						readIndexBatch[readsInBatch] = readIndex;
+						readsInBatch++;
+					}
+					if (readsInBatch == readIndexBatch.length || (readsInBatch > 0 && !readIndexIter.hasNext())) {
+						int[] readIndexes = Arrays.copyOf(readIndexBatch, readsInBatch);
+						readIndexBatches.add(readIndexes);
+						bestProbesForBatches.add(executor.submit(new BestProbesForReadPairsTask(readIndexes, readsToProbesAssignmentResults, multiAssignedProbeToReadNameToRecordMap,
+								applicationSettings.getExtensionUidLength(), applicationSettings.getLigationUidLength())));
+						readsInBatch = 0;
+					}
+				}
+
+				// the records are only removed once all of the workers are done reading them
+				List<List<Set<Probe>>> bestProbesByBatch = new ArrayList<List<Set<Probe>>>(bestProbesForBatches.size());
+				for (Future<List<Set<Probe>>> bestProbesForBatch : bestProbesForBatches) {
+					try {
+						bestProbesByBatch.add(bestProbesForBatch.get());
+					} catch (InterruptedException | ExecutionException e) {
+						throw new IllegalStateException(e.getMessage(), e);
+					}
+				}
+
+				for (int batchIndex = 0; batchIndex < readIndexBatches.size(); batchIndex++) {
+					int[] readIndexes = readIndexBatches.get(batchIndex);
+					List<Set<Probe>> bestProbesForBatch = bestProbesByBatch.get(batchIndex);
+					for (int readInBatchIndex = 0; readInBatchIndex < readIndexes.length; readInBatchIndex++) {
+						int readIndex = readIndexes[readInBatchIndex];
+						Set<Probe> assignedProbes = readsToProbesAssignmentResults.getAssignedProbes(readIndex);
+						Set<Probe> bestProbes = bestProbesForBatch.get(readInBatchIndex);
 						// this is just logging
 						if (ReadNameTracking.shouldTrackReadName(readIndex)) {
 							String[] probeNames = new String[assignedProbes.size()];
@@ -701,58 +946,6 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 							logger.info(message2);
 							System.out.println(message2);
 						}
-						int lowestEditDistance = Integer.MAX_VALUE;
-						int mostMatches = 0;
-						Set<Probe> bestProbes = new HashSet<>();
-						for (Probe assignedProbe : assignedProbes) {
-							// need to extend each read according to the probe and then select whichever probe aligns the best
-							Map<Integer, SAMRecordPair> readNameToRecordsMap = multiAssignedProbeToReadNameToRecordMap.get(assignedProbe);
-							SAMRecordPair recordPair = readNameToRecordsMap.get(readIndex);
-
-							// TODO why are there null record pairs? why are there record pairs with only one record?
-							if (recordPair != null && recordPair.getFirstOfPairRecord() != null && recordPair.getSecondOfPairRecord() != null) {
-
-								ISequence probeSequence = assignedProbe.getProbeSequence();
-
-								ISequence firstRecordSequence = new IupacNucleotideCodeSequence(recordPair.getFirstOfPairRecord().getReadString());
-
-								// remove the presumed extensionUid
-								ISequence firstRecordSequenceWithoutUid = firstRecordSequence.subSequence(applicationSettings.getExtensionUidLength());
-
-								NeedlemanWunschGlobalAlignment recordOneAlignment = new NeedlemanWunschGlobalAlignment(firstRecordSequenceWithoutUid, probeSequence);
-								int editDistance = recordOneAlignment.getAlignmentPair().getFirstNonInsertQueryMatchInReference() + recordOneAlignment.getAlignmentPair().getNumberOfMismatches()
-										+ recordOneAlignment.getAlignmentPair().getNumberOfNonTerminalGaps();
-
-								ISequence secondRecordSequence = new IupacNucleotideCodeSequence(recordPair.getSecondOfPairRecord().getReadString());
-
-								// remove the presumed ligationUid
-								ISequence secondRecordSequenceWithoutUid = secondRecordSequence.subSequence(applicationSettings.getLigationUidLength());
-
-								NeedlemanWunschGlobalAlignment recordTwoAlignment = new NeedlemanWunschGlobalAlignment(secondRecordSequenceWithoutUid, probeSequence.getReverseCompliment());
-								editDistance += recordTwoAlignment.getAlignmentPair().getFirstNonInsertQueryMatchInReference() + recordTwoAlignment.getAlignmentPair().getNumberOfMismatches()
-										+ recordTwoAlignment.getAlignmentPair().getNumberOfNonTerminalGaps();
-
-								int matches = recordOneAlignment.getNumberOfMatches() + recordTwoAlignment.getNumberOfMatches();
-
-								if (matches > mostMatches) {
-									bestProbes.clear();
-									bestProbes.add(assignedProbe);
-									lowestEditDistance = editDistance;
-									mostMatches = matches;
-								} else if (matches == mostMatches) {
-									if (editDistance == lowestEditDistance) {
-										bestProbes.add(assignedProbe);
-									} else if (editDistance < lowestEditDistance) {
-										bestProbes.clear();
-										bestProbes.add(assignedProbe);
-										lowestEditDistance = editDistance;
-										mostMatches = matches;
-									}
-								}
-
-							}
-
-						}
 
 						boolean removeFromAllProbes = bestProbes.size() > 1;
 
@@ -811,38 +1004,16 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 							for (Entry<Integer, SAMRecordPair> entry : readIndexToRecordsMap.entrySet()) {
 								Integer readIndex = entry.getKey();
 								SAMRecordPair pair = entry.getValue();
-								// do not add any records that don't have both pairs
-								if (pair.getFirstOfPairRecord() != null && pair.getSecondOfPairRecord() != null) {
-
-									boolean firstOfPairContainsN = pair.getFirstOfPairRecord().getReadString().toLowerCase().contains("n");
-									boolean secondOfPairContainsN = pair.getSecondOfPairRecord().getReadString().toLowerCase().contains("n");
-									// do not include any records that have sequence containing N
-									if (!firstOfPairContainsN && !secondOfPairContainsN) {
-										readNameToFullyPairedRecordsMap.put(readIndex, pair);
-										readsToProbesAssignmentResults.remove(readIndex);
-									} else {
-										if (ReadNameTracking.shouldTrackReadName(readIndex)) {
-											String firstOfPairSequence = pair.getFirstOfPairRecord().getReadString();
-											String secondOfPairSequence = pair.getSecondOfPairRecord().getReadString();
-											String message = "Read Name[" + readIndex + "] contains an 'N' in its sequence {First_Of_Pair_Sequence[" + firstOfPairSequence
-													+ "] Second_Of_Pair_Sequence[" + secondOfPairSequence + "]} so it will not be assigned to a probe.";
-											System.out.println(message);
-											logger.info(message);
-										}
-									}
+								if (isReadPairUsableForDeduplication(readIndex, pair)) {
+									readNameToFullyPairedRecordsMap.put(readIndex, pair);
+									readsToProbesAssignmentResults.remove(readIndex);
 								}
 							}
 
 							Runnable worker = new PrimerReadExtensionAndFilteringOfUniquePcrProbesTask(probe, applicationSettings, samWriter, reportManager, readNameToFullyPairedRecordsMap,
-									applicationSettings.getAlignmentScorer(), distinctUids, uids);
-
-							try {
-								// Don't execute more threads than we have processors
-								primerReadExtensionAndFilteringOfUniquePcrProbesSemaphore.acquire();
-							} catch (InterruptedException e) {
-								logger.warn(e.getMessage(), e);
-							}
+									applicationSettings.getAlignmentScorer(), distinctUids);
 
+							// blocks while the work queue is full so this thread only reads a limited number of probes ahead of the workers
 							executor.execute(worker);
 						}
 
@@ -856,61 +1027,95 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 				} catch (InterruptedException e) {
 					throw new RuntimeException(e.getMessage(), e);
 				}
-
-			}
-
-			long readNameMergeStart = System.currentTimeMillis();
-			File dedupedBamWithReadNames;
-			try {
-				dedupedBamWithReadNames = File.createTempFile("deduped_bam_with_read_names_unsorted", ".bam", applicationSettings.getTempDirectory());
-			} catch (IOException e1) {
-				throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
-			}
-			logger.info("Starting the replacement of read indexes with read names in file[" + dedupedBamWithReadNames.getAbsolutePath() + "].");
-			try {
-				boolean useSequenceAndQualitiesFromFastq = false;
-				boolean shouldCheckIfTrimmed = false;
-				Comparator<FastqRecord> fastqComparator = null;
-				Comparator<SAMRecord> bamComparator = new BamSorter.SamRecordNameAsIndexComparator();
-				boolean useFastqIndexesAsFastqReadNamesWhenMerging = true;
-				MergedSamNamingConvention mergedNamingConvention = MergedSamNamingConvention.FASTQ_READ_NAME;
-				boolean addIndexFromInputFastqToNameWithUnderscoreDelimiter = false;
-				FastqAndBamFileMerger.createBamFileWithDataFromRawFastqFiles(dedupedBamFileUnsorted, applicationSettings.getFastQ1File(), applicationSettings.getFastQ2File(), dedupedBamWithReadNames,
-						applicationSettings.isReadsNotTrimmed(), applicationSettings.getProbeTrimmingInformation(), applicationSettings.getTempDirectory(), mergedNamingConvention,
-						useSequenceAndQualitiesFromFastq, shouldCheckIfTrimmed, fastqComparator, bamComparator, useFastqIndexesAsFastqReadNamesWhenMerging,
-						addIndexFromInputFastqToNameWithUnderscoreDelimiter);
-			} catch (UnableToMergeFastqAndBamFilesException e) {
-				throw new IllegalStateException("The provided BAM file contains reads that were not trimmed using the " + HsqUtilsCli.APPLICATION_NAME + " " + HsqUtilsCli.TRIM_COMMAND_NAME
-						+ " command or the supplied fastq files are not the files provided to the " + HsqUtilsCli.APPLICATION_NAME + " " + HsqUtilsCli.TRIM_COMMAND_NAME
-						+ " command.  Please verify that fastq and bam files are correct.  If trimming was skipped please provide the --" + DeduplicationCli.TRIMMING_SKIPPED_OPTION.getLongFormOption()
-						+ " option to the " + HsqUtilsCli.DEDUPLICATION_COMMAND_NAME + " command line arguments.  BAM file[" + applicationSettings.getBamFile().getAbsolutePath() + "] fastq1["
-						+ applicationSettings.getFastQ1File().getAbsolutePath() + "] fastq2[" + applicationSettings.getFastQ2File().getAbsolutePath() + "].");
+				logQueueSummaries(executor, samWriter);
 			}
-			long readNameMergeStop = System.currentTimeMillis();
-			logger.info("Done with the replacement of read indexes with read names in file[" + dedupedBamWithReadNames.getAbsolutePath() + "] in ["
-					+ DateUtil.convertMillisecondsToHHMMSSMMM(readNameMergeStop - readNameMergeStart) + "(HH:MM:SS:MMM).");
 
-			long coordSortStart = System.currentTimeMillis();
-			File finalBam = new File(applicationSettings.getOutputDirectory(), applicationSettings.getOutputBamFileName());
-			logger.info("Starting the coordinate sort of the deduped bam file at [" + finalBam.getAbsolutePath() + "].");
+		} catch (IOException e) {
+			throw new PicardException(e.getMessage(), e);
+		}
 
-			BamSorter.sortBamFile(dedupedBamWithReadNames, finalBam, applicationSettings.getTempDirectory(), new SAMRecordCoordinateComparator());
+		completeDeduplication(applicationSettings, dedupedBamFileUnsorted, reportManager, distinctUids, totalProbes, start);
+	}
 
-			long coordSortStop = System.currentTimeMillis();
-			logger.info("Done with the coordinate sort of the deduped bam file at [" + finalBam.getAbsolutePath() + "] in [" + DateUtil.convertMillisecondsToHHMMSSMMM(coordSortStop - coordSortStart)
-					+ "(HH:MM:SS:MMM).");
+	/**
+	 * The probe processing workers hand their reads to a dedicated writer thread so they do not wait on each other for BAM encoding.
+	 */
+	private static QueuedSamFileWriter createDedupedBamWriter(ApplicationSettings applicationSettings, SAMFileHeader header, File dedupedBamFileUnsorted) {
+		SAMFileWriter samWriter = new SAMFileWriterFactory().setMaxRecordsInRam(DEFAULT_MAX_RECORDS_IN_RAM).setTempDirectory(applicationSettings.getTempDirectory()).makeBAMWriter(header, true,
+				dedupedBamFileUnsorted, 0);
+		return new QueuedSamFileWriter(samWriter, applicationSettings.getNumProcessors() * PROBES_QUEUED_FOR_WRITING_PER_PROCESSOR);
+	}
 
-			logger.info("Indexing the final deduped bam file.");
-			long indexStart = System.currentTimeMillis();
-			BamFileUtil.createIndex(finalBam);
-			long indexStop = System.currentTimeMillis();
-			logger.info("Done indexing the final deduped bam file in [" + DateUtil.convertMillisecondsToHHMMSSMMM(indexStop - indexStart) + "(HH:MM:SS:MMM).");
+	/**
+	 * The thread submitting probes blocks once the work queue is full which keeps the number of probes held in memory bounded.
+	 */
+	private static BoundedQueueThreadPoolExecutor createProbeProcessingExecutor(ApplicationSettings applicationSettings) {
+		int numberOfProcessors = applicationSettings.getNumProcessors();
+		return new BoundedQueueThreadPoolExecutor(numberOfProcessors, numberOfProcessors * PROBES_QUEUED_FOR_PROCESSING_PER_PROCESSOR, "PROBE_PROCESSING_");
+	}
 
-		} catch (
+	private static void logQueueSummaries(BoundedQueueThreadPoolExecutor probeProcessingExecutor, QueuedSamFileWriter samWriter) {
+		logger.info("Probe processing queue: " + probeProcessingExecutor.getQueueSummary() + ".");
+		logger.info("Deduped bam writer queue: " + samWriter.getQueueSummary() + ".");
+	}
 
-		IOException e) {
-			throw new PicardException(e.getMessage(), e);
+	/**
+	 * Replace the read indexes with the original read names in the deduplicated reads, sort and index the final bam file and complete the reports.
+	 * 
+	 * @param applicationSettings
+	 *            The context the application is running under
+	 * @param dedupedBamFileUnsorted
+	 *            the deduplicated and extended reads which still use the read index as the read name
+	 * @param reportManager
+	 * @param distinctUids
+	 * @param totalProbes
+	 * @param start
+	 *            the time at which deduplication was started
+	 */
+	private void completeDeduplication(ApplicationSettings applicationSettings, File dedupedBamFileUnsorted, ReportManager reportManager, DistinctUidCounter distinctUids,
+			int totalProbes, long start) {
+		long readNameMergeStart = System.currentTimeMillis();
+		File dedupedBamWithReadNames;
+		try {
+			dedupedBamWithReadNames = File.createTempFile("deduped_bam_with_read_names_unsorted", ".bam", applicationSettings.getTempDirectory());
+		} catch (IOException e1) {
+			throw new IllegalStateException("Unable to create temp files at [" + applicationSettings.getTempDirectory() + "].");
+		}
+		logger.info("Starting the replacement of read indexes with read names in file[" + dedupedBamWithReadNames.getAbsolutePath() + "].");
+		try {
+			boolean useSequenceAndQualitiesFromFastq = false;
+			boolean shouldCheckIfTrimmed = false;
+			boolean useFastqIndexesAsFastqReadNamesWhenMerging = true;
+			MergedSamNamingConvention mergedNamingConvention = MergedSamNamingConvention.FASTQ_READ_NAME;
+			FastqAndBamFileMerger.createBamFileWithDataFromRawFastqFiles(dedupedBamFileUnsorted, applicationSettings.getFastQ1File(), applicationSettings.getFastQ2File(), dedupedBamWithReadNames,
+					applicationSettings.isReadsNotTrimmed(), applicationSettings.getProbeTrimmingInformation(), applicationSettings.getTempDirectory(), mergedNamingConvention,
+					useSequenceAndQualitiesFromFastq, shouldCheckIfTrimmed, useFastqIndexesAsFastqReadNamesWhenMerging, applicationSettings.getNumProcessors());
+		} catch (UnableToMergeFastqAndBamFilesException e) {
+			throw new IllegalStateException("The provided BAM file contains reads that were not trimmed using the " + HsqUtilsCli.APPLICATION_NAME + " " + HsqUtilsCli.TRIM_COMMAND_NAME
+					+ " command or the supplied fastq files are not the files provided to the " + HsqUtilsCli.APPLICATION_NAME + " " + HsqUtilsCli.TRIM_COMMAND_NAME
+					+ " command.  Please verify that fastq and bam files are correct.  If trimming was skipped please provide the --" + DeduplicationCli.TRIMMING_SKIPPED_OPTION.getLongFormOption()
+					+ " option to the " + HsqUtilsCli.DEDUPLICATION_COMMAND_NAME + " command line arguments.  BAM file[" + applicationSettings.getBamFile().getAbsolutePath() + "] fastq1["
+					+ applicationSettings.getFastQ1File().getAbsolutePath() + "] fastq2[" + applicationSettings.getFastQ2File().getAbsolutePath() + "].");
 		}
+		long readNameMergeStop = System.currentTimeMillis();
+		logger.info("Done with the replacement of read indexes with read names in file[" + dedupedBamWithReadNames.getAbsolutePath() + "] in ["
+				+ DateUtil.convertMillisecondsToHHMMSSMMM(readNameMergeStop - readNameMergeStart) + "(HH:MM:SS:MMM).");
+
+		long coordSortStart = System.currentTimeMillis();
+		File finalBam = new File(applicationSettings.getOutputDirectory(), applicationSettings.getOutputBamFileName());
+		logger.info("Starting the coordinate sort of the deduped bam file at [" + finalBam.getAbsolutePath() + "].");
+
+		BamSorter.sortBamFile(dedupedBamWithReadNames, finalBam, applicationSettings.getTempDirectory(), new SAMRecordCoordinateComparator());
+
+		long coordSortStop = System.currentTimeMillis();
+		logger.info("Done with the coordinate sort of the deduped bam file at [" + finalBam.getAbsolutePath() + "] in [" + DateUtil.convertMillisecondsToHHMMSSMMM(coordSortStop - coordSortStart)
+				+ "(HH:MM:SS:MMM).");
+
+		logger.info("Indexing the final deduped bam file.");
+		long indexStart = System.currentTimeMillis();
+		BamFileUtil.createIndex(finalBam);
+		long indexStop = System.currentTimeMillis();
+		logger.info("Done indexing the final deduped bam file in [" + DateUtil.convertMillisecondsToHHMMSSMMM(indexStop - indexStart) + "(HH:MM:SS:MMM).");
 
 		try (SamReader originalInputSamReader = SamReaderFactory.makeDefault().open(SamInputResource.of(applicationSettings.getBamFile()))) {
 			int totalReadPairs = 0;
@@ -1002,7 +1207,7 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 
 			long end = System.currentTimeMillis();
 			long processingTimeInMs = end - start;
-			reportManager.completeSummaryReport(distinctUids, uids, processingTimeInMs, totalProbes, totalReadPairs, totalFullyMappedOffTargetReadPairs, totalPartiallyMappedReadPairs,
+			reportManager.completeSummaryReport(distinctUids.getNumberOfDistinctUids(), processingTimeInMs, totalProbes, totalReadPairs, totalFullyMappedOffTargetReadPairs, totalPartiallyMappedReadPairs,
 					totalFullyUnmappedReadPairs, totalFullyMappedOnTargetReadPairs, uniqueOnTargetReadPairs, duplicateOnTargetReadPairs, unpairedReads);
 
 			reportManager.close();
@@ -1082,6 +1287,47 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		return readIndexToRecordsMap;
 	}
 
+	/**
+	 * Finds the best probes for a batch of reads which were assigned to more than one probe. The records are only read so batches can run in parallel.
+	 */
+	private static class BestProbesForReadPairsTask implements Callable<List<Set<Probe>>> {
+
+		private final int[] readIndexes;
+		private final ReadToProbeAssignmentResults readsToProbesAssignmentResults;
+		private final Map<Probe, Map<Integer, SAMRecordPair>> multiAssignedProbeToReadNameToRecordMap;
+		private final int extensionUidLength;
+		private final int ligationUidLength;
+
+		public BestProbesForReadPairsTask(int[] readIndexes, ReadToProbeAssignmentResults readsToProbesAssignmentResults,
+				Map<Probe, Map<Integer, SAMRecordPair>> multiAssignedProbeToReadNameToRecordMap, int extensionUidLength, int ligationUidLength) {
+			super();
+			this.readIndexes = readIndexes;
+			this.readsToProbesAssignmentResults = readsToProbesAssignmentResults;
+			this.multiAssignedProbeToReadNameToRecordMap = multiAssignedProbeToReadNameToRecordMap;
+			this.extensionUidLength = extensionUidLength;
+			this.ligationUidLength = ligationUidLength;
+		}
+
+		/**
+		 * @return the best probes for each read in the same order as the read indexes
+		 */
+		@Override
+		public List<Set<Probe>> call() {
+			List<Set<Probe>> bestProbesForReads = new ArrayList<Set<Probe>>(readIndexes.length);
+			for (int readIndex : readIndexes) {
+				Set<Probe> assignedProbes = readsToProbesAssignmentResults.getAssignedProbes(readIndex);
+				Map<Probe, SAMRecordPair> recordPairsByProbe = new HashMap<>();
+				for (Probe assignedProbe : assignedProbes) {
+					// need to extend each read according to the probe and then select whichever probe aligns the best
+					Map<Integer, SAMRecordPair> readNameToRecordsMap = multiAssignedProbeToReadNameToRecordMap.get(assignedProbe);
+					recordPairsByProbe.put(assignedProbe, readNameToRecordsMap.get(readIndex));
+				}
+				bestProbesForReads.add(getBestProbesForReadPair(assignedProbes, recordPairsByProbe, extensionUidLength, ligationUidLength));
+			}
+			return bestProbesForReads;
+		}
+	}
+
 	private static class ProbeIdComparator implements Comparator<String> {
 
 		private AlphaNumericStringComparator alphaNumericComparator = new AlphaNumericStringComparator();
@@ -1124,15 +1370,14 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 
 		private final Probe probe;
 		private final ApplicationSettings applicationSettings;
-		private final SAMFileWriter samWriter;
+		private final QueuedSamFileWriter samWriter;
 		private final IAlignmentScorer alignmentScorer;
-		private final Set<ISequence> distinctUids;
-		private final List<ISequence> uids;
+		private final DistinctUidCounter distinctUids;
 		private final ReportManager reportManager;
 		private final Map<Integer, SAMRecordPair> readIndexToRecordsMap;
 
 		/**
-		 * All the information we need to filter by UID and extend reads to primers. We provide thread safety by synchronizing on the writers for all blocks that should write data for one probe.
+		 * All the information we need to filter by UID and extend reads to primers. The reads for a probe are handed to the sam writer as a single batch and report writers are synchronized on.
 		 * 
 		 * @param probe
 		 *            The probe we're processing information for
@@ -1153,15 +1398,14 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		 * @param readNameToRecordsMap
 		 */
 
-		PrimerReadExtensionAndFilteringOfUniquePcrProbesTask(Probe probe, ApplicationSettings applicationSettings, SAMFileWriter samWriter, ReportManager reportManager,
-				Map<Integer, SAMRecordPair> readIndexToRecordsMap, IAlignmentScorer alignmentScorer, Set<ISequence> distinctUids, List<ISequence> uids) {
+		PrimerReadExtensionAndFilteringOfUniquePcrProbesTask(Probe probe, ApplicationSettings applicationSettings, QueuedSamFileWriter samWriter, ReportManager reportManager,
+				Map<Integer, SAMRecordPair> readIndexToRecordsMap, IAlignmentScorer alignmentScorer, DistinctUidCounter distinctUids) {
 			this.probe = probe;
 			this.applicationSettings = applicationSettings;
 			this.samWriter = samWriter;
 			this.readIndexToRecordsMap = readIndexToRecordsMap;
 			this.alignmentScorer = alignmentScorer;
 			this.distinctUids = distinctUids;
-			this.uids = uids;
 			this.reportManager = reportManager;
 		}
 
@@ -1172,7 +1416,7 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		public void run() {
 			try {
 				UidReductionResultsForAProbe probeReductionResults = FilterByUid.reduceReadsByProbeAndUid(probe, readIndexToRecordsMap, reportManager, applicationSettings.isAllowVariableLengthUids(),
-						applicationSettings.getExtensionUidLength(), applicationSettings.getLigationUidLength(), alignmentScorer, distinctUids, uids, applicationSettings.isMarkDuplicates(),
+						applicationSettings.getExtensionUidLength(), applicationSettings.getLigationUidLength(), alignmentScorer, distinctUids, applicationSettings.isMarkDuplicates(),
 						applicationSettings.isUseStrictReadToProbeMatching());
 
 				List<IReadPair> uniqueReads = probeReductionResults.getUniqueReadPairs();
@@ -1228,8 +1472,6 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 				writeReadsToSamFile(samWriter, readsToWrite, applicationSettings.isMergePairs());
 			} catch (Exception e) {
 				logger.warn(e.getMessage(), e);
-			} finally {
-				primerReadExtensionAndFilteringOfUniquePcrProbesSemaphore.release();
 			}
 		}
 
@@ -1239,36 +1481,36 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		 * @param samWriter
 		 * @param readPairs
 		 */
-		private void writeReadsToSamFile(SAMFileWriter samWriter, List<IReadPair> readPairs, boolean mergePairs) {
-			synchronized (samWriter) {
-				SAMFileHeader header = samWriter.getFileHeader();
-				for (IReadPair readPair : readPairs) {
-					if (mergePairs) {
-						SAMRecord mergedRecord = mergePairs(readPair);
-						if (mergedRecord != null) {
-							samWriter.addAlignment(mergedRecord);
-						}
-					} else {
-						SAMRecord record = readPair.getRecord();
-						SAMRecord mate = readPair.getMateRecord();
+		private void writeReadsToSamFile(QueuedSamFileWriter samWriter, List<IReadPair> readPairs, boolean mergePairs) {
+			SAMFileHeader header = samWriter.getFileHeader();
+			List<SAMRecord> recordsToWrite = new ArrayList<SAMRecord>(readPairs.size() * 2);
+			for (IReadPair readPair : readPairs) {
+				if (mergePairs) {
+					SAMRecord mergedRecord = mergePairs(readPair);
+					if (mergedRecord != null) {
+						recordsToWrite.add(mergedRecord);
+					}
+				} else {
+					SAMRecord record = readPair.getRecord();
+					SAMRecord mate = readPair.getMateRecord();
 
-						record.setHeader(header);
-						mate.setHeader(header);
+					record.setHeader(header);
+					mate.setHeader(header);
 
-						String recordReferenceName = record.getReferenceName();
-						String mateReferenceName = mate.getReferenceName();
+					String recordReferenceName = record.getReferenceName();
+					String mateReferenceName = mate.getReferenceName();
 
-						record.setReferenceName(recordReferenceName);
-						record.setMateReferenceName(mateReferenceName);
+					record.setReferenceName(recordReferenceName);
+					record.setMateReferenceName(mateReferenceName);
 
-						mate.setReferenceName(mateReferenceName);
-						mate.setMateReferenceName(recordReferenceName);
+					mate.setReferenceName(mateReferenceName);
+					mate.setMateReferenceName(recordReferenceName);
 
-						samWriter.addAlignment(mate);
-						samWriter.addAlignment(record);
-					}
+					recordsToWrite.add(mate);
+					recordsToWrite.add(record);
 				}
 			}
+			samWriter.addAlignments(recordsToWrite);
 		}
 
 		private SAMRecord mergePairs(IReadPair readPair) {
@@ -1303,7 +1545,7 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 			ISequence mergedSequence = mergeInformation.getMergedSequence();
 			String mergedQuality = mergeInformation.getMergedQuality();
 
-			NeedlemanWunschGlobalAlignment alignment = new NeedlemanWunschGlobalAlignment(captureTargetSequence, mergedSequence);
+			FastNeedlemanWunschGlobalAlignment alignment = new FastNeedlemanWunschGlobalAlignment(captureTargetSequence, mergedSequence);
 			String cigarString = alignment.getCigarString().getStandardCigarString();
 
 			mergedRecord.setCigarString(cigarString);
@@ -1555,8 +1797,8 @@ public class PrimerReadExtensionAndPcrDuplicateIdentification {
 		long start = System.currentTimeMillis();
 		Set<Character> uniqueCharacters = new HashSet<Character>();
 		int fastqEntryIndex = 0;
-		try (FastqReader fastQOneReader = new FastqReader(inputFastqOne)) {
-			try (FastqReader fastQTwoReader = new FastqReader(inputFastqTwo)) {
+		try (ParallelFastqReader fastQOneReader = new ParallelFastqReader(inputFastqOne)) {
+			try (ParallelFastqReader fastQTwoReader = new ParallelFastqReader(inputFastqTwo)) {
 				while (fastQOneReader.hasNext() && fastQTwoReader.hasNext()) {
 
 					FastqRecord oneRecord = fastQOneReader.next();
@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.heatseq.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.ProgressLoggerInterface;
+
+/**
+ * A SAMFileWriter which hands batches of records to a dedicated writer thread through a bounded queue, so the threads producing records do not wait on each other for BAM encoding. Threads adding
+ * records block while the queue is full.
+ */
+public class QueuedSamFileWriter implements SAMFileWriter {
+
+	private final static List<SAMRecord> END_OF_RECORDS = new ArrayList<SAMRecord>(0);
+
+	private final SAMFileWriter samFileWriter;
+	private final BlockingQueue<List<SAMRecord>> recordBatches;
+	private final int queueCapacity;
+	private final Thread writerThread;
+	private volatile Throwable writerException;
+	private final AtomicInteger maxQueueDepth;
+	private final AtomicLong numberOfBlockedAdds;
+	private boolean isClosed;
+
+	/**
+	 *
+	 * @param samFileWriter
+	 *            the writer that will be called from the writer thread
+	 * @param queueCapacity
+	 *            the number of record batches that can be waiting to be written before adding records blocks
+	 */
+	public QueuedSamFileWriter(SAMFileWriter samFileWriter, int queueCapacity) {
+		this.samFileWriter = samFileWriter;
+		this.queueCapacity = queueCapacity;
+		this.recordBatches = new ArrayBlockingQueue<List<SAMRecord>>(queueCapacity);
+		this.maxQueueDepth = new AtomicInteger();
+		this.numberOfBlockedAdds = new AtomicLong();
+		this.writerException = null;
+		this.isClosed = false;
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeRecordBatches();
+			}
+		}, "SAM_FILE_WRITER");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	private void writeRecordBatches() {
+		try {
+			List<SAMRecord> recordBatch = recordBatches.take();
+			while (recordBatch != END_OF_RECORDS) {
+				if (writerException == null) {
+					try {
+						for (SAMRecord record : recordBatch) {
+							samFileWriter.addAlignment(record);
+						}
+					} catch (Throwable e) {
+						// keep draining the queue so threads adding records do not block forever, the exception is thrown when adding more records or closing
+						writerException = e;
+					}
+				}
+				recordBatch = recordBatches.take();
+			}
+		} catch (InterruptedException e) {
+			writerException = e;
+		}
+	}
+
+	@Override
+	public void addAlignment(SAMRecord alignment) {
+		addAlignments(Collections.singletonList(alignment));
+	}
+
+	/**
+	 * Adds the records to the queue as a single batch, the records are written in order and will not be interleaved with the records from other batches.
+	 */
+	public void addAlignments(List<SAMRecord> alignments) {
+		throwIfWriterFailed();
+		if (alignments.size() > 0) {
+			try {
+				if (!recordBatches.offer(alignments)) {
+					numberOfBlockedAdds.incrementAndGet();
+					recordBatches.put(alignments);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+			int queueDepth = recordBatches.size();
+			int currentMaxQueueDepth = maxQueueDepth.get();
+			while (queueDepth > currentMaxQueueDepth && !maxQueueDepth.compareAndSet(currentMaxQueueDepth, queueDepth)) {
+				currentMaxQueueDepth = maxQueueDepth.get();
+			}
+		}
+	}
+
+	private void throwIfWriterFailed() {
+		Throwable exception = writerException;
+		if (exception != null) {
+			throw new IllegalStateException("Unable to write records: " + exception.getMessage(), exception);
+		}
+	}
+
+	/**
+	 * @return a one line description of how full the queue got, suitable for logging
+	 */
+	public String getQueueSummary() {
+		return "max queue depth[" + maxQueueDepth.get() + " of " + queueCapacity + "] additions that waited for the writer[" + numberOfBlockedAdds.get() + "]";
+	}
+
+	@Override
+	public SAMFileHeader getFileHeader() {
+		return samFileWriter.getFileHeader();
+	}
+
+	@Override
+	public void setProgressLogger(ProgressLoggerInterface progress) {
+		samFileWriter.setProgressLogger(progress);
+	}
+
+	/**
+	 * Waits for all queued records to be written and then closes the underlying writer.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!isClosed) {
+			isClosed = true;
+			try {
+				recordBatches.put(END_OF_RECORDS);
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e.getMessage(), e);
+			} finally {
+				samFileWriter.close();
+			}
+			throwIfWriterFailed();
+		}
+	}
+
+}
@@ -1,77 +1,185 @@
 package com.roche.heatseq.process;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiFunction;
 
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
 
+/**
+ * Stores the probes assigned to each read index. Probes are stored as int ordinals into the probe list, a read assigned to a single probe (the common case) costs one int and reads assigned to more
+ * than one probe are kept in a small overflow table. Assignments are made with compare-and-set so the assigner threads do not block each other.
+ */
 public class ReadToProbeAssignmentResults {
 
-	private final Set<Probe>[] readIndexToProbeMemoryStore;
+	private final static int NO_PROBES = 0;
+	private final static int MULTIPLE_PROBES = -1;
+
+	private final Probe[] probesByOrdinal;
+	private final Map<Probe, Integer> ordinalsByProbe;
+	// NO_PROBES, MULTIPLE_PROBES or the probe ordinal plus one
+	private final AtomicIntegerArray readIndexToProbeOrdinal;
+	private final ConcurrentHashMap<Integer, int[]> readIndexToMultipleProbeOrdinals;
 	private final File alternativeHitsBamFile;
 
-	@SuppressWarnings("unchecked")
-	public ReadToProbeAssignmentResults(int numberOfReads, File alternativeHitsBamFile) {
+	public ReadToProbeAssignmentResults(int numberOfReads, ParsedProbeFile probeInfo, File alternativeHitsBamFile) {
 		super();
-		this.readIndexToProbeMemoryStore = (Set<Probe>[]) new Set<?>[numberOfReads];
+		List<Probe> probes = probeInfo.getProbes();
+		this.probesByOrdinal = probes.toArray(new Probe[probes.size()]);
+		this.ordinalsByProbe = new HashMap<Probe, Integer>();
+		for (int ordinal = 0; ordinal < probesByOrdinal.length; ordinal++) {
+			ordinalsByProbe.put(probesByOrdinal[ordinal], ordinal);
+		}
+		this.readIndexToProbeOrdinal = new AtomicIntegerArray(numberOfReads);
+		this.readIndexToMultipleProbeOrdinals = new ConcurrentHashMap<Integer, int[]>();
 		this.alternativeHitsBamFile = alternativeHitsBamFile;
 	}
 
-	public synchronized boolean containsKey(int readIndex) {
-		boolean containsKey = readIndexToProbeMemoryStore[readIndex] != null;
+	public boolean containsKey(int readIndex) {
+		boolean containsKey = readIndexToProbeOrdinal.get(readIndex) != NO_PROBES;
 		return containsKey;
 	}
 
-	public synchronized void put(int readIndex, Set<Probe> containedProbesInBothReads) {
+	public void put(int readIndex, Set<Probe> containedProbesInBothReads) {
 		for (Probe probe : containedProbesInBothReads) {
-			Set<Probe> probes = readIndexToProbeMemoryStore[readIndex];
-			if (probes == null) {
-				probes = new HashSet<Probe>();
-				readIndexToProbeMemoryStore[readIndex] = probes;
+			addProbe(readIndex, getOrdinal(probe));
+		}
+	}
+
+	private void addProbe(final int readIndex, final int ordinal) {
+		final int encodedOrdinal = ordinal + 1;
+		// the read is typically assigned to exactly one probe so try to do it without touching the overflow table
+		if (readIndexToProbeOrdinal.compareAndSet(readIndex, NO_PROBES, encodedOrdinal) || readIndexToProbeOrdinal.get(readIndex) == encodedOrdinal) {
+			return;
+		}
+
+		// moving a read into (or adding to) the overflow table is serialized per read index by compute
+		readIndexToMultipleProbeOrdinals.compute(readIndex, new BiFunction<Integer, int[], int[]>() {
+			@Override
+			public int[] apply(Integer key, int[] existingOrdinals) {
+				int[] newOrdinals = null;
+				while (newOrdinals == null) {
+					int current = readIndexToProbeOrdinal.get(readIndex);
+					if (current == NO_PROBES) {
+						if (readIndexToProbeOrdinal.compareAndSet(readIndex, NO_PROBES, encodedOrdinal)) {
+							newOrdinals = existingOrdinals;
+							break;
+						}
+					} else if (current == encodedOrdinal) {
+						newOrdinals = existingOrdinals;
+						break;
+					} else if (current == MULTIPLE_PROBES) {
+						newOrdinals = addOrdinal(existingOrdinals, ordinal);
+					} else if (readIndexToProbeOrdinal.compareAndSet(readIndex, current, MULTIPLE_PROBES)) {
+						newOrdinals = new int[] { current - 1, ordinal };
+					}
+				}
+				return newOrdinals;
 			}
-			probes.add(probe);
+		});
+	}
+
+	private static int[] addOrdinal(int[] ordinals, int ordinal) {
+		boolean containsOrdinal = false;
+		for (int existingOrdinal : ordinals) {
+			containsOrdinal |= existingOrdinal == ordinal;
 		}
+		int[] newOrdinals = ordinals;
+		if (!containsOrdinal) {
+			newOrdinals = Arrays.copyOf(ordinals, ordinals.length + 1);
+			newOrdinals[ordinals.length] = ordinal;
+		}
+		return newOrdinals;
 	}
 
-	public synchronized void remove(int readIndex) {
-		readIndexToProbeMemoryStore[readIndex] = null;
+	public void remove(final int readIndex) {
+		readIndexToMultipleProbeOrdinals.compute(readIndex, new BiFunction<Integer, int[], int[]>() {
+			@Override
+			public int[] apply(Integer key, int[] existingOrdinals) {
+				readIndexToProbeOrdinal.set(readIndex, NO_PROBES);
+				return null;
+			}
+		});
 	}
 
-	public synchronized Set<Probe> getAssignedProbes(int readIndex) {
-		Set<Probe> probes = readIndexToProbeMemoryStore[readIndex];
+	/**
+	 * @param readIndex
+	 * @return the probes assigned to the read or null if the read has not been assigned to a probe
+	 */
+	public Set<Probe> getAssignedProbes(int readIndex) {
+		Set<Probe> probes = null;
+		int current = readIndexToProbeOrdinal.get(readIndex);
+		if (current == MULTIPLE_PROBES) {
+			int[] ordinals = readIndexToMultipleProbeOrdinals.get(readIndex);
+			if (ordinals != null) {
+				probes = new HashSet<Probe>(ordinals.length);
+				for (int ordinal : ordinals) {
+					probes.add(probesByOrdinal[ordinal]);
+				}
+			}
+		} else if (current != NO_PROBES) {
+			probes = Collections.singleton(probesByOrdinal[current - 1]);
+		}
 		return probes;
 	}
 
-	public synchronized Iterator<Integer> getReadNames() {
-		return new ReadNameIter();
+	private int getOrdinal(Probe probe) {
+		Integer ordinal = ordinalsByProbe.get(probe);
+		if (ordinal == null) {
+			throw new IllegalStateException("Probe[" + probe.getProbeId() + "] is not in the probe file used to create the read to probe assignments.");
+		}
+		return ordinal;
+	}
+
+	/**
+	 * @return the indexes of the reads that have been assigned to at least one probe in ascending order, use {@link ReadIndexIterator#nextInt()} to avoid boxing
+	 */
+	public ReadIndexIterator getReadNames() {
+		return new ReadIndexIterator();
 	}
 
-	public class ReadNameIter implements Iterator<Integer> {
+	public class ReadIndexIterator implements PrimitiveIterator.OfInt {
 
 		private int nextIndex;
 
-		public ReadNameIter() {
-			nextIndex = -1;
-			next();
+		private ReadIndexIterator() {
+			nextIndex = findNextAssignedReadIndex(0);
 		}
 
 		@Override
 		public boolean hasNext() {
-			return nextIndex < readIndexToProbeMemoryStore.length && readIndexToProbeMemoryStore[nextIndex] != null;
+			return nextIndex < readIndexToProbeOrdinal.length();
 		}
 
 		@Override
-		public Integer next() {
-			Integer next = nextIndex;
-			do {
-				nextIndex++;
-			} while (nextIndex < readIndexToProbeMemoryStore.length && readIndexToProbeMemoryStore[nextIndex] == null);
-
+		public int nextInt() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int next = nextIndex;
+			nextIndex = findNextAssignedReadIndex(nextIndex + 1);
 			return next;
 		}
 
+		private int findNextAssignedReadIndex(int fromIndex) {
+			int readIndex = fromIndex;
+			while (readIndex < readIndexToProbeOrdinal.length() && readIndexToProbeOrdinal.get(readIndex) == NO_PROBES) {
+				readIndex++;
+			}
+			return readIndex;
+		}
+
 	}
 
 	public File getAlternativeHitsBamFile() {
@@ -17,11 +17,8 @@ package com.roche.heatseq.qualityreport;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.Set;
 
 import com.roche.heatseq.cli.HsqUtilsCli;
-import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
 import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
 import com.roche.sequencing.bioinformatics.common.utils.TabDelimitedFileWriter;
@@ -175,7 +172,7 @@ public class ReportManager {
 		return ambiguousMappingWriter;
 	}
 
-	public void completeSummaryReport(Set<ISequence> distinctUids, List<ISequence> nonDistinctUids, long processingTimeInMs, int totalProbes, int totalReadPairs,
+	public void completeSummaryReport(int numberOfDistinctUids, long processingTimeInMs, int totalProbes, int totalReadPairs,
 			int totalFullyMappedOffTargetReadPairs, int totalPartiallyMappedReadPairs, int totalFullyUnmappedReadPairs, int totalFullyMappedOnTargetReadPairs, int uniqueOnTargetReadPairs,
 			int duplicateOnTargetReadPairs, int unpairedReads) {
 
@@ -189,7 +186,7 @@ public class ReportManager {
 		summaryReport.setMaxUidsPerProbe(detailsReport.getMaxNumberOfUidsPerProbe());
 		summaryReport.setAverageNumberOfReadPairsPerProbeUid(detailsReport.getAverageNumberOfReadPairsPerProbeUid());
 
-		summaryReport.setDistinctUidsFound(distinctUids.size());
+		summaryReport.setDistinctUidsFound(numberOfDistinctUids);
 		summaryReport.setTotalProbes(totalProbes);
 
 		summaryReport.setTotalFullyMappedOffTargetReadPairs(totalFullyMappedOffTargetReadPairs);
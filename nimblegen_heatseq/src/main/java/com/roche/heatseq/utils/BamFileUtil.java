@@ -29,8 +29,8 @@ import java.util.Set;
 
 import com.roche.sequencing.bioinformatics.common.alignment.CigarString;
 import com.roche.sequencing.bioinformatics.common.alignment.CigarStringUtil;
+import com.roche.sequencing.bioinformatics.common.alignment.FastNeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.alignment.IAlignmentScorer;
-import com.roche.sequencing.bioinformatics.common.alignment.NeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.alignment.SimpleAlignmentScorer;
 import com.roche.sequencing.bioinformatics.common.genome.Genome;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
@@ -328,7 +328,7 @@ public class BamFileUtil {
 					readNames.append("\"" + record.getReadName() + "\",");
 					ISequence reference = genome.getSequence(record.getReferenceName(), record.getAlignmentStart(), record.getAlignmentEnd());
 					ISequence query = new IupacNucleotideCodeSequence(record.getReadString());
-					NeedlemanWunschGlobalAlignment alignment = new NeedlemanWunschGlobalAlignment(reference, query, alignmentScorer);
+					FastNeedlemanWunschGlobalAlignment alignment = new FastNeedlemanWunschGlobalAlignment(reference, query, alignmentScorer);
 					CigarString cigarStringFromAlignment = alignment.getCigarString();
 					System.out.println(alignment.getAlignmentAsString());
 					System.out.println("cigar string from alignment:" + cigarStringFromAlignment.getCigarString(true, false));
@@ -15,6 +15,8 @@
  */
 package com.roche.heatseq.utils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -22,14 +24,18 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.roche.sequencing.bioinformatics.common.multithreading.PausableFixedThreadPoolExecutor;
 import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.PicardException;
 
+import htsjdk.samtools.BAMRecordCodec;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
@@ -37,7 +43,6 @@ import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordCoordinateComparator;
 import htsjdk.samtools.SAMRecordDuplicateComparator;
-import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMRecordQueryNameComparator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
@@ -45,8 +50,14 @@ import htsjdk.samtools.SamReaderFactory;
 public class BamSorter {
 
 	private final static Logger logger = LoggerFactory.getLogger(FastqSorter.class);
-	private final static int RECORDS_PER_CHUNK = 500000;
 	private final static int BAM_COMPRESSION_LEVEL = 0; // most compressed
+	private final static int MAX_NUMBER_OF_SORTING_THREADS = 8;
+	// the fraction of the max heap that the chunks being read, sorted and written are allowed to use
+	private final static double FRACTION_OF_MAX_MEMORY_FOR_CHUNKS = 0.4;
+	private final static long MIN_BYTES_PER_CHUNK = 16L * 1024 * 1024;
+	private final static long MAX_BYTES_PER_CHUNK = 512L * 1024 * 1024;
+	// rough size of a SAMRecord on the heap excluding the bases, qualities and read name
+	private final static int ESTIMATED_RECORD_OVERHEAD_IN_BYTES = 400;
 
 	public static void sortBamFile(File inputBamFile, File outputBamFile, File tempDirectory, final Comparator<SAMRecord> comparator) {
 		try (SamReader currentReader = SamReaderFactory.makeDefault().open(inputBamFile)) {
@@ -86,15 +97,20 @@ public class BamSorter {
 		return returnIter;
 	}
 
-	private static CloseableAndIterableIterator<SAMRecord> getSortedBamIterator(Iterator<SAMRecord> samIterator, SAMFileHeader header, File tempDirectory, final Comparator<SAMRecord> comparator) {
+	public static CloseableAndIterableIterator<SAMRecord> getSortedBamIterator(Iterator<SAMRecord> samIterator, SAMFileHeader header, File tempDirectory, final Comparator<SAMRecord> comparator) {
+		return getSortedBamIterator(samIterator, header, tempDirectory, comparator, getMaxBytesPerChunk(getNumberOfSortingThreads()));
+	}
+
+	static CloseableAndIterableIterator<SAMRecord> getSortedBamIterator(Iterator<SAMRecord> samIterator, SAMFileHeader header, File tempDirectory, final Comparator<SAMRecord> comparator,
+			long maxBytesPerChunk) {
 		File chunkDirectory = new File(tempDirectory, "bam_chunks_" + System.currentTimeMillis() + "/");
 		try {
 			FileUtil.createDirectory(chunkDirectory);
 		} catch (IOException e) {
 			throw new IllegalStateException(e.getMessage(), e);
 		}
-		List<File> chunkFiles = createInitialSortedFileChunks(samIterator, header, chunkDirectory, comparator);
-		return new SortedBamIterator(chunkDirectory, chunkFiles, comparator);
+		List<File> chunkFiles = createInitialSortedFileChunks(samIterator, header, chunkDirectory, comparator, maxBytesPerChunk);
+		return new SortedBamIterator(chunkDirectory, chunkFiles, header, comparator);
 	}
 
 	public interface CloseableAndIterableIterator<T> extends Iterator<T>, AutoCloseable {
@@ -102,67 +118,83 @@ public class BamSorter {
 		void close();
 	}
 
+	/**
+	 * Merges the sorted chunk files with a {@link LoserTree}. Records that compare as equal are returned in chunk order which keeps the sort stable.
+	 */
 	private static class SortedBamIterator implements CloseableAndIterableIterator<SAMRecord> {
 
 		private final File chunkDirectory;
-		private final TreeSet<SamRecordAndChunkIndex> currentSortedRecords;
-		private final SAMRecordIterator[] iters;
-		private final SamReader[] readers;
+		private final DataInputStream[] chunkInputStreams;
+		private final BAMRecordCodec[] chunkCodecs;
+		private final int[] remainingRecordsInChunks;
+		private final LoserTree<SAMRecord> loserTree;
 		private SAMRecord nextRecord;
+		private int nextRecordChunkIndex;
 		private final Comparator<SAMRecord> comparator;
 
-		private SortedBamIterator(File chunkDirectory, List<File> chunkFiles, final Comparator<SAMRecord> comparator) {
+		private SortedBamIterator(File chunkDirectory, List<File> chunkFiles, SAMFileHeader header, final Comparator<SAMRecord> comparator) {
 			this.chunkDirectory = chunkDirectory;
 			this.comparator = comparator;
-			currentSortedRecords = new TreeSet<SamRecordAndChunkIndex>(new Comparator<SamRecordAndChunkIndex>() {
-				@Override
-				public int compare(SamRecordAndChunkIndex o1, SamRecordAndChunkIndex o2) {
-					return comparator.compare(o1.getRecord(), o2.getRecord());
-				}
-			});
-
-			readers = new SamReader[chunkFiles.size()];
-			iters = new SAMRecordIterator[chunkFiles.size()];
-			for (int i = 0; i < chunkFiles.size(); i++) {
-				SamReader currentReader = SamReaderFactory.makeDefault().open(chunkFiles.get(i));
-				readers[i] = currentReader;
-				SAMRecordIterator currentIter = currentReader.iterator();
-				iters[i] = currentIter;
-				if (currentIter.hasNext()) {
-					currentSortedRecords.add(new SamRecordAndChunkIndex(currentIter.next(), i));
+
+			int numberOfChunks = chunkFiles.size();
+			chunkInputStreams = new DataInputStream[numberOfChunks];
+			chunkCodecs = new BAMRecordCodec[numberOfChunks];
+			remainingRecordsInChunks = new int[numberOfChunks];
+			loserTree = new LoserTree<SAMRecord>(numberOfChunks, comparator);
+			try {
+				for (int i = 0; i < numberOfChunks; i++) {
+					DataInputStream chunkInputStream = SortChunkCodec.openChunkInputStream(chunkFiles.get(i));
+					chunkInputStreams[i] = chunkInputStream;
+					BAMRecordCodec chunkCodec = new BAMRecordCodec(header);
+					chunkCodec.setInputStream(chunkInputStream, chunkFiles.get(i).getAbsolutePath());
+					chunkCodecs[i] = chunkCodec;
+					remainingRecordsInChunks[i] = chunkInputStream.readInt();
+					if (remainingRecordsInChunks[i] > 0) {
+						long sortKey = chunkInputStream.readLong();
+						loserTree.setFirstRecord(i, readRecord(i), sortKey);
+					}
 				}
+			} catch (IOException e) {
+				throw new PicardException(e.getMessage(), e);
 			}
+			loserTree.initialize();
 
+			nextRecordChunkIndex = -1;
 			nextRecord = getNextRecordToReturn();
 		}
 
+		private SAMRecord readRecord(int chunkIndex) {
+			remainingRecordsInChunks[chunkIndex]--;
+			return chunkCodecs[chunkIndex].decode();
+		}
+
 		@Override
 		public boolean hasNext() {
 			return nextRecord != null;
 		}
 
 		private SAMRecord getNextRecordToReturn() {
-			SAMRecord nextRecord = null;
-			if (currentSortedRecords.size() > 0) {
-				SamRecordAndChunkIndex currentRecordAndReaderIndex = currentSortedRecords.pollFirst();
-				nextRecord = currentRecordAndReaderIndex.getRecord();
-				int chunkIndex = currentRecordAndReaderIndex.getChunkIndex();
-				SAMRecordIterator currentIter = iters[chunkIndex];
-				if (currentIter.hasNext()) {
-					SAMRecord nextChunkRecord = currentIter.next();
-					if (!currentSortedRecords.add(new SamRecordAndChunkIndex(nextChunkRecord, chunkIndex))) {
-						// add this point we know there is a problem just collecting more info before reporting the problem.
-						SamRecordAndChunkIndex alreadyContainedRecord = null;
-						for (SamRecordAndChunkIndex samRecordAndChunk : currentSortedRecords) {
-							if (comparator.compare(samRecordAndChunk.getRecord(), nextChunkRecord) == 0) {
-								alreadyContainedRecord = samRecordAndChunk;
-							}
-						}
-						throw new IllegalStateException("Provided comparator does not uniquely identify the records.  Comparator failed on sam record[" + nextChunkRecord.getReadName() + " isReadOne:"
-								+ nextChunkRecord.getFirstOfPairFlag() + "] in chunk[" + chunkIndex + "] which matches [" + alreadyContainedRecord.getRecord().getReadName() + " isReadOne:"
-								+ alreadyContainedRecord.getRecord().getFirstOfPairFlag() + "] in chunk[" + alreadyContainedRecord.getChunkIndex() + "].");
+			SAMRecord nextRecord = loserTree.getWinningRecord();
+			if (nextRecord != null) {
+				int chunkIndex = loserTree.getWinningChunkIndex();
+				if (this.nextRecord != null && nextRecordChunkIndex != chunkIndex && comparator.compare(this.nextRecord, nextRecord) == 0) {
+					throw new IllegalStateException("Provided comparator does not uniquely identify the records.  Comparator failed on sam record[" + nextRecord.getReadName() + " isReadOne:"
+							+ nextRecord.getFirstOfPairFlag() + "] in chunk[" + chunkIndex + "] which matches [" + this.nextRecord.getReadName() + " isReadOne:"
+							+ this.nextRecord.getFirstOfPairFlag() + "] in chunk[" + nextRecordChunkIndex + "].");
+				}
+				nextRecordChunkIndex = chunkIndex;
+
+				SAMRecord nextChunkRecord = null;
+				long nextChunkSortKey = 0;
+				if (remainingRecordsInChunks[chunkIndex] > 0) {
+					try {
+						nextChunkSortKey = chunkInputStreams[chunkIndex].readLong();
+					} catch (IOException e) {
+						throw new PicardException(e.getMessage(), e);
 					}
+					nextChunkRecord = readRecord(chunkIndex);
 				}
+				loserTree.replaceWinningRecord(nextChunkRecord, nextChunkSortKey);
 			}
 			return nextRecord;
 		}
@@ -176,15 +208,13 @@ public class BamSorter {
 
 		@Override
 		public void close() {
-			for (SAMRecordIterator iter : iters) {
-				iter.close();
-			}
-
-			for (SamReader reader : readers) {
-				try {
-					reader.close();
-				} catch (IOException e) {
-					logger.error(e.getMessage(), e);
+			for (DataInputStream chunkInputStream : chunkInputStreams) {
+				if (chunkInputStream != null) {
+					try {
+						chunkInputStream.close();
+					} catch (IOException e) {
+						logger.error(e.getMessage(), e);
+					}
 				}
 			}
 			try {
@@ -200,83 +230,105 @@ public class BamSorter {
 		}
 	}
 
-	private static class SamRecordAndChunkIndex {
-		private final SAMRecord record;
-		private final int chunkIndex;
-
-		public SamRecordAndChunkIndex(SAMRecord record, int chunkIndex) {
-			super();
-			this.record = record;
-			this.chunkIndex = chunkIndex;
-		}
-
-		public SAMRecord getRecord() {
-			return record;
-		}
-
-		public int getChunkIndex() {
-			return chunkIndex;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + chunkIndex;
-			result = prime * result + ((record == null) ? 0 : record.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			SamRecordAndChunkIndex other = (SamRecordAndChunkIndex) obj;
-			if (chunkIndex != other.chunkIndex)
-				return false;
-			if (record == null) {
-				if (other.record != null)
-					return false;
-			} else if (!record.equals(other.record))
-				return false;
-			return true;
+	/**
+	 * @return a sort key that is consistent with the comparator or zero for all records if the comparator is not recognized
+	 */
+	private static long getSortKey(SAMRecord record, Comparator<SAMRecord> comparator) {
+		long sortKey = 0;
+		if (comparator.getClass().equals(SAMRecordCoordinateComparator.class)) {
+			int referenceIndex = record.getReferenceIndex();
+			if (referenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+				// unmapped reads sort after all mapped reads
+				sortKey = Long.MAX_VALUE;
+			} else {
+				sortKey = (((long) referenceIndex) << 32) | (record.getAlignmentStart() & 0xFFFFFFFFL);
+			}
+		} else if (comparator.getClass().equals(SamRecordNameComparator.class)) {
+			sortKey = SortChunkCodec.getNamePrefixSortKey(record.getReadName());
 		}
+		return sortKey;
 	}
 
-	private static List<File> createInitialSortedFileChunks(Iterator<SAMRecord> iter, SAMFileHeader header, File tempDirectory, Comparator<SAMRecord> comparator) {
+	/**
+	 * Reads the records into chunks bounded by their estimated heap size and sorts and writes each chunk on a worker thread while the next chunk is being read. The number of chunks held in memory
+	 * at once is limited to the number of sorting threads plus the chunk currently being read.
+	 */
+	private static List<File> createInitialSortedFileChunks(Iterator<SAMRecord> iter, SAMFileHeader header, File tempDirectory, Comparator<SAMRecord> comparator, long maxBytesPerChunk) {
 		List<File> chunkFiles = new ArrayList<File>();
+		List<Future<?>> chunkFutures = new ArrayList<Future<?>>();
 		List<SAMRecord> currentInputBuffer = new ArrayList<SAMRecord>();
+		long currentInputBufferSizeInBytes = 0;
 
 		header.setSortOrder(SortOrder.unsorted);
 
-		while (iter.hasNext()) {
-			SAMRecord record = iter.next();
-			currentInputBuffer.add(record);
+		int numberOfThreads = getNumberOfSortingThreads();
+		final Semaphore chunksBeingSortedSemaphore = new Semaphore(numberOfThreads);
+		PausableFixedThreadPoolExecutor executor = new PausableFixedThreadPoolExecutor(numberOfThreads, "BAM_SORTER_");
+		try {
+			while (iter.hasNext()) {
+				SAMRecord record = iter.next();
+				currentInputBuffer.add(record);
+				currentInputBufferSizeInBytes += estimateRecordSizeInBytes(record);
+
+				if (currentInputBufferSizeInBytes > maxBytesPerChunk) {
+					SamDataWriterHelper dataWriterHelper = new SamDataWriterHelper(header, chunkFiles.size(), tempDirectory, currentInputBuffer, comparator);
+					chunkFutures.add(submitChunk(executor, chunksBeingSortedSemaphore, dataWriterHelper));
+					currentInputBuffer = new ArrayList<SAMRecord>();
+					currentInputBufferSizeInBytes = 0;
+					chunkFiles.add(dataWriterHelper.getChunkFile());
+				}
+			}
 
-			if (currentInputBuffer.size() > RECORDS_PER_CHUNK) {
+			if (currentInputBuffer.size() > 0) {
 				SamDataWriterHelper dataWriterHelper = new SamDataWriterHelper(header, chunkFiles.size(), tempDirectory, currentInputBuffer, comparator);
-				dataWriterHelper.run();
-				currentInputBuffer = new ArrayList<SAMRecord>();
+				chunkFutures.add(submitChunk(executor, chunksBeingSortedSemaphore, dataWriterHelper));
 				chunkFiles.add(dataWriterHelper.getChunkFile());
 			}
-		}
 
-		if (currentInputBuffer.size() > 0) {
-			SamDataWriterHelper dataWriterHelper = new SamDataWriterHelper(header, chunkFiles.size(), tempDirectory, currentInputBuffer, comparator);
-			dataWriterHelper.run();
-			chunkFiles.add(dataWriterHelper.getChunkFile());
+			for (Future<?> chunkFuture : chunkFutures) {
+				chunkFuture.get();
+			}
+		} catch (InterruptedException e) {
+			throw new PicardException(e.getMessage(), e);
+		} catch (ExecutionException e) {
+			throw new PicardException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
 
 		return chunkFiles;
 	}
 
-	private static class SamDataWriterHelper implements Runnable {
-		private final Logger logger = LoggerFactory.getLogger(SamDataWriterHelper.class);
+	private static Future<?> submitChunk(PausableFixedThreadPoolExecutor executor, final Semaphore chunksBeingSortedSemaphore, final SamDataWriterHelper dataWriterHelper)
+			throws InterruptedException {
+		chunksBeingSortedSemaphore.acquire();
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					dataWriterHelper.run();
+				} finally {
+					chunksBeingSortedSemaphore.release();
+				}
+			}
+		});
+	}
+
+	private static int getNumberOfSortingThreads() {
+		return Math.max(1, Math.min(MAX_NUMBER_OF_SORTING_THREADS, Runtime.getRuntime().availableProcessors()));
+	}
+
+	private static long getMaxBytesPerChunk(int numberOfThreads) {
+		long bytesForChunks = (long) (Runtime.getRuntime().maxMemory() * FRACTION_OF_MAX_MEMORY_FOR_CHUNKS);
+		long bytesPerChunk = bytesForChunks / (numberOfThreads + 1);
+		return Math.max(MIN_BYTES_PER_CHUNK, Math.min(MAX_BYTES_PER_CHUNK, bytesPerChunk));
+	}
 
+	private static long estimateRecordSizeInBytes(SAMRecord record) {
+		return ESTIMATED_RECORD_OVERHEAD_IN_BYTES + (2L * record.getReadLength()) + (2L * record.getReadName().length());
+	}
+
+	private static class SamDataWriterHelper implements Runnable {
 		private final List<SAMRecord> recordsToWrite;
 		private final Comparator<SAMRecord> comparator;
 		private final File chunkFile;
@@ -288,7 +340,7 @@ public class BamSorter {
 			this.recordsToWrite = recordsToWrite;
 			this.comparator = comparator;
 			try {
-				this.chunkFile = File.createTempFile(chunkFileIndex + "_temp_sorting_", ".bam", tempDirectory);
+				this.chunkFile = File.createTempFile(chunkFileIndex + "_temp_sorting_", ".chunk", tempDirectory);
 			} catch (IOException e) {
 				throw new IllegalStateException(e.getMessage(), e);
 			}
@@ -304,17 +356,17 @@ public class BamSorter {
 		}
 
 		private void writeOutData() {
-			try {
-				FileUtil.createNewFile(chunkFile);
-				Collections.sort(recordsToWrite, comparator);
-				SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, chunkFile, BAM_COMPRESSION_LEVEL);
-
+			Collections.sort(recordsToWrite, comparator);
+			try (DataOutputStream chunkOutputStream = SortChunkCodec.openChunkOutputStream(chunkFile)) {
+				BAMRecordCodec codec = new BAMRecordCodec(header);
+				codec.setOutputStream(chunkOutputStream, chunkFile.getAbsolutePath());
+				chunkOutputStream.writeInt(recordsToWrite.size());
 				for (SAMRecord recordToWrite : recordsToWrite) {
-					writer.addAlignment(recordToWrite);
+					chunkOutputStream.writeLong(getSortKey(recordToWrite, comparator));
+					codec.encode(recordToWrite);
 				}
-				writer.close();
 			} catch (IOException e) {
-				logger.warn(e.getMessage(), e);
+				throw new PicardException(e.getMessage(), e);
 			}
 		}
 	}
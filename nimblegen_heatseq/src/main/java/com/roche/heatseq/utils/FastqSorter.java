@@ -16,6 +16,8 @@
 package com.roche.heatseq.utils;
 
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -25,7 +27,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,8 +38,9 @@ import com.roche.sequencing.bioinformatics.common.utils.DateUtil;
 import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
 import com.roche.sequencing.bioinformatics.common.utils.IlluminaFastQReadNameUtil;
 import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
-import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqReader;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqWriter;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.ParallelFastqReader;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.PicardException;
 
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.fastq.FastqRecord;
@@ -74,7 +76,7 @@ public class FastqSorter {
 		if (comparator == null) {
 			iter = new FastqIteratorWithoutSorting(inputFastqFile, addOriginalIndexesToNameWithUnderscoreDelimiter);
 		} else {
-			iter = getSortedFastqIterator(new FastqReader(inputFastqFile), tempDirectory, comparator, addOriginalIndexesToNameWithUnderscoreDelimiter);
+			iter = getSortedFastqIterator(new ParallelFastqReader(inputFastqFile), tempDirectory, comparator, addOriginalIndexesToNameWithUnderscoreDelimiter);
 		}
 
 		return iter;
@@ -89,13 +91,13 @@ public class FastqSorter {
 
 	private static class FastqIteratorWithoutSorting implements CloseableIterator<FastqRecord> {
 
-		private final FastqReader reader;
+		private final ParallelFastqReader reader;
 		private final Iterator<FastqRecord> iterator;
 		private final boolean addOriginalIndexesToNameWithUnderscoreDelimiter;
 		private int index;
 
 		public FastqIteratorWithoutSorting(File fastqFile, boolean addOriginalIndexesToNameWithUnderscoreDelimiter) {
-			reader = new FastqReader(fastqFile);
+			reader = new ParallelFastqReader(fastqFile);
 			iterator = reader.iterator();
 			this.addOriginalIndexesToNameWithUnderscoreDelimiter = addOriginalIndexesToNameWithUnderscoreDelimiter;
 			index = 0;
@@ -123,42 +125,45 @@ public class FastqSorter {
 
 	}
 
+	/**
+	 * Merges the sorted chunk files with a {@link LoserTree}. Records that compare as equal are returned in chunk order.
+	 */
 	private static class SortedFastqIterator implements CloseableIterator<FastqRecord> {
 
 		private final File chunkDirectory;
-		private final TreeSet<FastqRecordAndChunkIndex> currentSortedRecords;
-		private final FastqReader[] readers;
+		private final DataInputStream[] chunkInputStreams;
+		private final int[] remainingRecordsInChunks;
+		private final LoserTree<FastqRecord> loserTree;
 		private FastqRecord nextRecord;
 
-		@SuppressWarnings("resource")
 		private SortedFastqIterator(File chunkDirectory, List<File> chunkFiles, final Comparator<FastqRecord> comparator) {
 			this.chunkDirectory = chunkDirectory;
 
-			currentSortedRecords = new TreeSet<FastqRecordAndChunkIndex>(new Comparator<FastqRecordAndChunkIndex>() {
-				@Override
-				public int compare(FastqRecordAndChunkIndex o1, FastqRecordAndChunkIndex o2) {
-					return comparator.compare(o1.getRecord(), o2.getRecord());
-				}
-			});
-
-			readers = new FastqReader[chunkFiles.size()];
-			for (int i = 0; i < chunkFiles.size(); i++) {
-				FastqReader currentReader = new FastqReader(chunkFiles.get(i), false);
-				readers[i] = currentReader;
-				if (currentReader.hasNext()) {
-					currentSortedRecords.add(new FastqRecordAndChunkIndex(currentReader.next(), i));
+			int numberOfChunks = chunkFiles.size();
+			chunkInputStreams = new DataInputStream[numberOfChunks];
+			remainingRecordsInChunks = new int[numberOfChunks];
+			loserTree = new LoserTree<FastqRecord>(numberOfChunks, comparator);
+			try {
+				for (int i = 0; i < numberOfChunks; i++) {
+					DataInputStream chunkInputStream = SortChunkCodec.openChunkInputStream(chunkFiles.get(i));
+					chunkInputStreams[i] = chunkInputStream;
+					remainingRecordsInChunks[i] = chunkInputStream.readInt();
+					if (remainingRecordsInChunks[i] > 0) {
+						long sortKey = chunkInputStream.readLong();
+						loserTree.setFirstRecord(i, readRecord(i), sortKey);
+					}
 				}
+			} catch (IOException e) {
+				throw new PicardException(e.getMessage(), e);
 			}
+			loserTree.initialize();
 
-			FastqRecordAndChunkIndex currentRecordAndReaderIndex = currentSortedRecords.pollFirst();
-
-			nextRecord = currentRecordAndReaderIndex.getRecord();
-			int chunkIndex = currentRecordAndReaderIndex.getChunkIndex();
-			FastqReader currentReader = readers[chunkIndex];
-			if (currentReader.hasNext()) {
-				currentSortedRecords.add(new FastqRecordAndChunkIndex(currentReader.next(), chunkIndex));
-			}
+			nextRecord = getNextRecordToReturn();
+		}
 
+		private FastqRecord readRecord(int chunkIndex) throws IOException {
+			remainingRecordsInChunks[chunkIndex]--;
+			return SortChunkCodec.readFastqRecord(chunkInputStreams[chunkIndex]);
 		}
 
 		@Override
@@ -167,15 +172,20 @@ public class FastqSorter {
 		}
 
 		private FastqRecord getNextRecordToReturn() {
-			FastqRecord nextRecord = null;
-			if (currentSortedRecords.size() > 0) {
-				FastqRecordAndChunkIndex currentRecordAndReaderIndex = currentSortedRecords.pollFirst();
-				nextRecord = currentRecordAndReaderIndex.getRecord();
-				int chunkIndex = currentRecordAndReaderIndex.getChunkIndex();
-				FastqReader currentReader = readers[chunkIndex];
-				if (currentReader.hasNext()) {
-					currentSortedRecords.add(new FastqRecordAndChunkIndex(currentReader.next(), chunkIndex));
+			FastqRecord nextRecord = loserTree.getWinningRecord();
+			if (nextRecord != null) {
+				int chunkIndex = loserTree.getWinningChunkIndex();
+				FastqRecord nextChunkRecord = null;
+				long nextChunkSortKey = 0;
+				if (remainingRecordsInChunks[chunkIndex] > 0) {
+					try {
+						nextChunkSortKey = chunkInputStreams[chunkIndex].readLong();
+						nextChunkRecord = readRecord(chunkIndex);
+					} catch (IOException e) {
+						throw new PicardException(e.getMessage(), e);
+					}
 				}
+				loserTree.replaceWinningRecord(nextChunkRecord, nextChunkSortKey);
 			}
 			return nextRecord;
 		}
@@ -189,8 +199,14 @@ public class FastqSorter {
 
 		@Override
 		public void close() {
-			for (FastqReader reader : readers) {
-				reader.close();
+			for (DataInputStream chunkInputStream : chunkInputStreams) {
+				if (chunkInputStream != null) {
+					try {
+						chunkInputStream.close();
+					} catch (IOException e) {
+						logger.warn(e.getMessage(), e);
+					}
+				}
 			}
 			try {
 				FileUtil.deleteDirectory(chunkDirectory);
@@ -207,52 +223,15 @@ public class FastqSorter {
 
 	}
 
-	private static class FastqRecordAndChunkIndex {
-		private final FastqRecord record;
-		private final int chunkIndex;
-
-		public FastqRecordAndChunkIndex(FastqRecord record, int chunkIndex) {
-			super();
-			this.record = record;
-			this.chunkIndex = chunkIndex;
+	/**
+	 * @return a sort key that is consistent with the comparator or zero for all records if the comparator is not recognized
+	 */
+	private static long getSortKey(FastqRecord record, Comparator<FastqRecord> comparator) {
+		long sortKey = 0;
+		if (comparator.getClass().equals(FastqRecordNameComparator.class)) {
+			sortKey = SortChunkCodec.getNamePrefixSortKey(record.getReadHeader());
 		}
-
-		public FastqRecord getRecord() {
-			return record;
-		}
-
-		public int getChunkIndex() {
-			return chunkIndex;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + chunkIndex;
-			result = prime * result + ((record == null) ? 0 : record.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			FastqRecordAndChunkIndex other = (FastqRecordAndChunkIndex) obj;
-			if (chunkIndex != other.chunkIndex)
-				return false;
-			if (record == null) {
-				if (other.record != null)
-					return false;
-			} else if (!record.equals(other.record))
-				return false;
-			return true;
-		}
-
+		return sortKey;
 	}
 
 	private static List<File> createInitialSortedFileChunks(Iterator<FastqRecord> fastqIterator, File tempDirectory, Comparator<FastqRecord> comparator,
@@ -293,8 +272,6 @@ public class FastqSorter {
 	}
 
 	private static class FastqDataWriterHelper implements Runnable {
-		private final Logger logger = LoggerFactory.getLogger(FastqDataWriterHelper.class);
-
 		private final List<FastqRecord> recordsToWriter;
 		private final Comparator<FastqRecord> comparator;
 		private final File chunkFile;
@@ -303,7 +280,7 @@ public class FastqSorter {
 			super();
 			this.recordsToWriter = recordsToWriter;
 			this.comparator = comparator;
-			this.chunkFile = new File(tempDirectory, chunkFileIndex + "_temp_sorting.fastq");
+			this.chunkFile = new File(tempDirectory, chunkFileIndex + "_temp_sorting.chunk");
 		}
 
 		@Override
@@ -318,15 +295,16 @@ public class FastqSorter {
 		private void writeOutData() {
 			try {
 				FileUtil.createNewFile(chunkFile);
-				FastqWriter writer = new FastqWriter(chunkFile);
 				Collections.sort(recordsToWriter, comparator);
-
-				for (FastqRecord recordToWrite : recordsToWriter) {
-					writer.write(recordToWrite);
+				try (DataOutputStream chunkOutputStream = SortChunkCodec.openChunkOutputStream(chunkFile)) {
+					chunkOutputStream.writeInt(recordsToWriter.size());
+					for (FastqRecord recordToWrite : recordsToWriter) {
+						chunkOutputStream.writeLong(getSortKey(recordToWrite, comparator));
+						SortChunkCodec.writeFastqRecord(chunkOutputStream, recordToWrite);
+					}
 				}
-				writer.close();
 			} catch (IOException e) {
-				logger.warn(e.getMessage(), e);
+				throw new PicardException(e.getMessage(), e);
 			}
 		}
 	}
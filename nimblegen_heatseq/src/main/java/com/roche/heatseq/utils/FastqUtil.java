@@ -14,8 +14,8 @@ import com.roche.sequencing.bioinformatics.common.sequence.NucleotideCodeSequenc
 import com.roche.sequencing.bioinformatics.common.utils.ArraysUtil;
 import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
 import com.roche.sequencing.bioinformatics.common.utils.IlluminaFastQReadNameUtil;
-import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqReader;
 import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqWriter;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.ParallelFastqReader;
 
 import htsjdk.samtools.fastq.FastqRecord;
 
@@ -30,7 +30,7 @@ public class FastqUtil {
 	public static void reverseCompliment(File inputFastqFile, File outputFastqFile) {
 
 		try (FastqWriter writer = new FastqWriter(outputFastqFile)) {
-			try (FastqReader reader = new FastqReader(inputFastqFile)) {
+			try (ParallelFastqReader reader = new ParallelFastqReader(inputFastqFile)) {
 				while (reader.hasNext()) {
 					FastqRecord record = reader.next();
 
@@ -52,7 +52,7 @@ public class FastqUtil {
 		Map<String, String> readNameToFastqIndexMap = new HashMap<>();
 
 		int fastqIndex = 0;
-		try (FastqReader reader = new FastqReader(fastqFile)) {
+		try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile)) {
 			while (reader.hasNext()) {
 				FastqRecord record = reader.next();
 				String readName = IlluminaFastQReadNameUtil.getUniqueIdForReadHeader(record.getReadHeader());
@@ -75,7 +75,7 @@ public class FastqUtil {
 		int fastqIndex = 0;
 		int sortedSampleIndex = 0;
 		try (FastqWriter writer = new FastqWriter(outputFile)) {
-			try (FastqReader reader = new FastqReader(fastqFile)) {
+			try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile)) {
 				while (reader.hasNext() && (sortedSampleIndex < sortedSampledIndexes.length)) {
 					FastqRecord record = reader.next();
 
@@ -105,7 +105,7 @@ public class FastqUtil {
 		int fastqIndex = 0;
 		int sortedSampleIndex = 0;
 		try (FastqWriter writer = new FastqWriter(outputFile)) {
-			try (FastqReader reader = new FastqReader(fastqFile)) {
+			try (ParallelFastqReader reader = new ParallelFastqReader(fastqFile)) {
 				while (reader.hasNext() && (sortedSampleIndex < sortedSampledIndexes.length)) {
 					FastqRecord record = reader.next();
 
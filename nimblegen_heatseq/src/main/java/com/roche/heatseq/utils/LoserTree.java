@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.heatseq.utils;
+
+import java.util.Comparator;
+
+/**
+ * A loser tree (tournament tree) used to merge sorted chunks. Replacing the winning record costs log2(number of chunks) comparisons and no allocations.
+ *
+ * Each record is accompanied by a sort key which must be consistent with the comparator (a smaller key means the record sorts first), the comparator is only called when the keys are equal. Callers
+ * that do not have a sort key can use the same key for all records. Records that compare as equal are returned in chunk order.
+ */
+class LoserTree<T> {
+
+	private final Comparator<T> comparator;
+	// the current record from each chunk, null once the chunk is exhausted
+	private final Object[] chunkHeads;
+	private final long[] chunkHeadSortKeys;
+	// tree[0] holds the index of the winning chunk and tree[1..n-1] hold the losing chunk of each internal node, the chunks are the implicit leaves n..2n-1
+	private final int[] tree;
+
+	LoserTree(int numberOfChunks, Comparator<T> comparator) {
+		this.comparator = comparator;
+		this.chunkHeads = new Object[numberOfChunks];
+		this.chunkHeadSortKeys = new long[numberOfChunks];
+		this.tree = new int[Math.max(1, numberOfChunks)];
+	}
+
+	/**
+	 * Sets the first record of a chunk, {@link #initialize()} must be called once all of the first records are set.
+	 */
+	void setFirstRecord(int chunkIndex, T record, long sortKey) {
+		chunkHeads[chunkIndex] = record;
+		chunkHeadSortKeys[chunkIndex] = sortKey;
+	}
+
+	void initialize() {
+		if (chunkHeads.length > 0) {
+			tree[0] = buildTree(1);
+		}
+	}
+
+	/**
+	 * @return the index of the chunk that wins the subtree rooted at node
+	 */
+	private int buildTree(int node) {
+		int winner;
+		if (node >= chunkHeads.length) {
+			winner = node - chunkHeads.length;
+		} else {
+			int leftWinner = buildTree(2 * node);
+			int rightWinner = buildTree((2 * node) + 1);
+			if (beats(leftWinner, rightWinner)) {
+				winner = leftWinner;
+				tree[node] = rightWinner;
+			} else {
+				winner = rightWinner;
+				tree[node] = leftWinner;
+			}
+		}
+		return winner;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean beats(int chunkIndex, int otherChunkIndex) {
+		Object record = chunkHeads[chunkIndex];
+		Object otherRecord = chunkHeads[otherChunkIndex];
+		boolean beats;
+		if (record == null) {
+			beats = false;
+		} else if (otherRecord == null) {
+			beats = true;
+		} else {
+			int result = Long.compare(chunkHeadSortKeys[chunkIndex], chunkHeadSortKeys[otherChunkIndex]);
+			if (result == 0) {
+				result = comparator.compare((T) record, (T) otherRecord);
+			}
+			beats = result < 0 || (result == 0 && chunkIndex < otherChunkIndex);
+		}
+		return beats;
+	}
+
+	/**
+	 * @return the index of the chunk holding the smallest record
+	 */
+	int getWinningChunkIndex() {
+		return tree[0];
+	}
+
+	/**
+	 * @return the smallest record or null if all chunks are exhausted
+	 */
+	@SuppressWarnings("unchecked")
+	T getWinningRecord() {
+		T winningRecord = null;
+		if (chunkHeads.length > 0) {
+			winningRecord = (T) chunkHeads[tree[0]];
+		}
+		return winningRecord;
+	}
+
+	/**
+	 * Replaces the smallest record with the next record from the same chunk.
+	 *
+	 * @param record
+	 *            the next record from the winning chunk or null if the chunk is exhausted
+	 */
+	void replaceWinningRecord(T record, long sortKey) {
+		int winner = tree[0];
+		chunkHeads[winner] = record;
+		chunkHeadSortKeys[winner] = sortKey;
+
+		// replay the matches on the path from the winner's leaf to the root
+		for (int node = (winner + chunkHeads.length) >>> 1; node > 0; node >>>= 1) {
+			if (beats(tree[node], winner)) {
+				int newWinner = tree[node];
+				tree[node] = winner;
+				winner = newWinner;
+			}
+		}
+		tree[0] = winner;
+	}
+
+}
@@ -17,9 +17,7 @@ package com.roche.heatseq.utils;
 
 import java.text.DecimalFormat;
 import java.util.Collection;
-import java.util.Set;
 
-import com.roche.sequencing.bioinformatics.common.mapping.TallyMap;
 import com.roche.sequencing.bioinformatics.common.sequence.ICode;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
 import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCode;
@@ -33,25 +31,25 @@ public class NucleotideCompositionUtil {
 		boolean stillHasData = true;
 
 		while (stillHasData) {
-			TallyMap<ICode> codesAtPosition = new TallyMap<ICode>();
+			int[] countsByCode = new int[IupacNucleotideCode.values().length];
+			int total = 0;
 			for (ISequence sequence : sequences) {
 				if (position < sequence.size()) {
-					codesAtPosition.add(sequence.getCodeAt(position));
+					addToCounts(countsByCode, sequence.getCodeAt(position));
+					total++;
 				}
 			}
-			stillHasData = codesAtPosition.getSumOfAllBins() > 0;
+			stillHasData = total > 0;
 
 			if (stillHasData) {
 
 				nucleotideComposition.append(position + "[");
 
-				int total = codesAtPosition.sumOfAllBins;
-
 				// need the display order to be consistent to use order from enum
-				ICode[] codesToDisplay = new ICode[] { IupacNucleotideCode.A, IupacNucleotideCode.C, IupacNucleotideCode.G, IupacNucleotideCode.T };
+				IupacNucleotideCode[] codesToDisplay = new IupacNucleotideCode[] { IupacNucleotideCode.A, IupacNucleotideCode.C, IupacNucleotideCode.G, IupacNucleotideCode.T };
 
-				for (ICode code : codesToDisplay) {
-					int count = codesAtPosition.getCount(code);
+				for (IupacNucleotideCode code : codesToDisplay) {
+					int count = countsByCode[code.ordinal()];
 					double percent = (double) count / (double) total;
 					DecimalFormat formatter = new DecimalFormat("0.00");
 					nucleotideComposition.append(code + "(" + formatter.format(percent) + ")");
@@ -69,21 +67,19 @@ public class NucleotideCompositionUtil {
 	public static String getNucleotideComposition(Collection<ISequence> sequences) {
 		StringBuilder nucleotideComposition = new StringBuilder();
 
-		TallyMap<ICode> codesTally = new TallyMap<ICode>();
+		int[] countsByCode = new int[IupacNucleotideCode.values().length];
+		int total = 0;
 		for (ISequence sequence : sequences) {
 			for (ICode code : sequence) {
-				codesTally.add(code);
+				addToCounts(countsByCode, code);
+				total++;
 			}
 		}
 
-		Set<ICode> foundCodes = codesTally.getObjects();
-
-		int total = codesTally.getSumOfAllBins();
-
 		// need the display order to be consistent to use order from enum
-		for (ICode code : IupacNucleotideCode.values()) {
-			if (foundCodes.contains(code)) {
-				int count = codesTally.getCount(code);
+		for (IupacNucleotideCode code : IupacNucleotideCode.values()) {
+			int count = countsByCode[code.ordinal()];
+			if (count > 0) {
 				double percent = (double) count / (double) total;
 				DecimalFormat formatter = new DecimalFormat(".000");
 				nucleotideComposition.append(code + "(" + formatter.format(percent) + ")");
@@ -93,4 +89,13 @@ public class NucleotideCompositionUtil {
 		return nucleotideComposition.toString();
 	}
 
+	/**
+	 * Codes which are not IUPAC codes are not counted by code but are still included in the total
+	 */
+	private static void addToCounts(int[] countsByCode, ICode code) {
+		if (code instanceof IupacNucleotideCode) {
+			countsByCode[((IupacNucleotideCode) code).ordinal()]++;
+		}
+	}
+
 }
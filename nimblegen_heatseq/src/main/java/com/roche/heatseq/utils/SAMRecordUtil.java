@@ -28,8 +28,8 @@ import com.roche.heatseq.objects.SAMRecordPair;
 import com.roche.heatseq.qualityreport.ReportManager;
 import com.roche.sequencing.bioinformatics.common.alignment.CigarString;
 import com.roche.sequencing.bioinformatics.common.alignment.CigarStringUtil;
+import com.roche.sequencing.bioinformatics.common.alignment.FastNeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.alignment.IAlignmentScorer;
-import com.roche.sequencing.bioinformatics.common.alignment.NeedlemanWunschGlobalAlignment;
 import com.roche.sequencing.bioinformatics.common.sequence.ISequence;
 import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
 import com.roche.sequencing.bioinformatics.common.sequence.Strand;
@@ -60,6 +60,7 @@ public class SAMRecordUtil {
 	private static final String EXTENSION_ERROR_ATTRIBUTE_TAG = "EE";
 	private static final String MAPPED_READ_LENGTH_ATTRIBUTE_TAG = "ML";
 	private static final String ALTERNATIVE_HITS_ATTRIBUTE_TAG = "XA";
+	private static final String ALTERNATIVE_HIT_COPY_ATTRIBUTE_TAG = "XH";
 
 	private SAMRecordUtil() {
 		throw new AssertionError();
@@ -222,7 +223,7 @@ public class SAMRecordUtil {
 	 */
 	private static String getVariableLengthUid(String completeReadWithUid, ISequence primerSequence, ReportManager reportManager, Probe probe, IAlignmentScorer alignmentScorer) {
 		ISequence completeReadSequence = new IupacNucleotideCodeSequence(completeReadWithUid);
-		NeedlemanWunschGlobalAlignment alignment = new NeedlemanWunschGlobalAlignment(completeReadSequence, primerSequence, alignmentScorer);
+		FastNeedlemanWunschGlobalAlignment alignment = new FastNeedlemanWunschGlobalAlignment(completeReadSequence, primerSequence, alignmentScorer);
 		int uidEndIndex = alignment.getIndexOfFirstMatchInReference();
 		String variableLengthUid = null;
 		if (uidEndIndex >= 0) {
@@ -393,6 +394,32 @@ public class SAMRecordUtil {
 		return record.getAttribute(ALTERNATIVE_HITS_ATTRIBUTE_TAG) != null;
 	}
 
+	/**
+	 * Mark the record as a copy of another record placed at one of the other record's alternative hits
+	 * 
+	 * @param record
+	 */
+	public static void setAlternativeHitCopy(SAMRecord record) {
+		record.setAttribute(ALTERNATIVE_HIT_COPY_ATTRIBUTE_TAG, 1);
+	}
+
+	/**
+	 * @param record
+	 * @return true if the record is a copy of another record placed at one of the other record's alternative hits
+	 */
+	public static boolean isAlternativeHitCopy(SAMRecord record) {
+		return record.getAttribute(ALTERNATIVE_HIT_COPY_ATTRIBUTE_TAG) != null;
+	}
+
+	/**
+	 * Remove the alternative hit copy marker so it is not written to the output bam file
+	 * 
+	 * @param record
+	 */
+	public static void removeAlternativeHitCopyAttribute(SAMRecord record) {
+		record.setAttribute(ALTERNATIVE_HIT_COPY_ATTRIBUTE_TAG, null);
+	}
+
 	public static class AlternativeHit {
 		private final SAMRecord copyOfSamRecord;
 
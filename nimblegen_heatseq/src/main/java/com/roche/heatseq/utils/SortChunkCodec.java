@@ -0,0 +1,193 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.heatseq.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import htsjdk.samtools.fastq.FastqRecord;
+
+/**
+ * Binary encoding for the temporary chunk files written while sorting. Each record in a chunk is preceded by a long sort key so the merge can order records without calling the comparator in most
+ * cases. FASTQ bases made up entirely of A, C, G and T are packed two bits per base.
+ */
+final class SortChunkCodec {
+
+	// Deflater.BEST_SPEED, set to Deflater.NO_COMPRESSION to write the chunks uncompressed
+	private final static int CHUNK_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+	private final static int BUFFER_SIZE_IN_BYTES = 65536;
+	private final static int NAME_PREFIX_SORT_KEY_LENGTH = 8;
+
+	private final static byte RAW_BASES = 0;
+	private final static byte TWO_BIT_PACKED_BASES = 1;
+	private final static char[] TWO_BIT_CODE_TO_BASE = new char[] { 'A', 'C', 'G', 'T' };
+	private final static int NULL_STRING_LENGTH = -1;
+
+	private SortChunkCodec() {
+		throw new AssertionError();
+	}
+
+	static DataOutputStream openChunkOutputStream(File chunkFile) throws IOException {
+		OutputStream outputStream = new FileOutputStream(chunkFile);
+		if (CHUNK_COMPRESSION_LEVEL != Deflater.NO_COMPRESSION) {
+			outputStream = new DeflaterOutputStream(outputStream, new Deflater(CHUNK_COMPRESSION_LEVEL), BUFFER_SIZE_IN_BYTES);
+		}
+		return new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE_IN_BYTES));
+	}
+
+	static DataInputStream openChunkInputStream(File chunkFile) throws IOException {
+		InputStream inputStream = new FileInputStream(chunkFile);
+		if (CHUNK_COMPRESSION_LEVEL != Deflater.NO_COMPRESSION) {
+			inputStream = new InflaterInputStream(inputStream, new Inflater(), BUFFER_SIZE_IN_BYTES);
+		}
+		return new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE_IN_BYTES));
+	}
+
+	/**
+	 * @return a sort key made from the first eight characters of the name, for any two names the name with the smaller key is smaller according to String.compareTo
+	 */
+	static long getNamePrefixSortKey(String name) {
+		long sortKey = 0;
+		boolean characterOutOfRangeFound = false;
+		for (int i = 0; i < NAME_PREFIX_SORT_KEY_LENGTH; i++) {
+			int character = 0;
+			if (characterOutOfRangeFound) {
+				character = 0xFF;
+			} else if (i < name.length()) {
+				character = name.charAt(i);
+				// fill the rest of the key with the max value so names that differ at or beyond this character end up with the same key
+				if (character >= 0xFF) {
+					character = 0xFF;
+					characterOutOfRangeFound = true;
+				}
+			}
+			sortKey = (sortKey << 8) | character;
+		}
+		// flip the sign bit so the signed comparison of keys matches the unsigned order of the characters
+		return sortKey ^ Long.MIN_VALUE;
+	}
+
+	static void writeFastqRecord(DataOutputStream outputStream, FastqRecord record) throws IOException {
+		writeString(outputStream, record.getReadHeader());
+		writeBases(outputStream, record.getReadString());
+		writeString(outputStream, record.getBaseQualityHeader());
+		writeString(outputStream, record.getBaseQualityString());
+	}
+
+	static FastqRecord readFastqRecord(DataInputStream inputStream) throws IOException {
+		String readHeader = readString(inputStream);
+		String readString = readBases(inputStream);
+		String baseQualityHeader = readString(inputStream);
+		String baseQualityString = readString(inputStream);
+		return new FastqRecord(readHeader, readString, baseQualityHeader, baseQualityString);
+	}
+
+	private static void writeBases(DataOutputStream outputStream, String bases) throws IOException {
+		boolean canBePacked = true;
+		for (int i = 0; i < bases.length() && canBePacked; i++) {
+			canBePacked = getTwoBitCode(bases.charAt(i)) >= 0;
+		}
+
+		if (canBePacked) {
+			outputStream.writeByte(TWO_BIT_PACKED_BASES);
+			outputStream.writeInt(bases.length());
+			byte[] packedBases = new byte[(bases.length() + 3) / 4];
+			for (int i = 0; i < bases.length(); i++) {
+				packedBases[i >>> 2] |= getTwoBitCode(bases.charAt(i)) << ((i & 3) << 1);
+			}
+			outputStream.write(packedBases);
+		} else {
+			outputStream.writeByte(RAW_BASES);
+			writeString(outputStream, bases);
+		}
+	}
+
+	private static String readBases(DataInputStream inputStream) throws IOException {
+		String bases;
+		byte encoding = inputStream.readByte();
+		if (encoding == TWO_BIT_PACKED_BASES) {
+			int numberOfBases = inputStream.readInt();
+			byte[] packedBases = new byte[(numberOfBases + 3) / 4];
+			inputStream.readFully(packedBases);
+			char[] unpackedBases = new char[numberOfBases];
+			for (int i = 0; i < numberOfBases; i++) {
+				unpackedBases[i] = TWO_BIT_CODE_TO_BASE[(packedBases[i >>> 2] >>> ((i & 3) << 1)) & 3];
+			}
+			bases = new String(unpackedBases);
+		} else if (encoding == RAW_BASES) {
+			bases = readString(inputStream);
+		} else {
+			throw new IllegalStateException("Unrecognized base encoding[" + encoding + "] found in sorting chunk file.");
+		}
+		return bases;
+	}
+
+	private static int getTwoBitCode(char base) {
+		int code;
+		switch (base) {
+		case 'A':
+			code = 0;
+			break;
+		case 'C':
+			code = 1;
+			break;
+		case 'G':
+			code = 2;
+			break;
+		case 'T':
+			code = 3;
+			break;
+		default:
+			code = -1;
+			break;
+		}
+		return code;
+	}
+
+	private static void writeString(DataOutputStream outputStream, String string) throws IOException {
+		if (string == null) {
+			outputStream.writeInt(NULL_STRING_LENGTH);
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			outputStream.writeInt(bytes.length);
+			outputStream.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream inputStream) throws IOException {
+		String string = null;
+		int length = inputStream.readInt();
+		if (length != NULL_STRING_LENGTH) {
+			byte[] bytes = new byte[length];
+			inputStream.readFully(bytes);
+			string = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return string;
+	}
+}
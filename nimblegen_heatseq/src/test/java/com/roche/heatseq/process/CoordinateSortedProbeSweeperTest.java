@@ -0,0 +1,363 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.roche.heatseq.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.heatseq.cli.HsqUtilsCli;
+import com.roche.heatseq.objects.SAMRecordPair;
+import com.roche.heatseq.utils.SAMRecordUtil;
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+import com.roche.sequencing.bioinformatics.common.sequence.Strand;
+import com.roche.sequencing.bioinformatics.common.utils.FileUtil;
+import com.roche.sequencing.bioinformatics.common.utils.StringUtil;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ProbeFileUtil;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ProbeFileUtil.FileOsFlavor;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ProbeFileUtil.ProbeHeaderInformation;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+public class CoordinateSortedProbeSweeperTest {
+
+	private final static String SEQUENCE_NAME = "chr1";
+	private final static int SEQUENCE_LENGTH = 8000;
+	private final static int PROBE_LENGTH = 120;
+	private final static int PRIMER_LENGTH = 20;
+	private final static int EXTENSION_UID_LENGTH = 10;
+	private final static int LIGATION_UID_LENGTH = 0;
+	private final static int READ_LENGTH = 100;
+	private final static int NUMBER_OF_READS = 100;
+	private final static String GENOME = createSequence(new Random(7), SEQUENCE_LENGTH);
+
+	@Test(groups = { "unit" })
+	public void mateExpiryTest() throws IOException {
+		List<Probe> probes = Arrays.asList(createProbe(1001, PROBE_LENGTH), createProbe(5001, PROBE_LENGTH));
+		SAMFileHeader header = createHeader();
+		List<SAMRecord> records = new ArrayList<SAMRecord>();
+		records.addAll(createReadPair(header, "1", probes.get(0), "AAAAACCCCC"));
+		// the mate of read two is never seen
+		records.add(createReadPair(header, "2", probes.get(0), "CCCCCAAAAA").get(0));
+		records.addAll(createReadPair(header, "3", probes.get(1), "GGGGGTTTTT"));
+
+		Map<String, Map<Integer, SAMRecordPair>> readPairsByProbeId = new HashMap<String, Map<Integer, SAMRecordPair>>();
+		CoordinateSortedProbeSweeper sweeper = createSweeper(header, probes, readPairsByProbeId);
+		addRecords(sweeper, header, probes, records);
+
+		// the first window is handed off once the sweep passes the missing mate, without waiting for the end of the reads
+		Assert.assertEquals(readPairsByProbeId.get(probes.get(0).getProbeId()).keySet(), Collections.singleton(1));
+		Assert.assertFalse(readPairsByProbeId.containsKey(probes.get(1).getProbeId()));
+		sweeper.finish();
+		Assert.assertEquals(readPairsByProbeId.get(probes.get(1).getProbeId()).keySet(), Collections.singleton(3));
+		Assert.assertTrue(sweeper.getSummary().contains("read_pairs_with_missing_mate[1]"));
+	}
+
+	@Test(groups = { "unit" })
+	public void alternativeHitCopyTest() throws IOException {
+		List<Probe> probes = Arrays.asList(createProbe(1001, PROBE_LENGTH));
+		SAMFileHeader header = createHeader();
+		List<SAMRecord> records = createReadPair(header, "1", probes.get(0), "AAAAACCCCC");
+		// the primary mapping is away from the probe and the probe is an alternative hit
+		moveToAlternativeHit(records.get(0), 6001);
+		moveToAlternativeHit(records.get(1), 6001 + PRIMER_LENGTH);
+
+		Map<String, Map<Integer, SAMRecordPair>> readPairsByProbeId = sweep(header, probes, records);
+		SAMRecordPair readPair = readPairsByProbeId.get(probes.get(0).getProbeId()).get(1);
+		Assert.assertEquals(readPair.getFirstOfPairRecord().getAlignmentStart(), 1001);
+		Assert.assertEquals(readPair.getSecondOfPairRecord().getAlignmentStart(), 1001 + PRIMER_LENGTH);
+		Assert.assertFalse(SAMRecordUtil.isAlternativeHitCopy(readPair.getFirstOfPairRecord()));
+		Assert.assertFalse(SAMRecordUtil.isAlternativeHitCopy(readPair.getSecondOfPairRecord()));
+	}
+
+	@Test(groups = { "unit" })
+	public void multipleProbeTieBreakTest() throws IOException {
+		List<Probe> probes = Arrays.asList(createProbe(991, PROBE_LENGTH), createProbe(1001, PROBE_LENGTH));
+		SAMFileHeader header = createHeader();
+		// both probe windows contain the reads but read one starts with bases of the first probe which were soft clipped by the aligner
+		String uid = "AAAAACCCCC";
+		SAMRecord readOne = createRecord(header, "1", true, 1001, "20S80M", uid + getGenomeSequence(991, 1070), 1011);
+		SAMRecord readTwo = createRecord(header, "1", false, 1011, READ_LENGTH + "M", getGenomeSequence(1011, 1110).getReverseCompliment().toString(), 1001);
+		List<SAMRecord> records = Arrays.asList(readOne, readTwo);
+
+		Map<String, Map<Integer, SAMRecordPair>> readPairsByProbeId = sweep(header, probes, records);
+		Assert.assertEquals(readPairsByProbeId.get(probes.get(0).getProbeId()).keySet(), Collections.singleton(1));
+		Assert.assertTrue(readPairsByProbeId.get(probes.get(1).getProbeId()).isEmpty());
+	}
+
+	@Test(groups = { "unit" })
+	public void repeatedReadNameTest() throws IOException {
+		List<Probe> probes = Arrays.asList(createProbe(1001, PROBE_LENGTH), createProbe(3001, PROBE_LENGTH));
+		SAMFileHeader header = createHeader();
+		List<SAMRecord> records = new ArrayList<SAMRecord>();
+		// read one is found for both probes so it is not used for either, even though the first probe is passed before the repeat is seen
+		records.addAll(createReadPair(header, "1", probes.get(0), "AAAAACCCCC"));
+		records.addAll(createReadPair(header, "1", probes.get(1), "AAAAACCCCC"));
+		records.addAll(createReadPair(header, "2", probes.get(0), "CCCCCAAAAA"));
+		// a supplementary alignment is not a second primary mapping of read two
+		SAMRecord supplementaryRecord = createReadPair(header, "2", probes.get(1), "CCCCCAAAAA").get(0);
+		supplementaryRecord.setSupplementaryAlignmentFlag(true);
+		records.add(supplementaryRecord);
+		records.addAll(createReadPair(header, "3", probes.get(1), "GGGGGTTTTT"));
+
+		Map<String, Map<Integer, SAMRecordPair>> readPairsByProbeId = sweep(header, probes, records);
+		Assert.assertEquals(readPairsByProbeId.get(probes.get(0).getProbeId()).keySet(), Collections.singleton(2));
+		Assert.assertEquals(readPairsByProbeId.get(probes.get(1).getProbeId()).keySet(), Collections.singleton(3));
+	}
+
+	@Test(groups = { "unit" })
+	public void singlePassMatchesDefaultDeduplicationTest() throws IOException {
+		File directory = new File(FileUtil.getTempDirectory(), "coordinate_sorted_probe_sweeper_test_" + System.nanoTime());
+		try {
+			FileUtil.createDirectory(directory);
+			Random random = new Random(3);
+			List<Probe> probes = Arrays.asList(createProbe(1001, PROBE_LENGTH), createProbe(2001, PROBE_LENGTH), createProbe(3001, PROBE_LENGTH),
+					createProbe(2991, PROBE_LENGTH + 20), createProbe(4001, PROBE_LENGTH));
+			SAMFileHeader header = createHeader();
+
+			List<String> readNames = new ArrayList<String>();
+			List<List<SAMRecord>> readPairs = new ArrayList<List<SAMRecord>>();
+			for (int probeIndex = 0; probeIndex < probes.size(); probeIndex++) {
+				Probe probe = probes.get(probeIndex);
+				String duplicatedUid = createSequence(random, EXTENSION_UID_LENGTH);
+				for (int i = 0; i < 6; i++) {
+					String uid = (i < 3) ? duplicatedUid : createSequence(random, EXTENSION_UID_LENGTH);
+					String readName = "M01:1:FC:1:1:" + probeIndex + ":" + i;
+					readNames.add(readName);
+					readPairs.add(createReadPair(header, readName, probe, uid));
+				}
+			}
+			List<SAMRecord> records = new ArrayList<SAMRecord>();
+			for (List<SAMRecord> readPair : readPairs) {
+				records.addAll(readPair);
+			}
+
+			// the primary mappings of one pair are away from the probes
+			moveToAlternativeHit(readPairs.get(0).get(0), 6001);
+			moveToAlternativeHit(readPairs.get(0).get(1), 6001 + PRIMER_LENGTH);
+			// one pair is missing its second read
+			records.remove(readPairs.get(7).get(1));
+			// a supplementary alignment for a read at another probe
+			SAMRecord supplementaryRecord = createReadPair(header, readNames.get(8), probes.get(4), "ACGTACGTAC").get(0);
+			supplementaryRecord.setSupplementaryAlignmentFlag(true);
+			records.add(supplementaryRecord);
+			// one read name is used for pairs at two probes, the merge keeps the first entry for each read
+			records.addAll(createReadPair(header, readNames.get(3), probes.get(4), "TTTTTGGGGG"));
+
+			File fastqOneFile = new File(directory, "one.fastq");
+			File fastqTwoFile = new File(directory, "two.fastq");
+			StringBuilder fastqOne = new StringBuilder();
+			StringBuilder fastqTwo = new StringBuilder();
+			for (int i = 0; i < readNames.size(); i++) {
+				fastqOne.append(getFastqEntry(readNames.get(i) + " 1:N:0:1", readPairs.get(i).get(0).getReadString()));
+				fastqTwo.append(getFastqEntry(readNames.get(i) + " 2:N:0:1", readPairs.get(i).get(1).getReadString()));
+			}
+			FileUtil.writeStringToFile(fastqOneFile, fastqOne.toString());
+			FileUtil.writeStringToFile(fastqTwoFile, fastqTwo.toString());
+
+			File bamFile = new File(directory, "mapping.bam");
+			try (SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, false, bamFile)) {
+				for (SAMRecord record : records) {
+					if (record.getReadNegativeStrandFlag()) {
+						// the bam file holds the reverse compliment of reads mapped to the reverse strand
+						record.setReadString(new IupacNucleotideCodeSequence(record.getReadString()).getReverseCompliment().toString());
+					}
+					writer.addAlignment(record);
+				}
+			}
+
+			File probeFile = new File(directory, "probes.txt");
+			ProbeFileUtil.writeProbesToFile(probes, probeFile, EXTENSION_UID_LENGTH, LIGATION_UID_LENGTH, FileOsFlavor.CURRENT_SYSTEM);
+
+			List<String> defaultRecords = deduplicate(directory, fastqOneFile, fastqTwoFile, bamFile, probeFile, "default", false);
+			List<String> singlePassRecords = deduplicate(directory, fastqOneFile, fastqTwoFile, bamFile, probeFile, "single_pass", true);
+			Assert.assertEquals(singlePassRecords, defaultRecords);
+			Assert.assertTrue(defaultRecords.size() > 0);
+		} finally {
+			FileUtil.deleteDirectory(directory);
+		}
+	}
+
+	private static List<String> deduplicate(File directory, File fastqOneFile, File fastqTwoFile, File bamFile, File probeFile, String outputName, boolean isSinglePass) throws IOException {
+		File outputDirectory = new File(directory, outputName);
+		File tempDirectory = new File(directory, outputName + "_temp");
+		List<String> arguments = new ArrayList<String>(Arrays.asList(HsqUtilsCli.DEDUPLICATION_COMMAND_NAME, "--r1", fastqOneFile.getAbsolutePath(), "--r2", fastqTwoFile.getAbsolutePath(),
+				"--inputBam", bamFile.getAbsolutePath(), "--probe", probeFile.getAbsolutePath(), "--outputDir", outputDirectory.getAbsolutePath(), "--tmpDir", tempDirectory.getAbsolutePath(),
+				"--outputBamFileName", "deduped.bam", "--readsNotTrimmed"));
+		if (isSinglePass) {
+			arguments.add("--singlePass");
+		}
+		HsqUtilsCli.runCommandLineApp(arguments.toArray(new String[arguments.size()]));
+
+		List<String> records = new ArrayList<String>();
+		try (SamReader reader = SamReaderFactory.makeDefault().open(new File(outputDirectory, "deduped.bam"))) {
+			for (SAMRecord record : reader) {
+				records.add(record.getSAMString());
+			}
+		}
+		Collections.sort(records);
+		return records;
+	}
+
+	private static CoordinateSortedProbeSweeper createSweeper(SAMFileHeader header, List<Probe> probes, final Map<String, Map<Integer, SAMRecordPair>> readPairsByProbeId)
+			throws IOException {
+		return new CoordinateSortedProbeSweeper(header.getSequenceDictionary(), createParsedProbeFile(probes), getProbeHeaderInformation(probes), EXTENSION_UID_LENGTH, LIGATION_UID_LENGTH,
+				NUMBER_OF_READS, new CoordinateSortedProbeSweeper.IProbeWindowClosedListener() {
+					@Override
+					public void probeWindowClosed(Probe probe, Map<Integer, SAMRecordPair> readIndexToRecordsMap) {
+						readPairsByProbeId.put(probe.getProbeId(), readIndexToRecordsMap);
+					}
+				});
+	}
+
+	private static void addRecords(CoordinateSortedProbeSweeper sweeper, SAMFileHeader header, List<Probe> probes, List<SAMRecord> records) {
+		List<SAMRecord> sortedRecords = new ArrayList<SAMRecord>();
+		Iterator<SAMRecord> recordsWithAlternativeHits = sweeper.addAlternativeHitCopies(records.iterator(), header.getSequenceDictionary(), createParsedProbeFile(probes));
+		while (recordsWithAlternativeHits.hasNext()) {
+			sortedRecords.add(recordsWithAlternativeHits.next());
+		}
+		Collections.sort(sortedRecords, new SAMRecordCoordinateComparator());
+		for (SAMRecord record : sortedRecords) {
+			sweeper.addRecord(record);
+		}
+	}
+
+	private static Map<String, Map<Integer, SAMRecordPair>> sweep(SAMFileHeader header, List<Probe> probes, List<SAMRecord> records) throws IOException {
+		Map<String, Map<Integer, SAMRecordPair>> readPairsByProbeId = new HashMap<String, Map<Integer, SAMRecordPair>>();
+		CoordinateSortedProbeSweeper sweeper = createSweeper(header, probes, readPairsByProbeId);
+		addRecords(sweeper, header, probes, records);
+		sweeper.finish();
+		return readPairsByProbeId;
+	}
+
+	private static ParsedProbeFile createParsedProbeFile(List<Probe> probes) {
+		ParsedProbeFile probeInfo = new ParsedProbeFile();
+		for (Probe probe : probes) {
+			probeInfo.addProbe(probe.getSequenceName(), probe);
+		}
+		return probeInfo;
+	}
+
+	private static ProbeHeaderInformation getProbeHeaderInformation(List<Probe> probes) throws IOException {
+		File probeFile = File.createTempFile("probes_", ".txt");
+		try {
+			ProbeFileUtil.writeProbesToFile(probes, probeFile, EXTENSION_UID_LENGTH, LIGATION_UID_LENGTH, FileOsFlavor.CURRENT_SYSTEM);
+			return ProbeFileUtil.extractProbeHeaderInformation(probeFile);
+		} finally {
+			probeFile.delete();
+		}
+	}
+
+	private static SAMFileHeader createHeader() {
+		SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord(SEQUENCE_NAME, SEQUENCE_LENGTH))));
+		return header;
+	}
+
+	/**
+	 * @return a forward strand probe starting with the extension primer and ending with the ligation primer
+	 */
+	private static Probe createProbe(int start, int length) {
+		int stop = start + length - 1;
+		return new Probe(SEQUENCE_NAME + ":" + start + ":" + stop + ":+", SEQUENCE_NAME, start, start + PRIMER_LENGTH - 1, getGenomeSequence(start, start + PRIMER_LENGTH - 1), stop - PRIMER_LENGTH + 1, stop,
+				getGenomeSequence(stop - PRIMER_LENGTH + 1, stop), start + PRIMER_LENGTH, stop - PRIMER_LENGTH, getGenomeSequence(start + PRIMER_LENGTH, stop - PRIMER_LENGTH), Strand.FORWARD, "");
+	}
+
+	/**
+	 * @return the first and second read of a pair captured by the probe, read one starts with the uid followed by the extension primer and read two ends at the ligation primer, the reads hold
+	 *         the sequence as it is found in the fastq files
+	 */
+	private static List<SAMRecord> createReadPair(SAMFileHeader header, String readName, Probe probe, String uid) {
+		int readOneStart = probe.getStart();
+		int readTwoStart = probe.getStart() + PROBE_LENGTH - READ_LENGTH;
+		String readOneSequence = uid + getGenomeSequence(readOneStart, readOneStart + READ_LENGTH - uid.length() - 1);
+		String readTwoSequence = getGenomeSequence(readTwoStart, readTwoStart + READ_LENGTH - 1).getReverseCompliment().toString();
+
+		SAMRecord readOne = createRecord(header, readName, true, readOneStart, uid.length() + "S" + (READ_LENGTH - uid.length()) + "M", readOneSequence, readTwoStart);
+		SAMRecord readTwo = createRecord(header, readName, false, readTwoStart, READ_LENGTH + "M", readTwoSequence, readOneStart);
+		return Arrays.asList(readOne, readTwo);
+	}
+
+	private static SAMRecord createRecord(SAMFileHeader header, String readName, boolean isFirstOfPair, int alignmentStart, String cigarString, String readSequence, int mateAlignmentStart) {
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName(readName);
+		record.setReadPairedFlag(true);
+		record.setProperPairFlag(true);
+		record.setFirstOfPairFlag(isFirstOfPair);
+		record.setSecondOfPairFlag(!isFirstOfPair);
+		record.setReadNegativeStrandFlag(!isFirstOfPair);
+		record.setMateNegativeStrandFlag(isFirstOfPair);
+		record.setReferenceName(SEQUENCE_NAME);
+		record.setAlignmentStart(alignmentStart);
+		record.setCigarString(cigarString);
+		record.setMappingQuality(60);
+		record.setMateReferenceName(SEQUENCE_NAME);
+		record.setMateAlignmentStart(mateAlignmentStart);
+		record.setReadString(readSequence);
+		record.setBaseQualityString(StringUtil.repeatString("I", readSequence.length()));
+		SAMRecordUtil.setMappedReadLength(record, readSequence.length());
+		return record;
+	}
+
+	/**
+	 * Moves the record to the provided start and lists its current location as an alternative hit.
+	 */
+	private static void moveToAlternativeHit(SAMRecord record, int start) {
+		String strand = record.getReadNegativeStrandFlag() ? "-" : "+";
+		record.setAttribute("XA", record.getReferenceName() + "," + strand + record.getAlignmentStart() + "," + record.getCigarString() + ",0;");
+		int offset = start - record.getAlignmentStart();
+		record.setAlignmentStart(start);
+		record.setMateAlignmentStart(record.getMateAlignmentStart() + offset);
+	}
+
+	private static IupacNucleotideCodeSequence getGenomeSequence(int start, int stop) {
+		return new IupacNucleotideCodeSequence(GENOME.substring(start - 1, stop));
+	}
+
+	private static String getFastqEntry(String readHeader, String readSequence) {
+		return "@" + readHeader + StringUtil.NEWLINE + readSequence + StringUtil.NEWLINE + "+" + StringUtil.NEWLINE + StringUtil.repeatString("I", readSequence.length()) + StringUtil.NEWLINE;
+	}
+
+	private static String createSequence(Random random, int length) {
+		char[] bases = new char[] { 'A', 'C', 'G', 'T' };
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sequence.append(bases[random.nextInt(bases.length)]);
+		}
+		return sequence.toString();
+	}
+
+}
@@ -16,14 +16,21 @@
 
 package com.roche.heatseq.process;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.roche.heatseq.process.FastqReadTrimmer.ProbeInfoStats;
+import com.roche.heatseq.process.FastqReadTrimmer.ProbeTrimmingInformation;
 import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
 import com.roche.sequencing.bioinformatics.common.sequence.Strand;
+import com.roche.sequencing.bioinformatics.common.utils.fastq.FastqReader;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
 import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
 
@@ -54,4 +61,82 @@ public class FastqReadTrimmerTest {
 		Assert.assertEquals(stats.getMaxExtensionPrimerLength(), 10);
 		Assert.assertEquals(stats.getMaxCaptureTargetLength(), 10);
 	}
+
+	@Test(groups = { "unit" })
+	public void trimPairsTest() throws IOException {
+		assertPairsAreTrimmed(false);
+		assertPairsAreTrimmed(true);
+	}
+
+	@Test(groups = { "unit" }, expectedExceptions = IllegalStateException.class)
+	public void mismatchedReadNamesTest() throws IOException {
+		File inputOne = createFastqFile(100, 1, 5);
+		File inputTwo = createFastqFile(100, 2, 6);
+		File outputOne = File.createTempFile("trimmed_one_", ".fastq");
+		File outputTwo = File.createTempFile("trimmed_two_", ".fastq");
+		try {
+			FastqReadTrimmer.trimReads(inputOne, inputTwo, outputOne, outputTwo, new ProbeTrimmingInformation(true, 2, 9, 3, 9), 2, false);
+		} finally {
+			deleteFiles(inputOne, inputTwo, outputOne, outputTwo);
+		}
+	}
+
+	private static void assertPairsAreTrimmed(boolean compressOutput) throws IOException {
+		// enough pairs for several batches
+		int numberOfPairs = 25000;
+		File inputOne = createFastqFile(numberOfPairs, 1, -1);
+		File inputTwo = createFastqFile(numberOfPairs, 2, -1);
+		File outputOne = File.createTempFile("trimmed_one_", compressOutput ? ".fastq.gz" : ".fastq");
+		File outputTwo = File.createTempFile("trimmed_two_", compressOutput ? ".fastq.gz" : ".fastq");
+		try {
+			ProbeTrimmingInformation trimmingInformation = new ProbeTrimmingInformation(true, 2, 9, 3, 9);
+			Assert.assertEquals(FastqReadTrimmer.trimReads(inputOne, inputTwo, outputOne, outputTwo, trimmingInformation, 3, compressOutput), numberOfPairs);
+			assertFileIsTrimmed(inputOne, outputOne, trimmingInformation.getReadOneTrimFromStart(), trimmingInformation.getReadOneTrimStop(), numberOfPairs);
+			assertFileIsTrimmed(inputTwo, outputTwo, trimmingInformation.getReadTwoTrimFromStart(), trimmingInformation.getReadTwoTrimStop(), numberOfPairs);
+		} finally {
+			deleteFiles(inputOne, inputTwo, outputOne, outputTwo);
+		}
+	}
+
+	private static void assertFileIsTrimmed(File inputFile, File outputFile, int firstBaseToKeep, int lastBaseToKeep, int expectedNumberOfRecords) {
+		int numberOfRecords = 0;
+		try (FastqReader inputReader = new FastqReader(inputFile); FastqReader outputReader = new FastqReader(outputFile)) {
+			Iterator<FastqRecord> outputIterator = outputReader.iterator();
+			for (FastqRecord inputRecord : inputReader) {
+				FastqRecord expectedRecord = FastqReadTrimmer.trim(inputRecord, firstBaseToKeep, lastBaseToKeep, true, numberOfRecords);
+				FastqRecord outputRecord = outputIterator.next();
+				Assert.assertEquals(outputRecord.getReadHeader(), expectedRecord.getReadHeader());
+				Assert.assertEquals(outputRecord.getReadString(), expectedRecord.getReadString());
+				Assert.assertEquals(outputRecord.getBaseQualityHeader(), expectedRecord.getBaseQualityHeader());
+				Assert.assertEquals(outputRecord.getBaseQualityString(), expectedRecord.getBaseQualityString());
+				numberOfRecords++;
+			}
+			Assert.assertFalse(outputIterator.hasNext());
+		}
+		Assert.assertEquals(numberOfRecords, expectedNumberOfRecords);
+	}
+
+	/**
+	 * @param mismatchedRecordIndex
+	 *            the index of a record whose read name does not match its mate, or -1
+	 */
+	private static File createFastqFile(int numberOfRecords, int readNumber, int mismatchedRecordIndex) throws IOException {
+		File fastqFile = File.createTempFile("fastq_read_trimmer_test_", ".fastq");
+		StringBuilder fastqText = new StringBuilder();
+		for (int i = 0; i < numberOfRecords; i++) {
+			String bases = "ACGTTGCAACGTACGTTGCA".substring(0, 12 + (i % 9));
+			String readName = "M01077:35:000000000-A3J96:1:1102:" + (i == mismatchedRecordIndex ? i + 1 : i) + ":" + (i % 97) + " " + readNumber + ":N:0:1";
+			fastqText.append("@" + readName + "\n" + bases + "\n" + ((i % 2 == 0) ? "+" : "+" + readName) + "\n" + bases.replace('A', 'I') + "\n");
+		}
+		try (OutputStream outputStream = new FileOutputStream(fastqFile)) {
+			outputStream.write(fastqText.toString().getBytes(StandardCharsets.ISO_8859_1));
+		}
+		return fastqFile;
+	}
+
+	private static void deleteFiles(File... files) {
+		for (File file : files) {
+			file.delete();
+		}
+	}
 }
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.heatseq.process;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class IntervalTreeRangeMapTest {
+
+	@Test(groups = { "unit" })
+	public void nestedRangesTest() {
+		IRangeMap<String> rangeMap = new IntervalTreeRangeMap<String>();
+		rangeMap.put(1, 100, "a");
+		rangeMap.put(10, 20, "b");
+		rangeMap.put(12, 18, "c");
+		rangeMap.put(50, 150, "d");
+
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatContainRangeInclusive(13, 17)), asSet("a", "b", "c"));
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatContainRangeInclusive(10, 20)), asSet("a", "b"));
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatContainRangeInclusive(60, 100)), asSet("a", "d"));
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatContainRangeInclusive(90, 101)), asSet("d"));
+		Assert.assertTrue(rangeMap.getObjectsThatContainRangeInclusive(0, 5).isEmpty());
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatOverlapRangeInclusive(19, 55)), asSet("a", "b", "d"));
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatOverlapRangeInclusive(151, 200)), asSet());
+		Assert.assertEquals(rangeMap.size(), 4);
+		Assert.assertEquals(rangeMap.getMinStart(), 1);
+		Assert.assertEquals(rangeMap.getMaxStop(), 150);
+	}
+
+	@Test(groups = { "unit" })
+	public void rangeStartingAtQueryStartTest() {
+		IRangeMap<String> rangeMap = new IntervalTreeRangeMap<String>();
+		rangeMap.put(1, 10, "a");
+		rangeMap.put(2, 11, "b");
+		rangeMap.put(3, 12, "c");
+		rangeMap.put(4, 13, "d");
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatContainRangeInclusive(5, 7)), asSet("a", "b", "c", "d"));
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatContainRangeInclusive(1, 10)), asSet("a"));
+	}
+
+	@Test(groups = { "unit" })
+	public void putAfterQueryTest() {
+		IRangeMap<String> rangeMap = new IntervalTreeRangeMap<String>();
+		rangeMap.put(1, 10, "a");
+		Assert.assertEquals(rangeMap.getObjectsThatContainRangeInclusive(2, 3).size(), 1);
+		rangeMap.put(2, 4, "b");
+		Assert.assertEquals(new HashSet<String>(rangeMap.getObjectsThatContainRangeInclusive(2, 3)), asSet("a", "b"));
+	}
+
+	@Test(groups = { "unit" })
+	public void randomRangesMatchBruteForceTest() {
+		Random random = new Random(1);
+		IRangeMap<Integer> rangeMap = new IntervalTreeRangeMap<Integer>();
+		List<int[]> ranges = new ArrayList<int[]>();
+		for (int i = 0; i < 2000; i++) {
+			int start = random.nextInt(100000);
+			int stop = start + random.nextInt(1000);
+			rangeMap.put(start, stop, i);
+			ranges.add(new int[] { start, stop });
+		}
+
+		for (int i = 0; i < 2000; i++) {
+			int start = random.nextInt(101000);
+			int stop = start + random.nextInt(200);
+			HashSet<Integer> expectedContaining = new HashSet<Integer>();
+			HashSet<Integer> expectedOverlapping = new HashSet<Integer>();
+			for (int j = 0; j < ranges.size(); j++) {
+				int[] range = ranges.get(j);
+				if (range[0] <= start && range[1] >= stop) {
+					expectedContaining.add(j);
+				}
+				if (range[0] <= stop && range[1] >= start) {
+					expectedOverlapping.add(j);
+				}
+			}
+			Assert.assertEquals(new HashSet<Integer>(rangeMap.getObjectsThatContainRangeInclusive(start, stop)), expectedContaining);
+			Assert.assertEquals(new HashSet<Integer>(rangeMap.getObjectsThatOverlapRangeInclusive(start, stop)), expectedOverlapping);
+		}
+	}
+
+	private static HashSet<String> asSet(String... values) {
+		HashSet<String> set = new HashSet<String>();
+		for (String value : values) {
+			set.add(value);
+		}
+		return set;
+	}
+
+}
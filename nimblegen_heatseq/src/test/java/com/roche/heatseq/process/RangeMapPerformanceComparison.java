@@ -0,0 +1,74 @@
+package com.roche.heatseq.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.roche.sequencing.bioinformatics.common.utils.DateUtil;
+
+/**
+ * Compares the query times of the RangeMap and the IntervalTreeRangeMap on a randomly generated panel. The queries are the size of a read and are run from multiple threads the same way the
+ * ReadToProbeAssigner threads query the probe range maps.
+ */
+public class RangeMapPerformanceComparison {
+
+	private final static int NUMBER_OF_PROBES = 100000;
+	private final static int PROBE_LENGTH = 190;
+	private final static int READ_LENGTH = 150;
+	private final static int NUMBER_OF_QUERIES = 5000000;
+	private final static int NUMBER_OF_THREADS = 8;
+	private final static int NUMBER_OF_ROUNDS = 5;
+
+	public static void main(String[] args) throws InterruptedException {
+		Random random = new Random(0);
+		int sequenceLength = NUMBER_OF_PROBES * 300;
+
+		IRangeMap<Integer> rangeMap = new RangeMap<Integer>();
+		IRangeMap<Integer> intervalTreeRangeMap = new IntervalTreeRangeMap<Integer>();
+		for (int i = 0; i < NUMBER_OF_PROBES; i++) {
+			int start = random.nextInt(sequenceLength);
+			rangeMap.put(start, start + PROBE_LENGTH - 1, i);
+			intervalTreeRangeMap.put(start, start + PROBE_LENGTH - 1, i);
+		}
+
+		int[] queryStarts = new int[NUMBER_OF_QUERIES];
+		for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+			queryStarts[i] = random.nextInt(sequenceLength);
+		}
+
+		for (int round = 0; round < NUMBER_OF_ROUNDS; round++) {
+			System.out.println("round " + (round + 1) + " RangeMap: " + timeQueries(rangeMap, queryStarts) + "  IntervalTreeRangeMap: " + timeQueries(intervalTreeRangeMap, queryStarts));
+		}
+	}
+
+	private static String timeQueries(final IRangeMap<Integer> rangeMap, final int[] queryStarts) throws InterruptedException {
+		final AtomicLong totalMatches = new AtomicLong();
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+		List<Runnable> workers = new ArrayList<Runnable>();
+		for (int thread = 0; thread < NUMBER_OF_THREADS; thread++) {
+			final int firstQuery = thread;
+			workers.add(new Runnable() {
+				@Override
+				public void run() {
+					long matches = 0;
+					for (int i = firstQuery; i < queryStarts.length; i += NUMBER_OF_THREADS) {
+						matches += rangeMap.getObjectsThatContainRangeInclusive(queryStarts[i], queryStarts[i] + READ_LENGTH - 1).size();
+					}
+					totalMatches.addAndGet(matches);
+				}
+			});
+		}
+		for (Runnable worker : workers) {
+			executor.execute(worker);
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		long stop = System.currentTimeMillis();
+		return DateUtil.convertMillisecondsToHHMMSSMMM(stop - start) + "(HH:MM:SS:MMM) matches[" + totalMatches.get() + "]";
+	}
+}
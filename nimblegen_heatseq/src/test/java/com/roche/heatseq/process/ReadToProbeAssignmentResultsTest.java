@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.heatseq.process;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.sequencing.bioinformatics.common.sequence.IupacNucleotideCodeSequence;
+import com.roche.sequencing.bioinformatics.common.sequence.Strand;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.ParsedProbeFile;
+import com.roche.sequencing.bioinformatics.common.utils.probeinfo.Probe;
+
+public class ReadToProbeAssignmentResultsTest {
+
+	@Test(groups = { "unit" })
+	public void singleAndMultipleProbeAssignmentTest() {
+		ParsedProbeFile probes = new ParsedProbeFile();
+		Probe probe1 = createProbe("probe1", 1);
+		Probe probe2 = createProbe("probe2", 100);
+		Probe probe3 = createProbe("probe3", 200);
+		probes.addProbe("chr1", probe1);
+		probes.addProbe("chr1", probe2);
+		probes.addProbe("chr1", probe3);
+
+		ReadToProbeAssignmentResults results = new ReadToProbeAssignmentResults(10, probes, null);
+		results.put(2, Collections.singleton(probe1));
+		results.put(5, Collections.singleton(probe2));
+		results.put(5, Collections.singleton(probe2));
+		results.put(7, asSet(probe1, probe3));
+		results.put(7, Collections.singleton(probe2));
+		results.put(8, Collections.<Probe> emptySet());
+
+		Assert.assertFalse(results.containsKey(0));
+		Assert.assertFalse(results.containsKey(8));
+		Assert.assertNull(results.getAssignedProbes(8));
+		Assert.assertEquals(results.getAssignedProbes(2), asSet(probe1));
+		Assert.assertEquals(results.getAssignedProbes(5), asSet(probe2));
+		Assert.assertEquals(results.getAssignedProbes(7), asSet(probe1, probe2, probe3));
+
+		ReadToProbeAssignmentResults.ReadIndexIterator readIndexIter = results.getReadNames();
+		Assert.assertEquals(readIndexIter.nextInt(), 2);
+		Assert.assertEquals(readIndexIter.nextInt(), 5);
+		Assert.assertEquals(readIndexIter.nextInt(), 7);
+		Assert.assertFalse(readIndexIter.hasNext());
+
+		results.remove(7);
+		results.remove(2);
+		Assert.assertFalse(results.containsKey(7));
+		Assert.assertNull(results.getAssignedProbes(7));
+		results.put(7, Collections.singleton(probe3));
+		Assert.assertEquals(results.getAssignedProbes(7), asSet(probe3));
+
+		readIndexIter = results.getReadNames();
+		Assert.assertEquals(readIndexIter.nextInt(), 5);
+		Assert.assertEquals(readIndexIter.nextInt(), 7);
+		Assert.assertFalse(readIndexIter.hasNext());
+	}
+
+	@Test(groups = { "unit" }, expectedExceptions = IllegalStateException.class)
+	public void unknownProbeTest() {
+		ParsedProbeFile probes = new ParsedProbeFile();
+		probes.addProbe("chr1", createProbe("probe1", 1));
+		ReadToProbeAssignmentResults results = new ReadToProbeAssignmentResults(10, probes, null);
+		results.put(0, Collections.singleton(createProbe("probe2", 100)));
+	}
+
+	private static Probe createProbe(String probeId, int start) {
+		return new Probe(probeId, "chr1", start, start + 9, new IupacNucleotideCodeSequence("ACGTACGTAC"), start + 20, start + 29, new IupacNucleotideCodeSequence("ACGTACGTAC"), start + 10,
+				start + 19, new IupacNucleotideCodeSequence("ACGTACGTAC"), Strand.FORWARD, "");
+	}
+
+	private static Set<Probe> asSet(Probe... probes) {
+		Set<Probe> set = new HashSet<Probe>();
+		for (Probe probe : probes) {
+			set.add(probe);
+		}
+		return set;
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.heatseq.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.roche.heatseq.utils.BamSorter.CloseableAndIterableIterator;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class BamSorterTest {
+
+	@Test(groups = { "unit" })
+	public void multipleChunkSortTest() {
+		SAMFileHeader header = new SAMFileHeader();
+		SAMSequenceDictionary sequenceDictionary = new SAMSequenceDictionary();
+		sequenceDictionary.addSequence(new SAMSequenceRecord("chr1", 1000000));
+		sequenceDictionary.addSequence(new SAMSequenceRecord("chr2", 1000000));
+		header.setSequenceDictionary(sequenceDictionary);
+
+		Random random = new Random(0);
+		List<SAMRecord> records = new ArrayList<SAMRecord>();
+		for (int i = 0; i < 5000; i++) {
+			SAMRecord record = new SAMRecord(header);
+			record.setReadName("read" + i);
+			record.setReferenceIndex(random.nextInt(2));
+			// a narrow range of start locations so the chunks have many records at the same location
+			record.setAlignmentStart(1 + random.nextInt(200));
+			record.setReadString("ACGTACGTAC");
+			record.setBaseQualityString("IIIIIIIIII");
+			record.setCigarString("10M");
+			records.add(record);
+		}
+
+		// the sorter creates and deletes its own chunk directory within the temp directory
+		File tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+		SAMRecordCoordinateComparator comparator = new SAMRecordCoordinateComparator();
+		List<String> sortedReadNames = new ArrayList<String>();
+		// small chunks so the merge combines several dozen chunks
+		try (CloseableAndIterableIterator<SAMRecord> sortedIter = BamSorter.getSortedBamIterator(records.iterator(), header, tempDirectory, comparator, 50000)) {
+			SAMRecord previousRecord = null;
+			while (sortedIter.hasNext()) {
+				SAMRecord record = sortedIter.next();
+				if (previousRecord != null) {
+					Assert.assertTrue(comparator.compare(previousRecord, record) <= 0);
+				}
+				sortedReadNames.add(record.getReadName());
+				previousRecord = record;
+			}
+		}
+
+		Collections.sort(records, comparator);
+		List<String> expectedReadNames = new ArrayList<String>();
+		for (SAMRecord record : records) {
+			expectedReadNames.add(record.getReadName());
+		}
+		Assert.assertEquals(sortedReadNames, expectedReadNames);
+	}
+}
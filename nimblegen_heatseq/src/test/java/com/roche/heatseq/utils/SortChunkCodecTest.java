@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2016 Roche NimbleGen Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.roche.heatseq.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.fastq.FastqRecord;
+
+public class SortChunkCodecTest {
+
+	@Test(groups = { "unit" })
+	public void fastqRecordRoundTripTest() throws IOException {
+		FastqRecord[] records = new FastqRecord[] { new FastqRecord("M01077:35:000000000-A3J96:1:1102:13646:1640 1:N:0:1", "ACGTTGCAACGTA", "", "IIIIIHHHGGFF#"),
+				new FastqRecord("read_with_n", "ACGTNACGT", null, "IIIIIIIII"), new FastqRecord("empty_read", "", "empty_read", "") };
+
+		File chunkFile = File.createTempFile("sort_chunk_codec_test_", ".chunk");
+		try {
+			try (DataOutputStream outputStream = SortChunkCodec.openChunkOutputStream(chunkFile)) {
+				for (FastqRecord record : records) {
+					SortChunkCodec.writeFastqRecord(outputStream, record);
+				}
+			}
+			try (DataInputStream inputStream = SortChunkCodec.openChunkInputStream(chunkFile)) {
+				for (FastqRecord record : records) {
+					FastqRecord readRecord = SortChunkCodec.readFastqRecord(inputStream);
+					Assert.assertEquals(readRecord.getReadHeader(), record.getReadHeader());
+					Assert.assertEquals(readRecord.getReadString(), record.getReadString());
+					Assert.assertEquals(readRecord.getBaseQualityHeader(), record.getBaseQualityHeader());
+					Assert.assertEquals(readRecord.getBaseQualityString(), record.getBaseQualityString());
+				}
+			}
+		} finally {
+			chunkFile.delete();
+		}
+	}
+
+	@Test(groups = { "unit" })
+	public void namePrefixSortKeyTest() {
+		String[] names = new String[] { "", "a", "a\u0000", "ab", "abcdefgh", "abcdefghi", "abcdefgz", "b", "\u00ff", "\u0100", "\u00ff\u0001", "\u0100\u0001", "a\u00ff\u0000", "~" };
+		for (String name : names) {
+			for (String otherName : names) {
+				long key = SortChunkCodec.getNamePrefixSortKey(name);
+				long otherKey = SortChunkCodec.getNamePrefixSortKey(otherName);
+				if (key < otherKey) {
+					Assert.assertTrue(name.compareTo(otherName) < 0, name + " " + otherName);
+				}
+			}
+		}
+	}
+
+}